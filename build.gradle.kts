@@ -14,6 +14,7 @@ repositories {
 }
 
 val junitVersion = "5.12.1"
+val jmhVersion = "1.37"
 
 java {
     toolchain {
@@ -52,6 +53,63 @@ tasks.withType<Test> {
     useJUnitPlatform()
 }
 
+// JMH 벤치마크: src/jmh/java, 실행은 ./gradlew jmh (-PjmhArgs="..." 로 JMH 옵션 전달)
+sourceSets {
+    create("jmh") {
+        compileClasspath += sourceSets.main.get().output + sourceSets.main.get().compileClasspath
+        runtimeClasspath += sourceSets.main.get().output + sourceSets.main.get().runtimeClasspath
+    }
+}
+
+dependencies {
+    "jmhImplementation"("org.openjdk.jmh:jmh-core:${jmhVersion}")
+    "jmhAnnotationProcessor"("org.openjdk.jmh:jmh-generator-annprocess:${jmhVersion}")
+}
+
+tasks.register<JavaExec>("jmh") {
+    group = "benchmark"
+    description = "Runs the JMH benchmarks with the GC allocation profiler."
+    mainClass.set("org.openjdk.jmh.Main")
+    classpath = sourceSets["jmh"].runtimeClasspath
+    args = listOf("-prof", "gc") + (findProperty("jmhArgs")?.toString()?.split(" ")?.filter { it.isNotBlank() } ?: emptyList())
+}
+
+// 암호/메시지 경로만: ./gradlew jmhCrypto (CryptoUtils 각 연산 + 암호화-프레임/파싱-복호화 전체 경로, 16B~50MB)
+tasks.register<JavaExec>("jmhCrypto") {
+    group = "benchmark"
+    description = "Runs the CryptoUtils and message pipeline JMH benchmarks with the GC allocation profiler."
+    mainClass.set("org.openjdk.jmh.Main")
+    classpath = sourceSets["jmh"].runtimeClasspath
+    args = listOf("-prof", "gc", "CryptoPrimitivesBenchmark|CryptoApiBenchmark|MessagePipelineBenchmark|RatchetBenchmark|SenderKeyBenchmark") +
+            (findProperty("jmhArgs")?.toString()?.split(" ")?.filter { it.isNotBlank() } ?: emptyList())
+}
+
+// GUI 없는 릴레이 노드: ./gradlew runRelay -Pport=9000 -Dghostcat.cluster.node=a ... (ghostcat.* 속성은 그대로 전달)
+tasks.register<JavaExec>("runRelay") {
+    group = "application"
+    description = "Runs a headless relay server (cluster node)."
+    mainClass.set("me.duckmain.ghostcat.network.RelayMain")
+    classpath = sourceSets.main.get().runtimeClasspath
+    args = listOfNotNull(findProperty("port")?.toString())
+    systemProperties(System.getProperties().filterKeys { it.toString().startsWith("ghostcat.") }.mapKeys { it.key.toString() })
+}
+
+// GUI 없는 부하 생성기: src/loadgen/java, 실행은 ./gradlew loadgen -Dghostcat.load.users=1000 ... (ghostcat.* 속성은 그대로 전달)
+sourceSets {
+    create("loadgen") {
+        compileClasspath += sourceSets.main.get().output + sourceSets.main.get().compileClasspath
+        runtimeClasspath += sourceSets.main.get().output + sourceSets.main.get().runtimeClasspath
+    }
+}
+
+tasks.register<JavaExec>("loadgen") {
+    group = "benchmark"
+    description = "Drives simulated chat clients against a relay and reports throughput and latency."
+    mainClass.set("me.duckmain.ghostcat.loadgen.LoadGenerator")
+    classpath = sourceSets["loadgen"].runtimeClasspath
+    systemProperties(System.getProperties().filterKeys { it.toString().startsWith("ghostcat.") }.mapKeys { it.key.toString() })
+}
+
 jlink {
     imageZip.set(layout.buildDirectory.file("/distributions/app-${javafx.platform.classifier}.zip"))
     options.set(listOf("--strip-debug", "--compress", "2", "--no-header-files", "--no-man-pages"))
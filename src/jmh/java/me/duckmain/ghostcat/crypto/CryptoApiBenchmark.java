@@ -0,0 +1,167 @@
+package me.duckmain.ghostcat.crypto;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import javax.crypto.Cipher;
+import javax.crypto.KeyAgreement;
+import javax.crypto.Mac;
+import javax.crypto.SecretKey;
+import javax.crypto.spec.GCMParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+import java.nio.ByteBuffer;
+import java.security.KeyFactory;
+import java.security.KeyPair;
+import java.security.PublicKey;
+import java.security.spec.X509EncodedKeySpec;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 예전 CryptoUtils 방식 (호출마다 getInstance, generatePublic, 라운드마다 SecretKeySpec)과
+ * 스레드별 인스턴스 재사용 + ByteBuffer 제자리 API 비교. legacy* 메서드는 예전 구현을 그대로 옮겨 둔 기준선.
+ * AES-GCM은 암호화 + 복호화 한 번씩 (제자리 버퍼를 원래 평문으로 되돌리기 위해). -prof gc로 할당량을 같이 볼 것.
+ * <p>
+ * 재사용해도 남는 할당 (JDK 17, SunJCE, 16B 평문 암호화 한 번, 스레드 할당 카운터로 잰 값):
+ * CryptoUtils 약 1.1KB/op 중 GCMParameterSpec이 56B, 나머지는 Cipher.init/doFinal 내부 (GCM 상태, 결과 배열).
+ * 호출마다 SecretKeySpec을 만들던 때는 약 1.2KB/op. gcmSpecOnly는 IV마다 피할 수 없는 spec 비용만 따로 잼.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CryptoApiBenchmark {
+
+    @Param({"16", "1024", "65536", "1048576"})
+    int payloadBytes;
+
+    private byte[] plain;
+    private byte[] key;
+    private SecretKey secretKey;
+    private byte[] iv = new byte[12];
+    private final byte[] aad = {1, 2, 3, 4};
+    private ByteBuffer heap;
+    private ByteBuffer direct;
+    private byte[] peerStatic;
+    private KeyPair eph;
+    private byte[] ikm;
+
+    @Setup
+    public void setup() throws Exception {
+        CryptoUtils.generateStaticKeypair();
+        peerStatic = CryptoUtils.getStaticPublic();
+        eph = CryptoUtils.generateEphemeral();
+        plain = new byte[payloadBytes];
+        new Random(1).nextBytes(plain);
+        ikm = CryptoUtils.sharedEphemeralStatic(eph.getPrivate(), peerStatic);
+        key = CryptoUtils.hkdf(ikm, null, 32);
+        secretKey = CryptoUtils.aesKey(key);
+        heap = ByteBuffer.allocate(payloadBytes + CryptoUtils.GCM_TAG_BYTES);
+        heap.put(plain).flip();
+        direct = ByteBuffer.allocateDirect(payloadBytes + CryptoUtils.GCM_TAG_BYTES);
+        direct.put(plain).flip();
+    }
+
+    // 같은 키로 같은 IV를 다시 쓰지 않도록 (스레드별 Cipher가 거부함)
+    private byte[] nextIv() {
+        for (int i = 0; i < iv.length && ++iv[i] == 0; i++) {}
+        return iv;
+    }
+
+    @Benchmark
+    public byte[] legacyGcmRoundTrip() throws Exception {
+        byte[] nonce = nextIv();
+        Cipher c = Cipher.getInstance("AES/GCM/NoPadding");
+        c.init(Cipher.ENCRYPT_MODE, new SecretKeySpec(key, "AES"), new GCMParameterSpec(128, nonce));
+        c.updateAAD(aad);
+        byte[] ct = c.doFinal(plain, 0, plain.length);
+        Cipher d = Cipher.getInstance("AES/GCM/NoPadding");
+        d.init(Cipher.DECRYPT_MODE, new SecretKeySpec(key, "AES"), new GCMParameterSpec(128, nonce));
+        d.updateAAD(aad);
+        return d.doFinal(ct, 0, ct.length);
+    }
+
+    @Benchmark
+    public byte[] pooledGcmRoundTrip() throws Exception {
+        byte[] nonce = nextIv();
+        byte[] ct = CryptoUtils.encryptAESGCM(plain, 0, plain.length, key, nonce, aad);
+        return CryptoUtils.decryptAESGCM(ct, 0, ct.length, key, nonce, aad);
+    }
+
+    // JCE는 초기화된 Cipher의 IV만 바꿀 수 없어서 GCM init마다 새로 만드는 spec
+    @Benchmark
+    public GCMParameterSpec gcmSpecOnly() {
+        return new GCMParameterSpec(128, nextIv());
+    }
+
+    @Benchmark
+    public int heapInPlaceRoundTrip() throws Exception {
+        return inPlace(heap);
+    }
+
+    @Benchmark
+    public int directInPlaceRoundTrip() throws Exception {
+        return inPlace(direct);
+    }
+
+    private int inPlace(ByteBuffer buf) throws Exception {
+        byte[] nonce = nextIv();
+        buf.clear().limit(payloadBytes);
+        CryptoUtils.encryptAESGCM(buf, secretKey, nonce, aad);
+        return CryptoUtils.decryptAESGCM(buf, secretKey, nonce, aad);
+    }
+
+    @Benchmark
+    public byte[] legacyAgreement() throws Exception {
+        KeyFactory kf = KeyFactory.getInstance("X25519");
+        PublicKey peerPub = kf.generatePublic(new X509EncodedKeySpec(peerStatic));
+        KeyAgreement ka = KeyAgreement.getInstance("X25519");
+        ka.init(eph.getPrivate());
+        ka.doPhase(peerPub, true);
+        return ka.generateSecret();
+    }
+
+    @Benchmark
+    public byte[] cachedAgreement() throws Exception {
+        return CryptoUtils.sharedEphemeralStatic(eph.getPrivate(), peerStatic);
+    }
+
+    @Benchmark
+    public byte[] legacyHkdf() throws Exception {
+        Mac hmac = Mac.getInstance("HmacSHA256");
+        hmac.init(new SecretKeySpec(new byte[32], "HmacSHA256"));
+        byte[] prk = hmac.doFinal(ikm);
+        byte[] okm = new byte[32];
+        byte[] t = new byte[0];
+        int loc = 0;
+        int counter = 1;
+        while (loc < okm.length) {
+            hmac.reset();
+            hmac.init(new SecretKeySpec(prk, "HmacSHA256"));
+            hmac.update(t);
+            hmac.update((byte) counter);
+            t = hmac.doFinal();
+            int copy = Math.min(t.length, okm.length - loc);
+            System.arraycopy(t, 0, okm, loc, copy);
+            loc += copy;
+            counter++;
+        }
+        return okm;
+    }
+
+    @Benchmark
+    public byte[] pooledHkdf() throws Exception {
+        return CryptoUtils.hkdf(ikm, null, 32);
+    }
+}
@@ -0,0 +1,119 @@
+package me.duckmain.ghostcat.crypto;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.security.KeyPair;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 메시지 하나마다 부르는 CryptoUtils 연산을 하나씩 잼.
+ * 송신: generateEphemeral -> sharedEphemeralStatic -> hkdf -> randomIV -> encryptAESGCM -> Base64 x3
+ * 수신: Base64 디코드 -> sharedStaticEphemeral -> hkdf -> decryptAESGCM
+ * 키 관련 연산은 본문 크기와 무관하고, 크기에 따라 늘어나는 AES-GCM/Base64는 payloadBytes로 16B~50MB를 봄.
+ * ./gradlew jmhCrypto (-prof gc 포함, gc.alloc.rate.norm이 op당 할당 바이트)
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Xmx2g")
+public class CryptoPrimitivesBenchmark {
+
+    private byte[] peerStatic;
+    private KeyPair ephemeral;
+    private byte[] ephemeralPublic;
+    private byte[] shared;
+
+    @Setup
+    public void setup() throws Exception {
+        CryptoUtils.generateStaticKeypair();
+        peerStatic = CryptoUtils.getStaticPublic(); // 자기 자신에게 보내는 것과 같음 (연산량은 동일)
+        ephemeral = CryptoUtils.generateEphemeral();
+        ephemeralPublic = ephemeral.getPublic().getEncoded();
+        shared = CryptoUtils.sharedEphemeralStatic(ephemeral.getPrivate(), peerStatic);
+    }
+
+    @Benchmark
+    public KeyPair generateEphemeral() throws Exception {
+        return CryptoUtils.generateEphemeral();
+    }
+
+    @Benchmark
+    public byte[] sharedEphemeralStatic() throws Exception {
+        return CryptoUtils.sharedEphemeralStatic(ephemeral.getPrivate(), peerStatic);
+    }
+
+    @Benchmark
+    public byte[] sharedStaticEphemeral() throws Exception {
+        return CryptoUtils.sharedStaticEphemeral(ephemeralPublic);
+    }
+
+    @Benchmark
+    public byte[] hkdf() throws Exception {
+        return CryptoUtils.hkdf(shared, null, 32);
+    }
+
+    @Benchmark
+    public byte[] randomIV() {
+        return CryptoUtils.randomIV();
+    }
+
+    // 본문 크기에 따라 늘어나는 연산
+    @State(Scope.Benchmark)
+    public static class Payload {
+        @Param({"16", "1024", "65536", "1048576", "52428800"})
+        int payloadBytes;
+
+        String plain;
+        byte[] key;
+        byte[] iv;
+        byte[] encryptIv = new byte[12]; // 스레드별 Cipher는 같은 키+IV로 다시 암호화하는 것을 거부하므로 매번 바꿈
+        byte[] ciphertext;
+        String ciphertextB64;
+
+        @Setup
+        public void setup() throws Exception {
+            char[] chars = new char[payloadBytes];
+            Arrays.fill(chars, 'a');
+            plain = new String(chars);
+            key = CryptoUtils.hkdf(new byte[32], null, 32);
+            iv = CryptoUtils.randomIV();
+            ciphertext = CryptoUtils.encryptAESGCM(plain, key, iv);
+            ciphertextB64 = Base64.getEncoder().encodeToString(ciphertext);
+        }
+    }
+
+    @Benchmark
+    public byte[] encryptAESGCM(Payload p) throws Exception {
+        for (int i = 0; i < p.encryptIv.length && ++p.encryptIv[i] == 0; i++) {}
+        return CryptoUtils.encryptAESGCM(p.plain, p.key, p.encryptIv);
+    }
+
+    @Benchmark
+    public String decryptAESGCM(Payload p) throws Exception {
+        return CryptoUtils.decryptAESGCM(p.ciphertext, p.key, p.iv);
+    }
+
+    @Benchmark
+    public String base64Encode(Payload p) {
+        return Base64.getEncoder().encodeToString(p.ciphertext);
+    }
+
+    @Benchmark
+    public byte[] base64Decode(Payload p) {
+        return Base64.getDecoder().decode(p.ciphertextB64);
+    }
+}
@@ -0,0 +1,73 @@
+package me.duckmain.ghostcat.crypto;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.security.KeyPair;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 메시지 한 통 암호화 + 복호화: 메시지별 ephemeral (기존) vs RatchetSessions (에포크당 DH 한 번).
+ * 래칫 쪽은 기본 maxMessages(1000)마다 새 에포크라서 DH 비용이 1/1000로 섞여 들어감.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RatchetBenchmark {
+
+    @Param({"16", "1024"})
+    int payloadBytes;
+
+    private byte[] plain;
+    private byte[] peerStatic;
+    private RatchetSessions sender;
+    private RatchetSessions receiver;
+
+    @Setup
+    public void setup() throws Exception {
+        CryptoUtils.generateStaticKeypair();
+        peerStatic = CryptoUtils.getStaticPublic();
+        plain = new byte[payloadBytes];
+        Arrays.fill(plain, (byte) 'a');
+        sender = new RatchetSessions();
+        receiver = new RatchetSessions();
+        sender.onPeerCaps("bob", sender.capsField());
+        receiver.onPeerCaps("alice", receiver.capsField());
+    }
+
+    @Benchmark
+    public byte[] perMessageEphemeral() throws Exception {
+        KeyPair eph = CryptoUtils.generateEphemeral();
+        byte[] key = CryptoUtils.hkdf(CryptoUtils.sharedEphemeralStatic(eph.getPrivate(), peerStatic), null, 32);
+        byte[] iv = CryptoUtils.randomIV();
+        byte[] ct = CryptoUtils.encryptAESGCM(plain, 0, plain.length, key, iv, null);
+        String payload = Base64.getEncoder().encodeToString(eph.getPublic().getEncoded()) + ":" +
+                Base64.getEncoder().encodeToString(iv) + ":" +
+                Base64.getEncoder().encodeToString(ct);
+
+        String[] pcs = payload.split(":", 3);
+        byte[] shared = CryptoUtils.sharedStaticEphemeral(Base64.getDecoder().decode(pcs[0]));
+        byte[] ct2 = Base64.getDecoder().decode(pcs[2]);
+        return CryptoUtils.decryptAESGCM(ct2, 0, ct2.length, CryptoUtils.hkdf(shared, null, 32),
+                Base64.getDecoder().decode(pcs[1]), null);
+    }
+
+    @Benchmark
+    public byte[] ratchet() throws Exception {
+        return receiver.decrypt("alice", sender.encrypt("bob", peerStatic, plain, null)).data();
+    }
+}
@@ -0,0 +1,76 @@
+package me.duckmain.ghostcat.crypto;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * room 메시지 한 통을 보내는 쪽 비용: 멤버마다 래칫으로 암호화 (기존) vs sender key로 한 번 암호화.
+ * 키 배포는 멤버가 바뀔 때만 일어나므로 여기에는 넣지 않음.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SenderKeyBenchmark {
+
+    @Param({"4", "32"})
+    int members;
+
+    @Param({"1024"})
+    int payloadBytes;
+
+    private byte[] plain;
+    private byte[] peerStatic;
+    private final List<String> names = new ArrayList<>();
+    private RatchetSessions ratchets;
+    private SenderKeys groups;
+
+    @Setup
+    public void setup() throws Exception {
+        CryptoUtils.generateStaticKeypair();
+        peerStatic = CryptoUtils.getStaticPublic();
+        plain = new byte[payloadBytes];
+        Arrays.fill(plain, (byte) 'a');
+        ratchets = new RatchetSessions();
+        groups = new SenderKeys();
+        StringBuilder list = new StringBuilder("me");
+        for (int i = 0; i < members; i++) {
+            String m = "m" + i;
+            names.add(m);
+            list.append(',').append(m);
+            ratchets.onPeerCaps(m, ratchets.capsField());
+            groups.onPeerCaps(m, groups.capsField());
+        }
+        groups.onRoom("#bench", "me", "=" + list);
+        SenderKeys.Distribution dist = groups.distribution("#bench");
+        for (String m : dist.recipients()) groups.distributed(m, dist.plain());
+    }
+
+    @Benchmark
+    public int pairwiseRatchet() throws Exception {
+        int len = 0;
+        for (String m : names) len += ratchets.encrypt(m, peerStatic, plain, null).length();
+        return len;
+    }
+
+    @Benchmark
+    public int senderKey() throws Exception {
+        return groups.encrypt("#bench", "me", plain).length();
+    }
+}
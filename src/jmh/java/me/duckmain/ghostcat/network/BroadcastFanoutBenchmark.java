@@ -0,0 +1,98 @@
+package me.duckmain.ghostcat.network;
+
+import me.duckmain.ghostcat.metrics.ServerMetrics;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * '*' 브로드캐스트 한 번의 비용. -prof gc의 gc.alloc.rate.norm(바이트/op) 기준으로
+ * relayBroadcast는 본문을 한 번만 인코딩하므로 수신자당 고정 크기 뷰만 늘고,
+ * perRecipientEncode(기존 방식)는 본문 크기 × 수신자 수로 늘어남.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class BroadcastFanoutBenchmark {
+
+    @Param({"10", "100", "1000"})
+    int recipients;
+
+    @Param({"1024", "65536"})
+    int payloadBytes;
+
+    @Param({"false", "true"})
+    boolean binary;
+
+    private Relay relay;
+    private Connection sender;
+    private final List<Connection> members = new ArrayList<>();
+    private Frame frame;
+
+    @Setup
+    public void setup() {
+        ServerMetrics metrics = new ServerMetrics();
+        relay = new Relay(() -> {}, metrics);
+        OutboundQueue.Config cfg = new OutboundQueue.Config(16, OutboundQueue.OverflowPolicy.DROP_OLDEST, 0);
+        sender = new DiscardConnection(cfg, metrics);
+        relay.handle(sender, Frame.of(FrameType.REGISTER, "sender", "", "pub"));
+        for (int i = 0; i < recipients; i++) {
+            Connection c = new DiscardConnection(cfg, metrics);
+            String offer = binary ? "pub|" + FrameCodec.BINARY_OFFER : "pub";
+            relay.handle(c, Frame.of(FrameType.REGISTER, "peer" + i, "", offer));
+            members.add(c);
+        }
+        byte[] body = new byte[payloadBytes];
+        Arrays.fill(body, (byte) 'A');
+        frame = new Frame(FrameType.MSG, "sender", "*", body);
+    }
+
+    @Benchmark
+    public void relayBroadcast() {
+        relay.handle(sender, frame);
+    }
+
+    @Benchmark
+    public void perRecipientEncode() {
+        for (Connection c : members) c.send(frame);
+    }
+
+    // 큐에 들어오는 즉시 버리는 연결 (소켓 I/O 제외하고 릴레이 비용만 측정)
+    private static final class DiscardConnection extends Connection {
+        DiscardConnection(OutboundQueue.Config cfg, ServerMetrics metrics) {
+            super(cfg, metrics);
+        }
+
+        @Override
+        void onEnqueued() {
+            ByteBuffer b;
+            while ((b = outbound.poll()) != null) b.position(b.limit());
+        }
+
+        @Override
+        String describe() {
+            return "discard";
+        }
+
+        @Override
+        void closeSafe() {}
+    }
+}
@@ -0,0 +1,86 @@
+package me.duckmain.ghostcat.network;
+
+import me.duckmain.ghostcat.crypto.CryptoUtils;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.ByteArrayInputStream;
+import java.nio.ByteBuffer;
+import java.security.KeyPair;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 메시지 한 통의 클라이언트 쪽 전체 경로.
+ * encryptAndFrame: ChatController.onSendClick과 같은 순서로 암호화 + Base64 3개 + 프레임 인코딩 (소켓에 쓰기 직전까지)
+ * parseAndDecrypt: 받은 바이트에서 프레임 읽기 + handleMessage와 같은 split/디코드/복호화
+ * 기준선 용도라서 CryptoUtils의 현재 API를 그대로 부름. -prof gc와 같이 돌려서 op당 할당량을 같이 볼 것.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Xmx2g")
+public class MessagePipelineBenchmark {
+
+    @Param({"16", "1024", "65536", "1048576", "52428800"})
+    int payloadBytes;
+
+    @Param({"true", "false"})
+    boolean binary;
+
+    private String plain;
+    private byte[] peerStatic;
+    private byte[] wire; // encryptAndFrame 결과 한 통
+
+    @Setup
+    public void setup() throws Exception {
+        CryptoUtils.generateStaticKeypair();
+        peerStatic = CryptoUtils.getStaticPublic();
+        char[] chars = new char[payloadBytes];
+        Arrays.fill(chars, 'a');
+        plain = new String(chars);
+        ByteBuffer b = encryptAndFrame();
+        wire = Arrays.copyOfRange(b.array(), b.arrayOffset() + b.position(), b.arrayOffset() + b.limit());
+    }
+
+    @Benchmark
+    public ByteBuffer encryptAndFrame() throws Exception {
+        KeyPair eph = CryptoUtils.generateEphemeral();
+        byte[] shared = CryptoUtils.sharedEphemeralStatic(eph.getPrivate(), peerStatic);
+        byte[] key = CryptoUtils.hkdf(shared, null, 32);
+        byte[] iv = CryptoUtils.randomIV();
+        byte[] ct = CryptoUtils.encryptAESGCM(plain, key, iv);
+
+        String payload = Base64.getEncoder().encodeToString(eph.getPublic().getEncoded()) + ":" +
+                Base64.getEncoder().encodeToString(iv) + ":" +
+                Base64.getEncoder().encodeToString(ct);
+        Frame f = Frame.of(FrameType.MSG, "alice", "bob", payload);
+        return binary ? FrameCodec.encodeBinary(f) : FrameCodec.encodeText(f);
+    }
+
+    @Benchmark
+    public String parseAndDecrypt() throws Exception {
+        Frame f = new FrameReader(new ByteArrayInputStream(wire)).next();
+        String[] pcs = f.bodyText().split(":", 3);
+        byte[] ephPub = Base64.getDecoder().decode(pcs[0]);
+        byte[] iv = Base64.getDecoder().decode(pcs[1]);
+        byte[] ct = Base64.getDecoder().decode(pcs[2]);
+
+        byte[] shared = CryptoUtils.sharedStaticEphemeral(ephPub);
+        byte[] key = CryptoUtils.hkdf(shared, null, 32);
+        return CryptoUtils.decryptAESGCM(ct, key, iv);
+    }
+}
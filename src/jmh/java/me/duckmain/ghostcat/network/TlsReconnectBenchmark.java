@@ -0,0 +1,118 @@
+package me.duckmain.ghostcat.network;
+
+import me.duckmain.ghostcat.metrics.ServerMetrics;
+import me.duckmain.ghostcat.tls.SSLUtil;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import javax.net.ssl.SSLSocket;
+import javax.net.ssl.SSLSocketFactory;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 재접속 한 번의 비용: TCP 연결 + TLS 핸드셰이크 + REGISTER -> SNAPSHOT 왕복.
+ * full은 연결마다 새 클라이언트 컨텍스트 (기존 동작), resumed는 스레드(= 클라이언트 하나)마다 컨텍스트를 유지해서
+ * 세션 티켓으로 재개함. TLS 1.3 티켓은 한 번 쓰면 클라이언트 캐시에서 빠지므로 스레드끼리 나눠 쓰지 않음.
+ * 여러 스레드로 돌리면 재접속 폭주가 되고, 끝날 때 서버 쪽 전체/재개 핸드셰이크 p50과 op당 프로세스 CPU를 출력함.
+ * -Dghostcat.bench.target=host:port 를 주면 별도 프로세스 릴레이에 붙음
+ * (그때 서버 CPU는 그 서버 /metrics의 ghostcat_process_cpu_seconds_total로 봄).
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Threads(8)
+@Fork(1)
+public class TlsReconnectBenchmark {
+
+    @Param({"full", "resumed"})
+    String mode;
+
+    private RelayServer server;
+    private Socket anchor; // 마지막 클라이언트가 나가면 서버가 꺼지므로 계속 붙어 있는 연결 하나
+    private InetSocketAddress target;
+    private final AtomicLong reconnects = new AtomicLong();
+    private double cpuAtStart;
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        String external = System.getProperty("ghostcat.bench.target");
+        if (external != null) {
+            int colon = external.lastIndexOf(':');
+            target = new InetSocketAddress(external.substring(0, colon), Integer.parseInt(external.substring(colon + 1)));
+        } else {
+            server = new NioChatServer(0, false, 0);
+            server.start();
+            target = new InetSocketAddress("127.0.0.1", server.waitForPort());
+        }
+        anchor = connect(SSLUtil.trustAllFactory(), "bench-anchor");
+        reconnects.set(0);
+        if (server != null) cpuAtStart = server.metrics().getProcessCpuSeconds();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        anchor.close();
+        if (server == null) return;
+        ServerMetrics m = server.metrics();
+        long n = Math.max(1, reconnects.get());
+        System.out.printf("%n[%s] handshakes full=%d (p50 %dus) resumed=%d (p50 %dus), process CPU %.1fus/reconnect%n",
+                mode, m.getFullHandshakes(), m.getFullHandshakeP50Micros(),
+                m.getResumedHandshakes(), m.getResumedHandshakeP50Micros(),
+                (m.getProcessCpuSeconds() - cpuAtStart) * 1e6 / n);
+        server.stopServer();
+    }
+
+    @State(Scope.Thread)
+    public static class Client {
+        SSLSocketFactory cached;
+
+        @Setup(Level.Trial)
+        public void setup() throws Exception {
+            cached = SSLUtil.newTrustAllContext().getSocketFactory();
+        }
+    }
+
+    @Benchmark
+    public void reconnect(Client client) throws Exception {
+        SSLSocketFactory factory = "full".equals(mode)
+                ? SSLUtil.newTrustAllContext().getSocketFactory()
+                : client.cached;
+        try (Socket s = connect(factory, "bench-" + Thread.currentThread().threadId())) {
+            reconnects.incrementAndGet();
+        }
+    }
+
+    private Socket connect(SSLSocketFactory factory, String nick) throws Exception {
+        Socket plain = new Socket();
+        plain.connect(target, 4000);
+        SSLSocket s = (SSLSocket) factory.createSocket(plain, target.getHostString(), target.getPort(), true);
+        s.startHandshake();
+        OutputStream out = s.getOutputStream();
+        ByteBuffer register = FrameCodec.encodeText(Frame.of(FrameType.REGISTER, nick, "", "pub|" + Presence.OFFER));
+        out.write(register.array(), register.arrayOffset() + register.position(), register.remaining());
+        out.flush();
+        // SNAPSHOT을 읽는 동안 서버가 보낸 세션 티켓도 처리됨
+        new FrameReader(s.getInputStream()).next();
+        return s;
+    }
+}
@@ -0,0 +1,193 @@
+package me.duckmain.ghostcat.loadgen;
+
+import me.duckmain.ghostcat.crypto.CryptoUtils;
+import me.duckmain.ghostcat.network.QueueStats;
+import me.duckmain.ghostcat.network.RelayServer;
+import me.duckmain.ghostcat.tls.SSLUtil;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * GUI 없는 부하 생성기: 가상 사용자 N명이 REGISTER -> KEY 교환 -> 암호화된 MSG / 파일 / '*' 브로드캐스트를 보냄.
+ * 끝나면 처리량, 종단 간 지연 p50/p99/p999, 오류 수를 출력함.
+ * <pre>
+ * ./gradlew loadgen -Dghostcat.load.users=1000 -Dghostcat.load.seconds=60
+ * ./gradlew loadgen -Dghostcat.server=blocking      (같은 조건으로 서버 구현 비교)
+ * ./gradlew loadgen -Dghostcat.load.target=host:port (이미 떠 있는 릴레이에 붙음, 브로드캐스트를 켠 서버여야 함)
+ * </pre>
+ * target이 없으면 같은 프로세스에 브로드캐스트를 켠 RelayServer를 띄움.
+ */
+public final class LoadGenerator {
+    private LoadGenerator() {}
+
+    /**
+     * @param users            가상 사용자 수 (-Dghostcat.load.users, 기본 200)
+     * @param partners         사용자마다 키를 교환하고 메시지를 보낼 상대 수 (-Dghostcat.load.partners, 기본 4)
+     * @param messageRate      사용자당 초당 1:1 메시지 (-Dghostcat.load.msgRate, 기본 1.0)
+     * @param broadcastRate    사용자당 초당 '*' 브로드캐스트 (-Dghostcat.load.broadcastRate, 기본 0.01)
+     * @param fileRate         사용자당 초당 파일 전송 시작 (-Dghostcat.load.fileRate, 기본 0.005)
+     * @param sizes            메시지 평문 크기 분포 "바이트:비중,..." (-Dghostcat.load.sizes, 기본 64:70,1024:25,16384:5)
+     * @param fileBytes        파일 크기 (-Dghostcat.load.fileBytes, 기본 262144)
+     * @param chunkSize        파일 청크 크기 (-Dghostcat.load.chunk, 기본 65536)
+     * @param connectPerSecond 접속 속도 (-Dghostcat.load.connectPerSecond, 기본 200)
+     * @param warmupSeconds    측정 전 워밍업 (-Dghostcat.load.warmup, 기본 5)
+     * @param seconds          측정 시간 (-Dghostcat.load.seconds, 기본 30)
+     * @param target           "host:port" 또는 null (-Dghostcat.load.target)
+     */
+    record Config(int users, int partners, double messageRate, double broadcastRate, double fileRate,
+                  SizeMix sizes, int fileBytes, int chunkSize, int connectPerSecond,
+                  int warmupSeconds, int seconds, String target) {
+        static Config fromSystemProperties() {
+            return new Config(
+                    Integer.getInteger("ghostcat.load.users", 200),
+                    Integer.getInteger("ghostcat.load.partners", 4),
+                    doubleProperty("ghostcat.load.msgRate", 1.0),
+                    doubleProperty("ghostcat.load.broadcastRate", 0.01),
+                    doubleProperty("ghostcat.load.fileRate", 0.005),
+                    SizeMix.parse(System.getProperty("ghostcat.load.sizes", "64:70,1024:25,16384:5")),
+                    Integer.getInteger("ghostcat.load.fileBytes", 256 * 1024),
+                    Integer.getInteger("ghostcat.load.chunk", 64 * 1024),
+                    Integer.getInteger("ghostcat.load.connectPerSecond", 200),
+                    Integer.getInteger("ghostcat.load.warmup", 5),
+                    Integer.getInteger("ghostcat.load.seconds", 30),
+                    System.getProperty("ghostcat.load.target"));
+        }
+
+        private static double doubleProperty(String name, double def) {
+            String v = System.getProperty(name);
+            return v == null ? def : Double.parseDouble(v);
+        }
+    }
+
+    // 가중치 있는 크기 분포
+    record SizeMix(int[] sizes, int[] cumulative) {
+        static SizeMix parse(String spec) {
+            String[] parts = spec.split(",");
+            int[] sizes = new int[parts.length];
+            int[] cumulative = new int[parts.length];
+            int total = 0;
+            for (int i = 0; i < parts.length; i++) {
+                String[] p = parts[i].trim().split(":");
+                sizes[i] = Integer.parseInt(p[0]);
+                total += p.length > 1 ? Integer.parseInt(p[1]) : 1;
+                cumulative[i] = total;
+            }
+            return new SizeMix(sizes, cumulative);
+        }
+
+        int pick(Random rnd) {
+            int r = rnd.nextInt(cumulative[cumulative.length - 1]);
+            for (int i = 0; i < cumulative.length; i++) {
+                if (r < cumulative[i]) return sizes[i];
+            }
+            return sizes[sizes.length - 1];
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        Config config = Config.fromSystemProperties();
+        RelayServer server = null;
+        String host;
+        int port;
+        if (config.target() == null) {
+            SSLUtil.prepareServerContext();
+            server = RelayServer.create(0, true);
+            server.start();
+            host = "127.0.0.1";
+            port = server.waitForPort();
+        } else {
+            int colon = config.target().lastIndexOf(':');
+            host = config.target().substring(0, colon);
+            port = Integer.parseInt(config.target().substring(colon + 1));
+        }
+        String label = (server == null ? config.target() : System.getProperty("ghostcat.server", "nio") + " (in-process)")
+                + ", " + config.users() + " users";
+
+        CryptoUtils.generateStaticKeypair();
+        String pubB64 = Base64.getEncoder().encodeToString(CryptoUtils.getStaticPublic());
+        LoadStats stats = new LoadStats();
+        Path file = config.fileRate() > 0 ? randomFile(config.fileBytes()) : null;
+
+        // 같은 릴레이에 여러 번 돌려도 닉네임이 겹치지 않게
+        String run = Integer.toString(ThreadLocalRandom.current().nextInt(1 << 20), 36);
+        int n = config.users();
+        int partners = Math.min(config.partners(), n - 1);
+        List<SimulatedUser> users = new ArrayList<>(n);
+        for (int i = 0; i < n; i++) {
+            List<String> mine = new ArrayList<>(partners);
+            for (int j = 1; j <= partners; j++) mine.add(nick(run, (i + j) % n));
+            users.add(new SimulatedUser(nick(run, i), mine, config, stats));
+        }
+
+        System.out.printf("Connecting %d users to %s:%d ...%n", n, host, port);
+        List<SimulatedUser> connected = new ArrayList<>(n);
+        long connectStart = System.nanoTime();
+        long perConnectNanos = TimeUnit.SECONDS.toNanos(1) / Math.max(1, config.connectPerSecond());
+        for (int i = 0; i < n; i++) {
+            long due = connectStart + i * perConnectNanos;
+            long wait = due - System.nanoTime();
+            if (wait > 0) TimeUnit.NANOSECONDS.sleep(wait);
+            try {
+                users.get(i).connect(host, port, pubB64);
+                connected.add(users.get(i));
+            } catch (Exception e) {
+                stats.connectFailures.increment();
+            }
+        }
+
+        // 모두 REGISTER한 뒤에 KEY를 보내야 오프라인으로 버려지지 않음
+        Thread.sleep(500);
+        for (SimulatedUser u : connected) u.requestKeys(pubB64);
+        long keyDeadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (System.nanoTime() < keyDeadline && !connected.stream().allMatch(SimulatedUser::keysComplete)) {
+            Thread.sleep(50);
+        }
+        for (SimulatedUser u : connected) stats.keyTimeouts.add(u.missingKeys());
+
+        for (SimulatedUser u : connected) u.startSending(file);
+        System.out.printf("Warmup %ds, measuring %ds ...%n", config.warmupSeconds(), config.seconds());
+        Thread.sleep(TimeUnit.SECONDS.toMillis(config.warmupSeconds()));
+        stats.start();
+        Thread.sleep(TimeUnit.SECONDS.toMillis(config.seconds()));
+        for (SimulatedUser u : connected) u.stopSending();
+        Thread.sleep(1000); // 보낸 것이 도착할 시간
+        stats.stop();
+
+        stats.print(System.out, label);
+        if (server != null) {
+            System.out.printf("server     frames dropped %,d%n",
+                    server.queueStats().stream().mapToLong(QueueStats::dropped).sum());
+        }
+
+        for (SimulatedUser u : connected) u.close();
+        if (server != null) server.stopServer();
+        if (file != null) Files.deleteIfExists(file);
+        System.exit(stats.errors() == 0 ? 0 : 1);
+    }
+
+    private static String nick(String run, int i) {
+        return "lg" + run + "-" + i;
+    }
+
+    private static Path randomFile(int size) throws IOException {
+        Path file = Files.createTempFile("ghostcat-load", ".bin");
+        byte[] buf = new byte[8192];
+        Random rnd = new Random(42);
+        try (OutputStream out = Files.newOutputStream(file)) {
+            for (int left = size; left > 0; left -= buf.length) {
+                rnd.nextBytes(buf);
+                out.write(buf, 0, Math.min(buf.length, left));
+            }
+        }
+        return file;
+    }
+}
@@ -0,0 +1,83 @@
+package me.duckmain.ghostcat.loadgen;
+
+import me.duckmain.ghostcat.metrics.Histogram;
+
+import java.io.PrintStream;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 부하 생성기 전체 집계. 지연은 보낸 쪽이 평문에 넣은 System.nanoTime()을 받은 쪽이 복호화한 뒤 잰 값이라서
+ * 암호화 + 릴레이 + 복호화까지 포함한 종단 간 지연임 (송수신 클라이언트가 같은 JVM이라 시계가 같음).
+ * warmup 동안은 세지 않음.
+ */
+final class LoadStats {
+    final Histogram messageLatency = new Histogram();
+    final Histogram broadcastLatency = new Histogram();
+    final Histogram fileLatency = new Histogram(); // FSTART부터 완료 FACK까지
+
+    final LongAdder messagesSent = new LongAdder();
+    final LongAdder messagesReceived = new LongAdder();
+    final LongAdder broadcastsSent = new LongAdder();
+    final LongAdder broadcastsReceived = new LongAdder();
+    final LongAdder filesSent = new LongAdder();
+    final LongAdder filesReceived = new LongAdder();
+    final LongAdder payloadBytesSent = new LongAdder();
+    final LongAdder payloadBytesReceived = new LongAdder();
+
+    final LongAdder connectFailures = new LongAdder();
+    final LongAdder keyTimeouts = new LongAdder();
+    final LongAdder sendFailures = new LongAdder();
+    final LongAdder decryptFailures = new LongAdder();
+    final LongAdder fileFailures = new LongAdder();
+    final LongAdder disconnects = new LongAdder();
+
+    private volatile boolean recording;
+    private long startNanos;
+    private long stopNanos;
+
+    boolean recording() {
+        return recording;
+    }
+
+    void start() {
+        startNanos = System.nanoTime();
+        recording = true;
+    }
+
+    void stop() {
+        recording = false;
+        stopNanos = System.nanoTime();
+    }
+
+    long errors() {
+        return connectFailures.sum() + keyTimeouts.sum() + sendFailures.sum() + decryptFailures.sum()
+                + fileFailures.sum() + disconnects.sum();
+    }
+
+    void print(PrintStream out, String label) {
+        double seconds = Math.max(1e-9, (stopNanos - startNanos) / 1e9);
+        out.printf("%n== %s (%.1fs measured)%n", label, seconds);
+        out.printf("messages   sent %,d  received %,d  (%,.0f/s)%n",
+                messagesSent.sum(), messagesReceived.sum(), messagesReceived.sum() / seconds);
+        out.printf("broadcasts sent %,d  deliveries %,d  (%,.0f/s)%n",
+                broadcastsSent.sum(), broadcastsReceived.sum(), broadcastsReceived.sum() / seconds);
+        out.printf("files      sent %,d  received %,d%n", filesSent.sum(), filesReceived.sum());
+        out.printf("payload    out %,.1f MiB/s  in %,.1f MiB/s%n",
+                payloadBytesSent.sum() / seconds / (1 << 20), payloadBytesReceived.sum() / seconds / (1 << 20));
+        latency(out, "msg latency", messageLatency);
+        latency(out, "bcast latency", broadcastLatency);
+        latency(out, "file latency", fileLatency);
+        out.printf("errors     %,d (connect %d, key timeout %d, send %d, decrypt %d, file %d, disconnect %d)%n",
+                errors(), connectFailures.sum(), keyTimeouts.sum(), sendFailures.sum(), decryptFailures.sum(),
+                fileFailures.sum(), disconnects.sum());
+    }
+
+    // 히스토그램 버킷이 2의 거듭제곱이라 백분위는 버킷 상한 (최대 2배 오차, max보다 크게 나오지 않게 자름)
+    private static void latency(PrintStream out, String name, Histogram h) {
+        if (h.count() == 0) return;
+        long max = h.maxMicros();
+        out.printf("%-14s n=%,d  p50 %,dus  p99 %,dus  p999 %,dus  max %,dus%n", name, h.count(),
+                Math.min(max, h.percentileMicros(0.50)), Math.min(max, h.percentileMicros(0.99)),
+                Math.min(max, h.percentileMicros(0.999)), max);
+    }
+}
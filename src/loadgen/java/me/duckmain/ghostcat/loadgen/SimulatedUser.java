@@ -0,0 +1,259 @@
+package me.duckmain.ghostcat.loadgen;
+
+import me.duckmain.ghostcat.crypto.CryptoUtils;
+import me.duckmain.ghostcat.network.ChatClient;
+import me.duckmain.ghostcat.network.Frame;
+import me.duckmain.ghostcat.network.FrameType;
+import me.duckmain.ghostcat.network.InboundPipeline;
+import me.duckmain.ghostcat.transfer.ChunkedFileReceiver;
+import me.duckmain.ghostcat.transfer.ChunkedFileSender;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.KeyPair;
+import java.util.Base64;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * ChatClient 하나 = 사용자 하나. ChatController와 같은 방식으로 KEY를 주고받고,
+ * MSG는 메시지마다 ephemeral X25519 x 상대 static -> HKDF -> AES-GCM, 파일은 ChunkedFileSender/Receiver를 그대로 씀.
+ * CryptoUtils의 static 키쌍은 프로세스에 하나라서 모든 가상 사용자가 같은 키를 쓰지만, 메시지당 암호 연산은 실제 클라이언트와 같음.
+ */
+final class SimulatedUser {
+    private static final String STAMP = "LG:"; // 평문 형식: LG:<보낸 System.nanoTime()>:<채움>
+    private static final boolean STREAM_CHUNKS = !"false".equalsIgnoreCase(System.getProperty("ghostcat.load.streamChunks"));
+
+    private final String nick;
+    private final List<String> partners;
+    private final LoadGenerator.Config config;
+    private final LoadStats stats;
+    private final InboundPipeline<String> inbound;
+    private final ChatClient client;
+    private final ChunkedFileSender fileSender;
+    private final ChunkedFileReceiver fileReceiver;
+    private final Set<String> keyed = ConcurrentHashMap.newKeySet();          // 키를 받은 상대
+    private final Set<String> pendingKeyRequests = ConcurrentHashMap.newKeySet();
+    private final AtomicBoolean fileInFlight = new AtomicBoolean();
+    private volatile boolean running;
+    private Thread sender;
+
+    SimulatedUser(String nick, List<String> partners, LoadGenerator.Config config, LoadStats stats) {
+        this.nick = nick;
+        this.partners = partners;
+        this.config = config;
+        this.stats = stats;
+        this.inbound = new InboundPipeline<>(this::decode, this::onFrame, (f, e) -> stats.decryptFailures.increment());
+        this.client = new ChatClient(nick, inbound::submit, this::onInfo);
+        this.fileSender = new ChunkedFileSender(config.chunkSize(), ChunkedFileSender.DEFAULT_WINDOW);
+        this.fileReceiver = new ChunkedFileReceiver(new ChunkedFileReceiver.Listener() {
+            @Override
+            public void completed(String from, String fileName, Path path) {
+                if (stats.recording()) {
+                    stats.filesReceived.increment();
+                    stats.payloadBytesReceived.add(config.fileBytes());
+                }
+                deleteQuietly(path);
+            }
+
+            @Override
+            public void failed(String from, String fileName, String reason) {
+                stats.fileFailures.increment();
+            }
+        }, client::sendFileAck);
+        client.setConnectionListener(new ChatClient.ConnectionListener() {
+            @Override
+            public void disconnected(String reason) {
+                if (running) stats.disconnects.increment();
+            }
+        });
+    }
+
+    void connect(String host, int port, String pubB64) throws Exception {
+        client.connectToTLS(host, port);
+        client.sendRegister(pubB64);
+    }
+
+    // 상대마다 KEY를 보냄 (상대가 자기 키로 응답)
+    void requestKeys(String pubB64) {
+        for (String p : partners) {
+            if (keyed.contains(p)) continue;
+            pendingKeyRequests.add(p);
+            client.sendKeyExchange(pubB64, p);
+        }
+    }
+
+    boolean keysComplete() {
+        return keyed.containsAll(partners);
+    }
+
+    int missingKeys() {
+        int n = 0;
+        for (String p : partners) if (!keyed.contains(p)) n++;
+        return n;
+    }
+
+    void startSending(Path file) {
+        running = true;
+        sender = Thread.ofVirtual().name("LoadGen-" + nick).start(() -> sendLoop(file));
+    }
+
+    void stopSending() {
+        running = false;
+        if (sender != null) sender.interrupt();
+    }
+
+    void close() {
+        running = false;
+        inbound.close();
+        fileSender.cancelAll();
+        fileReceiver.closeAll();
+        client.closeConnection();
+    }
+
+    // 포아송 도착: 전체 비율로 다음 간격을 뽑고, 비율 비중으로 종류를 고름
+    private void sendLoop(Path file) {
+        ThreadLocalRandom rnd = ThreadLocalRandom.current();
+        double total = config.messageRate() + config.broadcastRate() + config.fileRate();
+        if (total <= 0) return;
+        while (running) {
+            long waitNanos = (long) (-Math.log(1 - rnd.nextDouble()) / total * 1e9);
+            LockSupport.parkNanos(waitNanos);
+            if (!running) break;
+            double r = rnd.nextDouble() * total;
+            try {
+                if (r < config.messageRate()) {
+                    sendMessage(pickPartner(rnd), false);
+                } else if (r < config.messageRate() + config.broadcastRate()) {
+                    sendMessage("*", true);
+                } else if (file != null && fileInFlight.compareAndSet(false, true)) {
+                    // 파일은 완료까지 블로킹이므로 따로 돌리고, 사용자당 한 번에 하나만
+                    String to = pickPartner(rnd);
+                    Thread.ofVirtual().name("LoadGen-File-" + nick).start(() -> sendFile(to, file));
+                }
+            } catch (Exception e) {
+                stats.sendFailures.increment();
+            }
+        }
+    }
+
+    private String pickPartner(ThreadLocalRandom rnd) {
+        return partners.get(rnd.nextInt(partners.size()));
+    }
+
+    private void sendMessage(String to, boolean broadcast) throws Exception {
+        // 브로드캐스트는 모두가 같은 static 키를 가지므로 내 키로 암호화해도 모두가 풀 수 있음
+        byte[] peerStatic = broadcast ? CryptoUtils.getStaticPublic() : CryptoUtils.getPeerStatic(to);
+        if (peerStatic == null) {
+            stats.keyTimeouts.increment();
+            return;
+        }
+        int size = config.sizes().pick(ThreadLocalRandom.current());
+        String plain = padded(STAMP + System.nanoTime() + ":", size);
+
+        KeyPair eph = CryptoUtils.generateEphemeral();
+        byte[] key = CryptoUtils.hkdf(CryptoUtils.sharedEphemeralStatic(eph.getPrivate(), peerStatic), null, 32);
+        byte[] iv = CryptoUtils.randomIV();
+        byte[] ct = CryptoUtils.encryptAESGCM(plain, key, iv);
+        String payload = Base64.getEncoder().encodeToString(eph.getPublic().getEncoded()) + ":" +
+                Base64.getEncoder().encodeToString(iv) + ":" +
+                Base64.getEncoder().encodeToString(ct);
+        client.sendMessageToPeer(to, payload);
+
+        if (stats.recording()) {
+            (broadcast ? stats.broadcastsSent : stats.messagesSent).increment();
+            stats.payloadBytesSent.add(plain.length());
+        }
+    }
+
+    private void sendFile(String to, Path file) {
+        try {
+            byte[] peerStatic = CryptoUtils.getPeerStatic(to);
+            if (peerStatic == null) {
+                stats.keyTimeouts.increment();
+                return;
+            }
+            long t0 = System.nanoTime();
+            long size = fileSender.send(client, to, file, peerStatic);
+            if (stats.recording()) {
+                stats.fileLatency.recordNanos(System.nanoTime() - t0);
+                stats.filesSent.increment();
+                stats.payloadBytesSent.add(size);
+            }
+        } catch (Exception e) {
+            if (running) stats.fileFailures.increment();
+        } finally {
+            fileInFlight.set(false);
+        }
+    }
+
+    private boolean addressed(Frame f) {
+        return (f.to().equals(nick) || f.to().equals("*")) && !f.from().equals(nick);
+    }
+
+    // 실제 클라이언트와 같게 InboundPipeline을 씀: MSG 복호화는 병렬 단계에서
+    private String decode(Frame f) throws Exception {
+        return f.type() == FrameType.MSG && addressed(f) ? decrypt(f.bodyText()) : null;
+    }
+
+    // 순서 단계 (보낸 사람마다 받은 순서대로). 예외는 파이프라인이 decryptFailures로 셈
+    private void onFrame(Frame f, String plain) throws Exception {
+        if (!addressed(f)) return;
+        switch (f.type()) {
+            case KEY -> onKey(f.from(), f.bodyText());
+            case MSG -> onMessage(f.to().equals("*"), plain);
+            case FSTART -> fileReceiver.onStart(f.from(), f.bodyText());
+            case FCHUNK -> fileReceiver.onChunk(f.from(), f.body());
+            case FEND -> fileReceiver.onEnd(f.from(), f.bodyText());
+            case FACK -> fileSender.onAck(f.from(), f.bodyText());
+            default -> {}
+        }
+    }
+
+    private void onKey(String from, String keyB64) {
+        boolean reply = !pendingKeyRequests.remove(from);
+        CryptoUtils.storePeerStatic(from, Base64.getDecoder().decode(keyB64));
+        // 가상 사용자는 모두 같은 코드라서 CAPS 없이 스트림 청크 형식을 씀 (-Dghostcat.load.streamChunks=false 면 기존 형식)
+        if (STREAM_CHUNKS) fileSender.onPeerCaps(from, ChunkedFileSender.capsField());
+        keyed.add(from);
+        if (reply) client.sendKeyExchange(Base64.getEncoder().encodeToString(CryptoUtils.getStaticPublic()), from);
+    }
+
+    private static String decrypt(String payload) throws Exception {
+        String[] pcs = payload.split(":", 3);
+        if (pcs.length != 3) throw new IllegalArgumentException("invalid MSG payload");
+        byte[] shared = CryptoUtils.sharedStaticEphemeral(Base64.getDecoder().decode(pcs[0]));
+        byte[] key = CryptoUtils.hkdf(shared, null, 32);
+        return CryptoUtils.decryptAESGCM(Base64.getDecoder().decode(pcs[2]), key, Base64.getDecoder().decode(pcs[1]));
+    }
+
+    private void onMessage(boolean broadcast, String plain) {
+        if (!plain.startsWith(STAMP)) return; // 부하 생성기가 보낸 것이 아님
+        long sent = Long.parseLong(plain.substring(STAMP.length(), plain.indexOf(':', STAMP.length())));
+        if (!stats.recording()) return;
+        (broadcast ? stats.broadcastLatency : stats.messageLatency).recordNanos(System.nanoTime() - sent);
+        (broadcast ? stats.broadcastsReceived : stats.messagesReceived).increment();
+        stats.payloadBytesReceived.add(plain.length());
+    }
+
+    private void onInfo(String info) {
+        if (info.startsWith("send fail")) stats.sendFailures.increment();
+    }
+
+    private static String padded(String head, int size) {
+        if (head.length() >= size) return head;
+        return head + "x".repeat(size - head.length());
+    }
+
+    private static void deleteQuietly(Path path) {
+        try {
+            Files.deleteIfExists(path);
+            Files.deleteIfExists(path.getParent()); // 수신기가 전송마다 만드는 임시 디렉터리
+        } catch (IOException ignored) {}
+    }
+}
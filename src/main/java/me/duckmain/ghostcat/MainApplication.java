@@ -4,11 +4,14 @@ import javafx.application.Application;
 import javafx.fxml.FXMLLoader;
 import javafx.scene.Scene;
 import javafx.stage.Stage;
+import me.duckmain.ghostcat.tls.SSLUtil;
 
 
 public class MainApplication extends Application {
     @Override
     public void start(Stage stage) throws Exception {
+        // 서버 키 생성/로딩은 로그인 화면을 보는 동안 백그라운드에서
+        SSLUtil.prepareServerContext();
         FXMLLoader loader = new FXMLLoader(getClass().getResource("LoginView.fxml"));
         Scene scene = new Scene(loader.load(), 480, 260);
         stage.setTitle("GhostCat - Secure Chat");
@@ -0,0 +1,62 @@
+package me.duckmain.ghostcat.compress;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * zlib 형식 Deflate (java.util.zip 기본값, 헤더+체크섬 6바이트).
+ * 레벨은 -Dghostcat.compress.level (기본 6, 1이면 빠르고 덜 줄어듦)
+ */
+public final class DeflateCodec implements PayloadCodec {
+    public static final String NAME = "deflate";
+    private static final int LEVEL = Integer.getInteger("ghostcat.compress.level", 6);
+
+    @Override
+    public String name() {
+        return NAME;
+    }
+
+    @Override
+    public byte[] compress(byte[] plain, int off, int len) {
+        Deflater deflater = new Deflater(LEVEL);
+        try {
+            deflater.setInput(plain, off, len);
+            deflater.finish();
+            ByteArrayOutputStream out = new ByteArrayOutputStream(Math.max(64, len / 2));
+            byte[] buf = new byte[Math.min(64 * 1024, Math.max(512, len))];
+            while (!deflater.finished()) {
+                int n = deflater.deflate(buf);
+                out.write(buf, 0, n);
+            }
+            return out.toByteArray();
+        } finally {
+            deflater.end();
+        }
+    }
+
+    @Override
+    public byte[] decompress(byte[] data, int maxBytes) throws IOException {
+        Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(data);
+            ByteArrayOutputStream out = new ByteArrayOutputStream(Math.min(maxBytes, data.length * 4));
+            byte[] buf = new byte[64 * 1024];
+            while (!inflater.finished()) {
+                int n = inflater.inflate(buf);
+                if (n == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    throw new IOException("truncated deflate stream");
+                }
+                if (out.size() + n > maxBytes) throw new IOException("decompressed payload exceeds " + maxBytes + " bytes");
+                out.write(buf, 0, n);
+            }
+            return out.toByteArray();
+        } catch (DataFormatException e) {
+            throw new IOException("invalid deflate stream", e);
+        } finally {
+            inflater.end();
+        }
+    }
+}
@@ -0,0 +1,18 @@
+package me.duckmain.ghostcat.compress;
+
+import java.io.IOException;
+
+/**
+ * 암호화 전에 평문에 적용하는 압축 코덱. 이름은 피어 간 협상과 메시지 표시에 쓰이므로
+ * 영문/숫자만 쓰고, 한 번 정한 이름의 형식은 바꾸지 말 것 (바꾸려면 새 이름으로 등록).
+ */
+public interface PayloadCodec {
+    String name();
+
+    byte[] compress(byte[] plain, int off, int len);
+
+    /**
+     * @param maxBytes 이보다 크게 풀리면 실패 (압축 폭탄 방지)
+     */
+    byte[] decompress(byte[] data, int maxBytes) throws IOException;
+}
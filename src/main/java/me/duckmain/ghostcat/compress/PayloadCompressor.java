@@ -0,0 +1,134 @@
+package me.duckmain.ghostcat.compress;
+
+import me.duckmain.ghostcat.metrics.CompressionMetrics;
+
+import java.io.IOException;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * 피어별로 협상한 코덱으로 암호화 전 평문을 압축함.
+ * <pre>
+ * CAPS|me|peer|compress=deflate    KEY와 같이 보내는 내 지원 목록 (선호 순서)
+ * </pre>
+ * 상대의 CAPS를 받기 전, 또는 공통 코덱이 없으면 압축하지 않으므로 기존 클라이언트와는 그대로 통함.
+ * 작거나(-Dghostcat.compress.minBytes, 기본 256) 이미 압축된 형식(jpg, mp4 등)은 건너뛰고,
+ * 압축해도 1/8 넘게 줄지 않으면 원본을 보냄. -Dghostcat.compress=false 면 협상 자체를 안 함.
+ */
+public final class PayloadCompressor {
+    public static final String CAPS_KEY = "compress";
+    // 받는 쪽 해제 한도 (릴레이 프레임 한도보다 클 일이 없음)
+    private static final int MAX_DECOMPRESSED = 96 * 1024 * 1024;
+    private static final Set<String> INCOMPRESSIBLE = Set.of(
+            "jpg", "jpeg", "png", "gif", "webp", "heic", "mp4", "m4v", "mov", "mkv", "webm", "avi",
+            "mp3", "m4a", "aac", "ogg", "opus", "flac", "zip", "gz", "tgz", "bz2", "xz", "7z", "rar", "zst", "jar", "apk");
+
+    private final boolean enabled = !"false".equalsIgnoreCase(System.getProperty("ghostcat.compress"));
+    private final int minBytes = Integer.getInteger("ghostcat.compress.minBytes", 256);
+    private final List<PayloadCodec> codecs = new CopyOnWriteArrayList<>(); // 선호 순서
+    private final Map<String, PayloadCodec> peerCodec = new ConcurrentHashMap<>();
+    private final CompressionMetrics metrics = new CompressionMetrics();
+
+    /**
+     * 압축 결과. codec이 null이면 data는 원본 그대로
+     */
+    public record Encoded(String codec, byte[] data) {}
+
+    public PayloadCompressor() {
+        register(new DeflateCodec());
+        metrics.publish();
+    }
+
+    // 새 코덱 추가 (앞에 등록한 것을 우선함)
+    public void register(PayloadCodec codec) {
+        codecs.add(codec);
+    }
+
+    public CompressionMetrics metrics() {
+        return metrics;
+    }
+
+    /**
+     * 상대에게 보낼 CAPS 본문. 비활성이면 null (CAPS를 보내지 않음)
+     */
+    public String capsBody() {
+        if (!enabled || codecs.isEmpty()) return null;
+        StringBuilder sb = new StringBuilder(CAPS_KEY).append('=');
+        for (int i = 0; i < codecs.size(); i++) {
+            if (i > 0) sb.append(',');
+            sb.append(codecs.get(i).name());
+        }
+        return sb.toString();
+    }
+
+    // 상대의 CAPS: 내 선호 순서대로 상대도 아는 첫 코덱을 고름
+    public void onPeerCaps(String peer, String body) {
+        Set<String> theirs = Set.of();
+        for (String field : body.split(";")) {
+            int eq = field.indexOf('=');
+            if (eq > 0 && field.substring(0, eq).trim().equals(CAPS_KEY)) {
+                theirs = Set.of(field.substring(eq + 1).trim().split(","));
+            }
+        }
+        if (!enabled) return;
+        for (PayloadCodec c : codecs) {
+            if (theirs.contains(c.name())) {
+                peerCodec.put(peer, c);
+                return;
+            }
+        }
+        peerCodec.remove(peer);
+    }
+
+    // 상대가 나갔거나 키를 새로 보냄 (다른 클라이언트로 다시 들어왔을 수 있으므로 CAPS를 다시 받을 때까지 압축 안 함)
+    public void forget(String peer) {
+        peerCodec.remove(peer);
+    }
+
+    public String codecFor(String peer) {
+        PayloadCodec c = peerCodec.get(peer);
+        return c == null ? null : c.name();
+    }
+
+    /**
+     * @param fileName 파일 평문이면 이름 (확장자로 이미 압축된 형식인지 봄), 텍스트면 null
+     */
+    public Encoded encode(String peer, byte[] plain, String fileName) {
+        PayloadCodec codec = peerCodec.get(peer);
+        if (codec == null) return new Encoded(null, plain);
+        if (plain.length < minBytes || isIncompressible(fileName)) {
+            metrics.skipped(plain.length);
+            return new Encoded(null, plain);
+        }
+        long start = CompressionMetrics.cpuNanos();
+        byte[] packed = codec.compress(plain, 0, plain.length);
+        if (packed.length > plain.length - (plain.length >> 3)) {
+            metrics.compressed(start, plain.length, plain.length);
+            return new Encoded(null, plain);
+        }
+        metrics.compressed(start, plain.length, packed.length);
+        return new Encoded(codec.name(), packed);
+    }
+
+    public byte[] decode(String codecName, byte[] data) throws IOException {
+        for (PayloadCodec c : codecs) {
+            if (c.name().equals(codecName)) {
+                long start = CompressionMetrics.cpuNanos();
+                byte[] plain = c.decompress(data, MAX_DECOMPRESSED);
+                metrics.decompressed(start);
+                return plain;
+            }
+        }
+        throw new IOException("unknown codec " + codecName);
+    }
+
+    static boolean isIncompressible(String fileName) {
+        if (fileName == null) return false;
+        int dot = fileName.lastIndexOf('.');
+        return dot >= 0 && INCOMPRESSIBLE.contains(fileName.substring(dot + 1).toLowerCase(Locale.ROOT));
+    }
+}
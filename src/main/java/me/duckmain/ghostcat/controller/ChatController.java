@@ -6,12 +6,24 @@ import javafx.scene.control.*;
 import javafx.scene.control.Label;
 import javafx.scene.control.TextArea;
 import javafx.scene.control.TextField;
+import me.duckmain.ghostcat.compress.PayloadCompressor;
 import me.duckmain.ghostcat.crypto.CryptoUtils;
+import me.duckmain.ghostcat.crypto.RatchetSessions;
+import me.duckmain.ghostcat.crypto.SenderKeys;
 import me.duckmain.ghostcat.network.ChatClient;
+import me.duckmain.ghostcat.network.Frame;
+import me.duckmain.ghostcat.network.FrameCodec;
+import me.duckmain.ghostcat.network.FrameType;
+import me.duckmain.ghostcat.network.InboundPipeline;
+import me.duckmain.ghostcat.network.PresenceTracker;
+import me.duckmain.ghostcat.transfer.ChunkedFileReceiver;
+import me.duckmain.ghostcat.transfer.ChunkedFileSender;
 
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.security.GeneralSecurityException;
 import java.security.KeyPair;
 import java.util.*;
 import java.util.List;
@@ -36,11 +48,43 @@ public class ChatController {
     @FXML private Label statusLabel;
     @FXML private ListView<String> peersList;
 
-    private ChatClient client;
+    private volatile ChatClient client;
+    // 리더 스레드는 프레임만 넘기고, 기존 형식 MSG 복호화는 병렬로, 나머지 처리는 보낸 사람마다 순서대로
+    private final InboundPipeline<String> inbound = new InboundPipeline<>(this::decodeFrame, this::onIncomingFrame,
+            (frame, e) -> logError(frame.type() == FrameType.MSG
+                    ? "Message decryption failed from " + frame.from() : "Frame processing failed from " + frame.from(), e));
+    private PresenceTracker presence;
     private String nick;
     private final Set<String> pendingKeyRequests = Collections.synchronizedSet(new HashSet<>());
+    // 내 CAPS를 보낸 상대 (디렉터리 키로 바로 보낸 상대는 KEY 교환이 없으므로 CAPS만 따로 주고받음)
+    private final Set<String> capsSent = Collections.synchronizedSet(new HashSet<>());
+    // 키가 오기 전에 보낸 메시지. 키가 오면 (디렉터리/KEY) 순서대로 나감. 접근은 outbox 락 안에서
+    private final Map<String, List<String>> outbox = new HashMap<>();
+    private static final int MAX_QUEUED_PER_PEER = 100;
+    private final ChunkedFileReceiver fileReceiver = new ChunkedFileReceiver(new ChunkedFileReceiver.Listener() {
+        @Override
+        public void completed(String from, String fileName, Path path) {
+            openReceivedFile(from, path);
+        }
 
-    private static final long MAX_FILE_BYTES = 50L * 1024L * 1024L;
+        @Override
+        public void failed(String from, String fileName, String reason) {
+            appendChat(from + " >> 파일 수신 실패 (" + fileName + "): " + reason);
+        }
+    }, (to, ack) -> {
+        ChatClient c = client;
+        if (c != null) c.sendFileAck(to, ack);
+    });
+    private final ChunkedFileSender fileSender = new ChunkedFileSender();
+    // 피어별 압축 협상 (CAPS). 협상 전이나 기존 클라이언트에게는 압축하지 않음
+    private final PayloadCompressor compressor = new PayloadCompressor();
+    // 피어별 대칭 래칫 (CAPS로 협상). 협상 전이나 기존 클라이언트에게는 메시지마다 ephemeral 키를 씀
+    private final RatchetSessions ratchets = new RatchetSessions();
+    // room별 sender key. 멤버 모두가 CAPS로 지원하면 room 메시지를 한 번만 암호화함
+    private final SenderKeys groups = new SenderKeys();
+
+    // 한 프레임으로 보내는 기존 방식: Base64 두 번(평문, 암호문)을 거쳐도 서버 프레임 한도(16MiB) 안에 들어가는 크기
+    private static final long MAX_LEGACY_FILE_BYTES = 8L * 1024L * 1024L;
 
     @FXML
     public void initialize() {
@@ -64,7 +108,28 @@ public class ChatController {
             return;
         }
 
-        client = new ChatClient(nick, this::onIncomingLine);
+        client = new ChatClient(nick, inbound::submit, this::appendChat);
+        ChatClient c = client;
+        presence = new PresenceTracker(c::sendPresenceResync, new PeerListUpdater(), c::hasKeyDirectory);
+        // 재연결은 ChatClient가 백오프로 계속 시도함. 끊긴 동안 보낸 메시지는 재연결 후에 나감
+        c.setConnectionListener(new ChatClient.ConnectionListener() {
+            @Override
+            public void disconnected(String reason) {
+                Platform.runLater(() -> statusLabel.setText("Disconnected: " + reason));
+            }
+
+            @Override
+            public void reconnecting(int attempt, long delayMillis) {
+                Platform.runLater(() -> statusLabel.setText("Reconnecting (attempt " + attempt + ")..."));
+            }
+
+            @Override
+            public void reconnected() {
+                Platform.runLater(() -> statusLabel.setText("Connected as " + nick));
+                appendChat("Reconnected.");
+                fileSender.resumeAll();
+            }
+        });
 
         new Thread(() -> {
             try {
@@ -93,95 +158,307 @@ public class ChatController {
      * }
      */
 
-    private void onIncomingLine(String line) {
-        if (line == null || line.isBlank()) return;
-        String[] parts = line.split("\\|", 4);
-        String type = parts.length > 0 ? parts[0] : "";
-
-        switch (type) {
-            case "PEERS" -> handlePeers(parts);
-            case "KEY" -> handleKey(parts);
-            case "MSG" -> handleMessage(parts);
-            default -> appendChat("[RAW] " + line);
+    // 텍스트 줄/바이너리 프레임 모두 ChatClient에서 Frame으로 디코딩되어 들어옴
+    // inbound의 순서 단계: 같은 보낸 사람의 프레임은 받은 순서대로 하나씩 불림. plain은 decodeFrame 결과
+    private void onIncomingFrame(Frame frame, String plain) {
+        if (frame == null) return;
+
+        switch (frame.type()) {
+            case PEERS -> handlePeers(frame.bodyText());
+            case SNAPSHOT -> presence.onSnapshot(frame.bodyText());
+            case DELTA -> presence.onDelta(frame.bodyText());
+            case KEYS -> handleKeys(frame.bodyText());
+            case KEY -> handleKey(frame.from(), frame.to(), frame.bodyText());
+            case CAPS -> handleCaps(frame.from(), frame.to(), frame.bodyText());
+            case MSG -> handleMessage(frame.from(), frame.to(), frame.bodyText(), plain);
+            case ROOM -> handleRoom(frame.to(), frame.bodyText());
+            case FSTART, FCHUNK, FEND, FACK -> handleFileFrame(frame);
+            default -> {
+                String line = FrameCodec.toTextLine(frame);
+                if (!line.isBlank()) appendChat("[RAW] " + line);
+            }
         }
     }
 
-    private void handlePeers(String[] parts) {
-        if (parts.length < 2) return;
-        List<String> peers = Stream.of(parts[1].split(","))
+    private void handlePeers(String list) {
+        List<String> peers = Stream.of(list.split(","))
                 .filter(s -> !s.isBlank() && !s.equals(nick))
                 .collect(Collectors.toList());
+        peers.addAll(groups.rooms());
         Platform.runLater(() -> peersList.getItems().setAll(peers));
     }
 
-    private void handleKey(String[] parts) {
-        if (parts.length < 4) return;
-        String fromNick = parts[1];
-        String toNick = parts[2];
+    // 멤버가 바뀌면 SenderKeys가 다음 메시지 때 키를 교체함. 키를 모르는 새 멤버와는 미리 키를 교환해 둠
+    private void handleRoom(String room, String body) {
+        if (!groups.joined(room)) return;
+        List<String> missing = new ArrayList<>();
+        for (String member : groups.onRoom(room, nick, body)) {
+            if (CryptoUtils.getPeerStatic(member) == null) missing.add(member);
+        }
+        if (!missing.isEmpty()) requestKeys(missing);
+    }
+
+    /**
+     * presence v2: 스냅샷 때만 전체 교체, 이후에는 ListView에 추가/삭제만 반영
+     */
+    private final class PeerListUpdater implements PresenceTracker.Listener {
+        @Override
+        public void reset(Collection<String> peers) {
+            List<String> others = peers.stream().filter(s -> !s.equals(nick)).collect(Collectors.toList());
+            others.addAll(groups.rooms());
+            Platform.runLater(() -> peersList.getItems().setAll(others));
+        }
+
+        @Override
+        public void joined(String peer) {
+            if (peer.equals(nick)) return;
+            Platform.runLater(() -> {
+                if (!peersList.getItems().contains(peer)) peersList.getItems().add(peer);
+            });
+        }
+
+        @Override
+        public void left(String peer) {
+            compressor.forget(peer);
+            ratchets.forget(peer);
+            groups.forget(peer);
+            fileSender.forget(peer);
+            capsSent.remove(peer);
+            Platform.runLater(() -> peersList.getItems().remove(peer));
+        }
+
+        @Override
+        public void keyed(String peer, String pubB64) {
+            onDirectoryKey(peer, pubB64);
+        }
+    }
+
+    // 서버 디렉터리의 키. 이전과 다르면 상대가 새 클라이언트로 들어온 것이므로 KEY를 받았을 때처럼 협상 상태를 버림
+    private void onDirectoryKey(String peer, String pubB64) {
+        if (peer.equals(nick)) return;
+        try {
+            byte[] key = Base64.getDecoder().decode(pubB64);
+            byte[] old = CryptoUtils.getPeerStatic(peer);
+            if (!Arrays.equals(old, key)) {
+                CryptoUtils.storePeerStatic(peer, key);
+                if (old != null) {
+                    compressor.forget(peer);
+                    ratchets.forget(peer);
+                    groups.forget(peer);
+                    fileSender.forget(peer);
+                    capsSent.remove(peer);
+                }
+            }
+            flushQueued(peer);
+        } catch (IllegalArgumentException e) {
+            logger.log(Level.WARNING, "Invalid directory key for " + peer, e);
+        }
+    }
+
+    // KEYS 응답: 서버도 모르는 상대 (다른 노드의 기존 서버 등)에게는 KEY로 직접 요청
+    private void handleKeys(String body) {
+        for (String peer : presence.onKeys(body)) {
+            pendingKeyRequests.add(peer);
+            sendKey(peer);
+        }
+    }
+
+    // 디렉터리가 있으면 한 번에 조회하고, 없으면 상대마다 KEY를 보냄
+    private void requestKeys(Collection<String> peers) {
+        if (client.lookupKeys(peers)) return;
+        for (String peer : peers) {
+            pendingKeyRequests.add(peer);
+            sendKey(peer);
+        }
+    }
+
+    private void handleKey(String fromNick, String toNick, String keyB64) {
         if (!toNick.equals(nick)) return;
         try {
 
-            byte[] theirStaticKey = Base64.getDecoder().decode(parts[3]);
+            byte[] theirStaticKey = Base64.getDecoder().decode(keyB64);
 
             // 중요: 상대방의 키를 저장하기 *전에* 내가 이미 키를 가지고 있는지 확인합니다.
             // 키가 없다면 첫 요청이므로 응답해야 합니다.
             boolean isReplyToMyRequest = pendingKeyRequests.remove(fromNick);
 
             // 상대방의 키를 저장(또는 최신 키로 업데이트)합니다.
+            // 다른 클라이언트로 다시 들어왔을 수 있으므로 압축은 뒤따르는 CAPS를 받을 때까지 끔
             CryptoUtils.storePeerStatic(fromNick, theirStaticKey);
+            compressor.forget(fromNick);
+            ratchets.forget(fromNick);
+            groups.forget(fromNick);
+            fileSender.forget(fromNick);
             appendChat("Stored/Updated static key for " + fromNick);
 
             // 첫 요청일 경우에만 내 키를 응답으로 보냅니다.
             if (!isReplyToMyRequest) {
-                String myStaticKeyB64 = Base64.getEncoder().encodeToString(CryptoUtils.getStaticPublic());
-                client.sendKeyExchange(myStaticKeyB64, fromNick);
+                sendKey(fromNick);
                 appendChat("Replying with my key to " + fromNick);
             }
+            flushQueued(fromNick);
 
         } catch (Exception e) {
-            logError("KEY processing failed from " + parts[1], e);
+            logError("KEY processing failed from " + fromNick, e);
+        }
+    }
+
+    // 내 static 키 + 지원하는 압축 코덱/래칫/sender key/청크 형식 (CAPS는 서버가 CAPS1을 협상한 클라이언트에게만 전달)
+    private void sendKey(String target) {
+        client.sendKeyExchange(Base64.getEncoder().encodeToString(CryptoUtils.getStaticPublic()), target);
+        sendCaps(target);
+    }
+
+    private void sendCaps(String target) {
+        capsSent.add(target);
+        StringJoiner caps = new StringJoiner(";");
+        for (String field : new String[] {compressor.capsBody(), ratchets.capsField(), groups.capsField(), ChunkedFileSender.capsField()}) {
+            if (field != null) caps.add(field);
+        }
+        client.sendCaps(target, caps.toString());
+    }
+
+    private void handleCaps(String fromNick, String toNick, String caps) {
+        if (!toNick.equals(nick)) return;
+        // KEY 없이 (디렉터리 키로) 먼저 연락해 온 상대: 내 CAPS로 답함
+        if (!capsSent.contains(fromNick)) sendCaps(fromNick);
+        compressor.onPeerCaps(fromNick, caps);
+        ratchets.onPeerCaps(fromNick, caps);
+        groups.onPeerCaps(fromNick, caps);
+        fileSender.onPeerCaps(fromNick, caps);
+        String codec = compressor.codecFor(fromNick);
+        if (codec != null) logger.fine("Compression with " + fromNick + ": " + codec);
+        if (ratchets.active(fromNick)) logger.fine("Ratchet session with " + fromNick);
+    }
+
+    /**
+     * 평문 -> "ephPub:iv:ct". 상대와 압축을 협상했고 줄어들면 압축 후 암호화하고 ":codec"을 붙임
+     * (코덱 이름은 AAD로 인증됨). 압축하지 않은 경우의 형식은 기존과 같음.
+     * 상대와 래칫을 협상했으면 RatchetSessions 형식 (R1:...)으로 보냄.
+     *
+     * @param fileName FILE: 평문이면 파일 이름 (jpg/mp4 등은 압축하지 않음)
+     */
+    private String encryptFor(String target, byte[] peerStatic, String plain, String fileName) throws Exception {
+        PayloadCompressor.Encoded enc = compressor.encode(target, plain.getBytes(StandardCharsets.UTF_8), fileName);
+        if (ratchets.active(target)) return ratchets.encrypt(target, peerStatic, enc.data(), enc.codec());
+
+        KeyPair ephKP = CryptoUtils.generateEphemeral();
+        byte[] shared = CryptoUtils.sharedEphemeralStatic(ephKP.getPrivate(), peerStatic);
+        byte[] key = CryptoUtils.hkdf(shared, null, 32);
+        byte[] iv = CryptoUtils.randomIV();
+
+        byte[] aad = enc.codec() == null ? null : enc.codec().getBytes(StandardCharsets.US_ASCII);
+        byte[] ct = CryptoUtils.encryptAESGCM(enc.data(), 0, enc.data().length, key, iv, aad);
+
+        String payload = Base64.getEncoder().encodeToString(ephKP.getPublic().getEncoded()) + ":" +
+                Base64.getEncoder().encodeToString(iv) + ":" +
+                Base64.getEncoder().encodeToString(ct);
+        return enc.codec() == null ? payload : payload + ":" + enc.codec();
+    }
+
+    // inbound의 병렬 단계: 상태가 없는 메시지별 ephemeral 형식만 여기서 복호화 (래칫/sender key는 체인 순서가 있으므로 handleMessage에서)
+    private String decodeFrame(Frame frame) throws Exception {
+        if (frame.type() != FrameType.MSG || !accepts(frame.to())) return null;
+        String payload = frame.bodyText();
+        if (SenderKeys.isGroup(payload) || RatchetSessions.isRatchet(payload)) return null;
+
+        // ephPub:iv:ct[:codec]
+        String[] pcs = payload.split(":", 4);
+        if (pcs.length < 3) throw new GeneralSecurityException("invalid MSG payload");
+
+        byte[] ephPub = Base64.getDecoder().decode(pcs[0]);
+        byte[] iv = Base64.getDecoder().decode(pcs[1]);
+        byte[] ct = Base64.getDecoder().decode(pcs[2]);
+
+        byte[] shared = CryptoUtils.sharedStaticEphemeral(ephPub);
+        byte[] key = CryptoUtils.hkdf(shared, null, 32);
+        if (pcs.length == 4) {
+            byte[] packed = CryptoUtils.decryptAESGCM(ct, 0, ct.length, key, iv, pcs[3].getBytes(StandardCharsets.US_ASCII));
+            return new String(compressor.decode(pcs[3], packed), StandardCharsets.UTF_8);
         }
+        return CryptoUtils.decryptAESGCM(ct, key, iv);
     }
 
-    private void handleMessage(String[] parts) {
-        if (parts.length < 4) return;
-        String from = parts[1];
-        String to = parts[2];
-        String payload = parts[3];
+    private boolean accepts(String to) {
+        return to.equals(nick) || to.equals("*") || groups.joined(to);
+    }
 
-        if (!(to.equals(nick) || to.equals("*"))) return;
+    /**
+     * @param plain decodeFrame에서 이미 복호화했으면 평문, 아니면 null
+     */
+    private void handleMessage(String from, String to, String payload, String plain) {
+        if (!accepts(to)) return;
 
         try {
-            String[] pcs = payload.split(":", 3);
-            if (pcs.length != 3) {
-                appendChat("Invalid MSG payload from " + from);
+            if (plain != null) {
+                deliver(from, to, plain);
+                return;
+            }
+            if (SenderKeys.isGroup(payload)) {
+                SenderKeys.Opened opened = groups.decrypt(to, from, payload);
+                if (opened != null) showGroupMessage(opened);
                 return;
             }
+            if (RatchetSessions.isRatchet(payload)) {
+                RatchetSessions.Opened opened = ratchets.decrypt(from, payload);
+                byte[] data = opened.codec() == null ? opened.data() : compressor.decode(opened.codec(), opened.data());
+                deliver(from, to, new String(data, StandardCharsets.UTF_8));
+            }
+        } catch (RatchetSessions.UnknownEpochException e) {
+            // 이쪽이 래칫 상태를 잃음: 키를 다시 교환하면 상대가 새 에포크로 보냄
+            appendChat("Lost session with " + from + ", re-exchanging keys");
+            pendingKeyRequests.add(from);
+            sendKey(from);
+        } catch (Exception e) {
+            logError("Message decryption failed from " + from, e);
+        }
+    }
 
-            byte[] ephPub = Base64.getDecoder().decode(pcs[0]);
-            byte[] iv = Base64.getDecoder().decode(pcs[1]);
-            byte[] ct = Base64.getDecoder().decode(pcs[2]);
-
-            byte[] shared = CryptoUtils.sharedStaticEphemeral(ephPub);
-            byte[] key = CryptoUtils.hkdf(shared, null, 32);
-            String plain = CryptoUtils.decryptAESGCM(ct, key, iv);
-
-            // 파일인지 텍스트인지 판별
-            if (plain.startsWith("FILE:")) {
-                // 형식: FILE:<filename>:<base64data>
-                String[] fileParts = plain.split(":", 3);
-                if (fileParts.length == 3) {
-                    String filename = fileParts[1];
-                    String b64 = fileParts[2];
-                    handleIncomingFile(from, filename, b64);
-                } else {
-                    appendChat(from + " >> " + "(invalid file payload)");
-                }
+    // 1:1로 받은 sender key는 표시하지 않고 저장 (room으로 온 GKEY는 무시)
+    private void deliver(String from, String to, String plain) throws Exception {
+        if (SenderKeys.isDistribution(plain)) {
+            if (to.equals(nick)) {
+                for (SenderKeys.Opened opened : groups.onDistribution(from, plain)) showGroupMessage(opened);
+            }
+            return;
+        }
+        showMessage(from, plain);
+    }
+
+    private void showGroupMessage(SenderKeys.Opened opened) {
+        appendChat(opened.from() + " @" + opened.room() + " >> " + new String(opened.data(), StandardCharsets.UTF_8));
+    }
+
+    private void showMessage(String from, String plain) {
+        // 파일인지 텍스트인지 판별
+        if (plain.startsWith("FILE:")) {
+            // 형식: FILE:<filename>:<base64data>
+            String[] fileParts = plain.split(":", 3);
+            if (fileParts.length == 3) {
+                String filename = fileParts[1];
+                String b64 = fileParts[2];
+                handleIncomingFile(from, filename, b64);
             } else {
-                appendChat(from + " >> " + plain);
+                appendChat(from + " >> " + "(invalid file payload)");
+            }
+        } else {
+            appendChat(from + " >> " + plain);
+        }
+    }
+
+    // 청크 전송 수신: 청크 단위로 복호화해서 임시 파일에 바로 씀
+    private void handleFileFrame(Frame frame) {
+        if (!frame.to().equals(nick)) return;
+        try {
+            switch (frame.type()) {
+                case FSTART -> fileReceiver.onStart(frame.from(), frame.bodyText());
+                case FCHUNK -> fileReceiver.onChunk(frame.from(), frame.body());
+                case FEND -> fileReceiver.onEnd(frame.from(), frame.bodyText());
+                case FACK -> fileSender.onAck(frame.from(), frame.bodyText());
+                default -> {}
             }
         } catch (Exception e) {
-            logError("Message decryption failed from " + from, e);
+            logError("File transfer failed from " + frame.from(), e);
         }
     }
 
@@ -195,18 +472,7 @@ public class ChatController {
             Path tmp = Files.createTempDirectory("chatfile_");
             Path out = tmp.resolve(sanitizeFilename(filename));
             Files.write(out, fileBytes);
-            appendChat(from + " >> 파일 수신: " + out);
-            // OS 기본앱으로 열기 시도 (이미지/비디오 모두 가능)
-            if (Desktop.isDesktopSupported()) {
-                try {
-                    Desktop.getDesktop().open(out.toFile());
-                } catch (IOException e) {
-                    appendChat("파일 열기 실패: " + e.getMessage());
-                    logger.log(Level.WARNING, "Failed to open file " + out, e);
-                }
-            } else {
-                appendChat("파일이 저장되었습니다: " + out);
-            }
+            openReceivedFile(from, out);
         } catch (IllegalArgumentException iae) {
             appendChat("파일 디코드 실패 (base64 invalid)");
             logger.log(Level.WARNING, "Base64 decode failed", iae);
@@ -216,6 +482,21 @@ public class ChatController {
         }
     }
 
+    private void openReceivedFile(String from, Path out) {
+        appendChat(from + " >> 파일 수신: " + out);
+        // OS 기본앱으로 열기 시도 (이미지/비디오 모두 가능)
+        if (Desktop.isDesktopSupported()) {
+            try {
+                Desktop.getDesktop().open(out.toFile());
+            } catch (IOException e) {
+                appendChat("파일 열기 실패: " + e.getMessage());
+                logger.log(Level.WARNING, "Failed to open file " + out, e);
+            }
+        } else {
+            appendChat("파일이 저장되었습니다: " + out);
+        }
+    }
+
     // 안전한 파일명으로 정리 (간단한 정리)
     private String sanitizeFilename(String name) {
         return name.replaceAll("[\\\\/:*?\"<>|]", "_");
@@ -229,6 +510,10 @@ public class ChatController {
         }
         String text = messageField.getText();
         if (text == null || text.trim().isEmpty()) return;
+        if (handleCommand(text.trim())) {
+            messageField.clear();
+            return;
+        }
 
         String target = peersList.getSelectionModel().getSelectedItem();
         if (target == null) {
@@ -236,28 +521,19 @@ public class ChatController {
         }
 
         try {
-            byte[] peerStatic = CryptoUtils.getPeerStatic(target);
-
-            // 키가 없으면 먼저 요청
-            if (peerStatic == null) {
-                pendingKeyRequests.add(target);
-                client.sendKeyExchange(Base64.getEncoder().encodeToString(CryptoUtils.getStaticPublic()), target);
-                appendChat("Requested static key from " + target);
+            if (target.startsWith("#")) {
+                sendToRoom(target, text);
+                messageField.clear();
                 return;
             }
 
-            KeyPair ephKP = CryptoUtils.generateEphemeral();
-            byte[] shared = CryptoUtils.sharedEphemeralStatic(ephKP.getPrivate(), peerStatic);
-            byte[] key = CryptoUtils.hkdf(shared, null, 32);
-            byte[] iv = CryptoUtils.randomIV();
-            byte[] ct = CryptoUtils.encryptAESGCM(text, key, iv);
-
-            String payload = Base64.getEncoder().encodeToString(ephKP.getPublic().getEncoded()) + ":" +
-                    Base64.getEncoder().encodeToString(iv) + ":" +
-                    Base64.getEncoder().encodeToString(ct);
-
-            client.sendMessageToPeer(target, payload);
-            appendChat("Me -> " + target + ": " + text);
+            // 키가 없으면 큐에 넣고 요청 (키가 오면 자동으로 나감)
+            if (sendOrQueue(target, text)) {
+                appendChat("Me -> " + target + ": " + text);
+            } else {
+                appendChat("Me -> " + target + ": " + text + " (키를 받으면 전송)");
+                requestKeys(List.of(target));
+            }
             messageField.clear();
 
         } catch (Exception e) {
@@ -265,6 +541,102 @@ public class ChatController {
         }
     }
 
+    // "/join #room", "/part #room". room은 피어 목록에 같이 보임
+    private boolean handleCommand(String text) {
+        String[] parts = text.split("\\s+");
+        if (parts.length != 2 || !parts[1].startsWith("#")) return false;
+        String room = parts[1];
+        switch (parts[0]) {
+            case "/join" -> {
+                groups.onRoom(room, nick, "="); // 서버의 ROOM|=멤버목록 전에 도착한 프레임도 받을 수 있게
+                client.joinRoom(room);
+                Platform.runLater(() -> {
+                    if (!peersList.getItems().contains(room)) peersList.getItems().add(room);
+                });
+                appendChat("Joined " + room);
+            }
+            case "/part" -> {
+                client.partRoom(room);
+                groups.leave(room);
+                Platform.runLater(() -> peersList.getItems().remove(room));
+                appendChat("Left " + room);
+            }
+            default -> {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * 멤버 모두가 sender key를 지원하면 아직 내 키가 없는 멤버에게만 1:1로 키를 보내고, 메시지는 한 번만 암호화해서 room으로 보냄.
+     * 기존 클라이언트가 섞여 있으면 멤버마다 1:1로 암호화해서 보냄 (키가 없으면 큐에 넣음).
+     * 키를 모르는 멤버는 한 번에 조회함. 그 멤버의 sender key는 outbox에 넣어 두었다가 키가 오면 보내고, 그때 holder로 표시함
+     * (이번 메시지 번호부터라 그 사이 room 메시지는 받는 쪽 대기열에서 풀림)
+     */
+    private void sendToRoom(String room, String text) throws Exception {
+        List<String> missing = new ArrayList<>();
+        if (groups.active(room)) {
+            SenderKeys.Distribution dist = groups.distribution(room);
+            for (String member : dist.recipients()) {
+                // 큐에만 들어갔으면 flushQueued에서 실제로 보낼 때 holder가 됨
+                if (sendOrQueue(member, dist.plain())) groups.distributed(member, dist.plain());
+                else missing.add(member);
+            }
+            client.sendMessageToPeer(room, groups.encrypt(room, nick, text.getBytes(StandardCharsets.UTF_8)));
+        } else {
+            for (String member : groups.members(room)) {
+                if (!sendOrQueue(member, text)) missing.add(member);
+            }
+        }
+        if (!missing.isEmpty()) requestKeys(missing);
+        appendChat("Me -> " + room + ": " + text);
+    }
+
+    /**
+     * 키가 있고 앞서 쌓인 메시지가 없으면 바로 보내고 true. 아니면 큐 뒤에 붙이고 false
+     */
+    private boolean sendOrQueue(String target, String text) throws Exception {
+        synchronized (outbox) {
+            byte[] peerStatic = CryptoUtils.getPeerStatic(target);
+            List<String> queued = outbox.get(target);
+            if (peerStatic != null && queued == null) {
+                sendText(target, peerStatic, text);
+                return true;
+            }
+            if (queued == null) outbox.put(target, queued = new ArrayList<>());
+            // 아직 holder가 아니라 room 메시지마다 GKEY가 다시 오지만, 같은 키는 처음 것 하나만 있으면 됨
+            if (SenderKeys.isDistribution(text) && queued.stream().anyMatch(q -> SenderKeys.sameKey(q, text))) return false;
+            if (queued.size() >= MAX_QUEUED_PER_PEER) throw new IOException("too many messages waiting for " + target + "'s key");
+            queued.add(text);
+            return false;
+        }
+    }
+
+    // 키가 막 저장됨: 쌓인 메시지를 순서대로 보냄
+    private void flushQueued(String peer) {
+        synchronized (outbox) {
+            byte[] peerStatic = CryptoUtils.getPeerStatic(peer);
+            List<String> queued = peerStatic == null ? null : outbox.remove(peer);
+            if (queued == null) return;
+            try {
+                for (String text : queued) {
+                    sendText(peer, peerStatic, text);
+                    if (SenderKeys.isDistribution(text)) groups.distributed(peer, text);
+                }
+                appendChat("Sent " + queued.size() + " queued message(s) to " + peer);
+            } catch (Exception e) {
+                logError("Queued send failed to " + peer, e);
+            }
+        }
+    }
+
+    // 1:1 텍스트. 첫 연락이면 CAPS도 보내서 다음 메시지부터 래칫/압축을 씀
+    private void sendText(String target, byte[] peerStatic, String text) throws Exception {
+        if (!capsSent.contains(target)) sendCaps(target);
+        client.sendMessageToPeer(target, encryptFor(target, peerStatic, text, null));
+    }
+
     /**
      * 파일 전송 핸들러 — 기존 암호화/송신 플로우와 동일하게 처리
      * (UI: FileChooser 사용)
@@ -280,6 +652,9 @@ public class ChatController {
         if (target == null) {
             appendChat("Select a peer first."); return;
         }
+        if (target.startsWith("#")) {
+            appendChat("room에는 파일을 보낼 수 없습니다."); return;
+        }
 
         Window window = peersList.getScene().getWindow();
         FileChooser chooser = new FileChooser();
@@ -291,34 +666,31 @@ public class ChatController {
         if (file == null) return;
 
         try {
-            long size = Files.size(file.toPath());
-            if (size > MAX_FILE_BYTES) {
-                appendChat("파일 크기 초과 (최대 " + (MAX_FILE_BYTES / (1024 * 1024)) + "MB)");
-                return;
-            }
-            byte[] fileBytes = Files.readAllBytes(file.toPath());
             byte[] peerStatic = CryptoUtils.getPeerStatic(target);
             if (peerStatic == null) {
-                pendingKeyRequests.add(target);
-                client.sendKeyExchange(Base64.getEncoder().encodeToString(CryptoUtils.getStaticPublic()), target);
+                requestKeys(List.of(target));
                 appendChat("Requested static key from " + target + " (파일 전송을 위해)");
                 return;
             }
 
-            // 평문 포맷: FILE:<filename>:<base64data>
-            String payloadPlain = "FILE:" + file.getName() + ":" + Base64.getEncoder().encodeToString(fileBytes);
+            // 바이너리 프레이밍이고 상대가 CAPS로 청크 전송을 알렸으면 청크 스트리밍 (크기 제한 없음, 메모리 일정)
+            // 아니면 상대가 FSTART를 모를 수 있으므로 기존 형식
+            if (client.isBinary() && fileSender.supports(target)) {
+                sendFileChunked(target, file.toPath(), peerStatic);
+                return;
+            }
 
-            KeyPair ephKP = CryptoUtils.generateEphemeral();
-            byte[] shared = CryptoUtils.sharedEphemeralStatic(ephKP.getPrivate(), peerStatic);
-            byte[] key = CryptoUtils.hkdf(shared, null, 32);
-            byte[] iv = CryptoUtils.randomIV();
-            byte[] ct = CryptoUtils.encryptAESGCM(payloadPlain, key, iv);
+            long size = Files.size(file.toPath());
+            if (size > MAX_LEGACY_FILE_BYTES) {
+                appendChat("파일 크기 초과 (최대 " + (MAX_LEGACY_FILE_BYTES / (1024 * 1024)) + "MB)");
+                return;
+            }
+            byte[] fileBytes = Files.readAllBytes(file.toPath());
 
-            String payload = Base64.getEncoder().encodeToString(ephKP.getPublic().getEncoded()) + ":" +
-                    Base64.getEncoder().encodeToString(iv) + ":" +
-                    Base64.getEncoder().encodeToString(ct);
+            // 평문 포맷: FILE:<filename>:<base64data>
+            String payloadPlain = "FILE:" + file.getName() + ":" + Base64.getEncoder().encodeToString(fileBytes);
 
-            client.sendMessageToPeer(target, payload);
+            client.sendMessageToPeer(target, encryptFor(target, peerStatic, payloadPlain, file.getName()));
             appendChat("Me -> " + target + ": 파일 전송 - " + file.getName());
         } catch (IOException e) {
             appendChat("파일 읽기/전송 실패: " + e.getMessage());
@@ -328,7 +700,25 @@ public class ChatController {
         }
     }
 
+    private void sendFileChunked(String target, Path path, byte[] peerStatic) {
+        ChatClient c = client;
+        appendChat("Me -> " + target + ": 파일 전송 시작 - " + path.getFileName());
+        Thread t = new Thread(() -> {
+            try {
+                long sent = fileSender.send(c, target, path, peerStatic);
+                appendChat("Me -> " + target + ": 파일 전송 완료 - " + path.getFileName() + " (" + sent + " bytes)");
+            } catch (Exception e) {
+                logError("File send failed to " + target, e);
+            }
+        }, "ChatController-FileSend");
+        t.setDaemon(true);
+        t.start();
+    }
+
     public void closeConnection() {
+        inbound.close();
+        fileSender.cancelAll();
+        fileReceiver.closeAll();
         try {
             if (client != null) {
                 client.closeConnection();
@@ -6,6 +6,7 @@ import javafx.scene.Scene;
 import javafx.scene.control.Label;
 import javafx.scene.control.TextField;
 import javafx.stage.Stage;
+import me.duckmain.ghostcat.network.PresenceTracker;
 
 import java.io.IOException;
 
@@ -21,6 +22,10 @@ public class LoginController {
             statusLabel.setText("닉네임을 입력해야 합니다.");
             return;
         }
+        if (!PresenceTracker.isValidNick(nick)) {
+            statusLabel.setText("닉네임은 32자까지, 공백과 : , | # * 없이 써야 합니다.");
+            return;
+        }
         try {
             FXMLLoader loader = new FXMLLoader(getClass().getResource("/me/duckmain/ghostcat/ServerSelectView.fxml"));
             Scene scene = new Scene(loader.load(), 640, 320);
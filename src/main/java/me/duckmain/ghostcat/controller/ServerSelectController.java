@@ -6,7 +6,7 @@ import javafx.fxml.FXMLLoader;
 import javafx.scene.Scene;
 import javafx.scene.control.*;
 import javafx.stage.Stage;
-import me.duckmain.ghostcat.network.ChatServer;
+import me.duckmain.ghostcat.network.RelayServer;
 import me.duckmain.ghostcat.crypto.CryptoUtils;
 import me.duckmain.ghostcat.tls.SSLUtil;
 
@@ -64,7 +64,7 @@ public class ServerSelectController {
         if (localRadio.isSelected()) {
             new Thread(() -> {
                 try {
-                    SSLUtil.ensureServerKeystore();
+                    SSLUtil.serverSSLContext(); // 시작 때 백그라운드로 만들어 둔 키스토어/컨텍스트 (아직이면 기다림)
 
                     // 기존 LAN 서버 탐색
                     InetSocketAddress serverAddr = discoverLocalServer(); // 2초 탐색
@@ -77,7 +77,8 @@ public class ServerSelectController {
                         }
 
                        System.out.println(lanIp);
-                        ChatServer server = new ChatServer(0, true);
+                        // 기본 NIO 서버, -Dghostcat.server=blocking 이면 기존 ChatServer
+                        RelayServer server = RelayServer.create(0, true);
                         Thread serverThread = new Thread(server::start);
                         serverThread.setDaemon(true);
                         serverThread.start();
@@ -0,0 +1,80 @@
+package me.duckmain.ghostcat.crypto;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.security.GeneralSecurityException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+/**
+ * 대칭 chain key 한 단계 (RatchetSessions, SenderKeys 공용).
+ * <pre>
+ * message key = HMAC(ck, 1), iv = HMAC(ck, 3)[0..12], 다음 ck = HMAC(ck, 2)
+ * </pre>
+ * 쓴 chain key는 버리므로 지난 메시지 키를 되살릴 수 없음.
+ */
+final class ChainKey {
+    private static final byte[] LABEL_KEY = {1};
+    private static final byte[] LABEL_CHAIN = {2};
+    private static final byte[] LABEL_IV = {3};
+
+    record MessageKey(byte[] key, byte[] iv) {}
+
+    record Step(MessageKey mk, byte[] next) {}
+
+    private ChainKey() {}
+
+    // HMAC init 한 번으로 세 값을 만듦
+    static Step advance(byte[] ck) throws Exception {
+        Mac mac = CryptoUtils.hmacSha256();
+        mac.init(new SecretKeySpec(ck, "HmacSHA256"));
+        byte[] key = mac.doFinal(LABEL_KEY);
+        byte[] iv = Arrays.copyOf(mac.doFinal(LABEL_IV), 12);
+        return new Step(new MessageKey(key, iv), mac.doFinal(LABEL_CHAIN));
+    }
+
+    /**
+     * 받는 쪽 체인. 릴레이가 순서대로 전달하지만 건너뛴 번호는 maxSkip개까지 키를 남겨 둠.
+     * 호출하는 쪽에서 동기화함
+     */
+    static final class Receiver {
+        private byte[] ck;
+        private long next;
+        private final Map<Long, MessageKey> skipped = new HashMap<>();
+
+        Receiver(byte[] ck, long next) {
+            this.ck = ck;
+            this.next = next;
+        }
+
+        // 성공했을 때만 상태를 바꿈 (위조 번호로 체인을 앞으로 밀 수 없게)
+        byte[] open(long n, byte[] ct, byte[] aad, int maxSkip) throws Exception {
+            if (n < next) {
+                MessageKey mk = skipped.get(n);
+                if (mk == null) throw new GeneralSecurityException("chain message " + n + " already used");
+                byte[] plain = CryptoUtils.decryptAESGCM(ct, 0, ct.length, mk.key(), mk.iv(), aad);
+                skipped.remove(n);
+                return plain;
+            }
+            if (n - next > maxSkip) throw new GeneralSecurityException("chain skip too large: " + (n - next));
+            Step st = advance(ck);
+            Map<Long, MessageKey> passed = new HashMap<>();
+            for (long i = next; i < n; i++) {
+                passed.put(i, st.mk());
+                st = advance(st.next());
+            }
+            MessageKey mk = st.mk();
+            byte[] plain = CryptoUtils.decryptAESGCM(ct, 0, ct.length, mk.key(), mk.iv(), aad);
+            ck = st.next();
+            next = n + 1;
+            skipped.putAll(passed);
+            if (skipped.size() > maxSkip) {
+                Iterator<Long> it = skipped.keySet().stream().sorted().iterator();
+                while (skipped.size() > maxSkip && it.hasNext()) skipped.remove(it.next());
+            }
+            return plain;
+        }
+    }
+}
@@ -2,9 +2,11 @@ package me.duckmain.ghostcat.crypto;
 
 import javax.crypto.Cipher;
 import javax.crypto.Mac;
+import javax.crypto.SecretKey;
 import javax.crypto.spec.GCMParameterSpec;
 import javax.crypto.spec.SecretKeySpec;
 import javax.crypto.KeyAgreement;
+import java.nio.ByteBuffer;
 import java.nio.charset.StandardCharsets;
 import java.security.*;
 import java.security.spec.NamedParameterSpec;
@@ -14,11 +16,56 @@ import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * X25519 기반 static keypair + ephemeral operations, HKDF-SHA256 key derivation
+ * <p>
+ * Cipher/Mac/KeyAgreement/KeyFactory/KeyPairGenerator는 스레드마다 하나씩 만들어 재사용함 (getInstance의 provider 조회 비용 제거).
+ * 상대 static 공개키는 파싱한 PublicKey를 인코딩 기준으로 캐시함. ByteBuffer 메서드는 힙/다이렉트 버퍼를 그 자리에서 암복호화함.
+ * <p>
+ * byte[] 키를 받는 AES-GCM 메서드는 스레드마다 마지막 키의 SecretKeySpec을 재사용함 (같은 키로 이어서 부르는 파일 청크 등).
+ * 호출당 할당이 없어지는 것은 아님: JCE에는 초기화된 Cipher의 IV만 바꾸는 API가 없어서 GCMParameterSpec (IV 복사 포함)을 IV마다 만들고,
+ * 대부분은 provider의 Cipher.init/doFinal 안에서 생김 (GCM 상태, 결과 배열). 크기는 CryptoApiBenchmark의 -prof gc 참고.
  */
 public class CryptoUtils {
     private static KeyPair staticKP; // 서버/클라이언트 static keypair
     private static final SecureRandom RNG = new SecureRandom(); // 랜덤 생성기
     private static final ConcurrentHashMap<String, byte[]> peerStaticMap = new ConcurrentHashMap<>();
+    // 인코딩 -> 파싱한 static 공개키 (ephemeral 키는 한 번 쓰고 버리므로 넣지 않음)
+    private static final ConcurrentHashMap<ByteBuffer, PublicKey> parsedStatics = new ConcurrentHashMap<>();
+    private static final int MAX_PARSED_STATICS = 4096;
+
+    public static final int GCM_TAG_BYTES = 16;
+    private static final SecretKeySpec ZERO_SALT = new SecretKeySpec(new byte[32], "HmacSHA256");
+    private static final byte[] EMPTY = new byte[0];
+
+    private static final ThreadLocal<Cipher> GCM = pooled(() -> Cipher.getInstance("AES/GCM/NoPadding"));
+    private static final ThreadLocal<Mac> HMAC = pooled(() -> Mac.getInstance("HmacSHA256"));
+    private static final ThreadLocal<KeyAgreement> X25519 = pooled(() -> KeyAgreement.getInstance("X25519"));
+    private static final ThreadLocal<KeyFactory> X25519_KEYS = pooled(() -> KeyFactory.getInstance("X25519"));
+    private static final ThreadLocal<LastKey> LAST_AES_KEY = ThreadLocal.withInitial(LastKey::new);
+    private static final ThreadLocal<KeyPairGenerator> X25519_GEN = pooled(() -> {
+        KeyPairGenerator kpg = KeyPairGenerator.getInstance("X25519");
+        kpg.initialize(new NamedParameterSpec("X25519"));
+        return kpg;
+    });
+
+    // 스레드에서 마지막으로 쓴 AES 키 (raw는 비교용 복사본)
+    private static final class LastKey {
+        byte[] raw;
+        SecretKey key;
+    }
+
+    private interface Factory<T> {
+        T create() throws GeneralSecurityException;
+    }
+
+    private static <T> ThreadLocal<T> pooled(Factory<T> factory) {
+        return ThreadLocal.withInitial(() -> {
+            try {
+                return factory.create();
+            } catch (GeneralSecurityException e) {
+                throw new IllegalStateException(e);
+            }
+        });
+    }
 
     // static keypair 생성
     public static void generateStaticKeypair() throws Exception {
@@ -41,46 +88,56 @@ public class CryptoUtils {
 
     // ephemeral keypair 생성
     public static KeyPair generateEphemeral() throws Exception {
-        KeyPairGenerator kpg = KeyPairGenerator.getInstance("X25519");
-        kpg.initialize(new NamedParameterSpec("X25519"));
-        return kpg.generateKeyPair();
+        return X25519_GEN.get().generateKeyPair();
     }
 
     // ephemeral private key x peer static public -> shared secret
     public static byte[] sharedEphemeralStatic(PrivateKey ephPrivate, byte[] peerStaticEncoded) throws Exception {
-        KeyFactory kf = KeyFactory.getInstance("X25519");
-        PublicKey peerPub = kf.generatePublic(new X509EncodedKeySpec(peerStaticEncoded));
-        KeyAgreement ka = KeyAgreement.getInstance("X25519");
-        ka.init(ephPrivate);
-        ka.doPhase(peerPub, true);
-        return ka.generateSecret();
+        return agree(ephPrivate, staticPublicKey(peerStaticEncoded));
     }
 
     // static private x ephemeral public -> shared secret
     public static byte[] sharedStaticEphemeral(byte[] theirEphPublicEncoded) throws Exception {
-        KeyFactory kf = KeyFactory.getInstance("X25519");
-        PublicKey theirEph = kf.generatePublic(new X509EncodedKeySpec(theirEphPublicEncoded));
-        KeyAgreement ka = KeyAgreement.getInstance("X25519");
-        ka.init(staticKP.getPrivate());
-        ka.doPhase(theirEph, true);
+        PublicKey theirEph = X25519_KEYS.get().generatePublic(new X509EncodedKeySpec(theirEphPublicEncoded));
+        return agree(staticKP.getPrivate(), theirEph);
+    }
+
+    private static byte[] agree(PrivateKey mine, PublicKey theirs) throws Exception {
+        KeyAgreement ka = X25519.get();
+        ka.init(mine);
+        ka.doPhase(theirs, true);
         return ka.generateSecret();
     }
 
+    // 상대 static 공개키 (같은 인코딩이면 파싱을 다시 하지 않음)
+    private static PublicKey staticPublicKey(byte[] encoded) throws Exception {
+        PublicKey key = parsedStatics.get(ByteBuffer.wrap(encoded));
+        if (key != null) return key;
+        key = X25519_KEYS.get().generatePublic(new X509EncodedKeySpec(encoded));
+        if (parsedStatics.size() >= MAX_PARSED_STATICS) parsedStatics.clear();
+        parsedStatics.put(ByteBuffer.wrap(encoded.clone()), key);
+        return key;
+    }
+
+    // 스레드별 HMAC-SHA256 (같은 패키지의 래칫용, 호출 사이에 다른 CryptoUtils 메서드를 끼우지 말 것)
+    static Mac hmacSha256() {
+        return HMAC.get();
+    }
+
     // HKDF extract+expand
     public static byte[] hkdf(byte[] ikm, byte[] salt, int length) throws Exception {
-        Mac hmac = Mac.getInstance("HmacSHA256");
-        byte[] realSalt = salt == null ? new byte[32] : salt;
-        hmac.init(new SecretKeySpec(realSalt, "HmacSHA256"));
+        Mac hmac = HMAC.get();
+        hmac.init(salt == null ? ZERO_SALT : new SecretKeySpec(salt, "HmacSHA256"));
 
         byte[] prk = hmac.doFinal(ikm);
+        SecretKeySpec prkKey = new SecretKeySpec(prk, "HmacSHA256");
         byte[] okm = new byte[length];
-        byte[] t = new byte[0];
+        byte[] t = EMPTY;
         int loc = 0;
         int counter = 1;
 
         while (loc < length) {
-            hmac.reset();
-            hmac.init(new SecretKeySpec(prk, "HmacSHA256"));
+            hmac.init(prkKey);
             hmac.update(t);
             hmac.update((byte) counter); // counter 추가
             t = hmac.doFinal();
@@ -99,14 +156,78 @@ public class CryptoUtils {
     }
 
     public static byte[] encryptAESGCM(String plain, byte[] key, byte[] iv) throws Exception {
-        Cipher c = Cipher.getInstance("AES/GCM/NoPadding");
-        c.init(Cipher.ENCRYPT_MODE, new SecretKeySpec(key, "AES"), new GCMParameterSpec(128, iv));
-        return c.doFinal(plain.getBytes(StandardCharsets.UTF_8));
+        return gcm(Cipher.ENCRYPT_MODE, lastAesKey(key), iv, null).doFinal(plain.getBytes(StandardCharsets.UTF_8));
     }
 
     public static String decryptAESGCM(byte[] ct, byte[] key, byte[] iv) throws Exception {
-        Cipher c = Cipher.getInstance("AES/GCM/NoPadding");
-        c.init(Cipher.DECRYPT_MODE, new SecretKeySpec(key, "AES"), new GCMParameterSpec(128, iv));
-        return new String(c.doFinal(ct), StandardCharsets.UTF_8);
+        return new String(gcm(Cipher.DECRYPT_MODE, lastAesKey(key), iv, null).doFinal(ct), StandardCharsets.UTF_8);
+    }
+
+    // 바이트 구간용 (파일 청크). aad는 null 가능
+    public static byte[] encryptAESGCM(byte[] plain, int off, int len, byte[] key, byte[] iv, byte[] aad) throws Exception {
+        return gcm(Cipher.ENCRYPT_MODE, lastAesKey(key), iv, aad).doFinal(plain, off, len);
+    }
+
+    public static byte[] decryptAESGCM(byte[] ct, int off, int len, byte[] key, byte[] iv, byte[] aad) throws Exception {
+        return gcm(Cipher.DECRYPT_MODE, lastAesKey(key), iv, aad).doFinal(ct, off, len);
+    }
+
+    // 같은 키로 여러 번 암복호화할 때 (파일 전송 등) 한 번만 만들어 ByteBuffer 메서드에 넘김
+    public static SecretKey aesKey(byte[] key) {
+        return new SecretKeySpec(key, "AES");
+    }
+
+    // byte[] 메서드용: 직전과 같은 키면 그 SecretKeySpec을 그대로 씀 (비교는 상수 시간)
+    private static SecretKey lastAesKey(byte[] key) {
+        LastKey last = LAST_AES_KEY.get();
+        if (last.raw == null || !MessageDigest.isEqual(last.raw, key)) {
+            last.key = aesKey(key);
+            last.raw = key.clone();
+        }
+        return last.key;
+    }
+
+    /**
+     * buf의 [position, limit) 평문을 그 자리에서 암호문+태그로 바꿈. limit 뒤에 GCM_TAG_BYTES 이상 여유가 있어야 함.
+     * 끝나면 [position, limit)이 암호문+태그. 힙/다이렉트 버퍼 모두 됨.
+     *
+     * @return 암호문+태그 길이
+     */
+    public static int encryptAESGCM(ByteBuffer buf, SecretKey key, byte[] iv, byte[] aad) throws Exception {
+        return inPlace(Cipher.ENCRYPT_MODE, buf, key, iv, aad);
+    }
+
+    /**
+     * buf의 [position, limit) 암호문+태그를 그 자리에서 평문으로 바꿈 (태그가 안 맞으면 AEADBadTagException, 버퍼 내용은 정의되지 않음).
+     *
+     * @return 평문 길이
+     */
+    public static int decryptAESGCM(ByteBuffer buf, SecretKey key, byte[] iv, byte[] aad) throws Exception {
+        return inPlace(Cipher.DECRYPT_MODE, buf, key, iv, aad);
+    }
+
+    // in의 남은 바이트 -> out의 position부터 (두 버퍼의 position이 처리한 만큼 움직임)
+    public static int encryptAESGCM(ByteBuffer in, ByteBuffer out, SecretKey key, byte[] iv, byte[] aad) throws Exception {
+        return gcm(Cipher.ENCRYPT_MODE, key, iv, aad).doFinal(in, out);
+    }
+
+    public static int decryptAESGCM(ByteBuffer in, ByteBuffer out, SecretKey key, byte[] iv, byte[] aad) throws Exception {
+        return gcm(Cipher.DECRYPT_MODE, key, iv, aad).doFinal(in, out);
+    }
+
+    private static int inPlace(int mode, ByteBuffer buf, SecretKey key, byte[] iv, byte[] aad) throws Exception {
+        int start = buf.position();
+        ByteBuffer out = buf.duplicate();
+        out.limit(buf.capacity());
+        int n = gcm(mode, key, iv, aad).doFinal(buf.duplicate(), out); // 겹치는 버퍼는 Cipher가 처리함
+        buf.limit(start + n);
+        return n;
+    }
+
+    private static Cipher gcm(int mode, SecretKey key, byte[] iv, byte[] aad) throws Exception {
+        Cipher c = GCM.get();
+        c.init(mode, key, new GCMParameterSpec(128, iv));
+        if (aad != null) c.updateAAD(aad);
+        return c;
     }
 }
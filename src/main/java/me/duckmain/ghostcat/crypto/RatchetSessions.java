@@ -0,0 +1,194 @@
+package me.duckmain.ghostcat.crypto;
+
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.KeyPair;
+import java.security.SecureRandom;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 피어별 대칭 래칫 (CAPS의 ratchet=1을 서로 보낸 경우만).
+ * <pre>
+ * 에포크 시작   ephemeral X25519 x 상대 static -> HKDF -> chain key (공개키 연산은 여기서만)
+ * 메시지마다    ChainKey 한 단계: message key = HMAC(ck, 1), iv = HMAC(ck, 3)[0..12], 다음 ck = HMAC(ck, 2)
+ * 형식          R1:epoch:n:ephPub:ct[:codec]   ephPub는 에포크의 첫 메시지(n=0)에만 실리고 나머지는 비어 있음
+ * </pre>
+ * "R1:epoch:n[:codec]"가 AAD라 헤더를 바꾸면 복호화가 실패함. 쓴 chain key는 바로 버리므로 지난 메시지 키를 되살릴 수 없음.
+ * 에포크는 -Dghostcat.ratchet.maxMessages (기본 1000)개나 -Dghostcat.ratchet.maxAgeMillis (기본 10분)가 지나면 새로 DH를 함.
+ * 릴레이가 순서대로 전달하지만 건너뛴 번호는 -Dghostcat.ratchet.maxSkip (기본 256)개까지 키를 남겨 둠.
+ * -Dghostcat.ratchet=false 면 광고하지 않고 기존 메시지별 ephemeral 형식만 씀.
+ */
+public final class RatchetSessions {
+    public static final String CAPS_KEY = "ratchet";
+    private static final String VERSION = "1";
+    private static final String PREFIX = "R1:";
+    private static final byte[] SALT = "ghostcat-ratchet-v1".getBytes(StandardCharsets.US_ASCII);
+    private static final int RECV_EPOCHS = 4; // 피어당 남겨 두는 수신 에포크 (새 에포크 직후 늦게 온 이전 메시지용)
+    private static final SecureRandom RNG = new SecureRandom();
+
+    private final boolean enabled = !"false".equalsIgnoreCase(System.getProperty("ghostcat.ratchet"));
+    private final int maxMessages = Integer.getInteger("ghostcat.ratchet.maxMessages", 1000);
+    private final long maxAgeNanos = TimeUnit.MILLISECONDS.toNanos(Long.getLong("ghostcat.ratchet.maxAgeMillis", 600_000L));
+    private final int maxSkip = Integer.getInteger("ghostcat.ratchet.maxSkip", 256);
+    private final Map<String, Peer> peers = new ConcurrentHashMap<>();
+
+    /**
+     * 복호화 결과. codec이 null이 아니면 data는 압축된 상태
+     */
+    public record Opened(byte[] data, String codec) {}
+
+    /**
+     * 모르는 에포크 (첫 메시지를 놓쳤거나 이쪽이 상태를 잃음). 키를 다시 교환하면 상대가 새 에포크를 시작함
+     */
+    public static final class UnknownEpochException extends GeneralSecurityException {
+        private static final long serialVersionUID = 1L;
+
+        UnknownEpochException(String epoch) {
+            super("unknown ratchet epoch " + epoch);
+        }
+    }
+
+    private static final class SendChain {
+        final String epoch;
+        final String ephPub;
+        final long started = System.nanoTime();
+        byte[] ck;
+        long next;
+
+        SendChain(String epoch, String ephPub, byte[] ck) {
+            this.epoch = epoch;
+            this.ephPub = ephPub;
+            this.ck = ck;
+        }
+    }
+
+    private static final class Peer {
+        boolean supported;
+        SendChain send;
+        final LinkedHashMap<String, ChainKey.Receiver> recv = new LinkedHashMap<>();
+    }
+
+    /**
+     * CAPS에 넣을 필드. 비활성이면 null
+     */
+    public String capsField() {
+        return enabled ? CAPS_KEY + "=" + VERSION : null;
+    }
+
+    // 상대의 CAPS (필드는 ';'로 구분, PayloadCompressor와 같은 본문을 씀)
+    public void onPeerCaps(String peer, String body) {
+        boolean supported = false;
+        for (String field : body.split(";")) {
+            int eq = field.indexOf('=');
+            if (eq > 0 && field.substring(0, eq).trim().equals(CAPS_KEY)) {
+                supported = Arrays.asList(field.substring(eq + 1).trim().split(",")).contains(VERSION);
+            }
+        }
+        Peer p = peer(peer);
+        synchronized (p) {
+            p.supported = enabled && supported;
+        }
+    }
+
+    // 상대가 나갔거나 키를 새로 보냄 (상대 static이 바뀌었을 수 있으므로 다음 메시지는 새 에포크)
+    public void forget(String peer) {
+        peers.remove(peer);
+    }
+
+    public boolean active(String peer) {
+        Peer p = peers.get(peer);
+        if (p == null) return false;
+        synchronized (p) {
+            return p.supported;
+        }
+    }
+
+    public static boolean isRatchet(String payload) {
+        return payload.startsWith(PREFIX);
+    }
+
+    /**
+     * @param codec data가 압축됐으면 코덱 이름 (AAD에 포함), 아니면 null
+     */
+    public String encrypt(String peer, byte[] peerStatic, byte[] data, String codec) throws Exception {
+        Peer p = peer(peer);
+        String header;
+        String ephPub;
+        ChainKey.MessageKey mk;
+        synchronized (p) {
+            SendChain c = p.send;
+            if (c == null || c.next >= maxMessages || System.nanoTime() - c.started >= maxAgeNanos) {
+                c = p.send = newSendChain(peerStatic);
+            }
+            header = PREFIX + c.epoch + ":" + c.next;
+            ephPub = c.next == 0 ? c.ephPub : "";
+            ChainKey.Step st = ChainKey.advance(c.ck);
+            mk = st.mk();
+            c.ck = st.next();
+            c.next++;
+        }
+        byte[] ct = CryptoUtils.encryptAESGCM(data, 0, data.length, mk.key(), mk.iv(), aad(header, codec));
+        String payload = header + ":" + ephPub + ":" + Base64.getEncoder().encodeToString(ct);
+        return codec == null ? payload : payload + ":" + codec;
+    }
+
+    public Opened decrypt(String peer, String payload) throws Exception {
+        // R1:epoch:n:ephPub:ct[:codec]
+        String[] pcs = payload.split(":", 6);
+        if (pcs.length < 5) throw new GeneralSecurityException("invalid ratchet payload");
+        String epoch = pcs[1];
+        long n = Long.parseLong(pcs[2]);
+        String codec = pcs.length == 6 ? pcs[5] : null;
+        byte[] ct = Base64.getDecoder().decode(pcs[4]);
+        byte[] aad = aad(PREFIX + epoch + ":" + n, codec);
+
+        Peer p = peer(peer);
+        synchronized (p) {
+            ChainKey.Receiver c = p.recv.get(epoch);
+            if (c == null) {
+                if (pcs[3].isEmpty()) throw new UnknownEpochException(epoch);
+                byte[] shared = CryptoUtils.sharedStaticEphemeral(Base64.getDecoder().decode(pcs[3]));
+                c = new ChainKey.Receiver(CryptoUtils.hkdf(shared, SALT, 32), 0);
+                // 아직 등록하지 않음: 복호화에 성공해야 에포크로 인정
+                byte[] plain = c.open(n, ct, aad, maxSkip);
+                p.recv.put(epoch, c);
+                trimEpochs(p);
+                return new Opened(plain, codec);
+            }
+            return new Opened(c.open(n, ct, aad, maxSkip), codec);
+        }
+    }
+
+    private static void trimEpochs(Peer p) {
+        Iterator<String> it = p.recv.keySet().iterator();
+        while (p.recv.size() > RECV_EPOCHS && it.hasNext()) {
+            it.next();
+            it.remove();
+        }
+    }
+
+    private Peer peer(String nick) {
+        return peers.computeIfAbsent(nick, k -> new Peer());
+    }
+
+    private static SendChain newSendChain(byte[] peerStatic) throws Exception {
+        KeyPair eph = CryptoUtils.generateEphemeral();
+        byte[] shared = CryptoUtils.sharedEphemeralStatic(eph.getPrivate(), peerStatic);
+        byte[] id = new byte[4];
+        RNG.nextBytes(id);
+        StringBuilder epoch = new StringBuilder(8);
+        for (byte b : id) epoch.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+        return new SendChain(epoch.toString(), Base64.getEncoder().encodeToString(eph.getPublic().getEncoded()),
+                CryptoUtils.hkdf(shared, SALT, 32));
+    }
+
+    private static byte[] aad(String header, String codec) {
+        return (codec == null ? header : header + ":" + codec).getBytes(StandardCharsets.US_ASCII);
+    }
+}
@@ -0,0 +1,327 @@
+package me.duckmain.ghostcat.crypto;
+
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.SecureRandom;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * room 메시지용 sender key (CAPS의 group=1을 멤버 모두가 보낸 경우만).
+ * <pre>
+ * GKEY:#room:keyId:n:ck    내 sender key (chain key와 다음 번호). 멤버마다 기존 1:1 암호화 MSG로 한 번만 보냄
+ * G1:keyId:n:ct            MSG|me|#room 본문. ChainKey 한 단계로 한 번만 암호화하고 서버가 멤버에게 나눔
+ * </pre>
+ * AAD는 "G1:#room:보낸사람:keyId:n"이라 다른 room이나 다른 보낸 사람으로 바꿔 끼우면 복호화가 실패함.
+ * 멤버가 바뀌면 (ROOM의 =, +, -) 다음에 보낼 때 새 sender key를 만들어 현재 멤버에게 다시 나눠 줌
+ * (나간 멤버는 이후 메시지를 못 풀고, 새 멤버는 이전 메시지를 못 풂).
+ * 키보다 먼저 온 메시지는 room마다 -Dghostcat.group.maxPending (기본 64)개까지 두었다가 키가 오면 풂.
+ * -Dghostcat.group=false 면 광고하지 않고 room에도 멤버마다 1:1로 암호화해서 보냄.
+ */
+public final class SenderKeys {
+    public static final String CAPS_KEY = "group";
+    private static final String VERSION = "1";
+    private static final String PREFIX = "G1:";
+    private static final String DIST_PREFIX = "GKEY:";
+    private static final int RECV_KEYS = 2; // 보낸 사람당 남겨 두는 키 (교체 직후 늦게 온 이전 메시지용)
+    private static final SecureRandom RNG = new SecureRandom();
+
+    private final boolean enabled = !"false".equalsIgnoreCase(System.getProperty("ghostcat.group"));
+    private final int maxSkip = Integer.getInteger("ghostcat.group.maxSkip", 256);
+    private final int maxPending = Integer.getInteger("ghostcat.group.maxPending", 64);
+    private final Set<String> supported = ConcurrentHashMap.newKeySet();
+    private final Map<String, Room> rooms = new ConcurrentHashMap<>();
+
+    /**
+     * 복호화한 room 메시지
+     */
+    public record Opened(String room, String from, byte[] data) {}
+
+    /**
+     * 보내기 전에 나눠 줄 내 sender key. plain을 recipients에게 1:1로 암호화해서 실제로 보낸 뒤에 distributed()로 알려 줌
+     */
+    public record Distribution(String plain, List<String> recipients) {}
+
+    private static final class OwnKey {
+        final String keyId;
+        final Set<String> holders = new HashSet<>(); // 이 키를 받은 멤버
+        byte[] ck;
+        long next;
+
+        OwnKey(String keyId, byte[] ck) {
+            this.keyId = keyId;
+            this.ck = ck;
+        }
+    }
+
+    private record Pending(String from, String payload) {}
+
+    private static final class Room {
+        final Set<String> members = new HashSet<>(); // 나를 뺀 멤버
+        OwnKey own;
+        boolean rotate = true;
+        final Map<String, LinkedHashMap<String, ChainKey.Receiver>> recv = new HashMap<>();
+        final ArrayDeque<Pending> pending = new ArrayDeque<>();
+    }
+
+    /**
+     * CAPS에 넣을 필드. 비활성이면 null
+     */
+    public String capsField() {
+        return enabled ? CAPS_KEY + "=" + VERSION : null;
+    }
+
+    public void onPeerCaps(String peer, String body) {
+        boolean ok = false;
+        for (String field : body.split(";")) {
+            int eq = field.indexOf('=');
+            if (eq > 0 && field.substring(0, eq).trim().equals(CAPS_KEY)) {
+                ok = Arrays.asList(field.substring(eq + 1).trim().split(",")).contains(VERSION);
+            }
+        }
+        if (enabled && ok) supported.add(peer);
+        else supported.remove(peer);
+    }
+
+    // 상대가 나갔거나 키를 새로 보냄: 상대가 가진 내 키 상태를 모르므로 다음에 보낼 때 다시 나눠 줌
+    public void forget(String peer) {
+        supported.remove(peer);
+        for (Room r : rooms.values()) {
+            synchronized (r) {
+                if (r.own != null) r.own.holders.remove(peer);
+            }
+        }
+    }
+
+    /**
+     * 서버의 ROOM 본문: "=a,b,c" (입장 시 전체), "+a", "-a"
+     *
+     * @return 새로 알게 된 멤버 (키 교환이 필요할 수 있음)
+     */
+    public List<String> onRoom(String room, String self, String body) {
+        if (body.isEmpty()) return List.of();
+        Room r = rooms.computeIfAbsent(room, k -> new Room());
+        List<String> added = new ArrayList<>();
+        String change = body.substring(1);
+        synchronized (r) {
+            switch (body.charAt(0)) {
+                case '=' -> {
+                    Set<String> now = new HashSet<>();
+                    for (String m : change.split(",")) {
+                        if (!m.isBlank() && !m.equals(self)) now.add(m);
+                    }
+                    for (String m : now) if (!r.members.contains(m)) added.add(m);
+                    r.recv.keySet().retainAll(now);
+                    r.members.clear();
+                    r.members.addAll(now);
+                }
+                case '+' -> {
+                    if (!change.equals(self) && r.members.add(change)) added.add(change);
+                }
+                case '-' -> {
+                    r.members.remove(change);
+                    r.recv.remove(change);
+                    r.pending.removeIf(p -> p.from().equals(change));
+                }
+                default -> {
+                    return List.of();
+                }
+            }
+            r.rotate = true;
+        }
+        return added;
+    }
+
+    // 내가 room에서 나감
+    public void leave(String room) {
+        rooms.remove(room);
+    }
+
+    public boolean joined(String room) {
+        return rooms.containsKey(room);
+    }
+
+    public Set<String> rooms() {
+        return Set.copyOf(rooms.keySet());
+    }
+
+    public List<String> members(String room) {
+        Room r = rooms.get(room);
+        if (r == null) return List.of();
+        synchronized (r) {
+            return new ArrayList<>(r.members);
+        }
+    }
+
+    /**
+     * 멤버 모두가 group=1을 광고했으면 true (아니면 멤버마다 1:1로 보내야 함)
+     */
+    public boolean active(String room) {
+        if (!enabled) return false;
+        Room r = rooms.get(room);
+        if (r == null) return false;
+        synchronized (r) {
+            return supported.containsAll(r.members);
+        }
+    }
+
+    public static boolean isGroup(String payload) {
+        return payload.startsWith(PREFIX);
+    }
+
+    public static boolean isDistribution(String plain) {
+        return plain.startsWith(DIST_PREFIX);
+    }
+
+    /**
+     * 멤버가 바뀌었으면 여기서 새 키로 교체함. 아직 현재 키를 받지 않은 멤버가 없으면 recipients가 빔
+     */
+    public Distribution distribution(String room) {
+        Room r = rooms.get(room);
+        if (r == null) return new Distribution(null, List.of());
+        synchronized (r) {
+            OwnKey own = current(r);
+            List<String> missing = new ArrayList<>();
+            for (String m : r.members) if (!own.holders.contains(m)) missing.add(m);
+            if (missing.isEmpty()) return new Distribution(null, missing);
+            String plain = DIST_PREFIX + room + ":" + own.keyId + ":" + own.next + ":" + Base64.getEncoder().encodeToString(own.ck);
+            return new Distribution(plain, missing);
+        }
+    }
+
+    /**
+     * plain(GKEY)을 member에게 실제로 보냈음. 큐에 있는 동안 키가 교체됐으면 현재 키의 holder로 치지 않음
+     */
+    public void distributed(String member, String plain) {
+        String[] pcs = plain.split(":", 5);
+        if (pcs.length != 5) return;
+        Room r = rooms.get(pcs[1]);
+        if (r == null) return;
+        synchronized (r) {
+            if (r.own != null && r.own.keyId.equals(pcs[2])) r.own.holders.add(member);
+        }
+    }
+
+    // 같은 room의 같은 키를 나눠 주는 GKEY인지 (번호만 다름). 먼저 만든 쪽이 더 이른 번호부터 풂
+    public static boolean sameKey(String a, String b) {
+        String[] x = a.split(":", 4);
+        String[] y = b.split(":", 4);
+        return x.length == 4 && y.length == 4 && x[1].equals(y[1]) && x[2].equals(y[2]);
+    }
+
+    // 보내는 쪽: 한 번만 암호화해서 room으로 보냄
+    public String encrypt(String room, String self, byte[] data) throws Exception {
+        Room r = rooms.get(room);
+        if (r == null) throw new GeneralSecurityException("not in room " + room);
+        String header;
+        ChainKey.MessageKey mk;
+        synchronized (r) {
+            // 교체는 distribution()에서만 (그 사이 멤버가 바뀌어도 방금 나눠 준 키로 보내고, 교체는 다음 메시지에서)
+            OwnKey own = r.own != null ? r.own : current(r);
+            header = PREFIX + own.keyId + ":" + own.next;
+            ChainKey.Step st = ChainKey.advance(own.ck);
+            mk = st.mk();
+            own.ck = st.next();
+            own.next++;
+        }
+        byte[] ct = CryptoUtils.encryptAESGCM(data, 0, data.length, mk.key(), mk.iv(), aad(room, self, header));
+        return header + ":" + Base64.getEncoder().encodeToString(ct);
+    }
+
+    /**
+     * @return 복호화 결과. 보낸 사람의 키를 아직 못 받았으면 null (키가 오면 onDistribution이 돌려줌)
+     */
+    public Opened decrypt(String room, String from, String payload) throws Exception {
+        Room r = rooms.get(room);
+        if (r == null) throw new GeneralSecurityException("not in room " + room);
+        synchronized (r) {
+            Opened opened = open(r, room, from, payload);
+            if (opened == null) {
+                r.pending.addLast(new Pending(from, payload));
+                while (r.pending.size() > maxPending) r.pending.pollFirst();
+            }
+            return opened;
+        }
+    }
+
+    /**
+     * 1:1로 받은 GKEY 평문. 보낸 사람의 키를 저장하고, 그 키로 풀리는 대기 메시지를 돌려줌
+     */
+    public List<Opened> onDistribution(String from, String plain) throws Exception {
+        // GKEY:#room:keyId:n:ck
+        String[] pcs = plain.split(":", 5);
+        if (pcs.length != 5) throw new GeneralSecurityException("invalid sender key");
+        String room = pcs[1];
+        Room r = rooms.get(room);
+        if (r == null) return List.of(); // 이미 나간 room
+        String keyId = pcs[2];
+        long n = Long.parseLong(pcs[3]);
+        byte[] ck = Base64.getDecoder().decode(pcs[4]);
+        synchronized (r) {
+            LinkedHashMap<String, ChainKey.Receiver> keys = r.recv.computeIfAbsent(from, k -> new LinkedHashMap<>());
+            if (keys.containsKey(keyId)) return List.of(); // 같은 키를 다시 받음 (이미 진행한 체인을 되돌리지 않음)
+            keys.put(keyId, new ChainKey.Receiver(ck, n));
+            Iterator<String> it = keys.keySet().iterator();
+            while (keys.size() > RECV_KEYS && it.hasNext()) {
+                it.next();
+                it.remove();
+            }
+
+            List<Opened> opened = new ArrayList<>();
+            for (Iterator<Pending> pit = r.pending.iterator(); pit.hasNext(); ) {
+                Pending p = pit.next();
+                if (!p.from().equals(from)) continue;
+                try {
+                    Opened o = open(r, room, from, p.payload());
+                    if (o == null) continue; // 또 다른 키를 기다림
+                    opened.add(o);
+                } catch (GeneralSecurityException e) {
+                    // 키를 받기 전 번호라 풀 수 없음
+                }
+                pit.remove();
+            }
+            return opened;
+        }
+    }
+
+    private Opened open(Room r, String room, String from, String payload) throws Exception {
+        // G1:keyId:n:ct
+        String[] pcs = payload.split(":", 4);
+        if (pcs.length != 4) throw new GeneralSecurityException("invalid group payload");
+        String header = PREFIX + pcs[1] + ":" + pcs[2];
+        Map<String, ChainKey.Receiver> keys = r.recv.get(from);
+        ChainKey.Receiver c = keys == null ? null : keys.get(pcs[1]);
+        if (c == null) return null;
+        byte[] ct = Base64.getDecoder().decode(pcs[3]);
+        return new Opened(room, from, c.open(Long.parseLong(pcs[2]), ct, aad(room, from, header), maxSkip));
+    }
+
+    private static OwnKey current(Room r) {
+        if (r.own == null || r.rotate) {
+            byte[] id = new byte[4];
+            byte[] ck = new byte[32];
+            RNG.nextBytes(id);
+            RNG.nextBytes(ck);
+            StringBuilder keyId = new StringBuilder(8);
+            for (byte b : id) keyId.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+            r.own = new OwnKey(keyId.toString(), ck);
+            r.rotate = false;
+        }
+        return r.own;
+    }
+
+    private static byte[] aad(String room, String from, String header) {
+        // header는 "G1:keyId:n" -> "G1:#room:from:keyId:n"
+        return (PREFIX + room + ":" + from + header.substring(PREFIX.length() - 1)).getBytes(StandardCharsets.UTF_8);
+    }
+}
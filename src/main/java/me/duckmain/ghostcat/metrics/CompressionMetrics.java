@@ -0,0 +1,124 @@
+package me.duckmain.ghostcat.metrics;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 암호화 전 압축 단계의 절약량과 비용.
+ * CPU 시간은 ThreadMXBean의 현재 스레드 CPU 시간 차이 (지원하지 않는 JVM이면 경과 시간으로 대신함).
+ */
+public final class CompressionMetrics implements CompressionMetricsMBean {
+    private static final ThreadMXBean THREADS = ManagementFactory.getThreadMXBean();
+    private static final boolean CPU_TIME = THREADS.isCurrentThreadCpuTimeSupported();
+
+    private final LongAdder compressed = new LongAdder();
+    private final LongAdder skipped = new LongAdder();
+    private final LongAdder bytesBefore = new LongAdder();
+    private final LongAdder bytesAfter = new LongAdder();
+    private final LongAdder compressCpuNanos = new LongAdder();
+    private final LongAdder decompressed = new LongAdder();
+    private final LongAdder decompressCpuNanos = new LongAdder();
+    private ObjectName objectName;
+
+    // 측정 시작점 (compressed/decompressed에 그대로 넘김)
+    public static long cpuNanos() {
+        return CPU_TIME ? THREADS.getCurrentThreadCpuTime() : System.nanoTime();
+    }
+
+    /**
+     * @param before 압축 전 크기
+     * @param after  실제로 보낸 크기 (압축 결과가 더 크거나 비슷해서 원본을 보냈으면 before와 같음)
+     */
+    public void compressed(long startCpuNanos, int before, int after) {
+        compressCpuNanos.add(cpuNanos() - startCpuNanos);
+        if (after < before) compressed.increment();
+        else skipped.increment();
+        bytesBefore.add(before);
+        bytesAfter.add(after);
+    }
+
+    // 크기/형식 때문에 압축을 시도하지도 않은 경우
+    public void skipped(int bytes) {
+        skipped.increment();
+        bytesBefore.add(bytes);
+        bytesAfter.add(bytes);
+    }
+
+    public void decompressed(long startCpuNanos) {
+        decompressCpuNanos.add(cpuNanos() - startCpuNanos);
+        decompressed.increment();
+    }
+
+    public synchronized void publish() {
+        if (objectName != null) return;
+        try {
+            MBeanServer mbs = ManagementFactory.getPlatformMBeanServer();
+            ObjectName name = new ObjectName("me.duckmain.ghostcat:type=Compression");
+            if (!mbs.isRegistered(name)) {
+                mbs.registerMBean(this, name);
+                objectName = name;
+            }
+        } catch (JMException e) {
+            System.err.println("Compression MBean registration failed: " + e.getMessage());
+        }
+    }
+
+    @Override
+    public String toString() {
+        return String.format("compressed %d, skipped %d, %d -> %d bytes (saved %d), cpu %.1f ms / decompress %.1f ms",
+                getCompressed(), getSkipped(), getBytesBeforeCompression(), getBytesAfterCompression(),
+                getBytesSaved(), getCompressCpuMillis(), getDecompressCpuMillis());
+    }
+
+    // ===== CompressionMetricsMBean =====
+
+    @Override
+    public long getCompressed() {
+        return compressed.sum();
+    }
+
+    @Override
+    public long getSkipped() {
+        return skipped.sum();
+    }
+
+    @Override
+    public long getBytesBeforeCompression() {
+        return bytesBefore.sum();
+    }
+
+    @Override
+    public long getBytesAfterCompression() {
+        return bytesAfter.sum();
+    }
+
+    @Override
+    public long getBytesSaved() {
+        return bytesBefore.sum() - bytesAfter.sum();
+    }
+
+    @Override
+    public double getCompressionRatio() {
+        long before = bytesBefore.sum();
+        return before == 0 ? 1.0 : (double) bytesAfter.sum() / before;
+    }
+
+    @Override
+    public double getCompressCpuMillis() {
+        return compressCpuNanos.sum() / 1e6;
+    }
+
+    @Override
+    public long getDecompressed() {
+        return decompressed.sum();
+    }
+
+    @Override
+    public double getDecompressCpuMillis() {
+        return decompressCpuNanos.sum() / 1e6;
+    }
+}
@@ -0,0 +1,25 @@
+package me.duckmain.ghostcat.metrics;
+
+/**
+ * JMX로 노출하는 클라이언트 압축 지표 (me.duckmain.ghostcat:type=Compression).
+ * 바이트는 압축 전 평문 / 압축 결과 기준, CPU 시간은 압축/해제한 스레드의 CPU 시간 합.
+ */
+public interface CompressionMetricsMBean {
+    long getCompressed();
+
+    long getSkipped();
+
+    long getBytesBeforeCompression();
+
+    long getBytesAfterCompression();
+
+    long getBytesSaved();
+
+    double getCompressionRatio();
+
+    double getCompressCpuMillis();
+
+    long getDecompressed();
+
+    double getDecompressCpuMillis();
+}
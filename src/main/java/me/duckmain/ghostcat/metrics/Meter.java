@@ -0,0 +1,38 @@
+package me.duckmain.ghostcat.metrics;
+
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 누적 카운터 + 초당 비율. 비율은 읽을 때 직전 샘플과의 차이로 계산하므로 별도 스레드가 없음
+ * (샘플 간격이 1초 미만이면 직전에 계산한 값을 그대로 돌려줌).
+ */
+public final class Meter {
+    private record Sample(long nanos, long count, double rate) {}
+
+    private final LongAdder count = new LongAdder();
+    private final AtomicReference<Sample> last = new AtomicReference<>(new Sample(System.nanoTime(), 0, 0));
+
+    public void mark() {
+        count.increment();
+    }
+
+    public void mark(long n) {
+        count.add(n);
+    }
+
+    public long count() {
+        return count.sum();
+    }
+
+    public double ratePerSecond() {
+        Sample prev = last.get();
+        long now = System.nanoTime();
+        long elapsed = now - prev.nanos();
+        if (elapsed < 1_000_000_000L) return prev.rate();
+        long c = count.sum();
+        Sample next = new Sample(now, c, (c - prev.count()) * 1e9 / elapsed);
+        // 경쟁에서 지면 다른 읽기 스레드가 이미 갱신한 것
+        return last.compareAndSet(prev, next) ? next.rate() : last.get().rate();
+    }
+}
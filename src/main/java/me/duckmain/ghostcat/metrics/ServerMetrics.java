@@ -0,0 +1,332 @@
+package me.duckmain.ghostcat.metrics;
+
+import me.duckmain.ghostcat.network.FrameType;
+import me.duckmain.ghostcat.network.QueueStats;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.util.List;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.IntSupplier;
+import java.util.function.Supplier;
+
+/**
+ * 릴레이 서버 하나의 지표. 카운터는 모두 LongAdder라서 라우팅 경로에 락이 추가되지 않음.
+ * <ul>
+ *   <li>프레임 수: 타입별 수신(클라이언트 -> 서버)과 송신(서버 -> 클라이언트, 수신자마다 1)</li>
+ *   <li>바이트: 수신 본문 바이트, 송신 큐에 넣은 인코딩된 바이트 (TLS 이전)</li>
+ *   <li>accept 수/초, TLS 핸드셰이크 시간 (전체/세션 재개 따로), 라우팅 지연 (프레임 디코딩 후 모든 수신자 큐에 넣을 때까지)</li>
+ *   <li>접속 수와 클라이언트별 큐 깊이는 읽을 때 Relay에서 가져옴, 프로세스 CPU 시간은 OS에서</li>
+ * </ul>
+ * {@link #publish(int)}로 JMX MBean 등록, -Dghostcat.metrics.port가 있으면 localhost 텍스트 엔드포인트도 염.
+ */
+public final class ServerMetrics implements ServerMetricsMBean {
+    private static final FrameType[] TYPES = FrameType.values();
+
+    private final LongAdder[] framesIn = adders(TYPES.length);
+    private final LongAdder[] framesOut = adders(TYPES.length);
+    private final LongAdder bytesIn = new LongAdder();
+    private final LongAdder bytesOut = new LongAdder();
+    private final Meter messages = new Meter();
+    private final Meter accepts = new Meter();
+    private final LongAdder reaped = new LongAdder();
+    private final Histogram handshake = new Histogram();
+    private final Histogram handshakeFull = new Histogram();
+    private final Histogram handshakeResumed = new Histogram();
+    private final Histogram routing = new Histogram();
+
+    private volatile IntSupplier clients = () -> 0;
+    private volatile Supplier<List<QueueStats>> queues = List::of;
+    private ObjectName objectName;
+    private MetricsEndpoint endpoint;
+
+    private static LongAdder[] adders(int n) {
+        LongAdder[] a = new LongAdder[n];
+        for (int i = 0; i < n; i++) a[i] = new LongAdder();
+        return a;
+    }
+
+    // 읽을 때만 호출되는 게이지 (접속 수, 큐 상태)
+    public void bind(IntSupplier clients, Supplier<List<QueueStats>> queues) {
+        this.clients = clients;
+        this.queues = queues;
+    }
+
+    // ===== 기록 (핫 경로) =====
+
+    public void frameIn(FrameType type, int bodyBytes) {
+        framesIn[type.ordinal()].increment();
+        bytesIn.add(bodyBytes);
+        messages.mark();
+    }
+
+    public void frameOut(FrameType type, int wireBytes) {
+        framesOut[type.ordinal()].increment();
+        bytesOut.add(wireBytes);
+    }
+
+    public void accepted() {
+        accepts.mark();
+    }
+
+    // heartbeat 타임아웃으로 끊은 연결
+    public void reaped() {
+        reaped.increment();
+    }
+
+    public void handshakeNanos(long nanos, boolean resumed) {
+        handshake.recordNanos(nanos);
+        (resumed ? handshakeResumed : handshakeFull).recordNanos(nanos);
+    }
+
+    public void routedNanos(long nanos) {
+        routing.recordNanos(nanos);
+    }
+
+    // ===== 공개 =====
+
+    /**
+     * MBean 등록 (+ 설정돼 있으면 텍스트 엔드포인트). 실패해도 서버 동작에는 영향 없음.
+     */
+    public synchronized void publish(int serverPort) {
+        try {
+            MBeanServer mbs = ManagementFactory.getPlatformMBeanServer();
+            ObjectName name = new ObjectName("me.duckmain.ghostcat:type=RelayServer,port=" + serverPort);
+            if (!mbs.isRegistered(name)) {
+                mbs.registerMBean(this, name);
+                objectName = name;
+            }
+        } catch (JMException e) {
+            System.err.println("Metrics MBean registration failed: " + e.getMessage());
+        }
+
+        Integer port = Integer.getInteger("ghostcat.metrics.port");
+        if (port != null && endpoint == null) {
+            try {
+                endpoint = MetricsEndpoint.start(port, this::dump);
+                System.out.println("Metrics endpoint on http://127.0.0.1:" + endpoint.port() + "/metrics");
+            } catch (IOException e) {
+                System.err.println("Metrics endpoint failed: " + e.getMessage());
+            }
+        }
+    }
+
+    public synchronized void unpublish() {
+        if (objectName != null) {
+            try {
+                ManagementFactory.getPlatformMBeanServer().unregisterMBean(objectName);
+            } catch (JMException ignored) {}
+            objectName = null;
+        }
+        if (endpoint != null) {
+            endpoint.stop();
+            endpoint = null;
+        }
+    }
+
+    // ===== ServerMetricsMBean =====
+
+    @Override
+    public int getConnectedClients() {
+        return clients.getAsInt();
+    }
+
+    @Override
+    public long getAccepted() {
+        return accepts.count();
+    }
+
+    @Override
+    public double getAcceptsPerSecond() {
+        return accepts.ratePerSecond();
+    }
+
+    @Override
+    public long getIdleReaped() {
+        return reaped.sum();
+    }
+
+    @Override
+    public long getMessagesIn() {
+        return messages.count();
+    }
+
+    @Override
+    public double getMessagesPerSecond() {
+        return messages.ratePerSecond();
+    }
+
+    @Override
+    public long getRegisterFrames() {
+        return framesIn(FrameType.REGISTER);
+    }
+
+    @Override
+    public long getKeyFrames() {
+        return framesIn(FrameType.KEY);
+    }
+
+    @Override
+    public long getMsgFrames() {
+        return framesIn(FrameType.MSG);
+    }
+
+    // PEERS는 서버가 보내는 프레임이라 송신 수
+    @Override
+    public long getPeersFrames() {
+        return framesOut(FrameType.PEERS);
+    }
+
+    @Override
+    public long getBytesIn() {
+        return bytesIn.sum();
+    }
+
+    @Override
+    public long getBytesRelayed() {
+        return bytesOut.sum();
+    }
+
+    @Override
+    public long getHandshakeP50Micros() {
+        return handshake.percentileMicros(0.5);
+    }
+
+    @Override
+    public long getHandshakeP99Micros() {
+        return handshake.percentileMicros(0.99);
+    }
+
+    @Override
+    public long getFullHandshakes() {
+        return handshakeFull.count();
+    }
+
+    @Override
+    public long getResumedHandshakes() {
+        return handshakeResumed.count();
+    }
+
+    @Override
+    public long getFullHandshakeP50Micros() {
+        return handshakeFull.percentileMicros(0.5);
+    }
+
+    @Override
+    public long getResumedHandshakeP50Micros() {
+        return handshakeResumed.percentileMicros(0.5);
+    }
+
+    @Override
+    public double getProcessCpuSeconds() {
+        return processCpuNanos() / 1e9;
+    }
+
+    @Override
+    public long getRoutingP50Micros() {
+        return routing.percentileMicros(0.5);
+    }
+
+    @Override
+    public long getRoutingP99Micros() {
+        return routing.percentileMicros(0.99);
+    }
+
+    @Override
+    public long getRoutingMaxMicros() {
+        return routing.maxMicros();
+    }
+
+    @Override
+    public String[] getQueueDepths() {
+        return queues.get().stream()
+                .map(q -> q.nick() + " " + q.depth() + "/" + q.capacity() + " dropped=" + q.dropped())
+                .toArray(String[]::new);
+    }
+
+    public long framesIn(FrameType type) {
+        return framesIn[type.ordinal()].sum();
+    }
+
+    public long framesOut(FrameType type) {
+        return framesOut[type.ordinal()].sum();
+    }
+
+    /**
+     * Prometheus 텍스트 형식 (스크레이프용)
+     */
+    @Override
+    public String dump() {
+        StringBuilder sb = new StringBuilder(2048);
+        gauge(sb, "ghostcat_connected_clients", clients.getAsInt());
+        counter(sb, "ghostcat_accepts_total", accepts.count());
+        gauge(sb, "ghostcat_accepts_per_second", accepts.ratePerSecond());
+        counter(sb, "ghostcat_idle_reaped_total", reaped.sum());
+        gauge(sb, "ghostcat_messages_per_second", messages.ratePerSecond());
+        sb.append("# TYPE ghostcat_frames_total counter\n");
+        for (FrameType t : TYPES) {
+            long in = framesIn[t.ordinal()].sum();
+            long out = framesOut[t.ordinal()].sum();
+            if (in > 0) sb.append("ghostcat_frames_total{type=\"").append(t).append("\",dir=\"in\"} ").append(in).append('\n');
+            if (out > 0) sb.append("ghostcat_frames_total{type=\"").append(t).append("\",dir=\"out\"} ").append(out).append('\n');
+        }
+        counter(sb, "ghostcat_bytes_in_total", bytesIn.sum());
+        counter(sb, "ghostcat_bytes_relayed_total", bytesOut.sum());
+        histogram(sb, "ghostcat_handshake_seconds", handshake);
+        histogram(sb, "ghostcat_handshake_full_seconds", handshakeFull);
+        histogram(sb, "ghostcat_handshake_resumed_seconds", handshakeResumed);
+        counter(sb, "ghostcat_process_cpu_seconds_total", processCpuNanos() / 1e9);
+        histogram(sb, "ghostcat_routing_seconds", routing);
+        sb.append("# TYPE ghostcat_queue_depth gauge\n");
+        List<QueueStats> qs = queues.get();
+        for (QueueStats q : qs) {
+            sb.append("ghostcat_queue_depth{nick=\"").append(escape(q.nick())).append("\"} ").append(q.depth()).append('\n');
+        }
+        sb.append("# TYPE ghostcat_queue_dropped_total counter\n");
+        for (QueueStats q : qs) {
+            sb.append("ghostcat_queue_dropped_total{nick=\"").append(escape(q.nick())).append("\"} ").append(q.dropped()).append('\n');
+        }
+        return sb.toString();
+    }
+
+    // 재접속 폭주 때 핸드셰이크 CPU 비용 확인용 (JVM 전체)
+    private static long processCpuNanos() {
+        if (ManagementFactory.getOperatingSystemMXBean() instanceof com.sun.management.OperatingSystemMXBean os) {
+            return Math.max(0, os.getProcessCpuTime());
+        }
+        return 0;
+    }
+
+    private static void counter(StringBuilder sb, String name, long value) {
+        sb.append("# TYPE ").append(name).append(" counter\n").append(name).append(' ').append(value).append('\n');
+    }
+
+    private static void counter(StringBuilder sb, String name, double value) {
+        sb.append("# TYPE ").append(name).append(" counter\n").append(name).append(' ').append(value).append('\n');
+    }
+
+    private static void gauge(StringBuilder sb, String name, double value) {
+        sb.append("# TYPE ").append(name).append(" gauge\n").append(name).append(' ').append(value).append('\n');
+    }
+
+    // 누적 버킷 (le는 초 단위)
+    private static void histogram(StringBuilder sb, String name, Histogram h) {
+        sb.append("# TYPE ").append(name).append(" histogram\n");
+        long[] counts = h.bucketCounts();
+        long cumulative = 0;
+        for (int i = 0; i < counts.length; i++) {
+            cumulative += counts[i];
+            sb.append(name).append("_bucket{le=\"").append(Histogram.upperBoundMicros(i) / 1e6).append("\"} ").append(cumulative).append('\n');
+        }
+        sb.append(name).append("_bucket{le=\"+Inf\"} ").append(cumulative).append('\n');
+        sb.append(name).append("_sum ").append(h.sumMicros() / 1e6).append('\n');
+        sb.append(name).append("_count ").append(cumulative).append('\n');
+    }
+
+    private static String escape(String label) {
+        return label.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+    }
+}
@@ -0,0 +1,57 @@
+package me.duckmain.ghostcat.metrics;
+
+/**
+ * JMX로 노출하는 릴레이 서버 지표 (jconsole 등에서 me.duckmain.ghostcat:type=RelayServer).
+ * 지연 시간은 마이크로초.
+ */
+public interface ServerMetricsMBean {
+    int getConnectedClients();
+
+    long getAccepted();
+
+    double getAcceptsPerSecond();
+
+    long getIdleReaped();
+
+    long getMessagesIn();
+
+    double getMessagesPerSecond();
+
+    long getRegisterFrames();
+
+    long getKeyFrames();
+
+    long getMsgFrames();
+
+    long getPeersFrames();
+
+    long getBytesIn();
+
+    long getBytesRelayed();
+
+    long getHandshakeP50Micros();
+
+    long getHandshakeP99Micros();
+
+    long getFullHandshakes();
+
+    long getResumedHandshakes();
+
+    long getFullHandshakeP50Micros();
+
+    long getResumedHandshakeP50Micros();
+
+    double getProcessCpuSeconds();
+
+    long getRoutingP50Micros();
+
+    long getRoutingP99Micros();
+
+    long getRoutingMaxMicros();
+
+    // "nick depth/capacity dropped=N" 형식
+    String[] getQueueDepths();
+
+    // 텍스트 엔드포인트와 같은 내용
+    String dump();
+}
@@ -4,30 +4,139 @@ import me.duckmain.ghostcat.tls.SSLUtil;
 
 import javax.net.ssl.SSLSocket;
 import javax.net.ssl.SSLSocketFactory;
-import java.io.BufferedReader;
-import java.io.BufferedWriter;
-import java.io.InputStreamReader;
-import java.io.OutputStreamWriter;
+import java.io.BufferedOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.security.SecureRandom;
+import java.util.ArrayList;
 import java.util.Base64;
+import java.util.Collection;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.function.Consumer;
 
 public class ChatClient {
-    private BufferedReader in;
-    private BufferedWriter out;
-    private SSLSocket socket;
-    private final Consumer<String> onLine;
+    private BufferedOutputStream out;
+    private volatile SSLSocket socket;
+    private volatile Socket plain;  // socket 아래 TCP 소켓 (타이머 스레드에서 막히지 않고 닫을 때)
+    private final Consumer<Frame> onFrame;
+    private final Consumer<String> onInfo;
     private final String nick;
     private final AtomicBoolean running = new AtomicBoolean(false);
+    private volatile boolean binary; // 서버가 PROTO로 수락한 뒤 true
+    private boolean offerBinary = true;
     private Thread readerThread;
+    private SSLSocketFactory factory;
+    private String host;
+    private int port;
+    private volatile String registerBody; // 재연결 시 다시 보낼 REGISTER 본문
+    private final Set<String> rooms = ConcurrentHashMap.newKeySet(); // 재연결 시 다시 JOIN
+    private volatile ConnectionListener connectionListener;
+    private volatile long lastReadNanos;
+    private volatile boolean heartbeatSeen; // 서버가 PING/PONG을 안다는 것을 확인한 뒤에만 직접 PING을 보냄
+    private volatile boolean timedOut;
+    private volatile boolean keyDirectory; // 서버가 빈 KEYS로 KEYS1을 수락한 뒤 true (연결마다 다시 확인)
+    private ScheduledFuture<?> watchdog;
 
-    public ChatClient(String nick, Consumer<String> onLine) {
+    // 세션 재개 (Sessions 참고). 아래 필드는 this로 보호
+    private final String sessionId = newSessionId();
+    private final ReplayBuffer replay = new ReplayBuffer(Integer.getInteger("ghostcat.replay.maxFrames", 4096),
+            Long.getLong("ghostcat.replay.maxBytes", 16L * 1024 * 1024));
+    private boolean sequencing = true; // 서버가 SEQ1을 모른다고 판단되면 false (버퍼에 쌓지 않음)
+    private boolean ackSeen;           // 이번 연결에서 ACK를 받았는지 (open()마다 초기화)
+    private boolean resumed = true;    // false: 끊긴 뒤 재개 ACK 전 (순번 프레임은 버퍼에만 넣음)
+    private long delivered;            // 서버 -> 클라이언트 순번 프레임 중 onFrame으로 넘긴 마지막 번호
+    private long position;             // 이번 연결에서 받은 순번 프레임의 번호 (첫 ACK의 base부터)
+    private long deliveredAcked;       // 서버에 ACK로 알린 번호
+    private boolean deliveredAckScheduled;
+    // 소켓 쓰기를 모두 맡는 이 클라이언트 전용 스레드. 모니터 안에서 순서대로 넘기고 쓰기는 모니터 밖에서 함
+    // (막힌 쓰기가 리더의 accept/onAck나 공용 HEARTBEAT를 붙잡지 않게)
+    private final ExecutorService writer;
+    private volatile Thread writerThread;
+    private volatile boolean closed;   // closeConnection() 이후 자동 재연결 안 함
+    private volatile boolean autoReconnect = true;
+
+    private static final long RECONNECT_INITIAL_MILLIS = Long.getLong("ghostcat.reconnect.initialMillis", 500L);
+    private static final long RECONNECT_MAX_MILLIS = Long.getLong("ghostcat.reconnect.maxMillis", 30_000L);
+    private static final long RESUME_TIMEOUT_MILLIS = Long.getLong("ghostcat.replay.resumeTimeoutMillis", 5_000L);
+    private static final SecureRandom RNG = new SecureRandom();
+    private static final int KEY_LOOKUP_BATCH = 256; // 서버가 KEYS 요청 하나에 답하는 nick 수
+
+    // 클라이언트 전체가 나눠 쓰는 감시 스레드 하나 (연결마다 몇 초에 한 번 검사만 함)
+    private static final ScheduledExecutorService HEARTBEAT = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "ChatClient-Heartbeat");
+        t.setDaemon(true);
+        return t;
+    });
+
+    /**
+     * 연결 상태 변화 알림 (리더 스레드 또는 reconnect()를 부른 스레드에서 호출됨)
+     */
+    public interface ConnectionListener {
+        // closeConnection()이 아닌 이유로 연결이 끊김
+        default void disconnected(String reason) {}
+
+        // 자동 재연결: delayMillis 뒤에 attempt번째 시도
+        default void reconnecting(int attempt, long delayMillis) {}
+
+        // reconnect() 성공 후 REGISTER까지 다시 보낸 상태 (보내지 못한 프레임은 서버 ACK 후 다시 나감)
+        default void reconnected() {}
+    }
+
+    /**
+     * @param onFrame 서버에서 받은 프레임
+     * @param onInfo  연결/전송 상태 메시지
+     */
+    public ChatClient(String nick, Consumer<Frame> onFrame, Consumer<String> onInfo) {
         this.nick = nick;
-        this.onLine = onLine;
+        this.onFrame = onFrame;
+        this.onInfo = onInfo;
+        ThreadFactory factory = Thread.ofVirtual().name("ChatClient-Writer-" + nick).factory();
+        this.writer = Executors.newSingleThreadExecutor(r -> writerThread = factory.newThread(r));
+    }
+
+    // 기존 한 줄 문자열 콜백용 (프레임을 텍스트 줄로 되돌려 전달)
+    public ChatClient(String nick, Consumer<String> onLine) {
+        this(nick, f -> onLine.accept(FrameCodec.toTextLine(f)), onLine);
+    }
+
+    // false면 REGISTER에서 바이너리 프레이밍을 제안하지 않음 (텍스트 전용)
+    public void setOfferBinary(boolean offerBinary) {
+        this.offerBinary = offerBinary;
+    }
+
+    public boolean isBinary() {
+        return binary;
+    }
+
+    // 예기치 않게 끊기면 지수 백오프로 다시 연결 (기본 켜짐)
+    public void setAutoReconnect(boolean autoReconnect) {
+        this.autoReconnect = autoReconnect;
+    }
+
+    public boolean isConnected() {
+        return running.get();
+    }
+
+    public void setConnectionListener(ConnectionListener listener) {
+        this.connectionListener = listener;
     }
 
     // 기본 팩토리를 사용하는 공개 연결 메서드
@@ -38,9 +147,71 @@ public class ChatClient {
 
     // 제공된 SSLSocketFactory를 사용하는 핵심 연결 — 실제로 trustAllFactory를 사용함을 보장함
     public void connectToTLSWithFactory(SSLSocketFactory ssf, String host, int port) throws Exception {
-        // create socket with the provided factory (so trust-all is honored)
-        socket = (SSLSocket) ssf.createSocket();
-        socket.connect(new InetSocketAddress(host, port), 4000);
+        this.factory = ssf;
+        this.host = host;
+        this.port = port;
+        open();
+    }
+
+    /**
+     * 마지막으로 연결했던 서버에 다시 연결하고 REGISTER를 다시 보냄.
+     * 바이너리 프레이밍은 서버가 PROTO를 다시 보낼 때까지 텍스트로 돌아감.
+     */
+    public void reconnect() throws Exception {
+        if (factory == null) throw new IllegalStateException("never connected");
+        cleanup();
+        binary = false;
+        synchronized (this) {
+            resumed = false;
+        }
+        open();
+        String body = registerBody;
+        if (body != null) {
+            send(Frame.of(FrameType.REGISTER, nick, "", body));
+            expectAck();
+        } else {
+            synchronized (this) {
+                resumed = true;
+            }
+        }
+        for (String room : rooms) send(Frame.of(FrameType.JOIN, nick, room, ""));
+        if (closed) {
+            closeConnection(); // 재연결 중에 닫힘
+            return;
+        }
+        ConnectionListener l = connectionListener;
+        if (l != null) l.reconnected();
+    }
+
+    private void reconnectLoop() {
+        long delay = RECONNECT_INITIAL_MILLIS;
+        for (int attempt = 1; !closed; attempt++) {
+            // 여러 클라이언트가 동시에 끊겨도 한꺼번에 몰리지 않도록 지터
+            long wait = delay / 2 + ThreadLocalRandom.current().nextLong(delay / 2 + 1);
+            ConnectionListener l = connectionListener;
+            if (l != null) l.reconnecting(attempt, wait);
+            try {
+                Thread.sleep(wait);
+            } catch (InterruptedException e) {
+                return;
+            }
+            if (closed) return;
+            try {
+                reconnect();
+                return;
+            } catch (Exception e) {
+                System.err.println("Reconnect attempt " + attempt + " failed: " + e.getMessage());
+            }
+            delay = Math.min(RECONNECT_MAX_MILLIS, delay * 2);
+        }
+    }
+
+    private synchronized void open() throws Exception {
+        // TCP 연결은 타임아웃을 주고 먼저 맺은 뒤 TLS를 얹음.
+        // host/port를 넘겨야 클라이언트 세션 캐시에서 이전 세션을 찾아 재개함 (재접속 시 전체 핸드셰이크 생략)
+        Socket plain = new Socket();
+        plain.connect(new InetSocketAddress(host, port), 4000);
+        SSLSocket socket = (SSLSocket) factory.createSocket(plain, host, port, true);
 
         /*
          * 중요: startHandshake()는 핸드셰이크가 완료(또는 실패)될 때까지 블로킹됩니다.
@@ -48,72 +219,321 @@ public class ChatClient {
          */
         socket.startHandshake();
 
-        in = new BufferedReader(new InputStreamReader(socket.getInputStream()));
-        out = new BufferedWriter(new OutputStreamWriter(socket.getOutputStream()));
+        FrameReader in = new FrameReader(socket.getInputStream());
+        this.socket = socket;
+        this.plain = plain;
+        out = new BufferedOutputStream(socket.getOutputStream());
 
         running.set(true);
-        readerThread = new Thread(this::readerLoop, "ChatClient-Reader-" + nick);
+        lastReadNanos = System.nanoTime();
+        heartbeatSeen = false;
+        ackSeen = false; // ACK를 안 보내는 서버로 재연결하면 ackTimeout이 SEQ1을 끌 수 있도록
+        keyDirectory = false;
+        timedOut = false;
+        long period = Math.max(100, Heartbeat.INTERVAL_MILLIS / 3);
+        watchdog = HEARTBEAT.scheduleWithFixedDelay(() -> checkServer(socket), period, period, TimeUnit.MILLISECONDS);
+        readerThread = new Thread(() -> readerLoop(socket, in), "ChatClient-Reader-" + nick);
         readerThread.setDaemon(true); // <- 프로그램 종료시 자동 종료
         readerThread.start();
     }
 
-    private void readerLoop() {
+    // 소켓마다 리더 스레드 하나. 재연결 뒤 이전 리더가 새 소켓을 닫지 않도록 자기 소켓만 정리함
+    private void readerLoop(SSLSocket socket, FrameReader in) {
+        String reason = "closed by server";
         try {
-            String line;
-            while (running.get() && socket != null && !socket.isClosed() && (line = in.readLine()) != null) {
-                onLine.accept(line);
+            Frame frame;
+            while (running.get() && !socket.isClosed() && (frame = in.next()) != null) {
+                lastReadNanos = System.nanoTime();
+                if (frame.type() == FrameType.PING) {
+                    heartbeatSeen = true;
+                    sendAsync(Frame.of(FrameType.PONG, nick, "", frame.bodyText()));
+                    continue;
+                }
+                if (frame.type() == FrameType.PONG) {
+                    heartbeatSeen = true;
+                    continue;
+                }
+                if (frame.type() == FrameType.ACK) {
+                    onAck(socket, frame.bodyText());
+                    continue;
+                }
+                if (frame.type() == FrameType.KEYS) {
+                    keyDirectory = true;
+                    if (frame.body().length == 0) continue; // 수락 알림
+                }
+                if (frame.type() == FrameType.PROTO) {
+                    // 서버가 바이너리 수락: 이후 송신은 바이너리 (수신은 프레임마다 자동 판별)
+                    binary = true;
+                    continue;
+                }
+                // 끊긴 소켓에서 늦게 읽혔거나 이미 받은 번호의 재전송이면 버림
+                if (Sessions.isSequenced(frame.type()) && !accept(socket)) continue;
+                onFrame.accept(frame);
             }
         } catch (IOException e) {
+            reason = e.getMessage();
             if (running.get()) {
-                onLine.accept("Client socket error: " + e.getMessage());
+                onInfo.accept("Client socket error: " + e.getMessage());
             }
         } finally {
-            cleanup();
+            if (timedOut) reason = "heartbeat timeout";
+            boolean current;
+            synchronized (this) {
+                current = socket == this.socket;
+            }
+            if (current && cleanup()) {
+                synchronized (this) {
+                    resumed = false; // 이제부터 보내는 순번 프레임은 재연결 후에 나감
+                }
+                ConnectionListener l = connectionListener;
+                if (l != null) l.disconnected(reason);
+                if (autoReconnect && !closed) {
+                    Thread t = new Thread(this::reconnectLoop, "ChatClient-Reconnect-" + nick);
+                    t.setDaemon(true);
+                    t.start();
+                }
+            }
         }
     }
 
-    public void sendRegister(String pubB64) { sendLine("REGISTER|" + nick + "|" + pubB64); }
-    public void sendKeyExchange(String pubB64, String to) { sendLine("KEY|" + nick + "|" + to + "|" + pubB64); }
-    public void sendMessageToPeer(String to, String payload) { sendLine("MSG|" + nick + "|" + to + "|" + payload); }
+    private synchronized void onAck(SSLSocket from, String body) {
+        if (from != socket) return; // 재연결 전 소켓에서 늦게 읽힌 ACK
+        String[] parts = body.trim().split("\\|");
+        long count;
+        try {
+            count = Long.parseLong(parts[0]);
+        } catch (NumberFormatException e) {
+            onInfo.accept("Ignoring malformed ACK: " + body);
+            return;
+        }
+        if (!ackSeen) startReceiving(parts);
+        ackSeen = true;
+        if (!sequencing) return;
+        if (resumed) {
+            replay.ack(count);
+            return;
+        }
+        // 재연결 후 첫 ACK: 서버가 처리한 수 이후를 순서대로 다시 보냄
+        replay.resume(count);
+        for (Frame f : replay.pending()) write(f, false);
+        resumed = true;
+    }
 
+    // 연결 후 첫 ACK (ACK|n|base|R 재개, 그 밖은 새 세션): 서버가 이어서 보낼 순번 프레임의 시작 번호
+    private void startReceiving(String[] parts) {
+        long base = -1;
+        if (parts.length >= 3 && "R".equals(parts[2])) {
+            try {
+                base = Long.parseLong(parts[1]);
+            } catch (NumberFormatException ignored) {}
+        }
+        if (base < 0) {
+            delivered = 0;
+            deliveredAcked = 0;
+            position = 0;
+            return;
+        }
+        if (base > delivered) {
+            onInfo.accept("Server dropped " + (base - delivered) + " frames while disconnected");
+            delivered = base;
+        }
+        position = base;
+        deliveredAcked = base;
+        if (delivered > deliveredAcked) sendDeliveredAck(); // 서버가 다시 보낼 필요 없는 만큼 바로 알림
+    }
+
+    /**
+     * 순번 프레임 하나를 onFrame으로 넘기기 전에 호출 (리더 스레드). false면 버림
+     */
+    private synchronized boolean accept(SSLSocket from) {
+        if (!sequencing) return true;
+        if (from != socket) return false; // 서버가 재개 후 새 연결로 다시 보냄
+        if (!ackSeen) return true;
+        position++;
+        if (position <= delivered) return false; // 마지막 ACK 뒤에 이미 받은 것의 재전송
+        delivered = position;
+        if (delivered - deliveredAcked >= Sessions.ACK_EVERY) {
+            sendDeliveredAck();
+        } else if (!deliveredAckScheduled) {
+            deliveredAckScheduled = true;
+            HEARTBEAT.schedule(this::sendDeliveredAck, Sessions.ACK_DELAY_MILLIS, TimeUnit.MILLISECONDS);
+        }
+        return true;
+    }
 
-    public void sendImageToPeer(String to, File imageFile) { sendFile(to, imageFile, "IMG"); }
+    private synchronized void sendDeliveredAck() {
+        deliveredAckScheduled = false;
+        if (!ackSeen || !sequencing || delivered <= deliveredAcked) return;
+        deliveredAcked = delivered;
+        write(Frame.of(FrameType.ACK, nick, "", Long.toString(delivered)), false);
+    }
 
-    public void sendVideoToPeer(String to, File videoFile) { sendFile(to, videoFile, "VID"); }
+    // REGISTER를 보낸 뒤: ACK가 안 오면 SEQ1을 모르는 서버
+    private void expectAck() {
+        SSLSocket s = socket;
+        HEARTBEAT.schedule(() -> ackTimeout(s), RESUME_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+    }
 
-    private void sendFile(String to, File file, String type) {
+    private synchronized void ackTimeout(SSLSocket s) {
+        if (s != socket || ackSeen || !sequencing) return;
+        sequencing = false;
+        if (!resumed) {
+            for (Frame f : replay.pending()) write(f, false); // 중복될 수 있지만 잃는 것보다 나음
+            resumed = true;
+        }
+        replay.clear();
+    }
+
+    // 서버가 안 보이게 죽은 경우(전원 차단, NAT 만료 등) 읽기가 끝없이 막히므로 직접 확인함.
+    // 공용 HEARTBEAT 스레드에서 돌므로 PING은 writer에 넘기기만 함 (쓰기가 막힌 클라이언트 하나가 모두의 감시를 멈추지 않게)
+    private void checkServer(SSLSocket socket) {
+        if (!running.get() || socket != this.socket || !heartbeatSeen) return;
+        long idle = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - lastReadNanos);
+        if (idle >= Heartbeat.TIMEOUT_MILLIS) {
+            onInfo.accept("Server not responding for " + idle + " ms, closing");
+            timedOut = true;
+            // TLS close_notify를 쓰지 않도록 TCP 소켓을 닫음. 리더가 깨어나 disconnected -> 재연결 경로로
+            Socket tcp = plain;
+            try { if (tcp != null) tcp.close(); } catch (IOException ignored) {}
+        } else if (idle >= Heartbeat.INTERVAL_MILLIS) {
+            sendAsync(Frame.of(FrameType.PING, nick, "", Long.toString(System.currentTimeMillis())));
+        }
+    }
+
+    public void sendRegister(String pubB64) {
+        String body = pubB64 + (offerBinary ? "|" + FrameCodec.BINARY_OFFER : "") + "|" + Presence.OFFER + "|" + Heartbeat.OFFER + "|" + Relay.CAPS_OFFER
+                + "|" + Presence.KEYS_OFFER + "|" + Sessions.OFFER + "=" + sessionId;
+        registerBody = body;
+        send(Frame.of(FrameType.REGISTER, nick, "", body));
+        expectAck();
+    }
+    public void sendPresenceResync() { send(Frame.of(FrameType.RESYNC, nick, "", "")); }
+
+    /**
+     * 서버 키 디렉터리에 한 번에 조회 (응답은 KEYS 프레임으로 옴). 서버가 KEYS1을 모르면 보내지 않고 false
+     */
+    public boolean lookupKeys(Collection<String> nicks) {
+        if (!keyDirectory) return false;
+        List<String> batch = new ArrayList<>(Math.min(nicks.size(), KEY_LOOKUP_BATCH));
+        for (String n : nicks) {
+            batch.add(n);
+            if (batch.size() == KEY_LOOKUP_BATCH) {
+                send(Frame.of(FrameType.KEYS, nick, "", String.join(",", batch)));
+                batch.clear();
+            }
+        }
+        if (!batch.isEmpty()) send(Frame.of(FrameType.KEYS, nick, "", String.join(",", batch)));
+        return true;
+    }
+
+    public boolean hasKeyDirectory() {
+        return keyDirectory;
+    }
+    public void sendKeyExchange(String pubB64, String to) { send(Frame.of(FrameType.KEY, nick, to, pubB64)); }
+    public void sendCaps(String to, String caps) { send(Frame.of(FrameType.CAPS, nick, to, caps)); }
+    public void sendMessageToPeer(String to, String payload) { send(Frame.of(FrameType.MSG, nick, to, payload)); }
+    public void sendFileStart(String to, String meta) { send(Frame.of(FrameType.FSTART, nick, to, meta)); }
+    public void sendFileChunk(String to, byte[] chunk) { send(new Frame(FrameType.FCHUNK, nick, to, chunk)); }
+    public void sendFileEnd(String to, String meta) { send(Frame.of(FrameType.FEND, nick, to, meta)); }
+    public void sendFileAck(String to, String ack) { send(Frame.of(FrameType.FACK, nick, to, ack)); }
+
+    // room: "#이름". 입장하면 서버가 ROOM|=멤버목록 을 보내고, 이후 +nick/-nick 변경분이 옴.
+    // "#이름"으로 보낸 MSG 등은 그 room 멤버에게만 감
+    public void joinRoom(String room) {
+        rooms.add(room);
+        send(Frame.of(FrameType.JOIN, nick, room, ""));
+    }
+
+    public void partRoom(String room) {
+        rooms.remove(room);
+        send(Frame.of(FrameType.PART, nick, room, ""));
+    }
+
+
+    public void sendImageToPeer(String to, File imageFile) { sendFile(to, imageFile, FrameType.IMG); }
+
+    public void sendVideoToPeer(String to, File videoFile) { sendFile(to, videoFile, FrameType.VID); }
+
+    private void sendFile(String to, File file, FrameType type) {
         if (file == null || !file.exists() || !file.isFile()) {
-            onLine.accept("File not found: " + file);
+            onInfo.accept("File not found: " + file);
             return;
         }
 
         try (FileInputStream fis = new FileInputStream(file)) {
             byte[] data = fis.readAllBytes();
+            if (4L * ((data.length + 2) / 3) > FrameCodec.MAX_FRAME_BYTES - 1024) {
+                onInfo.accept("File too large for a single frame: " + file.getName());
+                return;
+            }
             String encoded = Base64.getEncoder().encodeToString(data);
             String fileName = file.getName();
-            sendLine(type + "|" + nick + "|" + to + "|" + fileName + "|" + encoded);
-            onLine.accept("Sent " + type + " file: " + fileName + " (" + data.length + " bytes)");
+            send(Frame.of(type, nick, to, fileName + "|" + encoded));
+            onInfo.accept("Sent " + type + " file: " + fileName + " (" + data.length + " bytes)");
         } catch (IOException e) {
-            onLine.accept("File send failed: " + e.getMessage());
+            onInfo.accept("File send failed: " + e.getMessage());
         }
     }
 
-    private synchronized void sendLine(String line) {
+    // 소켓에 다 쓸 때까지 기다림 (보내는 쪽이 느린 소켓보다 앞서 나가지 않게). 모니터는 넘길 때만 잡음
+    private void send(Frame frame) {
+        Future<?> written = post(frame);
+        if (Thread.currentThread() == writerThread) return; // writer가 자기 뒤의 쓰기를 기다리면 멈춤
         try {
-            if (out != null) {
-                out.write(line);
-                out.newLine();
-                out.flush();
-            } else {
-                onLine.accept("send fail: output stream not ready");
+            written.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException ignored) {} // write가 알림
+    }
+
+    // 리더/타이머 스레드용: 넘기기만 하고 기다리지 않음
+    private void sendAsync(Frame frame) {
+        post(frame);
+    }
+
+    // 순번 프레임은 ACK까지 버퍼에 남김. 끊겨 있거나 재개 전이면 버퍼에만 넣고 재연결 후에 보냄
+    private synchronized Future<?> post(Frame frame) {
+        boolean sequenced = sequencing && registerBody != null && Sessions.isSequenced(frame.type());
+        if (sequenced) {
+            if (!replay.add(frame)) {
+                onInfo.accept("send fail: replay buffer full (" + replay.size() + " frames)");
+                return CompletableFuture.completedFuture(null);
             }
-        } catch (IOException e) {
-            onLine.accept("send fail: " + e.getMessage());
+            if (!resumed) return CompletableFuture.completedFuture(null);
+        }
+        return write(frame, !sequenced);
+    }
+
+    /**
+     * 모니터 안에서 호출: 지금 연결의 스트림과 프레이밍으로 인코딩해서 writer에 넘김.
+     * writer가 넘긴 순서대로 쓰므로 소켓 순서가 replay 버퍼 순서와 같음
+     */
+    private Future<?> write(Frame frame, boolean reportFailure) {
+        BufferedOutputStream o = out;
+        if (o == null) {
+            if (reportFailure) onInfo.accept("send fail: output stream not ready");
+            return CompletableFuture.completedFuture(null);
+        }
+        ByteBuffer bytes = binary ? FrameCodec.encodeBinary(frame) : FrameCodec.encodeText(frame);
+        try {
+            return writer.submit(() -> {
+                try {
+                    o.write(bytes.array(), bytes.arrayOffset() + bytes.position(), bytes.remaining());
+                    o.flush();
+                } catch (IOException e) {
+                    if (reportFailure) onInfo.accept("send fail: " + e.getMessage());
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            if (reportFailure) onInfo.accept("send fail: connection closed");
+            return CompletableFuture.completedFuture(null);
         }
     }
 
 
     public void closeConnection() {
+        closed = true;
+        writer.shutdown();
         if (!running.getAndSet(false)) return;
 
         running.set(false);
@@ -128,7 +548,6 @@ public class ChatClient {
         } catch (Exception ignored) {}
 
         try { if (socket != null) socket.close(); } catch (IOException ignored) {}
-        try { if (in != null) in.close(); } catch (IOException ignored) {}
         try { if (out != null) out.close(); } catch (IOException ignored) {}
 
         // Reader thread join (안전하게 완전 종료 보장)
@@ -139,15 +558,24 @@ public class ChatClient {
         }
     }
 
-    private void cleanup() {
-        if (!running.getAndSet(false)) return;
+    private boolean cleanup() {
+        if (!running.getAndSet(false)) return false;
 
         System.out.println("clean up");
 
         running.set(false);
+        if (watchdog != null) watchdog.cancel(false);
 
-        try { if (in != null) in.close(); } catch (IOException ignored) {}
         try { if (out != null) out.close(); } catch (IOException ignored) {}
         try { if (socket != null && !socket.isClosed()) socket.close(); } catch (IOException ignored) {}
+        return true;
+    }
+
+    private static String newSessionId() {
+        byte[] id = new byte[16];
+        RNG.nextBytes(id);
+        StringBuilder sb = new StringBuilder(32);
+        for (byte b : id) sb.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+        return sb.toString();
     }
 }
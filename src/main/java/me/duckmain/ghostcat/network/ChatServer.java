@@ -1,38 +1,35 @@
 package me.duckmain.ghostcat.network;
 
+import me.duckmain.ghostcat.metrics.ServerMetrics;
 import me.duckmain.ghostcat.tls.SSLUtil;
 
 import javax.net.ssl.SSLServerSocket;
 import javax.net.ssl.SSLServerSocketFactory;
-import java.io.BufferedReader;
-import java.io.BufferedWriter;
+import javax.net.ssl.SSLSocket;
+import java.io.BufferedOutputStream;
 import java.io.IOException;
-import java.io.InputStreamReader;
-import java.io.OutputStreamWriter;
-import java.net.DatagramPacket;
-import java.net.DatagramSocket;
-import java.net.InetAddress;
 import java.net.Socket;
 import java.net.SocketException;
-import java.nio.charset.StandardCharsets;
-import java.util.Iterator;
-import java.util.Map;
-import java.util.Set;
-import java.util.concurrent.ConcurrentHashMap;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+import java.util.List;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
-import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
 
 // P2P 계승 없이 한명이 서버 유지하는걸로 했음
-public class ChatServer {
+// 블로킹(스레드-당-연결) 구현. NioChatServer의 fallback으로 유지함
+public class ChatServer implements RelayServer {
     private final int port;
-    private final Map<String, Client> clients = new ConcurrentHashMap<>();
+    private final ServerMetrics metrics = new ServerMetrics();
+    private final Relay relay = new Relay(this::stopServer, metrics);
+    private final LanBeacon beacon = new LanBeacon(this::getBoundPort);
+    private final OutboundQueue.Config queueConfig = OutboundQueue.Config.fromSystemProperties();
 
     private ExecutorService pool;
-    private ScheduledExecutorService broadcastScheduler;
     private final AtomicBoolean running = new AtomicBoolean(false);
     private volatile SSLServerSocket serverSocket;
     private final CountDownLatch portReadyLatch = new CountDownLatch(1);
@@ -40,44 +37,17 @@ public class ChatServer {
 
     public ChatServer(int port, boolean enableBroadcast) {
         this.port = port;
-        if (enableBroadcast) startBroadcast();
-    }
-
-    // LAN 브로드캐스트
-    private void startBroadcast() {
-        broadcastScheduler = Executors.newSingleThreadScheduledExecutor();
-        broadcastScheduler.scheduleAtFixedRate(() -> {
-            try (DatagramSocket ds = new DatagramSocket()) {
-                ds.setBroadcast(true);
-                String msg = "E2EE-SERVER:" + InetAddress.getLocalHost().getHostAddress() + ":" + getBoundPort();
-                byte[] data = msg.getBytes(StandardCharsets.UTF_8);
-                DatagramPacket packet = new DatagramPacket(data, data.length,
-                        InetAddress.getByName("255.255.255.255"), 9999);
-                ds.send(packet);
-            } catch (IOException e) {
-                System.err.println("Broadcast error: " + e.getMessage());
-            }
-        }, 0, 1, TimeUnit.SECONDS);
+        if (enableBroadcast) beacon.start();
     }
 
     public void stopBroadcast() {
-        if (broadcastScheduler != null) {
-            broadcastScheduler.shutdownNow();
-            try {
-                if (!broadcastScheduler.awaitTermination(1, TimeUnit.SECONDS)) {
-                    // 강제 종료 후에도 남아있다면 로그
-                    System.err.println("Broadcast scheduler did not terminate quickly.");
-                }
-            } catch (InterruptedException ignored) {
-                Thread.currentThread().interrupt();
-            }
-            broadcastScheduler = null;
-        }
+        beacon.stop();
     }
 
     /**
      * 서버 시작: accept 루프는 별도 쓰레드에서 실행
      */
+    @Override
     public void start() {
         if (!running.compareAndSet(false, true)) return; // 이미 실행중이면 무시
 
@@ -95,10 +65,14 @@ public class ChatServer {
                 serverSocket.setReuseAddress(true);
                 portReadyLatch.countDown();
                 System.out.println("Server started on port " + getBoundPort());
+                metrics.publish(getBoundPort());
+                relay.startCluster();
 
                 while (running.get()) {
                     try {
                         Socket clientSocket = serverSocket.accept();
+                        metrics.accepted();
+                        clientSocket.setKeepAlive(true); // heartbeat를 모르는 클라이언트용
                         // 각 클라이언트 소켓은 별도 worker에서 처리
                         pool.submit(() -> handleSocket(clientSocket));
                     } catch (SocketException se) {
@@ -129,6 +103,7 @@ public class ChatServer {
         acceptThread.start();
     }
 
+    @Override
     public void stopServer() {
         if (!running.compareAndSet(true, false))
             return; // 이미 멈춘 상태이면 리턴
@@ -137,6 +112,7 @@ public class ChatServer {
 
         // 중지 신호: broadcast 정지
         stopBroadcast();
+        metrics.unpublish();
 
         // 닫기 트리거: serverSocket.close() -> accept() 깨움
         try {
@@ -146,16 +122,7 @@ public class ChatServer {
         } catch (IOException ignored) {}
 
         // 연결된 클라이언트 전부 닫기
-        // 복사본을 만들어 순회 (동시 수정 방지)
-        Set<String> nicks = clients.keySet();
-        for (String nick : nicks) {
-            Client c = clients.remove(nick);
-            if (c != null) {
-                try {
-                    c.closeSafe();
-                } catch (Exception ignored) {}
-            }
-        }
+        relay.closeAll();
 
         // executor 종료
         if (pool != null) {
@@ -188,45 +155,45 @@ public class ChatServer {
         System.out.println("Server stopped");
     }
 
+    @Override
     public int waitForPort() throws InterruptedException {
         portReadyLatch.await();
         return getBoundPort();
     }
 
+    @Override
     public int getBoundPort() {
         return serverSocket != null ? serverSocket.getLocalPort() : -1;
     }
 
+    @Override
+    public List<QueueStats> queueStats() {
+        return relay.queueStats();
+    }
+
+    @Override
+    public ServerMetrics metrics() {
+        return metrics;
+    }
+
     private void handleSocket(Socket socket) {
+        Client client = null;
         try (socket;
-             BufferedReader reader = new BufferedReader(new InputStreamReader(socket.getInputStream()));
-             BufferedWriter writer = new BufferedWriter(new OutputStreamWriter(socket.getOutputStream()))) {
-
-            String line;
-            while ((line = reader.readLine()) != null) {
-                if (line.startsWith("REGISTER|")) {
-                    if (line.split("\\|").length < 2) continue;
-                    String nick = line.split("\\|")[1];
-                    Client prev = clients.put(nick, new Client(nick, socket, writer));
-                    if (prev != null) {
-                        try { prev.closeSafe(); } catch (Exception ignored) {}
-                    }
-                    sendPeerList();
-                    continue;
-                }
-                if (line.startsWith("KEY|") || line.startsWith("MSG|")) {
-                    String[] parts = line.split("\\|",4);
-                    if (parts.length < 3) continue;
-                    String to = parts[2];
-                    if ("*".equals(to)) {
-                        for (Client c : clients.values())
-                            if (!c.nick().equals(parts[1]))
-                                c.sendLine(line);
-                    } else {
-                        Client dest = clients.get(to);
-                        if (dest != null) dest.sendLine(line);
-                    }
-                }
+             BufferedOutputStream writer = new BufferedOutputStream(socket.getOutputStream())) {
+
+            // 첫 read에서 암묵적으로 하던 핸드셰이크를 명시적으로 해서 시간을 잼
+            if (socket instanceof SSLSocket ssl) {
+                long startMillis = System.currentTimeMillis();
+                long t0 = System.nanoTime();
+                ssl.startHandshake();
+                metrics.handshakeNanos(System.nanoTime() - t0, SSLUtil.isResumed(ssl.getSession(), startMillis));
+            }
+            client = new Client(socket, writer, queueConfig, metrics);
+            FrameReader reader = new FrameReader(socket.getInputStream(), client::maxFrameBytes);
+            client.startWriter();
+            Frame frame;
+            while ((frame = reader.next()) != null) {
+                relay.handle(client, frame);
             }
         } catch (IOException e) {
             // 연결 중 에러는 로그로 남김
@@ -234,60 +201,68 @@ public class ChatServer {
                 System.err.println("Client socket error: " + e.getMessage());
             }
         } finally {
-            removeSocket(socket);
+            if (client != null) {
+                client.closeSafe();
+                relay.remove(client);
+            }
         }
     }
 
-    private void removeSocket(Socket socket) {
-        if (socket == null) return;
-        for (Iterator<Client> it = clients.values().iterator(); it.hasNext(); ) {
-            Client c = it.next();
-            Socket s = c.socket();
-            if (s.isClosed() || s.equals(socket)) {
-                try { if (!s.isClosed()) s.close(); } catch (IOException ignored) {}
-                it.remove();
-            }
-        }
-        sendPeerList();
+    /**
+     * 내부 표현용 Client (스트림/소켓 안전 종료 메서드 포함).
+     * 송신은 큐를 거쳐 연결 전용 writer 스레드가 처리함.
+     **/
+    private static final class Client extends Connection {
+        private final Socket socket;
+        private final BufferedOutputStream writer;
+        private final WritableByteChannel writerChannel; // 공유 읽기 전용 버퍼도 쓸 수 있도록
+        private Thread writerThread;
 
-        if (clients.isEmpty()) {
-            System.out.println("No clients connected, shutting down.");
-            stopServer();
+        Client(Socket socket, BufferedOutputStream writer, OutboundQueue.Config queueConfig, ServerMetrics metrics) {
+            super(queueConfig, metrics);
+            this.socket = socket;
+            this.writer = writer;
+            this.writerChannel = Channels.newChannel(writer);
         }
-    }
 
-    private void sendPeerList() {
-        StringBuilder sb = new StringBuilder();
-        for (String n : clients.keySet()) {
-            if (!sb.isEmpty()) sb.append(",");
-            sb.append(n);
+        void startWriter() {
+            // 대기 시간이 대부분이므로 가상 스레드로 충분함
+            writerThread = Thread.ofVirtual().name("ChatServer-Writer").start(this::writeLoop);
         }
-        String line = "PEERS|" + sb;
-        for (Client client : clients.values()) client.sendLine(line);
-    }
 
-    /**
-     * 내부 표현용 Client 레코드 (스트림/소켓 안전 종료 메서드 포함)
-     **/
-    private record Client(String nick, Socket socket, BufferedWriter writer) {
-        synchronized void sendLine(String line) {
+        private void writeLoop() {
             try {
-                if (writer != null) {
-                    writer.write(line);
-                    writer.newLine();
-                    writer.flush();
+                while (!socket.isClosed()) {
+                    ByteBuffer bytes = outbound.take();
+                    while (bytes.hasRemaining()) writerChannel.write(bytes);
+                    // 큐가 빌 때만 flush (연속 프레임은 한 번에)
+                    if (outbound.isEmpty()) writer.flush();
                 }
+            } catch (InterruptedException ignored) {
+                // closeSafe
             } catch (IOException e) {
-                System.err.println("Send error to " + nick + ": " + e.getMessage());
+                System.err.println("Send error to " + describe() + ": " + e.getMessage());
+                closeSafe();
             }
         }
+
+        @Override
+        void onEnqueued() {
+            // writer가 take()에서 깨어남
+        }
+
+        @Override
+        String describe() {
+            return String.valueOf(socket.getRemoteSocketAddress());
+        }
+
+        @Override
         void closeSafe() {
             try {
-                if (writer != null) writer.close();
-            } catch (IOException ignored) {}
-            try {
-                if (socket != null && !socket.isClosed()) socket.close();
+                if (!socket.isClosed()) socket.close();
             } catch (IOException ignored) {}
+            if (writerThread != null && writerThread != Thread.currentThread()) writerThread.interrupt();
+            outbound.clear();
         }
     }
 }
@@ -0,0 +1,476 @@
+package me.duckmain.ghostcat.network;
+
+import me.duckmain.ghostcat.metrics.ServerMetrics;
+import me.duckmain.ghostcat.tls.SSLUtil;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import javax.net.ssl.SSLServerSocket;
+import javax.net.ssl.SSLSession;
+import javax.net.ssl.SSLSocket;
+import javax.net.ssl.SSLSocketFactory;
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.security.cert.Certificate;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 릴레이 노드 여러 개를 노드 간 TLS 링크로 묶음. 외부 조정 서비스 없이 설정된 peer 목록으로 서로 연결함.
+ * <pre>
+ * NHELLO|dialerId|nonce|proof   건 쪽이 먼저. proof = HMAC(secret, "D", 받는 쪽 인증서 지문, nonce, dialerId)
+ * NHELLO|acceptorId|proof       받는 쪽은 위를 확인한 뒤에야 응답함. proof = HMAC(secret, "A", 지문, nonce, dialerId, acceptorId)
+ * NPRES|=a:pub,b,c         보내는 노드의 로컬 nick 전체 (링크가 붙을 때마다). 키 디렉터리용 공개키가 있으면 ":pub"
+ * NPRES|+a:pub / NPRES|-a  이후 변경분
+ * JOIN|nick|#room|          로컬 nick의 room 멤버십 (링크가 붙을 때 전체, 이후 JOIN/PART 그대로 전달)
+ * </pre>
+ * 그 외 프레임은 클라이언트가 보낸 헤더 그대로 전달됨. 링크에서 받은 프레임은 로컬에만 배달하고
+ * 다시 전달하지 않으므로 루프가 없음 (모든 노드가 서로 직접 연결된 full mesh 가정).
+ * 같은 두 노드 사이에 링크가 둘 생기면 id가 작은 노드가 건 링크만 남김 (양쪽이 같은 결론을 냄).
+ * <p>
+ * 비밀 자체는 링크에 실리지 않음. 거는 쪽은 인증서를 검증하지 않는 대신 자기가 본 인증서 지문을 proof에 넣으므로,
+ * 중간에서 TLS를 따로 맺고 NHELLO를 중계하면 받는 쪽의 지문과 달라서 거부됨.
+ * <p>
+ * 설정: -Dghostcat.cluster.node=a -Dghostcat.cluster.port=7001 -Dghostcat.cluster.peers=host:7002,host:7003
+ * -Dghostcat.cluster.secret (필수, 모든 노드가 같은 값)
+ */
+final class Cluster {
+    private static final long REDIAL_MIN_MILLIS = 1_000;
+    private static final long REDIAL_MAX_MILLIS = 30_000;
+    private static final int HELLO_TIMEOUT_MILLIS = 10_000;
+    private static final int NONCE_BYTES = 32;
+    private static final SecureRandom RNG = new SecureRandom();
+
+    record Config(String nodeId, int port, List<InetSocketAddress> peers, String secret, int queueCapacity) {
+        /**
+         * @return -Dghostcat.cluster.node 가 없으면 null (단일 노드)
+         * @throws IllegalStateException 노드 id는 있는데 secret이 비어 있으면 (아무나 노드로 붙을 수 있으므로 시작하지 않음)
+         */
+        static Config fromSystemProperties() {
+            String node = System.getProperty("ghostcat.cluster.node");
+            if (node == null || node.isBlank()) return null;
+            String secret = System.getProperty("ghostcat.cluster.secret", "");
+            if (secret.isEmpty()) throw new IllegalStateException("ghostcat.cluster.secret is required when ghostcat.cluster.node is set");
+            List<InetSocketAddress> peers = new ArrayList<>();
+            for (String p : System.getProperty("ghostcat.cluster.peers", "").split(",")) {
+                p = p.trim();
+                if (p.isEmpty()) continue;
+                int colon = p.lastIndexOf(':');
+                peers.add(InetSocketAddress.createUnresolved(p.substring(0, colon), Integer.parseInt(p.substring(colon + 1))));
+            }
+            return new Config(node.trim(),
+                    Integer.getInteger("ghostcat.cluster.port", 0),
+                    List.copyOf(peers),
+                    secret,
+                    Integer.getInteger("ghostcat.cluster.queue", 8192));
+        }
+    }
+
+    private final Relay relay;
+    private final Config config;
+    private final ServerMetrics metrics;
+    // 링크 큐가 넘치면 끊고 다시 연결 (재연결 때 NPRES 스냅샷으로 presence가 다시 맞춰짐)
+    private final OutboundQueue.Config linkQueue;
+    private final ConcurrentHashMap<String, Link> links = new ConcurrentHashMap<>();  // 노드 id -> 링크
+    private final ConcurrentHashMap<String, Link> owners = new ConcurrentHashMap<>(); // 원격 nick -> 소유 노드 링크
+    private final Set<Thread> threads = ConcurrentHashMap.newKeySet();
+    private volatile boolean running;
+    private volatile SSLServerSocket listener;
+
+    Cluster(Relay relay, Config config, ServerMetrics metrics) {
+        this.relay = relay;
+        this.config = config;
+        this.metrics = metrics;
+        this.linkQueue = new OutboundQueue.Config(config.queueCapacity(), OutboundQueue.OverflowPolicy.DISCONNECT, 0);
+    }
+
+    void start() {
+        if (running) return;
+        running = true;
+        threads.add(Thread.ofPlatform().daemon().name("Cluster-Accept").start(this::acceptLoop));
+        for (InetSocketAddress peer : config.peers()) {
+            threads.add(Thread.ofVirtual().name("Cluster-Dial-" + peer.getHostString() + ":" + peer.getPort())
+                    .start(() -> dialLoop(peer)));
+        }
+    }
+
+    void stop() {
+        running = false;
+        try {
+            if (listener != null) listener.close();
+        } catch (IOException ignored) {}
+        for (Thread t : threads) t.interrupt();
+        for (Link l : links.values()) l.closeSafe();
+    }
+
+    // ===== 라우팅 (Relay에서 호출) =====
+
+    /**
+     * 수신자를 가진 노드로 전달.
+     * @return 원격 소유 노드가 없으면 false
+     */
+    boolean forward(Frame f) {
+        Link owner = owners.get(f.to());
+        if (owner == null) return false;
+        owner.send(f);
+        return true;
+    }
+
+    // "*" 브로드캐스트: 원격 클라이언트 수와 상관없이 노드마다 한 번
+    void broadcast(Frame f) {
+        if (links.isEmpty()) return;
+        SharedFrame shared = new SharedFrame(f);
+        for (Link l : links.values()) l.send(shared);
+    }
+
+    boolean ownsRemotely(String nick) {
+        return owners.containsKey(nick);
+    }
+
+    // nick을 가진 노드로 가는 링크 (room 전달용), 없으면 null
+    Connection owner(String nick) {
+        return owners.get(nick);
+    }
+
+    // ===== 로컬 presence 알림 =====
+    // 스냅샷과 변경분은 이 락 안에서 큐에 넣으므로 링크마다 순서가 로컬 등록 순서와 같음
+
+    synchronized void localJoined(String nick, String pub) {
+        Frame f = presenceFrame("+" + entry(nick, pub));
+        for (Link l : links.values()) l.send(f);
+    }
+
+    synchronized void localLeft(String nick) {
+        // 그 사이 같은 nick이 다시 들어왔으면 퇴장이 아님
+        if (relay.isLocal(nick)) return;
+        Frame f = presenceFrame("-" + nick);
+        for (Link l : links.values()) l.send(f);
+    }
+
+    private synchronized void sendSnapshot(Link link) {
+        List<String> entries = new ArrayList<>();
+        for (String nick : relay.localNicks()) entries.add(entry(nick, relay.keyOf(nick)));
+        link.send(presenceFrame("=" + String.join(",", entries)));
+        for (Frame join : relay.localRoomJoins()) link.send(join);
+    }
+
+    private Frame presenceFrame(String body) {
+        return Frame.of(FrameType.NPRES, config.nodeId(), "", body);
+    }
+
+    private static String entry(String nick, String pub) {
+        return pub == null ? nick : nick + ":" + pub;
+    }
+
+    // ===== 링크 =====
+
+    private void acceptLoop() {
+        try {
+            listener = (SSLServerSocket) SSLUtil.serverSSLContext().getServerSocketFactory().createServerSocket(config.port());
+            listener.setReuseAddress(true);
+            System.out.println("Cluster node " + config.nodeId() + " listening on port " + listener.getLocalPort());
+            while (running) {
+                Socket s = listener.accept();
+                Thread.ofVirtual().name("Cluster-Link").start(() -> runLink(s, false));
+            }
+        } catch (Exception e) {
+            if (running) System.err.println("Cluster listener failed: " + e.getMessage());
+        }
+    }
+
+    private void dialLoop(InetSocketAddress peer) {
+        SSLSocketFactory factory;
+        try {
+            factory = SSLUtil.trustAllFactory();
+        } catch (Exception e) {
+            System.err.println("Cluster dial setup failed: " + e.getMessage());
+            return;
+        }
+        String knownId = null;
+        long backoff = REDIAL_MIN_MILLIS;
+        while (running) {
+            // 반대 방향 링크가 살아 있으면 다시 걸지 않음
+            if (knownId == null || !links.containsKey(knownId)) {
+                try {
+                    // host/port로 만들어야 링크가 다시 붙을 때 세션을 재개함
+                    String id = runLink(factory.createSocket(peer.getHostString(), peer.getPort()), true);
+                    if (id != null) {
+                        knownId = id;
+                        backoff = REDIAL_MIN_MILLIS;
+                    } else {
+                        backoff = Math.min(backoff * 2, REDIAL_MAX_MILLIS);
+                    }
+                } catch (IOException e) {
+                    backoff = Math.min(backoff * 2, REDIAL_MAX_MILLIS);
+                }
+            }
+            try {
+                Thread.sleep(backoff);
+            } catch (InterruptedException e) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * 링크 하나를 끝날 때까지 처리.
+     * @return 상대 노드 id (NHELLO 전에 끊기면 null)
+     */
+    private String runLink(Socket socket, boolean dialed) {
+        Link link = null;
+        boolean active = false;
+        try (socket) {
+            socket.setTcpNoDelay(true);
+            socket.setKeepAlive(true);
+            ((SSLSocket) socket).startHandshake();
+            link = new Link(socket, new BufferedOutputStream(socket.getOutputStream()), dialed);
+            link.startWriter();
+
+            FrameReader reader = new FrameReader(socket.getInputStream());
+            socket.setSoTimeout(HELLO_TIMEOUT_MILLIS);
+            String peerId = dialed ? helloAsDialer(link, reader) : helloAsAcceptor(link, reader);
+            if (peerId == null) {
+                System.err.println("Cluster link " + link.describe() + " rejected: bad hello");
+                return null;
+            }
+            socket.setSoTimeout(0);
+            link.nodeId = peerId;
+            if (!activate(link)) return link.nodeId;
+            active = true;
+
+            Frame f;
+            while ((f = reader.next()) != null) {
+                if (f.type() == FrameType.NPRES) onPresence(link, f.bodyText());
+                else relay.handleRemote(f);
+            }
+        } catch (IOException e) {
+            if (running && link != null && link.nodeId != null) {
+                System.err.println("Cluster link to " + link.nodeId + " lost: " + e.getMessage());
+            }
+        } finally {
+            if (link != null) {
+                link.closeSafe();
+                if (active) deactivate(link);
+            }
+        }
+        return link == null ? null : link.nodeId;
+    }
+
+    /**
+     * @return 상대 노드 id, 확인에 실패하면 null
+     */
+    private String helloAsDialer(Link link, FrameReader reader) throws IOException {
+        byte[] fp = fingerprint(((SSLSocket) link.socket).getSession(), true);
+        byte[] nonce = new byte[NONCE_BYTES];
+        RNG.nextBytes(nonce);
+        byte[] self = utf8(config.nodeId());
+        link.send(Frame.of(FrameType.NHELLO, config.nodeId(), "",
+                b64(nonce) + "|" + b64(proof("D", fp, nonce, self))));
+        Frame reply = reader.next();
+        if (reply == null || reply.type() != FrameType.NHELLO || reply.from().isEmpty()) return null;
+        byte[] expected = proof("A", fp, nonce, self, utf8(reply.from()));
+        return MessageDigest.isEqual(expected, unb64(reply.bodyText())) ? reply.from() : null;
+    }
+
+    // 받는 쪽: 상대의 proof를 확인하기 전에는 아무것도 보내지 않음
+    private String helloAsAcceptor(Link link, FrameReader reader) throws IOException {
+        Frame hello = reader.next();
+        if (hello == null || hello.type() != FrameType.NHELLO || hello.from().isEmpty()) return null;
+        String[] p = hello.bodyText().split("\\|", 2);
+        if (p.length != 2) return null;
+        byte[] fp = fingerprint(((SSLSocket) link.socket).getSession(), false);
+        byte[] nonce = unb64(p[0]);
+        byte[] dialer = utf8(hello.from());
+        if (nonce.length != NONCE_BYTES || !MessageDigest.isEqual(proof("D", fp, nonce, dialer), unb64(p[1]))) return null;
+        link.send(Frame.of(FrameType.NHELLO, config.nodeId(), "", b64(proof("A", fp, nonce, dialer, utf8(config.nodeId())))));
+        return hello.from();
+    }
+
+    // 받는 쪽 노드의 TLS 인증서 SHA-256 (거는 쪽은 상대 인증서, 받는 쪽은 자기 인증서)
+    private static byte[] fingerprint(SSLSession session, boolean peer) throws IOException {
+        Certificate[] chain = peer ? session.getPeerCertificates() : session.getLocalCertificates();
+        if (chain == null || chain.length == 0) throw new IOException("no cluster certificate");
+        try {
+            return MessageDigest.getInstance("SHA-256").digest(chain[0].getEncoded());
+        } catch (GeneralSecurityException e) {
+            throw new IOException(e);
+        }
+    }
+
+    // 각 값 앞에 길이를 붙여서 경계가 모호하지 않게 함
+    private byte[] proof(String role, byte[]... parts) throws IOException {
+        try {
+            Mac mac = Mac.getInstance("HmacSHA256");
+            mac.init(new SecretKeySpec(utf8(config.secret()), "HmacSHA256"));
+            mac.update(utf8("ghostcat-cluster-" + role));
+            for (byte[] part : parts) {
+                mac.update(ByteBuffer.allocate(4).putInt(part.length).array());
+                mac.update(part);
+            }
+            return mac.doFinal();
+        } catch (GeneralSecurityException e) {
+            throw new IOException(e);
+        }
+    }
+
+    private static byte[] utf8(String s) {
+        return s.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static String b64(byte[] b) {
+        return Base64.getEncoder().encodeToString(b);
+    }
+
+    private static byte[] unb64(String s) {
+        try {
+            return Base64.getDecoder().decode(s);
+        } catch (IllegalArgumentException e) {
+            return new byte[0];
+        }
+    }
+
+    private synchronized boolean activate(Link link) {
+        String id = link.nodeId;
+        if (id.equals(config.nodeId())) return false;
+        Link existing = links.get(id);
+        if (existing != null && link.dialerId().compareTo(existing.dialerId()) > 0) return false;
+        links.put(id, link);
+        if (existing != null) existing.closeSafe();
+        System.out.println("Cluster link up: " + config.nodeId() + " <-> " + id);
+        sendSnapshot(link);
+        return true;
+    }
+
+    // 링크가 끊기면 그 노드가 가진 nick은 모두 퇴장 처리 (다른 링크가 이미 가져갔으면 건너뜀)
+    private void deactivate(Link link) {
+        if (links.remove(link.nodeId, link)) System.out.println("Cluster link down: " + config.nodeId() + " <-> " + link.nodeId);
+        for (String nick : link.nicks) {
+            if (owners.remove(nick, link)) relay.remoteLeft(nick);
+        }
+        link.nicks.clear();
+    }
+
+    // 링크 reader 스레드에서만 불리므로 link.nicks는 동기화 없이 씀
+    private void onPresence(Link link, String body) {
+        if (body.isEmpty()) return;
+        String rest = body.substring(1);
+        switch (body.charAt(0)) {
+            case '=' -> {
+                Map<String, String> now = new HashMap<>();
+                for (String e : rest.split(",")) {
+                    if (e.isEmpty()) continue;
+                    int colon = e.lastIndexOf(':');
+                    if (colon < 0) now.put(e, null);
+                    else now.put(e.substring(0, colon), e.substring(colon + 1));
+                }
+                for (String n : new ArrayList<>(link.nicks)) if (!now.containsKey(n)) remoteLeft(link, n);
+                now.forEach((n, pub) -> remoteJoined(link, n, pub));
+            }
+            case '+' -> {
+                int colon = rest.lastIndexOf(':');
+                if (colon < 0) remoteJoined(link, rest, null);
+                else remoteJoined(link, rest.substring(0, colon), rest.substring(colon + 1));
+            }
+            case '-' -> remoteLeft(link, rest);
+            default -> {}
+        }
+    }
+
+    private void remoteJoined(Link link, String nick, String pub) {
+        if (!PresenceTracker.isValidNick(nick)) return; // 검사하지 않는 노드의 nick
+        link.nicks.add(nick);
+        owners.put(nick, link);
+        relay.remoteJoined(nick, pub);
+    }
+
+    private void remoteLeft(Link link, String nick) {
+        link.nicks.remove(nick);
+        // 다른 노드로 옮겨간 nick이면 소유자가 이미 바뀌어 있음
+        if (owners.remove(nick, link)) relay.remoteLeft(nick);
+    }
+
+    /**
+     * 노드 간 링크. 클라이언트 연결과 같은 송신 큐를 쓰고 항상 바이너리로 인코딩함.
+     */
+    private final class Link extends Connection {
+        private final Socket socket;
+        private final BufferedOutputStream writer;
+        private final WritableByteChannel writerChannel;
+        private final boolean dialed;
+        private final Set<String> nicks = new HashSet<>(); // 이 링크 너머 노드가 가진 nick
+        private volatile String nodeId;
+        private Thread writerThread;
+
+        Link(Socket socket, BufferedOutputStream writer, boolean dialed) {
+            super(linkQueue, metrics);
+            this.socket = socket;
+            this.writer = writer;
+            this.writerChannel = Channels.newChannel(writer);
+            this.dialed = dialed;
+            enableBinary();
+        }
+
+        // 이 링크를 건 노드의 id (중복 링크 정리 기준)
+        String dialerId() {
+            return dialed ? config.nodeId() : nodeId;
+        }
+
+        void startWriter() {
+            writerThread = Thread.ofVirtual().name("Cluster-Writer").start(this::writeLoop);
+        }
+
+        private void writeLoop() {
+            try {
+                while (!socket.isClosed()) {
+                    ByteBuffer bytes = outbound.take();
+                    while (bytes.hasRemaining()) writerChannel.write(bytes);
+                    if (outbound.isEmpty()) writer.flush();
+                }
+            } catch (InterruptedException ignored) {
+                // closeSafe
+            } catch (IOException e) {
+                closeSafe();
+            }
+        }
+
+        // 라우팅 스레드(NIO 루프 포함)를 느린 링크 때문에 세우지 않음
+        @Override
+        boolean mayBlock() {
+            return false;
+        }
+
+        @Override
+        void onEnqueued() {
+            // writer가 take()에서 깨어남
+        }
+
+        @Override
+        String describe() {
+            return "node " + (nodeId != null ? nodeId : String.valueOf(socket.getRemoteSocketAddress()));
+        }
+
+        @Override
+        void closeSafe() {
+            try {
+                if (!socket.isClosed()) socket.close();
+            } catch (IOException ignored) {}
+            if (writerThread != null && writerThread != Thread.currentThread()) writerThread.interrupt();
+            outbound.clear();
+        }
+    }
+}
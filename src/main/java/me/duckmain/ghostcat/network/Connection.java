@@ -0,0 +1,213 @@
+package me.duckmain.ghostcat.network;
+
+import me.duckmain.ghostcat.metrics.ServerMetrics;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 서버 측 클라이언트 연결 하나 (블로킹 소켓 또는 NIO 채널).
+ * Relay는 이 타입만 보고 라우팅하고, 와이어 인코딩(텍스트/바이너리)은 연결별로 결정됨.
+ * send()는 송신 큐에 넣기만 하므로 어느 스레드에서 불러도 블로킹 I/O를 하지 않음.
+ */
+abstract class Connection {
+    protected final OutboundQueue outbound;
+    private final ServerMetrics metrics;
+    private volatile boolean binary;
+    private volatile boolean presenceDeltas;
+    private volatile boolean peerCaps;
+    private volatile boolean keyDirectory;
+    private volatile String registeredNick; // ConnectionRegistry의 연결 -> nick 인덱스
+    private volatile boolean dropWarned;
+    private volatile long lastReadNanos = System.nanoTime(); // heartbeat용 마지막 수신 시각
+    private volatile TimerWheel.Timeout heartbeat;
+    private volatile boolean heartbeatStopped;
+    private volatile Sessions.State session; // SEQ1로 재개 가능한 세션 (없으면 null)
+    private List<Frame> held; // 메일박스를 보내는 동안 잡아 둔 1:1 프레임 (this로 보호, null이면 바로 보냄)
+
+    Connection(OutboundQueue.Config queueConfig, ServerMetrics metrics) {
+        this.outbound = new OutboundQueue(queueConfig);
+        this.metrics = metrics;
+    }
+
+    // 프레임 전송 (이 연결의 모드로 인코딩해서 큐에 넣음). 세션이 있으면 순번 프레임은 세션을 거침
+    final void send(Frame f) {
+        deliver(f, null);
+    }
+
+    // 타이머 스레드처럼 멈추면 안 되는 곳에서: BLOCK 정책이어도 기다리지 않음 (순번 프레임 아님)
+    final void sendNoWait(Frame f) {
+        enqueue(f.type(), binary ? FrameCodec.encodeBinary(f) : FrameCodec.encodeText(f), false);
+    }
+
+    // 여러 수신자 공용 프레임: 인코딩은 SharedFrame이 한 번만 함
+    final void send(SharedFrame f) {
+        deliver(f.frame(), f);
+    }
+
+    private boolean deliver(Frame f, SharedFrame shared) {
+        Sessions.State s = session;
+        if (s != null && Sessions.isSequenced(f.type())) return s.send(f, shared);
+        return enqueueFrame(f, shared);
+    }
+
+    // 세션 번호 없이 바로 큐에 넣음 (Sessions가 번호를 매긴 뒤 호출)
+    final boolean enqueueFrame(Frame f, SharedFrame shared) {
+        ByteBuffer bytes = shared != null ? shared.view(binary)
+                : binary ? FrameCodec.encodeBinary(f) : FrameCodec.encodeText(f);
+        return enqueue(f.type(), bytes, mayBlock());
+    }
+
+    // 1:1 실시간 프레임. 저장된 프레임을 보내는 중이면 그 뒤로 미룸
+    final void sendLive(Frame f) {
+        synchronized (this) {
+            if (held != null) {
+                held.add(f);
+                return;
+            }
+        }
+        send(f);
+    }
+
+    // 등록 중: releaseLive까지 sendLive로 온 프레임을 잡아 둠
+    final synchronized void holdLive() {
+        if (held == null) held = new ArrayList<>();
+    }
+
+    final synchronized void releaseLive() {
+        if (held == null) return;
+        for (Frame f : held) send(f);
+        held = null;
+    }
+
+    /**
+     * @return 모두 큐에 들어갔고 밀려난 프레임도 없으면 true
+     */
+    final boolean sendAll(List<Frame> frames) {
+        long droppedBefore = outbound.dropped();
+        boolean ok = true;
+        for (Frame f : frames) ok &= deliver(f, null);
+        return ok && outbound.dropped() == droppedBefore;
+    }
+
+    private boolean enqueue(FrameType type, ByteBuffer bytes, boolean mayBlock) {
+        metrics.frameOut(type, bytes.remaining());
+        long droppedBefore = outbound.dropped();
+        if (!outbound.offer(bytes, mayBlock)) {
+            System.err.println("Outbound queue full, disconnecting " + describe());
+            closeSafe();
+            return false;
+        }
+        if (session != null && outbound.dropped() > droppedBefore) {
+            // 밀려난 프레임은 재개로 다시 받으므로 버리지 말고 끊음 (받는 쪽 번호가 어긋나지 않게)
+            System.err.println("Outbound queue overflow, disconnecting resumable session " + describe());
+            closeSafe();
+            return false;
+        }
+        if (!dropWarned && outbound.dropped() > droppedBefore) {
+            dropWarned = true;
+            System.err.println("Outbound queue overflow, dropping frames for " + describe());
+        }
+        onEnqueued();
+        return true;
+    }
+
+    // REGISTER에서 바이너리 협상이 끝난 뒤 호출
+    final void enableBinary() {
+        binary = true;
+    }
+
+    final boolean isBinary() {
+        return binary;
+    }
+
+    // REGISTER에 PRES2가 있으면 SNAPSHOT/DELTA를 받음
+    final void enablePresenceDeltas() {
+        presenceDeltas = true;
+    }
+
+    final boolean wantsPresenceDeltas() {
+        return presenceDeltas;
+    }
+
+    // REGISTER에 CAPS1이 있으면 CAPS 프레임을 받음 (모르는 바이너리 타입은 기존 클라이언트 연결을 끊으므로)
+    final void enablePeerCaps() {
+        peerCaps = true;
+    }
+
+    final boolean acceptsPeerCaps() {
+        return peerCaps;
+    }
+
+    // REGISTER에 KEYS1이 있으면 SNAPSHOT/DELTA에 공개키가 붙고 KEYS 프레임을 받음
+    final void enableKeyDirectory() {
+        keyDirectory = true;
+    }
+
+    final boolean wantsKeys() {
+        return keyDirectory;
+    }
+
+    final String registeredNick() {
+        return registeredNick;
+    }
+
+    final void registeredNick(String nick) {
+        registeredNick = nick;
+    }
+
+    // 받을 수 있는 큰 본문 프레임 크기. 등록 전에는 누구든 한도만큼 버퍼를 잡게 할 수 있으므로 제어 프레임 한도로
+    final int maxFrameBytes() {
+        return registeredNick == null ? FrameCodec.MAX_CONTROL_BYTES : FrameCodec.MAX_FRAME_BYTES;
+    }
+
+    // 프레임을 받을 때마다 (Relay.handle)
+    final void touch() {
+        lastReadNanos = System.nanoTime();
+    }
+
+    final long idleNanos() {
+        return System.nanoTime() - lastReadNanos;
+    }
+
+    final void heartbeat(TimerWheel.Timeout next) {
+        heartbeat = next;
+        if (heartbeatStopped) next.cancel(); // 검사 도중 stop된 경우
+    }
+
+    final void stopHeartbeat() {
+        heartbeatStopped = true;
+        TimerWheel.Timeout t = heartbeat;
+        if (t != null) t.cancel();
+    }
+
+    final boolean heartbeatStopped() {
+        return heartbeatStopped;
+    }
+
+    final Sessions.State session() {
+        return session;
+    }
+
+    final void session(Sessions.State s) {
+        session = s;
+    }
+
+    final QueueStats queueStats(String nick) {
+        return new QueueStats(nick, outbound.depth(), outbound.capacity(), outbound.dropped());
+    }
+
+    // BLOCK 정책에서 호출 스레드가 기다려도 되는지
+    boolean mayBlock() {
+        return true;
+    }
+
+    // 큐에 넣은 직후 호출 (writer 깨우기)
+    abstract void onEnqueued();
+
+    abstract String describe();
+
+    // 안전 종료 (여러 번 호출해도 됨)
+    abstract void closeSafe();
+}
@@ -0,0 +1,76 @@
+package me.duckmain.ghostcat.network;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * nick -> 연결, 연결 -> nick 양방향 인덱스.
+ * 연결 쪽 인덱스는 Connection.registeredNick 필드라서 해제가 조회 한 번으로 끝남 (전체 스캔 없음).
+ * 해제는 remove(nick, conn) 조건부 삭제라서, 같은 nick으로 새 세션이 먼저 들어온 경우
+ * 이전 세션의 종료가 새 세션을 지우지 못함.
+ * 여러 스레드에서 등록/교체/해제를 뒤섞는 경우는 ConnectionRegistryTest가 확인함.
+ */
+final class ConnectionRegistry {
+    private final ConcurrentHashMap<String, Connection> byNick = new ConcurrentHashMap<>();
+    // 브로드캐스트용 멤버 스냅샷. 멤버가 바뀌면 generation이 올라가고 다음 조회에서 다시 만듦
+    private final AtomicInteger generation = new AtomicInteger();
+    private volatile Snapshot snapshot;
+
+    record Member(String nick, Connection conn) {}
+
+    private record Snapshot(int generation, Member[] members) {}
+
+    /**
+     * @return 이 nick으로 등록돼 있던 다른 연결 (닫아야 함), 없으면 null
+     */
+    Connection register(String nick, Connection conn) {
+        String oldNick = conn.registeredNick();
+        // 같은 연결이 다른 nick으로 재등록하면 이전 nick은 해제
+        if (oldNick != null && !oldNick.equals(nick)) byNick.remove(oldNick, conn);
+        conn.registeredNick(nick);
+        Connection prev = byNick.put(nick, conn);
+        generation.incrementAndGet();
+        return prev == conn ? null : prev;
+    }
+
+    /**
+     * @return 실제로 해제된 nick, 이미 다른 세션으로 교체됐거나 등록 전이면 null
+     */
+    String unregister(Connection conn) {
+        String nick = conn.registeredNick();
+        if (nick == null || !byNick.remove(nick, conn)) return null;
+        generation.incrementAndGet();
+        return nick;
+    }
+
+    Connection get(String nick) {
+        return byNick.get(nick);
+    }
+
+    boolean isEmpty() {
+        return byNick.isEmpty();
+    }
+
+    int size() {
+        return byNick.size();
+    }
+
+    Member[] members() {
+        int gen = generation.get();
+        Snapshot s = snapshot;
+        if (s != null && s.generation() == gen) return s.members();
+        Member[] m = byNick.entrySet().stream()
+                .map(e -> new Member(e.getKey(), e.getValue()))
+                .toArray(Member[]::new);
+        snapshot = new Snapshot(gen, m);
+        return m;
+    }
+
+    // 서버 종료용: 전부 꺼내고 비움
+    Member[] clear() {
+        Member[] all = members();
+        for (Member m : all) byNick.remove(m.nick(), m.conn());
+        generation.incrementAndGet();
+        return all;
+    }
+}
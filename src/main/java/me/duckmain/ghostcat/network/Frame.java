@@ -0,0 +1,17 @@
+package me.duckmain.ghostcat.network;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * 프로토콜 메시지 하나. from/to는 헤더, body는 릴레이가 해석하지 않는 불투명 바이트.
+ */
+public record Frame(FrameType type, String from, String to, byte[] body) {
+
+    public static Frame of(FrameType type, String from, String to, String body) {
+        return new Frame(type, from, to, body.getBytes(StandardCharsets.UTF_8));
+    }
+
+    public String bodyText() {
+        return new String(body, StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,178 @@
+package me.duckmain.ghostcat.network;
+
+import java.net.ProtocolException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Base64;
+
+/**
+ * 텍스트('|' 구분 한 줄)와 바이너리(길이 prefix) 프레임 인코딩/디코딩.
+ * <pre>
+ * 바이너리: [ver u8][type u8][fromLen u8][from][toLen u8][to][bodyLen i32][body]
+ * </pre>
+ * 첫 바이트가 VERSION이면 바이너리, 아니면 텍스트 줄로 판별함 (텍스트 줄은 항상 대문자로 시작).
+ * REGISTER 본문 끝에 "|BIN1"을 붙이면 바이너리 제안이고, 서버는 PROTO|1로 수락한 뒤 바이너리로 보냄.
+ */
+public final class FrameCodec {
+    public static final byte VERSION = 1;
+    public static final String BINARY_OFFER = "BIN1";
+    // 한 프레임으로 보내는 기존 방식 파일(ChatController.MAX_LEGACY_FILE_BYTES)이 들어갈 정도. 큰 파일은 FSTART/FCHUNK 청크로 감
+    static final int MAX_FRAME_BYTES = 16 * 1024 * 1024;
+    // 그 밖의 제어 프레임 본문 한도 (청크 하나, KEYS 응답 등이 들어가는 정도). REGISTER 전에는 모든 프레임이 이 한도
+    static final int MAX_CONTROL_BYTES = 1024 * 1024;
+    // 큰 본문 타입이 아닌 텍스트 줄의 한도
+    static final int MAX_LINE_BYTES = 64 * 1024;
+    private static final int MAX_NICK_BYTES = 255;
+
+    private FrameCodec() {}
+
+    public static ByteBuffer encodeBinary(Frame f) {
+        byte[] from = f.from().getBytes(StandardCharsets.UTF_8);
+        byte[] to = f.to().getBytes(StandardCharsets.UTF_8);
+        if (from.length > MAX_NICK_BYTES || to.length > MAX_NICK_BYTES)
+            throw new IllegalArgumentException("nick too long");
+        ByteBuffer buf = ByteBuffer.allocate(8 + from.length + to.length + f.body().length);
+        buf.put(VERSION).put((byte) f.type().code)
+                .put((byte) from.length).put(from)
+                .put((byte) to.length).put(to)
+                .putInt(f.body().length).put(f.body())
+                .flip();
+        return buf;
+    }
+
+    public static ByteBuffer encodeText(Frame f) {
+        // RAW는 줄 그대로 (서버가 보내는 안내 줄은 기존 클라이언트에도 그대로 보임)
+        byte[] head = f.type() == FrameType.RAW ? new byte[0] : textHeader(f).getBytes(StandardCharsets.UTF_8);
+        byte[] body = textBody(f);
+        ByteBuffer buf = ByteBuffer.allocate(head.length + body.length + 1);
+        buf.put(head).put(body).put((byte) '\n').flip();
+        return buf;
+    }
+
+    // 레거시 문자열 소비자용 (본문까지 디코딩함)
+    public static String toTextLine(Frame f) {
+        if (f.type() == FrameType.RAW) return f.bodyText();
+        return textHeader(f) + new String(textBody(f), StandardCharsets.UTF_8);
+    }
+
+    // 원시 바이트 본문은 개행이 섞일 수 있으므로 텍스트 줄에서는 Base64
+    private static byte[] textBody(Frame f) {
+        return f.type().binaryBody ? Base64.getEncoder().encode(f.body()) : f.body();
+    }
+
+    public static Frame parseText(String line) {
+        byte[] bytes = line.getBytes(StandardCharsets.UTF_8);
+        return parseText(bytes, 0, bytes.length);
+    }
+
+    /**
+     * 텍스트 줄 하나(개행 제외)를 파싱. 헤더 필드만 String으로 만들고 본문은 바이트 그대로 복사함.
+     */
+    public static Frame parseText(byte[] a, int off, int len) {
+        int end = off + len;
+        if (end > off && a[end - 1] == '\r') end--;
+        int p = indexOf(a, off, end, (byte) '|');
+        FrameType type = p < 0 ? null : FrameType.byName(new String(a, off, p - off, StandardCharsets.US_ASCII));
+        if (type == null) return new Frame(FrameType.RAW, "", "", Arrays.copyOfRange(a, off, end));
+
+        String[] fields = {"", ""};
+        int cur = p + 1;
+        for (int i = 0; i < type.textFields; i++) {
+            int q = indexOf(a, cur, end, (byte) '|');
+            int fieldEnd = q < 0 ? end : q;
+            fields[i] = new String(a, cur, fieldEnd - cur, StandardCharsets.UTF_8);
+            cur = q < 0 ? end : q + 1;
+        }
+        byte[] body = Arrays.copyOfRange(a, cur, end);
+        if (type.binaryBody) {
+            try {
+                body = Base64.getDecoder().decode(body);
+            } catch (IllegalArgumentException e) {
+                return new Frame(FrameType.RAW, "", "", Arrays.copyOfRange(a, off, end));
+            }
+        }
+        return new Frame(type, fields[0], fields[1], body);
+    }
+
+    /**
+     * buf(읽기 모드)의 현재 위치에서 바이너리 프레임 하나를 디코딩.
+     * 아직 덜 도착했으면 null을 반환하고 position은 그대로 둠.
+     */
+    static Frame decodeBinary(ByteBuffer buf) throws ProtocolException {
+        return decodeBinary(buf, MAX_FRAME_BYTES);
+    }
+
+    /**
+     * @param maxFrame 큰 본문 타입의 한도 (Connection.maxFrameBytes)
+     */
+    static Frame decodeBinary(ByteBuffer buf, int maxFrame) throws ProtocolException {
+        int start = buf.position();
+        int avail = buf.remaining();
+        if (avail < 3) return null;
+        checkVersion(buf.get(start));
+        FrameType type = typeOf(buf.get(start + 1) & 0xff);
+        int fromLen = buf.get(start + 2) & 0xff;
+        if (avail < 4 + fromLen) return null;
+        int toLen = buf.get(start + 3 + fromLen) & 0xff;
+        int headLen = 8 + fromLen + toLen;
+        if (avail < headLen) return null;
+        int bodyLen = checkBodyLength(type, buf.getInt(start + 4 + fromLen + toLen), maxFrame);
+        if (avail < headLen + bodyLen) return null;
+
+        byte[] from = new byte[fromLen];
+        byte[] to = new byte[toLen];
+        byte[] body = new byte[bodyLen];
+        buf.get(start + 3, from);
+        buf.get(start + 4 + fromLen, to);
+        buf.get(start + headLen, body);
+        buf.position(start + headLen + bodyLen);
+        return new Frame(type, new String(from, StandardCharsets.UTF_8), new String(to, StandardCharsets.UTF_8), body);
+    }
+
+    /**
+     * 개행이 아직 안 온 텍스트 줄 a[off..off+len)이 더 자랄 수 있는 한도. 줄 앞의 타입 이름만 봄
+     */
+    static int maxLine(byte[] a, int off, int len, int maxFrame) {
+        int p = indexOf(a, off, off + Math.min(len, 16), (byte) '|');
+        FrameType type = p < 0 ? null : FrameType.byName(new String(a, off, p - off, StandardCharsets.US_ASCII));
+        return type != null && largeBody(type) ? Math.max(maxFrame, MAX_LINE_BYTES) : MAX_LINE_BYTES;
+    }
+
+    // 페이로드(레거시 파일 포함)와 서버가 보내는 전체 목록만 MAX_FRAME_BYTES까지 허용
+    private static boolean largeBody(FrameType type) {
+        return switch (type) {
+            case MSG, IMG, VID, PEERS, SNAPSHOT, NPRES -> true;
+            default -> false;
+        };
+    }
+
+    static void checkVersion(byte v) throws ProtocolException {
+        if (v != VERSION) throw new ProtocolException("Unsupported frame version " + v);
+    }
+
+    static FrameType typeOf(int code) throws ProtocolException {
+        FrameType type = FrameType.byCode(code);
+        if (type == null) throw new ProtocolException("Unknown frame type " + code);
+        return type;
+    }
+
+    static int checkBodyLength(FrameType type, int len, int maxFrame) throws ProtocolException {
+        int max = largeBody(type) ? maxFrame : Math.min(maxFrame, MAX_CONTROL_BYTES);
+        if (len < 0 || len > max) throw new ProtocolException("Bad " + type + " frame length " + len);
+        return len;
+    }
+
+    private static String textHeader(Frame f) {
+        return switch (f.type().textFields) {
+            case 0 -> f.type().name() + "|";
+            case 1 -> f.type().name() + "|" + f.from() + "|";
+            default -> f.type().name() + "|" + f.from() + "|" + f.to() + "|";
+        };
+    }
+
+    private static int indexOf(byte[] a, int from, int to, byte b) {
+        for (int i = from; i < to; i++) if (a[i] == b) return i;
+        return -1;
+    }
+}
@@ -0,0 +1,119 @@
+package me.duckmain.ghostcat.network;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.ProtocolException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.function.IntSupplier;
+
+/**
+ * 블로킹 스트림에서 프레임을 읽음 (ChatClient, ChatServer 공용).
+ * 프레임마다 첫 바이트로 텍스트/바이너리를 판별하므로 협상 도중 모드가 바뀌어도 안전함.
+ */
+final class FrameReader {
+    private final InputStream in;
+    private final IntSupplier maxFrame; // 큰 본문 타입의 한도 (프레임마다 다시 읽음)
+    private final byte[] buf = new byte[64 * 1024];
+    private int pos;
+    private int lim;
+
+    FrameReader(InputStream in) {
+        this(in, () -> FrameCodec.MAX_FRAME_BYTES);
+    }
+
+    FrameReader(InputStream in, IntSupplier maxFrame) {
+        this.in = in;
+        this.maxFrame = maxFrame;
+    }
+
+    /**
+     * @return 다음 프레임, EOF면 null
+     */
+    Frame next() throws IOException {
+        if (!fill()) return null;
+        if (buf[pos] == FrameCodec.VERSION) return readBinary();
+        return readLine();
+    }
+
+    private Frame readBinary() throws IOException {
+        pos++; // version
+        FrameType type = FrameCodec.typeOf(readByte());
+        String from = new String(readBytes(readByte()), StandardCharsets.UTF_8);
+        String to = new String(readBytes(readByte()), StandardCharsets.UTF_8);
+        int len = FrameCodec.checkBodyLength(type, (readByte() << 24) | (readByte() << 16) | (readByte() << 8) | readByte(),
+                maxFrame.getAsInt());
+        return new Frame(type, from, to, readBytes(len));
+    }
+
+    private Frame readLine() throws IOException {
+        byte[] acc = null;
+        int accLen = 0;
+        while (true) {
+            for (int i = pos; i < lim; i++) {
+                if (buf[i] == '\n') {
+                    Frame f;
+                    if (acc == null) {
+                        f = FrameCodec.parseText(buf, pos, i - pos);
+                    } else {
+                        acc = append(acc, accLen, i - pos);
+                        accLen += i - pos;
+                        f = FrameCodec.parseText(acc, 0, accLen);
+                    }
+                    pos = i + 1;
+                    return f;
+                }
+            }
+            // 개행 없음: 누적 후 더 읽기
+            int n = lim - pos;
+            if (acc == null) acc = new byte[Math.max(n * 2, 1024)];
+            acc = append(acc, accLen, n);
+            accLen += n;
+            pos = lim;
+            if (accLen > FrameCodec.maxLine(acc, 0, accLen, maxFrame.getAsInt())) throw new ProtocolException("Line too long");
+            if (!fill()) {
+                // EOF: readLine()처럼 마지막 줄을 돌려줌
+                return accLen == 0 ? null : FrameCodec.parseText(acc, 0, accLen);
+            }
+        }
+    }
+
+    private byte[] append(byte[] acc, int accLen, int n) {
+        if (accLen + n > acc.length) acc = Arrays.copyOf(acc, Math.max(acc.length * 2, accLen + n));
+        System.arraycopy(buf, pos, acc, accLen, n);
+        return acc;
+    }
+
+    private int readByte() throws IOException {
+        if (!fill()) throw new EOFException();
+        return buf[pos++] & 0xff;
+    }
+
+    // 헤더의 길이만 믿고 한 번에 잡지 않음: 실제로 도착하는 만큼 두 배씩 키움
+    private byte[] readBytes(int n) throws IOException {
+        byte[] out = new byte[Math.min(n, buf.length)];
+        int got = Math.min(n, lim - pos);
+        System.arraycopy(buf, pos, out, 0, got);
+        pos += got;
+        // 나머지는 버퍼를 거치지 않고 바로 읽음
+        while (got < n) {
+            if (got == out.length) out = Arrays.copyOf(out, (int) Math.min(n, 2L * out.length));
+            int r = in.read(out, got, out.length - got);
+            if (r < 0) throw new EOFException();
+            got += r;
+        }
+        return out;
+    }
+
+    // 버퍼가 비었으면 채움. EOF면 false
+    private boolean fill() throws IOException {
+        if (pos < lim) return true;
+        pos = 0;
+        lim = 0;
+        int n = in.read(buf, 0, buf.length);
+        if (n <= 0) return false;
+        lim = n;
+        return true;
+    }
+}
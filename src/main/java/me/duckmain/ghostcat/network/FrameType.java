@@ -0,0 +1,65 @@
+package me.duckmain.ghostcat.network;
+
+/**
+ * 프레임 종류. code는 바이너리 헤더 값, textFields는 텍스트 줄에서 본문 앞에 오는 헤더 필드 수
+ * (0: TYPE|body, 1: TYPE|from|body, 2: TYPE|from|to|body).
+ * binaryBody인 타입은 본문이 원시 바이트라서 텍스트 줄에서는 Base64로 실림.
+ */
+public enum FrameType {
+    RAW(0, 0),          // 해석할 수 없는 텍스트 줄 (본문 = 줄 전체)
+    REGISTER(1, 1),
+    PROTO(2, 0),        // 서버 -> 클라이언트: 바이너리 프레이밍 수락
+    PEERS(3, 0),
+    KEY(4, 2),
+    MSG(5, 2),
+    IMG(6, 2),
+    VID(7, 2),
+    SNAPSHOT(8, 0),     // presence v2: seq|a,b,c
+    DELTA(9, 0),        // presence v2: seq|+a,-b
+    RESYNC(10, 0),      // presence v2: 클라이언트 -> 서버 스냅샷 재요청
+    FSTART(11, 2),      // 청크 파일 전송 시작 (암호화된 메타데이터)
+    FCHUNK(12, 2, true),// 청크 하나: [id 8][offset 8][iv 12][ct]
+    FEND(13, 2),        // 전송 끝
+    FACK(14, 2),        // 수신 측 -> 송신 측: 연속으로 받은 offset (재개 위치)
+    NHELLO(15, 1),      // 클러스터 노드 간: from = 노드 id, 본문 = nonce/HMAC proof (Cluster 참고)
+    NPRES(16, 0),       // 클러스터 노드 간: =a,b,c (전체) / +a / -a
+    JOIN(17, 2),        // JOIN|nick|#room|
+    PART(18, 2),        // PART|nick|#room|
+    ROOM(19, 2),        // 서버 -> room 멤버: ROOM||#room|=a,b,c (입장 시) / +a / -a
+    PING(20, 0),        // heartbeat: PING|token (HB1 협상한 연결만)
+    PONG(21, 0),        // PONG|token
+    CAPS(22, 2),        // 종단 간 기능 목록 (CAPS|from|to|compress=deflate). CAPS1을 협상한 연결에만 배달
+    ACK(23, 0),         // 양방향: 이 세션에서 받은 순번 프레임 수 (ACK|count, SEQ1 세션만. 재개 응답은 Sessions 참고)
+    KEYS(24, 0);        // 키 디렉터리 (KEYS1 연결만): 요청 KEYS|a,b / 응답 KEYS|a:pub,b (모르는 nick은 키 없이). 빈 본문은 수락 알림
+
+    private static final FrameType[] BY_CODE = new FrameType[256];
+
+    static {
+        for (FrameType t : values()) BY_CODE[t.code] = t;
+    }
+
+    final int code;
+    final int textFields;
+    final boolean binaryBody;
+
+    FrameType(int code, int textFields) {
+        this(code, textFields, false);
+    }
+
+    FrameType(int code, int textFields, boolean binaryBody) {
+        this.code = code;
+        this.textFields = textFields;
+        this.binaryBody = binaryBody;
+    }
+
+    static FrameType byCode(int code) {
+        return code >= 0 && code < BY_CODE.length ? BY_CODE[code] : null;
+    }
+
+    static FrameType byName(String name) {
+        for (FrameType t : values()) {
+            if (t != RAW && t.name().equals(name)) return t;
+        }
+        return null;
+    }
+}
@@ -0,0 +1,66 @@
+package me.duckmain.ghostcat.network;
+
+import me.duckmain.ghostcat.metrics.ServerMetrics;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 연결 생존 확인 (REGISTER에 HB1을 붙인 연결만).
+ * <pre>
+ * PING|token   interval 동안 아무것도 못 받으면 서버가 보냄 (클라이언트도 서버에 보낼 수 있음)
+ * PONG|token   받은 쪽이 같은 token으로 응답
+ * </pre>
+ * 연결마다 타이머 휠에 검사 하나만 걸어 두고, 검사 때 마지막 수신 이후 시간을 보고 PING을 보내거나 끊음.
+ * 어떤 프레임이든 받으면 살아 있는 것으로 봄. 끊은 연결은 서버의 종료 경로로 정리되어 presence에서도 빠짐.
+ * HB1이 없는 기존 클라이언트는 PING을 모르므로 감시하지 않음 (소켓 keepalive만).
+ * -Dghostcat.heartbeat.intervalMillis (기본 15000), -Dghostcat.heartbeat.timeoutMillis (기본 45000)
+ */
+final class Heartbeat {
+    static final String OFFER = "HB1";
+
+    static final long INTERVAL_MILLIS = Long.getLong("ghostcat.heartbeat.intervalMillis", 15_000L);
+    static final long TIMEOUT_MILLIS = Long.getLong("ghostcat.heartbeat.timeoutMillis", 45_000L);
+
+    // 프로세스에 휠 하나 (서버가 여러 개여도 공유, Sessions의 지연 ACK/만료도 여기에 걸림)
+    static final TimerWheel WHEEL = new TimerWheel("Relay-Heartbeat",
+            Long.getLong("ghostcat.heartbeat.tickMillis", 250L), 512);
+
+    private final ServerMetrics metrics;
+
+    Heartbeat(ServerMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    // 첫 PING은 바로 보내서 클라이언트가 서버의 heartbeat 지원을 알게 함 (그 뒤로 클라이언트도 서버를 감시)
+    void watch(Connection conn) {
+        ping(conn);
+        schedule(conn, INTERVAL_MILLIS);
+    }
+
+    private void schedule(Connection conn, long delayMillis) {
+        conn.heartbeat(WHEEL.schedule(() -> check(conn), delayMillis));
+    }
+
+    private static void ping(Connection conn) {
+        conn.sendNoWait(Frame.of(FrameType.PING, "", "", Long.toString(System.currentTimeMillis())));
+    }
+
+    private void check(Connection conn) {
+        if (conn.heartbeatStopped()) return;
+        long idle = TimeUnit.NANOSECONDS.toMillis(conn.idleNanos());
+        if (idle >= TIMEOUT_MILLIS) {
+            System.err.println("Heartbeat timeout, closing " + conn.describe() + " (idle " + idle + " ms)");
+            metrics.reaped();
+            conn.closeSafe(); // 서버 종료 경로에서 Relay.remove -> presence 퇴장
+            return;
+        }
+        long next;
+        if (idle >= INTERVAL_MILLIS) {
+            ping(conn);
+            next = Math.min(INTERVAL_MILLIS, TIMEOUT_MILLIS - idle);
+        } else {
+            next = INTERVAL_MILLIS - idle;
+        }
+        schedule(conn, next);
+    }
+}
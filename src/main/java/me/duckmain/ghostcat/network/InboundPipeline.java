@@ -0,0 +1,140 @@
+package me.duckmain.ghostcat.network;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.Semaphore;
+
+/**
+ * 받은 프레임 처리를 리더 스레드 밖으로 뺌.
+ * <pre>
+ * 리더 스레드    프레임 디코딩만 하고 submit (처리 중인 프레임이 한도면 여기서 멈춤 -> 소켓을 안 읽으므로 TCP로 상대를 늦춤)
+ * decode        공용 풀에서 병렬 (상태 없는 복호화 등)
+ * deliver       보낸 사람(from)마다 받은 순서대로 하나씩 (앞 프레임의 deliver와 자기 decode가 끝나야 시작)
+ * </pre>
+ * 서버가 보내는 프레임 (from이 빈 값: ROOM, KEYS, SNAPSHOT 등)은 장벽: 앞서 받은 모든 lane의 deliver가 끝난 뒤 처리되고,
+ * 뒤에 받은 프레임은 lane과 상관없이 그 다음에 처리됨 (읽은 순서 그대로). decode의 예외는 그 프레임 차례에 onError로 넘어감.
+ * -Dghostcat.inbound.parallelism (기본 코어 수, 풀은 프로세스에 하나), -Dghostcat.inbound.maxFrames (기본 256, 인스턴스마다)
+ */
+public final class InboundPipeline<R> {
+    static final int PARALLELISM = Math.max(1, Integer.getInteger("ghostcat.inbound.parallelism",
+            Runtime.getRuntime().availableProcessors()));
+
+    private static final ForkJoinPool POOL = new ForkJoinPool(PARALLELISM, pool -> {
+        ForkJoinWorkerThread t = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(pool);
+        t.setName("Inbound-Decrypt-" + t.getPoolIndex());
+        t.setDaemon(true);
+        return t;
+    }, null, true);
+
+    private static final CompletableFuture<Void> DONE = CompletableFuture.completedFuture(null);
+
+    /**
+     * 병렬 단계. 같은 보낸 사람의 프레임끼리도 동시에 불릴 수 있으므로 상태를 바꾸면 안 됨
+     */
+    public interface Decoder<R> {
+        R decode(Frame frame) throws Exception;
+    }
+
+    /**
+     * 순서 단계. decoded는 decode의 결과
+     */
+    public interface Sink<R> {
+        void deliver(Frame frame, R decoded) throws Exception;
+    }
+
+    public interface ErrorHandler {
+        void failed(Frame frame, Exception e);
+    }
+
+    private record Decoded<R>(R value, Exception error) {}
+
+    private final Decoder<R> decoder;
+    private final Sink<R> sink;
+    private final ErrorHandler onError;
+    private final Semaphore inFlight;
+    private final Map<String, CompletableFuture<Void>> tails = new HashMap<>(); // 마지막 장벽 뒤의 lane 꼬리. 접근은 tails 락 안에서
+    private CompletableFuture<Void> barrier = DONE; // 마지막 서버 프레임. 접근은 tails 락 안에서
+    private volatile boolean closed;
+
+    public InboundPipeline(Decoder<R> decoder, Sink<R> sink, ErrorHandler onError) {
+        this(decoder, sink, onError, Integer.getInteger("ghostcat.inbound.maxFrames", 256));
+    }
+
+    public InboundPipeline(Decoder<R> decoder, Sink<R> sink, ErrorHandler onError, int maxFrames) {
+        this.decoder = decoder;
+        this.sink = sink;
+        this.onError = onError;
+        this.inFlight = new Semaphore(Math.max(1, maxFrames));
+    }
+
+    /**
+     * 리더 스레드에서 호출. 처리 중인 프레임이 한도면 자리가 날 때까지 막힘
+     */
+    public void submit(Frame frame) {
+        if (closed) return;
+        try {
+            inFlight.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return;
+        }
+        String lane = frame.from();
+        CompletableFuture<Decoded<R>> decoded = CompletableFuture.supplyAsync(() -> decode(frame), POOL);
+        // 재연결 직후에는 이전 리더가 아직 submit 중일 수 있으므로 꼬리 교체는 락 안에서
+        CompletableFuture<Void> next;
+        synchronized (tails) {
+            CompletableFuture<Void> prev;
+            if (lane.isEmpty()) {
+                // 모든 lane을 기다리고, 이후 프레임은 이 장벽 뒤에 붙음
+                tails.put(lane, barrier);
+                prev = CompletableFuture.allOf(tails.values().stream()
+                        .map(t -> t.exceptionally(e -> null))
+                        .toArray(CompletableFuture[]::new));
+                tails.clear();
+            } else {
+                prev = tails.getOrDefault(lane, barrier).exceptionally(e -> null);
+            }
+            next = prev.thenCombineAsync(decoded, (v, d) -> {
+                deliver(frame, d);
+                return null;
+            }, POOL);
+            if (lane.isEmpty()) barrier = next;
+            else tails.put(lane, next);
+        }
+        next.whenComplete((v, e) -> {
+            inFlight.release();
+            synchronized (tails) {
+                // 뒤에 온 프레임이 없으면 lane 정리
+                tails.remove(lane, next);
+                if (barrier == next) barrier = DONE;
+            }
+        });
+    }
+
+    // 이후 프레임은 버리고, 아직 deliver 전인 프레임도 전달하지 않음
+    public void close() {
+        closed = true;
+    }
+
+    private Decoded<R> decode(Frame frame) {
+        try {
+            return new Decoded<>(decoder.decode(frame), null);
+        } catch (Exception e) {
+            return new Decoded<>(null, e);
+        }
+    }
+
+    // 예외를 밖으로 내보내지 않음 (lane의 다음 프레임이 계속 처리되도록)
+    private void deliver(Frame frame, Decoded<R> d) {
+        try {
+            if (closed) return;
+            if (d.error() != null) onError.failed(frame, d.error());
+            else sink.deliver(frame, d.value());
+        } catch (Exception e) {
+            onError.failed(frame, e);
+        }
+    }
+}
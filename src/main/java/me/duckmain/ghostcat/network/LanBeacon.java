@@ -0,0 +1,55 @@
+package me.duckmain.ghostcat.network;
+
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.IntSupplier;
+
+/**
+ * LAN 브로드캐스트 (ServerSelectController.discoverLocalServer가 수신)
+ */
+final class LanBeacon {
+    private final IntSupplier port;
+    private ScheduledExecutorService scheduler;
+
+    LanBeacon(IntSupplier port) {
+        this.port = port;
+    }
+
+    synchronized void start() {
+        if (scheduler != null) return;
+        scheduler = Executors.newSingleThreadScheduledExecutor();
+        scheduler.scheduleAtFixedRate(() -> {
+            try (DatagramSocket ds = new DatagramSocket()) {
+                ds.setBroadcast(true);
+                String msg = "E2EE-SERVER:" + InetAddress.getLocalHost().getHostAddress() + ":" + port.getAsInt();
+                byte[] data = msg.getBytes(StandardCharsets.UTF_8);
+                DatagramPacket packet = new DatagramPacket(data, data.length,
+                        InetAddress.getByName("255.255.255.255"), 9999);
+                ds.send(packet);
+            } catch (IOException e) {
+                System.err.println("Broadcast error: " + e.getMessage());
+            }
+        }, 0, 1, TimeUnit.SECONDS);
+    }
+
+    synchronized void stop() {
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+            try {
+                if (!scheduler.awaitTermination(1, TimeUnit.SECONDS)) {
+                    // 강제 종료 후에도 남아있다면 로그
+                    System.err.println("Broadcast scheduler did not terminate quickly.");
+                }
+            } catch (InterruptedException ignored) {
+                Thread.currentThread().interrupt();
+            }
+            scheduler = null;
+        }
+    }
+}
@@ -0,0 +1,504 @@
+package me.duckmain.ghostcat.network;
+
+import java.io.IOException;
+import java.net.ProtocolException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32C;
+
+/**
+ * 오프라인 수신자에게 온 KEY/MSG를 보관했다가 다음 REGISTER 때 순서대로 전달 (store-and-forward).
+ * 본문은 이미 종단간 암호화되어 있으므로 서버는 바이너리 프레임을 그대로 저장함.
+ * <p>
+ * 저장소는 고정 크기 세그먼트 파일을 mmap한 append-only 로그:
+ * <pre>
+ * record: [len i32][crc32c i32][kind u8][payload]    len = 1 + payload 길이, 0이면 로그 끝
+ *   FRAME: [seq i64][storedAt i64][바이너리 프레임]
+ *   ACK:   [seq i64][nick]                         nick 앞으로 온 seq 이하 프레임은 전달 완료
+ * </pre>
+ * 메모리에는 nick별 대기 목록(인덱스)만 둠. 시작할 때 세그먼트를 순서대로 읽어 인덱스를 다시 만들고,
+ * CRC가 맞지 않는 레코드(쓰다 만 꼬리)부터는 버림.
+ * 쓰기는 mmap에 넣기만 하고, syncMillis마다 그 사이의 쓰기를 force() 한 번으로 디스크에 내림 (group commit).
+ * <p>
+ * 세그먼트가 차면 새 세그먼트로 넘어가고, 가장 오래된 세그먼트부터 차례로 정리함:
+ * 살아 있는 프레임이 없으면 삭제, 적으면 살아 있는 프레임을 활성 세그먼트로 옮긴 뒤 삭제.
+ * (ACK는 자기보다 앞에 쓰인 프레임만 가리키므로 오래된 쪽부터 지우면 전달된 프레임이 되살아나지 않음)
+ * 전체 크기가 maxBytes를 넘으면 가장 오래된 세그먼트를 통째로 버림. ttl이 지난 프레임은 전달하지 않음.
+ */
+final class Mailbox {
+    private static final byte FRAME = 0;
+    private static final byte ACK = 1;
+    private static final int RECORD_HEADER = 4 + 4 + 1;
+    private static final int FRAME_HEADER = 8 + 8;
+    private static final String SUFFIX = ".seg";
+
+    private static final ScheduledExecutorService SYNCER = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "Relay-Mailbox");
+        t.setDaemon(true);
+        return t;
+    });
+
+    /**
+     * -Dghostcat.mailbox.dir (없으면 기능 꺼짐), -Dghostcat.mailbox.segmentBytes (기본 16MiB),
+     * -Dghostcat.mailbox.maxBytes (기본 512MiB), -Dghostcat.mailbox.ttlHours (기본 72),
+     * -Dghostcat.mailbox.maxPerNick (기본 512), -Dghostcat.mailbox.syncMillis (기본 20)
+     */
+    record Config(Path dir, int segmentBytes, long maxBytes, long ttlMillis, int maxPerNick, long syncMillis) {
+        static Config fromSystemProperties() {
+            String dir = System.getProperty("ghostcat.mailbox.dir");
+            if (dir == null || dir.isBlank()) return null;
+            return new Config(
+                    Path.of(dir),
+                    Integer.getInteger("ghostcat.mailbox.segmentBytes", 16 * 1024 * 1024),
+                    Long.getLong("ghostcat.mailbox.maxBytes", 512L * 1024 * 1024),
+                    TimeUnit.HOURS.toMillis(Long.getLong("ghostcat.mailbox.ttlHours", 72L)),
+                    Integer.getInteger("ghostcat.mailbox.maxPerNick", 512),
+                    Long.getLong("ghostcat.mailbox.syncMillis", 20L));
+        }
+    }
+
+    private static final class Segment {
+        final long id;
+        final Path path;
+        final FileChannel channel;
+        final MappedByteBuffer map;
+        int writePos;
+        int live;        // 아직 전달 안 된 프레임 수
+        long liveBytes;
+
+        Segment(long id, Path path, FileChannel channel, MappedByteBuffer map) {
+            this.id = id;
+            this.path = path;
+            this.channel = channel;
+            this.map = map;
+        }
+
+        int capacity() {
+            return map.capacity();
+        }
+    }
+
+    // 대기 중인 프레임 위치. 정리(compaction)로 옮겨지면 seg/pos가 바뀜
+    private static final class Entry {
+        final long seq;
+        final long storedAt;
+        Segment seg;
+        int pos;
+        final int len;
+
+        Entry(long seq, long storedAt, Segment seg, int pos, int len) {
+            this.seq = seq;
+            this.storedAt = storedAt;
+            this.seg = seg;
+            this.pos = pos;
+            this.len = len;
+        }
+    }
+
+    private final Config config;
+    private final FileChannel lockChannel;
+    private final FileLock lock;
+    private final List<Segment> segments = new ArrayList<>(); // 오래된 순, 마지막이 활성
+    private final Map<String, ArrayDeque<Entry>> pending = new HashMap<>();
+    private final List<Path> trash = new ArrayList<>(); // 매핑 중이라 못 지운 파일 (Windows)
+    private final ScheduledFuture<?> syncTask;
+    private long nextSeq = 1;
+    private int dirtyFrom = -1; // 활성 세그먼트에서 아직 force 안 한 시작 위치
+    private boolean closed;
+
+    /**
+     * 설정이 없거나 열 수 없으면 null (Relay는 기존처럼 버림)
+     */
+    static Mailbox openFromSystemProperties() {
+        Config config = Config.fromSystemProperties();
+        if (config == null) return null;
+        try {
+            Mailbox m = new Mailbox(config);
+            System.out.println("Mailbox enabled at " + config.dir() + " (" + m.pendingCount() + " pending)");
+            return m;
+        } catch (IOException e) {
+            System.err.println("Mailbox disabled: " + e.getMessage());
+            return null;
+        }
+    }
+
+    Mailbox(Config config) throws IOException {
+        this.config = config;
+        Files.createDirectories(config.dir());
+        lockChannel = FileChannel.open(config.dir().resolve("mailbox.lock"),
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+        lock = lockChannel.tryLock();
+        if (lock == null) {
+            lockChannel.close();
+            throw new IOException(config.dir() + " is used by another server");
+        }
+        try {
+            recover();
+        } catch (IOException e) {
+            closeFiles();
+            throw e;
+        }
+        syncTask = SYNCER.scheduleWithFixedDelay(this::sync, config.syncMillis(), config.syncMillis(), TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * 수신자가 오프라인일 때 호출. nick별 한도나 크기 제한에 걸리면 false (버림)
+     */
+    synchronized boolean store(Frame f) {
+        if (closed) return false;
+        ArrayDeque<Entry> queue = pending.get(f.to());
+        if (queue != null && queue.size() >= config.maxPerNick()) return false;
+        ByteBuffer frame = FrameCodec.encodeBinary(f);
+        long seq = nextSeq++;
+        long now = System.currentTimeMillis();
+        ByteBuffer payload = ByteBuffer.allocate(FRAME_HEADER + frame.remaining());
+        payload.putLong(seq).putLong(now).put(frame).flip();
+        int len = RECORD_HEADER + payload.remaining();
+        if (len > config.segmentBytes() - 4) return false;
+
+        try {
+            boolean rolled = ensureRoom(len);
+            int pos = append(FRAME, payload);
+            Entry e = new Entry(seq, now, active(), pos, len);
+            pending.computeIfAbsent(f.to(), k -> new ArrayDeque<>()).add(e);
+            e.seg.live++;
+            e.seg.liveBytes += len;
+            if (rolled) maintain();
+            return true;
+        } catch (IOException e) {
+            System.err.println("Mailbox write failed: " + e.getMessage());
+            return false;
+        }
+    }
+
+    /**
+     * nick 앞으로 쌓인 프레임과 마지막 seq. 아직 지우지 않은 상태라서 다시 꺼내면 같은 프레임이 나옴
+     */
+    record Stored(List<Frame> frames, long upTo) {}
+
+    /**
+     * nick 앞으로 쌓인 프레임을 저장 순서대로 돌려줌 (ttl 지난 것은 건너뜀).
+     * 지우지 않으므로 실제로 보낸 뒤 {@link #ack}로 전달 완료를 기록해야 함
+     */
+    synchronized Stored peek(String nick) {
+        ArrayDeque<Entry> queue = pending.get(nick);
+        if (queue == null || queue.isEmpty() || closed) return new Stored(List.of(), 0);
+        long cutoff = System.currentTimeMillis() - config.ttlMillis();
+        List<Frame> frames = new ArrayList<>(queue.size());
+        long last = 0;
+        for (Entry e : queue) {
+            last = e.seq;
+            if (e.storedAt < cutoff) continue;
+            Frame f = read(e);
+            if (f != null) frames.add(f);
+        }
+        return new Stored(frames, last);
+    }
+
+    /**
+     * upTo 이하로 저장된 nick 앞 프레임을 전달 완료로 기록하고 대기 목록에서 뺌
+     */
+    synchronized void ack(String nick, long upTo) {
+        ArrayDeque<Entry> queue = pending.get(nick);
+        if (queue == null || closed) return;
+        while (!queue.isEmpty() && queue.peekFirst().seq <= upTo) {
+            Entry e = queue.pollFirst();
+            e.seg.live--;
+            e.seg.liveBytes -= e.len;
+        }
+        if (queue.isEmpty()) pending.remove(nick);
+        byte[] nickBytes = nick.getBytes(StandardCharsets.UTF_8);
+        ByteBuffer payload = ByteBuffer.allocate(8 + nickBytes.length);
+        payload.putLong(upTo).put(nickBytes).flip();
+        try {
+            if (ensureRoom(RECORD_HEADER + payload.remaining())) maintain();
+            append(ACK, payload);
+        } catch (IOException e) {
+            System.err.println("Mailbox ack failed: " + e.getMessage());
+        }
+    }
+
+    synchronized int pendingCount() {
+        int n = 0;
+        for (ArrayDeque<Entry> q : pending.values()) n += q.size();
+        return n;
+    }
+
+    synchronized void close() {
+        if (closed) return;
+        closed = true;
+        syncTask.cancel(false);
+        Segment active = active();
+        if (active != null) active.map.force();
+        closeFiles();
+    }
+
+    // ===== 로그 =====
+
+    private Segment active() {
+        return segments.isEmpty() ? null : segments.get(segments.size() - 1);
+    }
+
+    // 레코드 하나를 활성 세그먼트 끝에 씀. 뒤에 0을 써서 다음 스캔이 여기서 멈추게 함
+    private int append(byte kind, ByteBuffer payload) {
+        Segment seg = active();
+        int len = 1 + payload.remaining();
+        CRC32C crc = new CRC32C();
+        crc.update(kind);
+        crc.update(payload.duplicate());
+        int pos = seg.writePos;
+        seg.map.putInt(pos, len);
+        seg.map.putInt(pos + 4, (int) crc.getValue());
+        seg.map.put(pos + 8, kind);
+        seg.map.put(pos + RECORD_HEADER, payload, payload.position(), payload.remaining());
+        seg.writePos = pos + 8 + len;
+        if (seg.writePos + 4 <= seg.capacity()) seg.map.putInt(seg.writePos, 0);
+        if (dirtyFrom < 0) dirtyFrom = pos;
+        return pos;
+    }
+
+    // 자리가 없으면 새 세그먼트로 넘어감. 넘어갔으면 true (호출한 쪽에서 maintain)
+    private boolean ensureRoom(int recordLen) throws IOException {
+        Segment seg = active();
+        if (seg != null && seg.writePos + recordLen + 4 <= seg.capacity()) return false;
+        if (seg != null) seg.map.force();
+        long id = seg == null ? 1 : seg.id + 1;
+        segments.add(openSegment(config.dir().resolve(String.format("%020d%s", id, SUFFIX)), id, config.segmentBytes()));
+        dirtyFrom = -1;
+        return true;
+    }
+
+    private Segment openSegment(Path path, long id, int size) throws IOException {
+        FileChannel ch = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        try {
+            MappedByteBuffer map = ch.map(FileChannel.MapMode.READ_WRITE, 0, size);
+            return new Segment(id, path, ch, map);
+        } catch (IOException e) {
+            ch.close();
+            throw e;
+        }
+    }
+
+    // 크기 제한 -> 오래된 세그먼트 정리 순서로 처리
+    private void maintain() throws IOException {
+        long total = 0;
+        for (Segment s : segments) total += s.capacity();
+        while (total > config.maxBytes() && segments.size() > 1) {
+            Segment oldest = segments.get(0);
+            int dropped = removeEntries(oldest, Long.MAX_VALUE);
+            if (dropped > 0) System.err.println("Mailbox full, dropped " + dropped + " undelivered frames");
+            total -= oldest.capacity();
+            discard(oldest);
+        }
+
+        long cutoff = System.currentTimeMillis() - config.ttlMillis();
+        while (segments.size() > 1) {
+            Segment oldest = segments.get(0);
+            removeEntries(oldest, cutoff);
+            if (oldest.live > 0) {
+                if (oldest.liveBytes > oldest.capacity() / 4) break;
+                relocate(oldest);
+            }
+            discard(oldest);
+        }
+
+        for (Iterator<Path> it = trash.iterator(); it.hasNext(); ) {
+            try {
+                Files.deleteIfExists(it.next());
+                it.remove();
+            } catch (IOException ignored) {}
+        }
+    }
+
+    // seg에 있으면서 storedAt < cutoff 인 항목을 대기 목록에서 뺌
+    private int removeEntries(Segment seg, long cutoff) {
+        int removed = 0;
+        for (Iterator<ArrayDeque<Entry>> qs = pending.values().iterator(); qs.hasNext(); ) {
+            ArrayDeque<Entry> q = qs.next();
+            for (Iterator<Entry> it = q.iterator(); it.hasNext(); ) {
+                Entry e = it.next();
+                if (e.seg == seg && e.storedAt < cutoff) {
+                    it.remove();
+                    seg.live--;
+                    seg.liveBytes -= e.len;
+                    removed++;
+                }
+            }
+            if (q.isEmpty()) qs.remove();
+        }
+        return removed;
+    }
+
+    // 살아 있는 프레임 레코드를 그대로(같은 seq/storedAt/CRC) 활성 세그먼트 끝으로 복사
+    private void relocate(Segment seg) throws IOException {
+        for (ArrayDeque<Entry> q : pending.values()) {
+            for (Entry e : q) {
+                if (e.seg != seg) continue;
+                ensureRoom(e.len);
+                Segment to = active();
+                to.map.put(to.writePos, seg.map, e.pos, e.len);
+                e.seg = to;
+                e.pos = to.writePos;
+                to.writePos += e.len;
+                if (to.writePos + 4 <= to.capacity()) to.map.putInt(to.writePos, 0);
+                to.live++;
+                to.liveBytes += e.len;
+            }
+        }
+        seg.live = 0;
+        seg.liveBytes = 0;
+        // 복사본이 디스크에 내려간 뒤에 원본을 지움
+        active().map.force();
+        dirtyFrom = -1;
+    }
+
+    private void discard(Segment seg) {
+        segments.remove(seg);
+        seg.map.putInt(0, 0); // 못 지우더라도 다음 시작 때 빈 세그먼트로 보이게
+        seg.map.force();
+        try { seg.channel.close(); } catch (IOException ignored) {}
+        try {
+            Files.deleteIfExists(seg.path);
+        } catch (IOException e) {
+            trash.add(seg.path);
+        }
+    }
+
+    private Frame read(Entry e) {
+        ByteBuffer b = e.seg.map.duplicate();
+        b.position(e.pos + RECORD_HEADER + FRAME_HEADER).limit(e.pos + e.len);
+        try {
+            return FrameCodec.decodeBinary(b);
+        } catch (ProtocolException ex) {
+            return null;
+        }
+    }
+
+    // group commit: 마지막 force 이후 쓴 범위를 한 번에 내림
+    private void sync() {
+        MappedByteBuffer map;
+        int from;
+        int to;
+        synchronized (this) {
+            if (closed || dirtyFrom < 0) return;
+            Segment active = active();
+            map = active.map;
+            from = dirtyFrom;
+            to = active.writePos;
+            dirtyFrom = -1;
+        }
+        try {
+            map.force(from, to - from);
+        } catch (RuntimeException e) {
+            System.err.println("Mailbox sync failed: " + e.getMessage());
+        }
+    }
+
+    // ===== 시작 시 복구 =====
+
+    private void recover() throws IOException {
+        List<Path> files = new ArrayList<>();
+        try (DirectoryStream<Path> ds = Files.newDirectoryStream(config.dir(), "*" + SUFFIX)) {
+            for (Path p : ds) files.add(p);
+        }
+        files.sort(Comparator.comparing(p -> p.getFileName().toString()));
+
+        Map<String, Long> acked = new HashMap<>();
+        for (Path p : files) {
+            String name = p.getFileName().toString();
+            long id = Long.parseLong(name.substring(0, name.length() - SUFFIX.length()));
+            int size = (int) Math.min(Files.size(p), Integer.MAX_VALUE);
+            if (size < 4) {
+                Files.deleteIfExists(p);
+                continue;
+            }
+            Segment seg = openSegment(p, id, size);
+            segments.add(seg);
+            scan(seg, acked);
+        }
+
+        long cutoff = System.currentTimeMillis() - config.ttlMillis();
+        for (Iterator<Map.Entry<String, ArrayDeque<Entry>>> it = pending.entrySet().iterator(); it.hasNext(); ) {
+            Map.Entry<String, ArrayDeque<Entry>> me = it.next();
+            long upTo = acked.getOrDefault(me.getKey(), 0L);
+            // 옮겨진 레코드는 로그 뒤쪽에 있으므로 seq로 다시 정렬.
+            // 옮긴 직후 원본을 지우기 전에 멈췄다면 같은 seq가 두 번 나오므로 뒤의 것(복사본)만 남김
+            List<Entry> sorted = new ArrayList<>(me.getValue());
+            sorted.sort(Comparator.comparingLong(e -> e.seq));
+            ArrayDeque<Entry> q = new ArrayDeque<>();
+            for (Entry e : sorted) {
+                if (e.seq <= upTo || e.storedAt < cutoff) continue;
+                if (!q.isEmpty() && q.peekLast().seq == e.seq) {
+                    Entry dup = q.pollLast();
+                    dup.seg.live--;
+                    dup.seg.liveBytes -= dup.len;
+                }
+                q.add(e);
+                e.seg.live++;
+                e.seg.liveBytes += e.len;
+            }
+            if (q.isEmpty()) it.remove();
+            else me.setValue(q);
+        }
+
+        if (segments.isEmpty()) ensureRoom(0);
+        if (segments.size() > 1) maintain();
+    }
+
+    private void scan(Segment seg, Map<String, Long> acked) {
+        MappedByteBuffer map = seg.map;
+        int cap = map.capacity();
+        int pos = 0;
+        while (pos + RECORD_HEADER <= cap) {
+            int len = map.getInt(pos);
+            if (len <= 0 || pos + 8L + len > cap) break;
+            CRC32C crc = new CRC32C();
+            crc.update(map.slice(pos + 8, len));
+            if ((int) crc.getValue() != map.getInt(pos + 4)) break; // 쓰다 만 레코드
+            byte kind = map.get(pos + 8);
+            int body = pos + RECORD_HEADER;
+            if (kind == FRAME) {
+                long seq = map.getLong(body);
+                long storedAt = map.getLong(body + 8);
+                Entry e = new Entry(seq, storedAt, seg, pos, 8 + len);
+                Frame f = read(e);
+                if (f != null) pending.computeIfAbsent(f.to(), k -> new ArrayDeque<>()).add(e);
+                nextSeq = Math.max(nextSeq, seq + 1);
+            } else if (kind == ACK) {
+                long seq = map.getLong(body);
+                byte[] nick = new byte[len - 1 - 8];
+                map.get(body + 8, nick);
+                acked.merge(new String(nick, StandardCharsets.UTF_8), seq, Math::max);
+                nextSeq = Math.max(nextSeq, seq + 1);
+            }
+            pos += 8 + len;
+        }
+        seg.writePos = pos;
+    }
+
+    private void closeFiles() {
+        for (Segment s : segments) {
+            try { s.channel.close(); } catch (IOException ignored) {}
+        }
+        try { lock.release(); } catch (IOException ignored) {}
+        try { lockChannel.close(); } catch (IOException ignored) {}
+    }
+}
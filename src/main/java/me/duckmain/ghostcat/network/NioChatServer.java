@@ -0,0 +1,535 @@
+package me.duckmain.ghostcat.network;
+
+import me.duckmain.ghostcat.metrics.ServerMetrics;
+import me.duckmain.ghostcat.tls.SSLUtil;
+
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLEngine;
+import javax.net.ssl.SSLEngineResult;
+import javax.net.ssl.SSLException;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.ProtocolException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * NIO + SSLEngine 기반 멀티 리액터 서버.
+ * accept 스레드 1개 + 이벤트 루프 N개(기본: 코어 수)로 동작하고, 연결은 라운드로빈으로 루프에 분배됨.
+ * 프로토콜 처리는 ChatServer와 같은 Relay를 사용하므로 기존 ChatClient와 그대로 호환됨 (텍스트/바이너리 프레임 모두).
+ */
+public class NioChatServer implements RelayServer {
+    // 평문 버퍼 상한의 TLS 레코드 여유 (상한 = 연결이 받을 수 있는 가장 큰 프레임 + 이것)
+    private static final int APP_IN_SLACK = 64 * 1024;
+
+    private final int port;
+    private final EventLoop[] loops;
+    private final ServerMetrics metrics = new ServerMetrics();
+    private final Relay relay = new Relay(this::stopServer, metrics);
+    private final LanBeacon beacon = new LanBeacon(this::getBoundPort);
+    private final OutboundQueue.Config queueConfig = OutboundQueue.Config.fromSystemProperties();
+    private final AtomicBoolean running = new AtomicBoolean(false);
+    private final CountDownLatch portReadyLatch = new CountDownLatch(1);
+    private final AtomicInteger nextLoop = new AtomicInteger();
+
+    private volatile ServerSocketChannel serverChannel;
+    private volatile SSLContext sslContext;
+    private Thread acceptThread;
+
+    /**
+     * @param loopCount 이벤트 루프 수 (0 이하면 availableProcessors)
+     */
+    public NioChatServer(int port, boolean enableBroadcast, int loopCount) {
+        this.port = port;
+        int n = loopCount > 0 ? loopCount : Runtime.getRuntime().availableProcessors();
+        this.loops = new EventLoop[n];
+        if (enableBroadcast) beacon.start();
+    }
+
+    @Override
+    public void start() {
+        if (!running.compareAndSet(false, true)) return; // 이미 실행중이면 무시
+
+        acceptThread = new Thread(() -> {
+            try {
+                for (int i = 0; i < loops.length; i++) {
+                    loops[i] = new EventLoop(i);
+                    loops[i].start();
+                }
+
+                serverChannel = ServerSocketChannel.open();
+                serverChannel.setOption(java.net.StandardSocketOptions.SO_REUSEADDR, true);
+                serverChannel.bind(new InetSocketAddress(port));
+                portReadyLatch.countDown();
+                System.out.println("NIO server started on port " + getBoundPort() + " (" + loops.length + " loops)");
+                metrics.publish(getBoundPort());
+                relay.startCluster();
+                // 포트는 먼저 열어 두고 키 준비를 기다림 (그동안 들어온 연결은 accept 백로그에서 대기)
+                sslContext = SSLUtil.serverSSLContext();
+
+                while (running.get()) {
+                    try {
+                        SocketChannel ch = serverChannel.accept();
+                        metrics.accepted();
+                        ch.configureBlocking(false);
+                        ch.setOption(java.net.StandardSocketOptions.TCP_NODELAY, true);
+                        ch.setOption(java.net.StandardSocketOptions.SO_KEEPALIVE, true); // heartbeat를 모르는 클라이언트용
+                        EventLoop loop = loops[Math.floorMod(nextLoop.getAndIncrement(), loops.length)];
+                        loop.register(ch);
+                    } catch (ClosedChannelException ce) {
+                        // 서버 채널 닫힘으로 인한 정상적 종료 흐름
+                        break;
+                    } catch (IOException e) {
+                        if (!running.get()) break;
+                        System.err.println("Accept error: " + e.getMessage());
+                    }
+                }
+            } catch (IOException e) {
+                if (running.get()) {
+                    System.err.println("Server start failed: " + e.getMessage());
+                }
+            } catch (Exception e) {
+                throw new RuntimeException(e);
+            } finally {
+                stopServer(); // idempotent
+                System.out.println("NIO accept thread exiting");
+            }
+        }, "NioChatServer-Accept");
+
+        acceptThread.setDaemon(false);
+        acceptThread.start();
+    }
+
+    @Override
+    public void stopServer() {
+        if (!running.compareAndSet(true, false))
+            return; // 이미 멈춘 상태이면 리턴
+
+        System.out.println("Stopping NIO server...");
+        beacon.stop();
+        metrics.unpublish();
+
+        try {
+            if (serverChannel != null) serverChannel.close();
+        } catch (IOException ignored) {}
+
+        relay.closeAll();
+
+        // 루프 종료: 자기 루프 스레드에서 불릴 수도 있으므로 join 하지 않음
+        for (EventLoop loop : loops) {
+            if (loop != null) loop.shutdown();
+        }
+        System.out.println("NIO server stopped");
+    }
+
+    @Override
+    public int waitForPort() throws InterruptedException {
+        portReadyLatch.await();
+        return getBoundPort();
+    }
+
+    @Override
+    public int getBoundPort() {
+        try {
+            ServerSocketChannel ch = serverChannel;
+            if (ch == null || !ch.isOpen()) return -1;
+            return ((InetSocketAddress) ch.getLocalAddress()).getPort();
+        } catch (IOException e) {
+            return -1;
+        }
+    }
+
+    @Override
+    public List<QueueStats> queueStats() {
+        return relay.queueStats();
+    }
+
+    @Override
+    public ServerMetrics metrics() {
+        return metrics;
+    }
+
+    /**
+     * Selector 하나를 소유하는 이벤트 루프. SSLEngine과 채널은 소유 루프 스레드에서만 만짐.
+     * 다른 스레드에서의 쓰기/종료 요청은 pending 큐에 넣고 selector를 깨움.
+     */
+    private final class EventLoop extends Thread {
+        private final Selector selector;
+        private final Queue<SocketChannel> registrations = new ConcurrentLinkedQueue<>();
+        private final Queue<NioConnection> pending = new ConcurrentLinkedQueue<>();
+        private volatile boolean alive = true;
+
+        EventLoop(int index) throws IOException {
+            super("NioChatServer-Loop-" + index);
+            setDaemon(true);
+            this.selector = Selector.open();
+        }
+
+        void register(SocketChannel ch) {
+            registrations.add(ch);
+            selector.wakeup();
+        }
+
+        void schedule(NioConnection conn) {
+            pending.add(conn);
+            selector.wakeup();
+        }
+
+        void shutdown() {
+            alive = false;
+            selector.wakeup();
+        }
+
+        @Override
+        public void run() {
+            try {
+                while (alive) {
+                    selector.select();
+                    drainRegistrations();
+
+                    Iterator<SelectionKey> it = selector.selectedKeys().iterator();
+                    while (it.hasNext()) {
+                        SelectionKey key = it.next();
+                        it.remove();
+                        NioConnection conn = (NioConnection) key.attachment();
+                        try {
+                            if (key.isValid() && key.isReadable()) conn.onReadable();
+                            if (key.isValid() && key.isWritable()) conn.pump();
+                        } catch (IOException | RuntimeException e) {
+                            conn.fail(e);
+                        }
+                    }
+
+                    NioConnection conn;
+                    while ((conn = pending.poll()) != null) {
+                        try {
+                            conn.onScheduled();
+                        } catch (IOException | RuntimeException e) {
+                            conn.fail(e);
+                        }
+                    }
+                }
+            } catch (IOException e) {
+                System.err.println(getName() + " selector error: " + e.getMessage());
+            } finally {
+                for (SelectionKey key : selector.keys()) {
+                    if (key.attachment() instanceof NioConnection c) c.closeNow();
+                }
+                try { selector.close(); } catch (IOException ignored) {}
+            }
+        }
+
+        private void drainRegistrations() {
+            SocketChannel ch;
+            while ((ch = registrations.poll()) != null) {
+                try {
+                    SSLEngine engine = sslContext.createSSLEngine();
+                    engine.setUseClientMode(false);
+                    NioConnection conn = new NioConnection(this, ch, engine);
+                    conn.key = ch.register(selector, SelectionKey.OP_READ, conn);
+                    engine.beginHandshake();
+                } catch (IOException e) {
+                    System.err.println("Register error: " + e.getMessage());
+                    try { ch.close(); } catch (IOException ignored) {}
+                }
+            }
+        }
+    }
+
+    /**
+     * SSLEngine으로 감싼 논블로킹 연결.
+     * netIn/netOut: 암호화된 바이트 (쓰기 모드), appIn: 복호화된 평문 (쓰기 모드)
+     */
+    private final class NioConnection extends Connection {
+        private final EventLoop loop;
+        private final SocketChannel channel;
+        private final SSLEngine engine;
+        private final AtomicBoolean closeRequested = new AtomicBoolean(false);
+        private final AtomicBoolean scheduled = new AtomicBoolean(false); // pending 큐 중복 방지
+        private SelectionKey key;
+        private ByteBuffer netIn;
+        private ByteBuffer netOut;
+        private ByteBuffer appIn;
+        private ByteBuffer current; // wrap 중인 평문
+        private volatile boolean closed;
+        private long handshakeStart = System.nanoTime(); // 핸드셰이크가 끝나면 0
+        private final long handshakeStartMillis = System.currentTimeMillis(); // 세션 재개 판별용
+
+        NioConnection(EventLoop loop, SocketChannel channel, SSLEngine engine) {
+            super(queueConfig, metrics);
+            this.loop = loop;
+            this.channel = channel;
+            this.engine = engine;
+            int packet = engine.getSession().getPacketBufferSize();
+            this.netIn = ByteBuffer.allocate(packet);
+            this.netOut = ByteBuffer.allocate(packet);
+            this.appIn = ByteBuffer.allocate(Math.max(engine.getSession().getApplicationBufferSize(), 16 * 1024));
+        }
+
+        // ===== Connection (아무 스레드에서나 호출) =====
+
+        @Override
+        void onEnqueued() {
+            if (closed || closeRequested.get()) {
+                outbound.clear();
+                return;
+            }
+            if (scheduled.compareAndSet(false, true)) loop.schedule(this);
+        }
+
+        @Override
+        boolean mayBlock() {
+            // 소유 루프가 자기 큐를 기다리면 영원히 비워지지 않고, 다른 루프가 기다리면 그 루프의 연결이 모두 멈춤
+            return !(Thread.currentThread() instanceof EventLoop);
+        }
+
+        @Override
+        String describe() {
+            return remote();
+        }
+
+        @Override
+        void closeSafe() {
+            if (closeRequested.compareAndSet(false, true)) {
+                if (Thread.currentThread() == loop) closeNow();
+                else loop.schedule(this);
+            }
+        }
+
+        // ===== 이하 루프 스레드 전용 =====
+
+        void onScheduled() throws IOException {
+            scheduled.set(false);
+            if (closeRequested.get()) {
+                closeNow();
+                return;
+            }
+            pump();
+        }
+
+        void onReadable() throws IOException {
+            int n = channel.read(netIn);
+            if (n < 0) {
+                try { engine.closeInbound(); } catch (SSLException ignored) {}
+                closeNow();
+                return;
+            }
+            pump();
+        }
+
+        /**
+         * 핸드셰이크/읽기/쓰기를 더 이상 진행이 없을 때까지 반복
+         */
+        void pump() throws IOException {
+            boolean progress = true;
+            while (progress && !closed) {
+                switch (engine.getHandshakeStatus()) {
+                    case NEED_TASK -> {
+                        Runnable task;
+                        while ((task = engine.getDelegatedTask()) != null) task.run();
+                        progress = true;
+                    }
+                    case NEED_WRAP -> progress = wrap(ByteBuffer.allocate(0));
+                    case NEED_UNWRAP, NEED_UNWRAP_AGAIN -> progress = unwrap();
+                    default -> {
+                        boolean r = unwrap();
+                        boolean w = wrapOutbound();
+                        progress = r || w;
+                    }
+                }
+            }
+            if (handshakeStart != 0 && !closed && !isHandshaking()) {
+                metrics.handshakeNanos(System.nanoTime() - handshakeStart, SSLUtil.isResumed(engine.getSession(), handshakeStartMillis));
+                handshakeStart = 0;
+            }
+            if (!closed) updateInterest();
+        }
+
+        private boolean unwrap() throws IOException {
+            netIn.flip();
+            SSLEngineResult res;
+            try {
+                res = engine.unwrap(netIn, appIn);
+            } finally {
+                netIn.compact();
+            }
+            switch (res.getStatus()) {
+                case OK -> {
+                    if (res.bytesProduced() > 0) drainFrames();
+                    return res.bytesConsumed() > 0 || res.bytesProduced() > 0
+                            || res.getHandshakeStatus() == SSLEngineResult.HandshakeStatus.NEED_TASK
+                            || res.getHandshakeStatus() == SSLEngineResult.HandshakeStatus.NEED_WRAP;
+                }
+                case BUFFER_OVERFLOW -> {
+                    appIn = grow(appIn, engine.getSession().getApplicationBufferSize(), maxAppIn());
+                    return true;
+                }
+                case BUFFER_UNDERFLOW -> {
+                    // 레코드가 덜 도착함. 버퍼가 꽉 찼다면 키움
+                    if (netIn.position() == netIn.capacity()) {
+                        netIn = grow(netIn, engine.getSession().getPacketBufferSize(), maxNet());
+                    }
+                    return false;
+                }
+                case CLOSED -> {
+                    closeNow();
+                    return false;
+                }
+            }
+            return false;
+        }
+
+        private boolean wrap(ByteBuffer src) throws IOException {
+            if (!flushNet()) return false;
+            SSLEngineResult res = engine.wrap(src, netOut);
+            switch (res.getStatus()) {
+                case OK -> {
+                    flushNet();
+                    return true;
+                }
+                case BUFFER_OVERFLOW -> {
+                    netOut = grow(netOut, engine.getSession().getPacketBufferSize(), maxNet());
+                    return true;
+                }
+                case CLOSED -> {
+                    closeNow();
+                    return false;
+                }
+                default -> {
+                    return false;
+                }
+            }
+        }
+
+        private boolean wrapOutbound() throws IOException {
+            boolean progress = false;
+            while (!closed && !isHandshaking()) {
+                if (current == null || !current.hasRemaining()) {
+                    current = outbound.poll();
+                    if (current == null) break;
+                }
+                if (!wrap(current)) break;
+                progress = true;
+            }
+            return progress;
+        }
+
+        private boolean isHandshaking() {
+            SSLEngineResult.HandshakeStatus hs = engine.getHandshakeStatus();
+            return hs != SSLEngineResult.HandshakeStatus.NOT_HANDSHAKING
+                    && hs != SSLEngineResult.HandshakeStatus.FINISHED;
+        }
+
+        // netOut의 남은 암호문을 채널에 씀. 다 못 쓰면 false (OP_WRITE 대기)
+        private boolean flushNet() throws IOException {
+            if (netOut.position() == 0) return true;
+            netOut.flip();
+            channel.write(netOut);
+            netOut.compact();
+            return netOut.position() == 0;
+        }
+
+        /**
+         * appIn에 쌓인 평문에서 완성된 프레임을 모두 꺼내 Relay로 넘김.
+         * 첫 바이트로 텍스트 줄/바이너리 프레임을 판별하고, 바이너리는 헤더 길이만 보고 잘라냄.
+         */
+        private void drainFrames() throws IOException {
+            appIn.flip();
+            try {
+                while (appIn.hasRemaining() && !closed) {
+                    Frame f;
+                    int start = appIn.position();
+                    if (appIn.get(start) == FrameCodec.VERSION) {
+                        f = FrameCodec.decodeBinary(appIn, maxFrameBytes());
+                    } else {
+                        f = null;
+                        for (int i = start; i < appIn.limit(); i++) {
+                            if (appIn.get(i) == '\n') {
+                                f = FrameCodec.parseText(appIn.array(), appIn.arrayOffset() + start, i - start);
+                                appIn.position(i + 1);
+                                break;
+                            }
+                        }
+                    }
+                    if (f == null) break; // 덜 도착함
+                    relay.handle(this, f);
+                }
+            } finally {
+                appIn.compact();
+            }
+            if (closed) return;
+            // 개행 없이 계속 오는 텍스트 줄 (바이너리는 decodeBinary가 헤더의 길이를 검사함)
+            int pending = appIn.position();
+            if (pending > 0 && appIn.get(0) != FrameCodec.VERSION
+                    && pending > FrameCodec.maxLine(appIn.array(), appIn.arrayOffset(), pending, maxFrameBytes())) {
+                throw new ProtocolException("Line too long from " + remote());
+            }
+            // 프레임 하나가 버퍼를 가득 채우면 키움
+            if (!appIn.hasRemaining()) appIn = grow(appIn, appIn.capacity(), maxAppIn());
+        }
+
+        private void updateInterest() {
+            if (key == null || !key.isValid()) return;
+            boolean wantWrite = netOut.position() > 0;
+            int ops = SelectionKey.OP_READ | (wantWrite ? SelectionKey.OP_WRITE : 0);
+            if (key.interestOps() != ops) key.interestOps(ops);
+        }
+
+        void fail(Exception e) {
+            if (running.get() && !closed) {
+                System.err.println("Client socket error: " + e.getMessage());
+            }
+            closeNow();
+        }
+
+        void closeNow() {
+            if (closed) return;
+            closed = true;
+            closeRequested.set(true);
+            if (key != null) key.cancel();
+            try { channel.close(); } catch (IOException ignored) {}
+            outbound.clear();
+            // 서버 종료 중이면 relay.closeAll()이 이미 정리함
+            if (running.get()) relay.remove(this);
+        }
+
+        private String remote() {
+            try {
+                return String.valueOf(channel.getRemoteAddress());
+            } catch (IOException e) {
+                return "?";
+            }
+        }
+
+        // 등록 전에는 제어 프레임 한도까지만 (인증 없이 큰 버퍼를 잡지 못하게)
+        private int maxAppIn() {
+            return maxFrameBytes() + APP_IN_SLACK;
+        }
+
+        // TLS 레코드 몇 개분이면 충분함
+        private int maxNet() {
+            return 4 * engine.getSession().getPacketBufferSize();
+        }
+
+        // 두 배씩 키우되 max를 넘기지 않음. 넘어야 하면 연결을 끊음 (상대가 버퍼를 무한정 키우지 못하게)
+        private ByteBuffer grow(ByteBuffer buf, int atLeast, int max) throws ProtocolException {
+            int need = buf.position() + atLeast;
+            if (need > max) throw new ProtocolException("Buffer limit " + max + " exceeded from " + remote());
+            ByteBuffer bigger = ByteBuffer.allocate(Math.min(Math.max(buf.capacity() * 2, need), max));
+            buf.flip();
+            bigger.put(buf);
+            return bigger;
+        }
+    }
+}
@@ -0,0 +1,99 @@
+package me.duckmain.ghostcat.network;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 연결별 bounded 송신 큐. 보내는 쪽 스레드는 넣기만 하고, 실제 쓰기는 연결의 writer(또는 이벤트 루프)가 함.
+ * 느린 수신자 하나가 다른 사람을 중계하는 스레드를 막지 않도록 하기 위함.
+ */
+final class OutboundQueue {
+
+    enum OverflowPolicy {
+        DROP_OLDEST,    // 가장 오래된 프레임을 버리고 넣음
+        DISCONNECT,     // 연결을 끊음
+        BLOCK           // blockTimeoutMillis까지 기다린 뒤 새 프레임을 버림 (NIO 이벤트 루프에서 넣을 때는 기다리지 않고 바로 버림)
+    }
+
+    /**
+     * -Dghostcat.queue.capacity (기본 1024), -Dghostcat.queue.policy (기본 DROP_OLDEST),
+     * -Dghostcat.queue.blockMillis (기본 200)
+     */
+    record Config(int capacity, OverflowPolicy policy, long blockTimeoutMillis) {
+        static Config fromSystemProperties() {
+            return new Config(
+                    Integer.getInteger("ghostcat.queue.capacity", 1024),
+                    OverflowPolicy.valueOf(System.getProperty("ghostcat.queue.policy", "DROP_OLDEST").toUpperCase()),
+                    Long.getLong("ghostcat.queue.blockMillis", 200L));
+        }
+    }
+
+    private final Config config;
+    private final LinkedBlockingDeque<ByteBuffer> queue;
+    private final LongAdder dropped = new LongAdder();
+
+    OutboundQueue(Config config) {
+        this.config = config;
+        this.queue = new LinkedBlockingDeque<>(config.capacity());
+    }
+
+    /**
+     * @param mayBlock false면 BLOCK 정책이어도 기다리지 않음 (NIO 이벤트 루프 스레드가 넣는 경우)
+     * @return false면 정책상 연결을 끊어야 함
+     */
+    boolean offer(ByteBuffer buf, boolean mayBlock) {
+        if (queue.offerLast(buf)) return true;
+        switch (config.policy()) {
+            case DROP_OLDEST -> {
+                while (!queue.offerLast(buf)) {
+                    if (queue.pollFirst() != null) dropped.increment();
+                }
+                return true;
+            }
+            case DISCONNECT -> {
+                dropped.increment();
+                return false;
+            }
+            case BLOCK -> {
+                try {
+                    if (mayBlock && queue.offerLast(buf, config.blockTimeoutMillis(), TimeUnit.MILLISECONDS)) return true;
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                dropped.increment();
+                return true;
+            }
+        }
+        return true;
+    }
+
+    ByteBuffer poll() {
+        return queue.pollFirst();
+    }
+
+    ByteBuffer take() throws InterruptedException {
+        return queue.takeFirst();
+    }
+
+    boolean isEmpty() {
+        return queue.isEmpty();
+    }
+
+    void clear() {
+        queue.clear();
+    }
+
+    int depth() {
+        return queue.size();
+    }
+
+    int capacity() {
+        return config.capacity();
+    }
+
+    long dropped() {
+        return dropped.sum();
+    }
+}
@@ -0,0 +1,161 @@
+package me.duckmain.ghostcat.network;
+
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.StringJoiner;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 접속자 목록 버전 관리 (presence v2).
+ * <pre>
+ * SNAPSHOT|seq|a,b,c     입장 시 1회 (또는 RESYNC 응답)
+ * DELTA|seq|+d,-a        이후 변경분, seq는 1씩 증가
+ * RESYNC|                클라이언트가 seq 구멍을 보면 요청
+ * </pre>
+ * coalesceMillis 동안의 입장/퇴장은 DELTA 하나로 합침. REGISTER에 PRES2를 붙이지 않은 기존 클라이언트는
+ * 같은 주기로 전체 PEERS 목록을 받음.
+ * 스냅샷과 델타는 모두 이 객체의 락 안에서 큐에 넣으므로 연결별 순서가 seq 순서와 같음.
+ * <p>
+ * 키 디렉터리: REGISTER의 첫 필드(static 공개키)를 nick별로 둠. KEYS1을 붙인 연결은 스냅샷/델타의 입장 항목이
+ * "a:pub" 형식이고 (키를 모르면 "a"), KEYS|a,b로 한 번에 조회할 수 있음. 같은 nick이 다른 키로 다시 등록하면
+ * 이미 목록에 있어도 "+a:pub"를 다시 보냄.
+ */
+final class Presence {
+    static final String OFFER = "PRES2";
+    static final String KEYS_OFFER = "KEYS1";
+    private static final int MAX_LOOKUP = 256; // KEYS 요청 하나에서 답하는 nick 수
+
+    private static final ScheduledExecutorService FLUSHER = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "Relay-Presence");
+        t.setDaemon(true);
+        return t;
+    });
+
+    private final Relay relay;
+    private final long coalesceMillis;
+    private final Set<String> members = new LinkedHashSet<>();
+    private final Map<String, String> keys = new HashMap<>(); // nick -> static 공개키 (Base64)
+    private final Map<String, Character> pending = new LinkedHashMap<>(); // nick -> '+' / '-' (마지막 상태만)
+    private long seq;
+    private boolean legacyDirty;
+    private boolean flushScheduled;
+
+    /**
+     * @param coalesceMillis 0이면 변경마다 바로 보냄 (-Dghostcat.presence.coalesceMillis, 기본 50)
+     */
+    Presence(Relay relay, long coalesceMillis) {
+        this.relay = relay;
+        this.coalesceMillis = coalesceMillis;
+    }
+
+    /**
+     * @param pub REGISTER의 공개키, 없거나 형식이 틀리면 null
+     */
+    synchronized void joined(String nick, Connection conn, String pub) {
+        boolean added = members.add(nick);
+        if (setKey(nick, pub) || added) pending.put(nick, '+');
+        if (conn.wantsPresenceDeltas()) conn.send(snapshotFrame(conn.wantsKeys()));
+        else legacyDirty = true;
+        scheduleFlush();
+    }
+
+    // 다른 클러스터 노드에 접속한 nick (스냅샷을 받을 로컬 연결이 없음)
+    synchronized void joinedRemote(String nick, String pub) {
+        boolean added = members.add(nick);
+        if (setKey(nick, pub) || added) {
+            pending.put(nick, '+');
+            scheduleFlush();
+        }
+    }
+
+    // 키가 바뀌었으면 true
+    private boolean setKey(String nick, String pub) {
+        if (pub == null) return keys.remove(nick) != null;
+        return !pub.equals(keys.put(nick, pub));
+    }
+
+    synchronized String keyOf(String nick) {
+        return keys.get(nick);
+    }
+
+    // KEYS 요청 본문 "a,b,c" -> 응답 본문 "a:pub,b:pub,c" (접속해 있지 않거나 키를 모르면 nick만)
+    synchronized String lookup(String body) {
+        StringJoiner reply = new StringJoiner(",");
+        int n = 0;
+        for (String nick : body.split(",")) {
+            if (!PresenceTracker.isValidNick(nick)) continue;
+            if (n++ == MAX_LOOKUP) break;
+            reply.add(entry(nick));
+        }
+        return reply.toString();
+    }
+
+    synchronized void left(String nick) {
+        // 다른 스레드에서 같은 nick이 이미 재등록됐으면 퇴장이 아님 (joined보다 늦게 온 left)
+        if (relay.isOnline(nick)) return;
+        keys.remove(nick);
+        if (members.remove(nick)) {
+            pending.put(nick, '-');
+            scheduleFlush();
+        }
+    }
+
+    synchronized void resync(Connection conn) {
+        conn.send(snapshotFrame(conn.wantsKeys()));
+    }
+
+    private void scheduleFlush() {
+        if (coalesceMillis <= 0) {
+            flush();
+        } else if (!flushScheduled) {
+            flushScheduled = true;
+            FLUSHER.schedule(this::flush, coalesceMillis, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    synchronized void flush() {
+        flushScheduled = false;
+        if (pending.isEmpty() && !legacyDirty) return;
+
+        SharedFrame delta = null;
+        SharedFrame keyedDelta = null;
+        if (!pending.isEmpty()) {
+            StringBuilder sb = new StringBuilder().append(++seq).append('|');
+            StringBuilder keyed = new StringBuilder(sb);
+            boolean first = true;
+            for (Map.Entry<String, Character> e : pending.entrySet()) {
+                if (!first) {
+                    sb.append(',');
+                    keyed.append(',');
+                }
+                sb.append(e.getValue()).append(e.getKey());
+                keyed.append(e.getValue()).append(e.getValue() == '+' ? entry(e.getKey()) : e.getKey());
+                first = false;
+            }
+            delta = new SharedFrame(Frame.of(FrameType.DELTA, "", "", sb.toString()));
+            keyedDelta = new SharedFrame(Frame.of(FrameType.DELTA, "", "", keyed.toString()));
+            pending.clear();
+        }
+        SharedFrame peers = new SharedFrame(Frame.of(FrameType.PEERS, "", "", String.join(",", members)));
+        legacyDirty = false;
+        relay.broadcastPresence(delta, keyedDelta, peers);
+    }
+
+    private Frame snapshotFrame(boolean withKeys) {
+        if (!withKeys) return Frame.of(FrameType.SNAPSHOT, "", "", seq + "|" + String.join(",", members));
+        StringJoiner list = new StringJoiner(",");
+        for (String nick : members) list.add(entry(nick));
+        return Frame.of(FrameType.SNAPSHOT, "", "", seq + "|" + list);
+    }
+
+    // 공개키는 Base64라 ':'가 없으므로 받는 쪽은 마지막 ':'로 나눔 (nick에도 ':'가 없음, Relay.register에서 검사)
+    private String entry(String nick) {
+        String pub = keys.get(nick);
+        return pub == null ? nick : nick + ":" + pub;
+    }
+}
@@ -0,0 +1,127 @@
+package me.duckmain.ghostcat.network;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.function.BooleanSupplier;
+
+/**
+ * 클라이언트 측 presence v2 상태. SNAPSHOT으로 초기화하고 DELTA를 seq 순서대로 적용함.
+ * seq 구멍이 보이면 RESYNC를 요청하고 다음 SNAPSHOT까지 DELTA를 무시함.
+ * 리스너에는 전체 교체(reset)는 스냅샷 때만, 이후는 입장/퇴장 단위로 전달됨.
+ * KEYS1 서버는 항목에 공개키를 붙이므로 ("a:pub") keyed로 따로 알려줌 (이미 목록에 있는 nick의 새 키 포함).
+ * nick 부분이 isValidNick을 통과하지 못하는 항목은 버림 ("alice:pub"라는 nick이 alice의 키로 읽히지 않게).
+ */
+public final class PresenceTracker {
+    private static final int MAX_NICK_CHARS = 32; // 코드 포인트 기준
+    // 항목/프레임 구분자와 room, 브로드캐스트 표시 ("#room", "*")
+    private static final String NICK_RESERVED = ":,|#*";
+
+    public interface Listener {
+        void reset(Collection<String> peers);
+
+        void joined(String nick);
+
+        void left(String nick);
+
+        // 서버 키 디렉터리의 static 공개키 (Base64)
+        default void keyed(String nick, String pubB64) {}
+    }
+
+    private final Runnable requestResync;
+    private final Listener listener;
+    private final BooleanSupplier withKeys;
+    private final Set<String> peers = new LinkedHashSet<>();
+    private long seq = -1; // -1: 스냅샷 대기 중
+
+    // ChatClient는 항상 KEYS1을 붙이므로 기본은 키가 붙은 항목으로 봄
+    public PresenceTracker(Runnable requestResync, Listener listener) {
+        this(requestResync, listener, () -> true);
+    }
+
+    /**
+     * @param withKeys 서버가 KEYS1을 수락했는지 (ChatClient::hasKeyDirectory). false면 ':'가 들어간 nick을 그대로 둠
+     */
+    public PresenceTracker(Runnable requestResync, Listener listener, BooleanSupplier withKeys) {
+        this.requestResync = requestResync;
+        this.listener = listener;
+        this.withKeys = withKeys;
+    }
+
+    /**
+     * 서버가 REGISTER에서 받는 nick. 한글 등 유니코드는 되지만 구분자 ':', ',', '|', '#', '*'와 공백/제어 문자는 안 됨 (최대 32자)
+     */
+    public static boolean isValidNick(String nick) {
+        if (nick == null || nick.isEmpty() || nick.codePointCount(0, nick.length()) > MAX_NICK_CHARS) return false;
+        return nick.codePoints().noneMatch(c -> NICK_RESERVED.indexOf(c) >= 0 || Character.isWhitespace(c)
+                || Character.isSpaceChar(c) || Character.isISOControl(c) || Character.getType(c) == Character.FORMAT);
+    }
+
+    public synchronized void onSnapshot(String body) {
+        int bar = body.indexOf('|');
+        if (bar < 0) return;
+        seq = Long.parseLong(body.substring(0, bar));
+        peers.clear();
+        List<String[]> keyed = new ArrayList<>();
+        for (String e : body.substring(bar + 1).split(",")) {
+            if (e.isBlank()) continue;
+            String[] nk = withKeys.getAsBoolean() ? split(e) : new String[] {e, null};
+            if (nk == null) continue;
+            peers.add(nk[0]);
+            if (nk[1] != null) keyed.add(nk);
+        }
+        // 목록을 바꾸기 전에 키부터 (목록을 보고 바로 보내도 키가 있게)
+        for (String[] nk : keyed) listener.keyed(nk[0], nk[1]);
+        listener.reset(List.copyOf(peers));
+    }
+
+    /**
+     * KEYS 응답 "a:pub,b". 키가 있는 nick은 keyed로 알리고, 서버가 모르는 nick을 돌려줌
+     */
+    public List<String> onKeys(String body) {
+        List<String> unknown = new ArrayList<>();
+        for (String e : body.split(",")) {
+            if (e.isBlank()) continue;
+            String[] nk = split(e);
+            if (nk == null) continue;
+            if (nk[1] == null) unknown.add(nk[0]);
+            else listener.keyed(nk[0], nk[1]);
+        }
+        return unknown;
+    }
+
+    // "a:pub" -> {a, pub}, "a" -> {a, null}. 공개키에는 ':'가 없으므로 마지막 ':'로 나눔. nick 부분이 틀리면 null
+    private static String[] split(String entry) {
+        int colon = entry.lastIndexOf(':');
+        String[] nk = colon < 0 ? new String[] {entry, null} : new String[] {entry.substring(0, colon), entry.substring(colon + 1)};
+        return isValidNick(nk[0]) ? nk : null;
+    }
+
+    public synchronized void onDelta(String body) {
+        int bar = body.indexOf('|');
+        if (bar < 0 || seq < 0) return;
+        long s = Long.parseLong(body.substring(0, bar));
+        if (s <= seq) return; // 스냅샷에 이미 반영됨
+        if (s != seq + 1) {
+            seq = -1;
+            requestResync.run();
+            return;
+        }
+        for (String op : body.substring(bar + 1).split(",")) {
+            if (op.length() < 2) continue;
+            String nick = op.substring(1);
+            if (op.charAt(0) == '+') {
+                String[] nk = withKeys.getAsBoolean() ? split(nick) : new String[] {nick, null};
+                if (nk == null) continue;
+                nick = nk[0];
+                if (nk[1] != null) listener.keyed(nick, nk[1]);
+                if (peers.add(nick)) listener.joined(nick);
+            } else if (op.charAt(0) == '-') {
+                if (peers.remove(nick)) listener.left(nick);
+            }
+        }
+        seq = s;
+    }
+}
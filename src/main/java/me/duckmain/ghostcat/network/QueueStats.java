@@ -0,0 +1,6 @@
+package me.duckmain.ghostcat.network;
+
+/**
+ * 클라이언트별 송신 큐 상태 (뒤처지는 피어 확인용)
+ */
+public record QueueStats(String nick, int depth, int capacity, long dropped) {}
@@ -0,0 +1,433 @@
+package me.duckmain.ghostcat.network;
+
+import me.duckmain.ghostcat.metrics.ServerMetrics;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * REGISTER/KEY/MSG/PEERS(+presence v2) 프로토콜 라우팅 로직 (텍스트/바이너리 연결 혼용 가능).
+ * 블로킹 ChatServer와 NioChatServer가 같은 인스턴스 로직을 공유함.
+ * to가 "#room"이면 그 room 멤버에게만 보냄 ({@link Rooms}, JOIN/PART로 입장/퇴장).
+ * -Dghostcat.cluster.node 가 있으면 다른 노드와 presence를 공유하고, 로컬에 없는 수신자는 소유 노드로 전달함 ({@link Cluster}).
+ */
+final class Relay {
+    // REGISTER 옵션: CAPS 프레임을 이해함
+    static final String CAPS_OFFER = "CAPS1";
+    // 이 수 이상이면 브로드캐스트 큐잉을 여러 코어로 나눔
+    private static final int PARALLEL_FANOUT_THRESHOLD = Integer.getInteger("ghostcat.fanout.parallelThreshold", 512);
+    private static final int FANOUT_CHUNK = 256;
+    private static final int MAX_KEY_CHARS = 512; // X25519 X.509 인코딩은 Base64로 60자
+    private static final ForkJoinPool FANOUT_POOL = new ForkJoinPool(Runtime.getRuntime().availableProcessors());
+
+    private final ConnectionRegistry clients = new ConnectionRegistry();
+    private final Presence presence = new Presence(this, Long.getLong("ghostcat.presence.coalesceMillis", 50L));
+    private final Runnable onEmpty;
+    private final ServerMetrics metrics;
+    private final Mailbox mailbox = Mailbox.openFromSystemProperties(); // null이면 오프라인 수신자 프레임은 버림
+    private final Rooms rooms = new Rooms(Integer.getInteger("ghostcat.rooms.maxPerNick", 64));
+    private final Cluster cluster; // null이면 단일 노드
+    private final Heartbeat heartbeat;
+    private final Sessions sessions = new Sessions();
+
+    /**
+     * @param onEmpty 마지막 클라이언트가 나갔을 때 호출 (서버 종료용, 메일박스나 클러스터가 켜져 있으면 호출 안 함)
+     */
+    Relay(Runnable onEmpty, ServerMetrics metrics) {
+        this.onEmpty = onEmpty;
+        this.metrics = metrics;
+        Cluster.Config clusterConfig = Cluster.Config.fromSystemProperties();
+        this.cluster = clusterConfig == null ? null : new Cluster(this, clusterConfig, metrics);
+        this.heartbeat = new Heartbeat(metrics);
+        metrics.bind(this::clientCount, this::queueStats);
+    }
+
+    // 서버가 포트를 연 뒤 호출 (클러스터 링크 listener/dial 시작)
+    void startCluster() {
+        if (cluster != null) cluster.start();
+    }
+
+    /**
+     * 헤더(type/from/to)만 보고 처리함. 본문은 해석하지 않고 그대로 전달.
+     */
+    void handle(Connection conn, Frame f) {
+        long start = System.nanoTime();
+        conn.touch();
+        metrics.frameIn(f.type(), f.body().length);
+        // 재연결로 대체된 연결에 남아 있던 프레임은 새 연결에서 다시 오므로 버림
+        if (Sessions.isSequenced(f.type()) && !sessions.received(conn)) return;
+        switch (f.type()) {
+            case REGISTER -> register(conn, f);
+            case KEY, MSG, IMG, VID, FSTART, FCHUNK, FEND, FACK, CAPS -> {
+                // from은 클라이언트가 채우는 값이라서 등록한 nick과 같을 때만 전달 (room 멤버 확인도 from 기준)
+                if (f.from().equals(conn.registeredNick())) route(f);
+            }
+            case RESYNC -> presence.resync(conn);
+            case KEYS -> {
+                if (conn.registeredNick() != null) conn.send(Frame.of(FrameType.KEYS, "", "", presence.lookup(f.bodyText())));
+            }
+            case JOIN -> joinRoom(conn, f);
+            case PART -> partRoom(conn, f);
+            case PING -> conn.send(Frame.of(FrameType.PONG, "", "", f.bodyText()));
+            case ACK -> sessions.acked(conn, f.bodyText());
+            default -> {} // PONG은 touch()로 충분
+        }
+        metrics.routedNanos(System.nanoTime() - start);
+    }
+
+    /**
+     * 다른 노드가 전달한 프레임: 로컬 수신자에게만 배달 (다시 전달하지 않음)
+     */
+    void handleRemote(Frame f) {
+        long start = System.nanoTime();
+        metrics.frameIn(f.type(), f.body().length);
+        switch (f.type()) {
+            case KEY, MSG, IMG, VID, FSTART, FCHUNK, FEND, FACK, CAPS -> {
+                if (Rooms.isRoom(f.to())) routeRoom(f, false);
+                else deliverLocal(f);
+            }
+            case JOIN -> roomJoined(f.to(), f.from());
+            case PART -> roomParted(f.to(), f.from());
+            default -> {}
+        }
+        metrics.routedNanos(System.nanoTime() - start);
+    }
+
+    private void register(Connection conn, Frame f) {
+        String nick = f.from();
+        // nick은 SNAPSHOT/DELTA/KEYS 항목에 그대로 들어가므로 구분자가 섞이면 다른 nick의 키로 읽힐 수 있음
+        // 빈 nick처럼 등록하지 않고 이유만 알림 (기존 클라이언트에도 줄 하나로 보임)
+        if (!PresenceTracker.isValidNick(nick)) {
+            System.err.println("REGISTER rejected: invalid nick from " + conn.describe());
+            conn.send(Frame.of(FrameType.RAW, "", "", "ERROR invalid nick (max 32 chars, no spaces or : , | # *)"));
+            return;
+        }
+        // nick이 라우팅되기 시작해도 저장된 프레임을 다 보낼 때까지 실시간 1:1 프레임은 뒤에 둠
+        if (mailbox != null) conn.holdLive();
+        String oldNick = conn.registeredNick();
+        // REGISTER|nick|pub|BIN1|PRES2 -> 옵션 협상 (PROTO는 아직 텍스트로 나감)
+        Set<String> options = registerOptions(f.body());
+        if (!conn.isBinary() && options.contains(FrameCodec.BINARY_OFFER)) {
+            conn.send(Frame.of(FrameType.PROTO, "", "", String.valueOf(FrameCodec.VERSION)));
+            conn.enableBinary();
+        }
+        if (options.contains(Presence.OFFER)) conn.enablePresenceDeltas();
+        if (options.contains(CAPS_OFFER)) conn.enablePeerCaps();
+        if (options.contains(Presence.KEYS_OFFER) && !conn.wantsKeys()) {
+            // 빈 KEYS로 디렉터리 지원을 먼저 알림 (이어지는 SNAPSHOT부터 키가 붙음)
+            conn.enableKeyDirectory();
+            conn.send(Frame.of(FrameType.KEYS, "", "", ""));
+        }
+        // 같은 연결의 재등록이면 이미 감시 중
+        if (options.contains(Heartbeat.OFFER) && oldNick == null) heartbeat.watch(conn);
+        // 재개 가능한 세션: nick이 라우팅되기 전에 ACK와 재전송을 먼저 보냄 (이후 순번 프레임은 그 뒤 번호)
+        String sessionId = Sessions.sessionId(options);
+        if (sessionId != null) sessions.attach(conn, sessionId, nick);
+        Connection prev = clients.register(nick, conn);
+        if (oldNick != null && !oldNick.equals(nick)) {
+            presence.left(oldNick);
+            leaveRooms(oldNick);
+            if (cluster != null) cluster.localLeft(oldNick);
+        }
+        // 같은 연결의 재등록이면 null (기존엔 자기 소켓을 닫아버렸음)
+        if (prev != null) {
+            try { prev.closeSafe(); } catch (Exception ignored) {}
+        }
+        String pub = registerKey(f.body());
+        presence.joined(nick, conn, pub);
+        if (cluster != null) cluster.localJoined(nick, pub);
+        if (mailbox != null) deliverStored(nick, conn, true);
+    }
+
+    private void route(Frame f) {
+        // CAPS는 1:1 전용 (브로드캐스트/room으로는 받을 수 있는 연결을 가려 보낼 수 없음)
+        if (f.type() == FrameType.CAPS && ("*".equals(f.to()) || Rooms.isRoom(f.to()))) return;
+        if (Rooms.isRoom(f.to())) {
+            routeRoom(f, true);
+            return;
+        }
+        if (cluster != null) {
+            if ("*".equals(f.to())) cluster.broadcast(f);
+            else if (clients.get(f.to()) == null && cluster.forward(f)) return;
+        }
+        deliverLocal(f);
+    }
+
+    private void deliverLocal(Frame f) {
+        String to = f.to();
+        if ("*".equals(to)) {
+            broadcast(new SharedFrame(f), f.from());
+        } else {
+            Connection dest = clients.get(to);
+            if (dest != null) {
+                if (f.type() != FrameType.CAPS || dest.acceptsPeerCaps()) dest.sendLive(f);
+            } else if (mailbox == null) {
+                sessions.park(f); // 재연결 중인 세션이면 재개한 뒤 ACK 다음에 나감 (메일박스가 있으면 그쪽이 오프라인 배달을 맡음)
+            } else if (f.type() == FrameType.MSG || f.type() == FrameType.KEY) {
+                mailbox.store(f);
+                // 저장하는 사이에 등록했다면 register 쪽 drain이 이 프레임을 못 봤을 수 있음
+                dest = clients.get(to);
+                if (dest != null) deliverStored(to, dest, false);
+            }
+        }
+    }
+
+    // ===== rooms =====
+
+    private void joinRoom(Connection conn, Frame f) {
+        String nick = conn.registeredNick();
+        if (nick == null || !nick.equals(f.from())) return; // 다른 nick을 대신 넣을 수 없음
+        String room = f.to();
+        if (roomJoined(room, nick) && cluster != null) cluster.broadcast(f);
+        // 이미 멤버였어도 (재접속 등) 현재 목록은 다시 줌
+        if (rooms.isMember(room, nick)) conn.send(roomFrame(room, "=" + String.join(",", rooms.members(room))));
+    }
+
+    private void partRoom(Connection conn, Frame f) {
+        String nick = conn.registeredNick();
+        if (nick == null || !nick.equals(f.from())) return;
+        if (roomParted(f.to(), nick) && cluster != null) cluster.broadcast(f);
+    }
+
+    // 멤버 변경 알림은 이 노드의 로컬 멤버에게만 (다른 노드는 전달받은 JOIN/PART로 각자 보냄)
+    private boolean roomJoined(String room, String nick) {
+        if (!rooms.join(room, nick)) return false;
+        notifyRoom(room, "+" + nick, nick);
+        return true;
+    }
+
+    private boolean roomParted(String room, String nick) {
+        if (!rooms.part(room, nick)) return false;
+        notifyRoom(room, "-" + nick, nick);
+        return true;
+    }
+
+    // 연결 종료/nick 변경/다른 노드 퇴장: 클러스터에는 NPRES 퇴장으로 알려지므로 PART는 보내지 않음
+    private void leaveRooms(String nick) {
+        if (isOnline(nick)) return;
+        for (String room : rooms.leaveAll(nick)) notifyRoom(room, "-" + nick, nick);
+    }
+
+    private void notifyRoom(String room, String change, String except) {
+        SharedFrame shared = new SharedFrame(roomFrame(room, change));
+        for (String member : rooms.members(room)) {
+            if (member.equals(except)) continue;
+            Connection c = clients.get(member);
+            if (c != null) c.send(shared);
+        }
+    }
+
+    private static Frame roomFrame(String room, String body) {
+        return Frame.of(FrameType.ROOM, "", room, body);
+    }
+
+    /**
+     * room 주소 프레임은 보낸 사람이 멤버일 때만 배달. 한 번 인코딩해서 로컬 멤버 큐에 넣고,
+     * fromLocal이면 원격 멤버가 있는 노드마다 한 번씩 전달함 (그 노드가 자기 로컬 멤버에게 나눔).
+     */
+    private void routeRoom(Frame f, boolean fromLocal) {
+        String room = f.to();
+        if (!rooms.isMember(room, f.from())) return;
+        SharedFrame shared = new SharedFrame(f);
+        List<Connection> nodes = null;
+        for (String member : rooms.members(room)) {
+            if (member.equals(f.from())) continue;
+            Connection c = clients.get(member);
+            if (c != null) {
+                c.send(shared);
+            } else if (fromLocal && cluster != null) {
+                Connection owner = cluster.owner(member);
+                if (owner == null) continue;
+                if (nodes == null) nodes = new ArrayList<>(2);
+                if (!nodes.contains(owner)) nodes.add(owner);
+            }
+        }
+        if (nodes != null) {
+            for (Connection node : nodes) node.send(shared);
+        }
+    }
+
+    /**
+     * 꺼내기부터 ACK까지 연결 락 안에서 함 (두 전달이 겹쳐 같은 프레임을 두 번 보내지 않도록).
+     * release면 등록 중 잡아 둔 실시간 프레임을 그 뒤에 보냄.
+     * 큐에서 밀려난 프레임이 있거나 그 사이 연결이 빠졌으면 ACK하지 않음 (다음 등록 때 다시 전달)
+     */
+    private void deliverStored(String nick, Connection conn, boolean release) {
+        synchronized (conn) {
+            Mailbox.Stored stored = mailbox.peek(nick);
+            if (conn.sendAll(stored.frames()) && stored.upTo() > 0 && clients.get(nick) == conn) {
+                mailbox.ack(nick, stored.upTo());
+            }
+            if (release) conn.releaseLive();
+        }
+    }
+
+    // REGISTER 본문("pub|BIN1|PRES2")은 작으므로 문자열로 봐도 됨. 첫 필드(공개키)는 제외
+    private static Set<String> registerOptions(byte[] body) {
+        String[] parts = new String(body, StandardCharsets.UTF_8).split("\\|");
+        return parts.length <= 1 ? Set.of() : new HashSet<>(Arrays.asList(parts).subList(1, parts.length));
+    }
+
+    // 키 디렉터리에 넣을 첫 필드. 해석하지 않고 Base64 모양과 길이만 봄 (presence 목록 구분자가 섞이지 않게)
+    private static String registerKey(byte[] body) {
+        String text = new String(body, StandardCharsets.UTF_8);
+        int bar = text.indexOf('|');
+        String pub = bar < 0 ? text : text.substring(0, bar);
+        if (pub.isEmpty() || pub.length() > MAX_KEY_CHARS) return null;
+        for (int i = 0; i < pub.length(); i++) {
+            char c = pub.charAt(i);
+            if (!(c >= 'A' && c <= 'Z' || c >= 'a' && c <= 'z' || c >= '0' && c <= '9' || c == '+' || c == '/' || c == '=')) return null;
+        }
+        return pub;
+    }
+
+    void remove(Connection conn) {
+        if (conn == null) return;
+        try { conn.closeSafe(); } catch (Exception ignored) {}
+        conn.stopHeartbeat();
+        sessions.detach(conn);
+        String nick = clients.unregister(conn);
+        if (nick != null) {
+            presence.left(nick);
+            leaveRooms(nick);
+            if (cluster != null) cluster.localLeft(nick);
+        }
+
+        if (clients.isEmpty() && mailbox == null && cluster == null) {
+            // 재개 가능한 세션이었으면 재연결을 잠깐 기다린 뒤에 종료
+            if (conn.session() != null) Heartbeat.WHEEL.schedule(this::shutdownIfEmpty, Sessions.RESUME_GRACE_MILLIS);
+            else shutdownIfEmpty();
+        }
+    }
+
+    private void shutdownIfEmpty() {
+        if (!clients.isEmpty()) return;
+        System.out.println("No clients connected, shutting down.");
+        onEmpty.run();
+    }
+
+    // Presence에서 퇴장 처리 직전에 확인 (그 사이 같은 nick이 다시 등록됐거나 다른 노드로 옮겨갔을 수 있음)
+    boolean isOnline(String nick) {
+        return isLocal(nick) || (cluster != null && cluster.ownsRemotely(nick));
+    }
+
+    boolean isLocal(String nick) {
+        return clients.get(nick) != null;
+    }
+
+    List<String> localNicks() {
+        List<String> nicks = new ArrayList<>();
+        for (ConnectionRegistry.Member m : clients.members()) nicks.add(m.nick());
+        return nicks;
+    }
+
+    // 링크가 새로 붙을 때 상대 노드에 다시 알려줄 로컬 nick의 room 멤버십
+    List<Frame> localRoomJoins() {
+        List<Frame> joins = new ArrayList<>();
+        for (ConnectionRegistry.Member m : clients.members()) {
+            for (String room : rooms.roomsOf(m.nick())) joins.add(Frame.of(FrameType.JOIN, m.nick(), room, ""));
+        }
+        return joins;
+    }
+
+    // Cluster에서 호출: 다른 노드의 nick도 접속자 목록에 보임
+    void remoteJoined(String nick, String pub) {
+        presence.joinedRemote(nick, pub);
+    }
+
+    // 클러스터 스냅샷에 실을 로컬 nick의 공개키 (없으면 null)
+    String keyOf(String nick) {
+        return presence.keyOf(nick);
+    }
+
+    void remoteLeft(String nick) {
+        presence.left(nick);
+        leaveRooms(nick);
+    }
+
+    int clientCount() {
+        return clients.size();
+    }
+
+    List<QueueStats> queueStats() {
+        List<QueueStats> stats = new ArrayList<>();
+        for (ConnectionRegistry.Member m : clients.members()) {
+            stats.add(m.conn().queueStats(m.nick()));
+        }
+        return stats;
+    }
+
+    // 서버 종료시 전체 연결 닫기
+    void closeAll() {
+        for (ConnectionRegistry.Member m : clients.clear()) {
+            try { m.conn().closeSafe(); } catch (Exception ignored) {}
+        }
+        if (cluster != null) cluster.stop();
+        if (mailbox != null) mailbox.close();
+    }
+
+    /**
+     * Presence.flush()에서 호출: PRES2 연결에는 delta(없으면 생략, KEYS1이면 키가 붙은 것), 나머지에는 전체 PEERS 목록
+     */
+    void broadcastPresence(SharedFrame delta, SharedFrame keyedDelta, SharedFrame peers) {
+        for (ConnectionRegistry.Member m : clients.members()) {
+            Connection c = m.conn();
+            if (!c.wantsPresenceDeltas()) c.send(peers);
+            else if (delta != null) c.send(c.wantsKeys() ? keyedDelta : delta);
+        }
+    }
+
+    /**
+     * 한 번 인코딩한 프레임을 except를 제외한 모든 멤버 큐에 넣음.
+     * 멤버가 많으면 FANOUT_POOL로 나누되, 끝날 때까지 기다려 보낸 사람 기준 순서를 유지함.
+     */
+    private void broadcast(SharedFrame shared, String except) {
+        ConnectionRegistry.Member[] members = clients.members();
+        if (members.length < PARALLEL_FANOUT_THRESHOLD) {
+            deliver(members, 0, members.length, shared, except);
+            return;
+        }
+        FANOUT_POOL.invoke(new FanOut(members, 0, members.length, shared, except));
+    }
+
+    private static void deliver(ConnectionRegistry.Member[] members, int from, int to, SharedFrame shared, String except) {
+        for (int i = from; i < to; i++) {
+            ConnectionRegistry.Member m = members[i];
+            if (!m.nick().equals(except)) m.conn().send(shared);
+        }
+    }
+
+    private static final class FanOut extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final transient ConnectionRegistry.Member[] members; // 직렬화하지 않음 (ForkJoin 작업일 뿐)
+        private final int from;
+        private final int to;
+        private final transient SharedFrame shared;
+        private final String except;
+
+        FanOut(ConnectionRegistry.Member[] members, int from, int to, SharedFrame shared, String except) {
+            this.members = members;
+            this.from = from;
+            this.to = to;
+            this.shared = shared;
+            this.except = except;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from <= FANOUT_CHUNK) {
+                deliver(members, from, to, shared, except);
+                return;
+            }
+            int mid = (from + to) >>> 1;
+            invokeAll(new FanOut(members, from, mid, shared, except), new FanOut(members, mid, to, shared, except));
+        }
+    }
+}
@@ -0,0 +1,23 @@
+package me.duckmain.ghostcat.network;
+
+import me.duckmain.ghostcat.tls.SSLUtil;
+
+/**
+ * GUI 없이 릴레이 서버만 실행 (클러스터 노드 여러 개를 로컬에서 띄울 때 등).
+ * <pre>
+ * java ... me.duckmain.ghostcat.network.RelayMain [port]
+ *   -Dghostcat.cluster.node=a -Dghostcat.cluster.port=7001 -Dghostcat.cluster.peers=127.0.0.1:7002
+ * </pre>
+ */
+public final class RelayMain {
+    private RelayMain() {}
+
+    public static void main(String[] args) throws InterruptedException {
+        int port = args.length > 0 ? Integer.parseInt(args[0]) : 0;
+        SSLUtil.prepareServerContext();
+        RelayServer server = RelayServer.create(port, false);
+        Runtime.getRuntime().addShutdownHook(new Thread(server::stopServer, "RelayMain-Shutdown"));
+        server.start();
+        server.waitForPort();
+    }
+}
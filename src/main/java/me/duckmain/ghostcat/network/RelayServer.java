@@ -0,0 +1,33 @@
+package me.duckmain.ghostcat.network;
+
+import me.duckmain.ghostcat.metrics.ServerMetrics;
+
+import java.util.List;
+
+/**
+ * 릴레이 서버 공통 인터페이스.
+ * 기본은 NIO(이벤트 루프) 구현이고, -Dghostcat.server=blocking 으로 기존 스레드-당-연결 구현을 쓸 수 있음.
+ */
+public interface RelayServer {
+    void start();
+
+    void stopServer();
+
+    int waitForPort() throws InterruptedException;
+
+    int getBoundPort();
+
+    // 클라이언트별 송신 큐 깊이/드롭 수
+    List<QueueStats> queueStats();
+
+    // 카운터/지연 히스토그램 (start() 후 JMX에 등록됨)
+    ServerMetrics metrics();
+
+    static RelayServer create(int port, boolean enableBroadcast) {
+        String mode = System.getProperty("ghostcat.server", "nio");
+        if ("blocking".equalsIgnoreCase(mode)) {
+            return new ChatServer(port, enableBroadcast);
+        }
+        return new NioChatServer(port, enableBroadcast, Integer.getInteger("ghostcat.server.loops", 0));
+    }
+}
@@ -0,0 +1,71 @@
+package me.duckmain.ghostcat.network;
+
+import java.util.ArrayDeque;
+
+/**
+ * 상대가 ACK하기 전까지 보관하는 순번 프레임 (ChatClient 락 또는 Sessions.State 락 안에서만 씀).
+ * 번호를 따로 싣지 않고 위치로 셈: i번째 프레임의 순번은 acked + 1 + i.
+ * 프레임 수와 본문 바이트 양쪽으로 제한함. add는 넘치면 새 프레임을 받지 않고 (보내기 실패로 알림),
+ * push는 오래된 것을 버림 (재개 때 acked가 상대가 받은 수보다 커짐).
+ */
+final class ReplayBuffer {
+    private final ArrayDeque<Frame> frames = new ArrayDeque<>();
+    private final int maxFrames;
+    private final long maxBytes;
+    private long acked;
+    private long bytes;
+
+    ReplayBuffer(int maxFrames, long maxBytes) {
+        this.maxFrames = maxFrames;
+        this.maxBytes = maxBytes;
+    }
+
+    boolean add(Frame f) {
+        int len = f.body().length;
+        if (frames.size() >= maxFrames || (bytes + len > maxBytes && !frames.isEmpty())) return false;
+        frames.addLast(f);
+        bytes += len;
+        return true;
+    }
+
+    void push(Frame f) {
+        while (!add(f)) {
+            bytes -= frames.pollFirst().body().length;
+            acked++;
+        }
+    }
+
+    // 상대가 처리한 누적 수 (이전 값보다 작으면 무시)
+    void ack(long count) {
+        while (acked < count && !frames.isEmpty()) {
+            bytes -= frames.pollFirst().body().length;
+            acked++;
+        }
+        if (acked < count) acked = count;
+    }
+
+    /**
+     * 재연결 후 서버가 알려준 수. 서버가 세션을 잃었으면(마지막 ACK보다 작음) 남은 프레임을 그 뒤 번호로 다시 매김.
+     */
+    void resume(long serverCount) {
+        if (serverCount < acked) acked = serverCount;
+        else ack(serverCount);
+    }
+
+    long acked() {
+        return acked;
+    }
+
+    Iterable<Frame> pending() {
+        return frames;
+    }
+
+    int size() {
+        return frames.size();
+    }
+
+    void clear() {
+        frames.clear();
+        bytes = 0;
+    }
+}
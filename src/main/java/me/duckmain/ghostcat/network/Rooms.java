@@ -0,0 +1,127 @@
+package me.duckmain.ghostcat.network;
+
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * room -> 멤버 nick, nick -> room 양방향 인덱스.
+ * room 하나는 멤버 집합과 브로드캐스트용 배열 스냅샷뿐이라서 서버당 수천 개여도 부담이 적음.
+ * 변경은 ConcurrentHashMap.compute 안에서 해서 room 단위로만 잠기고, 빈 room은 바로 지움.
+ * 멤버는 nick 기준이라 다른 클러스터 노드의 nick도 같은 방식으로 들어감 (배달은 Relay가 결정).
+ */
+final class Rooms {
+    static final char PREFIX = '#';
+    private static final int MAX_NAME = 64;
+
+    private final ConcurrentHashMap<String, Room> rooms = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, Set<String>> byNick = new ConcurrentHashMap<>();
+    private final int maxPerNick;
+
+    private static final class Room {
+        final Set<String> members = new LinkedHashSet<>();
+        volatile String[] snapshot = new String[0]; // compute 안에서만 교체
+    }
+
+    /**
+     * @param maxPerNick nick 하나가 들어갈 수 있는 room 수 (-Dghostcat.rooms.maxPerNick, 기본 64)
+     */
+    Rooms(int maxPerNick) {
+        this.maxPerNick = maxPerNick;
+    }
+
+    // "#" + 1~64자, 텍스트 프레임 구분자(|)와 목록 구분자(,)는 안 됨
+    static boolean isRoom(String to) {
+        return to.length() > 1 && to.charAt(0) == PREFIX;
+    }
+
+    static boolean isValidName(String room) {
+        if (!isRoom(room) || room.length() > MAX_NAME + 1) return false;
+        for (int i = 1; i < room.length(); i++) {
+            char c = room.charAt(i);
+            if (c == '|' || c == ',' || c == '\n' || Character.isWhitespace(c)) return false;
+        }
+        return true;
+    }
+
+    /**
+     * @return 새로 들어갔으면 true (이미 멤버거나 이름이 잘못됐거나 한도를 넘으면 false)
+     */
+    boolean join(String room, String nick) {
+        if (!isValidName(room)) return false;
+        Set<String> mine = byNick.get(nick);
+        if (mine != null && mine.size() >= maxPerNick && !mine.contains(room)) return false;
+        boolean[] added = {false};
+        rooms.compute(room, (k, r) -> {
+            if (r == null) r = new Room();
+            if (r.members.add(nick)) {
+                r.snapshot = r.members.toArray(new String[0]);
+                added[0] = true;
+            }
+            return r;
+        });
+        if (added[0]) {
+            byNick.compute(nick, (k, s) -> {
+                if (s == null) s = ConcurrentHashMap.newKeySet();
+                s.add(room);
+                return s;
+            });
+        }
+        return added[0];
+    }
+
+    /**
+     * @return 실제로 나갔으면 true
+     */
+    boolean part(String room, String nick) {
+        boolean[] removed = {false};
+        rooms.computeIfPresent(room, (k, r) -> {
+            if (r.members.remove(nick)) {
+                r.snapshot = r.members.toArray(new String[0]);
+                removed[0] = true;
+            }
+            return r.members.isEmpty() ? null : r;
+        });
+        byNick.computeIfPresent(nick, (k, s) -> {
+            s.remove(room);
+            return s.isEmpty() ? null : s;
+        });
+        return removed[0];
+    }
+
+    /**
+     * nick이 들어가 있던 room 전부에서 나감 (연결 종료, nick 변경, 다른 노드 퇴장)
+     * @return 실제로 나간 room 목록
+     */
+    List<String> leaveAll(String nick) {
+        Set<String> mine = byNick.remove(nick);
+        if (mine == null) return List.of();
+        List<String> left = new ArrayList<>(mine.size());
+        for (String room : mine) {
+            if (part(room, nick)) left.add(room);
+        }
+        return left;
+    }
+
+    // 브로드캐스트용 (읽기 전용으로 써야 함)
+    String[] members(String room) {
+        Room r = rooms.get(room);
+        return r == null ? new String[0] : r.snapshot;
+    }
+
+    boolean isMember(String room, String nick) {
+        Set<String> mine = byNick.get(nick);
+        return mine != null && mine.contains(room);
+    }
+
+    Set<String> roomsOf(String nick) {
+        Set<String> mine = byNick.get(nick);
+        return mine == null ? Set.of() : mine;
+    }
+
+    int size() {
+        return rooms.size();
+    }
+}
@@ -0,0 +1,201 @@
+package me.duckmain.ghostcat.network;
+
+import java.util.EnumSet;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 재개 가능한 클라이언트 세션 (REGISTER 옵션 SEQ1=세션id).
+ * <pre>
+ * 클라이언트 -> 서버   순번 프레임(KEY, MSG, 파일 프레임, CAPS)은 세션 안에서 1, 2, 3 ... 번째로 셈 (TCP 순서 그대로라 번호를 싣지 않음)
+ * 서버 -> 클라이언트   ACK|n   n번째까지 처리함. 최대 ACK_DELAY 뒤에 모아서, 또는 ACK_EVERY개마다 바로 보냄
+ * 서버 -> 클라이언트   같은 순번 프레임을 세션 안에서 따로 셈. 클라이언트 ACK|n 전까지 버퍼에 남김
+ * 클라이언트 -> 서버   ACK|n   n번째까지 받음 (같은 주기로)
+ * REGISTER            서버가 무엇보다 먼저 ACK|n|base|R (재개) 또는 ACK|n|0 (새 세션)
+ *                     n: 클라이언트 프레임을 처리한 수 -> 클라이언트는 n 이후만 다시 보냄
+ *                     base: 클라이언트가 마지막으로 ACK한 수 -> 서버는 base 이후를 곧바로 다시 보냄
+ * </pre>
+ * 양쪽 모두 받는 쪽이 번호를 세서 이미 받은 번호(마지막 ACK 이후 받았지만 ACK가 닿기 전에 끊긴 것)는 버림
+ * (XMPP stream management와 같은 방식). 세션 연결의 송신 큐가 넘치면 프레임을 버리지 않고 연결을 끊음 (재개로 다시 받음).
+ * 끊긴 세션은 -Dghostcat.session.ttlMillis (기본 5분) 동안 유지하고, 메일박스가 없으면 그 사이 온 1:1 프레임도 버퍼에 받아 둠.
+ * 서버가 재시작됐거나 다른 노드로 붙으면 새 세션이 되고 클라이언트는 버퍼에 남은 것을 전부 다시 보냄 (마지막 ACK 이후 처리된 것은 중복될 수 있음).
+ * 서버 쪽 버퍼(-Dghostcat.session.replayFrames 기본 512, replayBytes 기본 1MB)가 넘치면 오래된 것부터 버리고,
+ * 재개 때 base가 클라이언트가 받은 수보다 커서 잃은 수를 알 수 있음.
+ */
+final class Sessions {
+    static final String OFFER = "SEQ1";
+    private static final Set<FrameType> SEQUENCED = EnumSet.of(FrameType.KEY, FrameType.MSG, FrameType.IMG,
+            FrameType.VID, FrameType.FSTART, FrameType.FCHUNK, FrameType.FEND, FrameType.FACK, FrameType.CAPS);
+    static final long ACK_DELAY_MILLIS = Long.getLong("ghostcat.session.ackDelayMillis", 200L);
+    static final int ACK_EVERY = Integer.getInteger("ghostcat.session.ackEvery", 64);
+    private static final int REPLAY_FRAMES = Math.max(1, Integer.getInteger("ghostcat.session.replayFrames", 512));
+    private static final long REPLAY_BYTES = Long.getLong("ghostcat.session.replayBytes", 1024L * 1024);
+    private static final long TTL_MILLIS = Long.getLong("ghostcat.session.ttlMillis", 300_000L);
+    // 마지막 클라이언트가 끊겨도 서버를 바로 끄지 않고 재연결을 기다리는 시간 (단일 노드, 메일박스 없을 때)
+    static final long RESUME_GRACE_MILLIS = Long.getLong("ghostcat.session.graceMillis", 30_000L);
+
+    private final ConcurrentHashMap<String, State> sessions = new ConcurrentHashMap<>();
+    // nick -> 끊긴 적 있는 세션. 재개 직후 nick이 다시 라우팅되기 전에 온 프레임도 받도록 다른 세션이 nick을 쓸 때까지 남김
+    private final ConcurrentHashMap<String, State> detached = new ConcurrentHashMap<>();
+
+    static final class State {
+        final String id;
+        final String nick;
+        private Connection conn;       // 아래 필드는 this로 보호
+        private long received;
+        private long acked;
+        private TimerWheel.Timeout ackTimer;
+        private TimerWheel.Timeout expiry;
+        private final ReplayBuffer out = new ReplayBuffer(REPLAY_FRAMES, REPLAY_BYTES); // 클라이언트가 ACK하기 전의 순번 프레임
+
+        private State(String id, String nick) {
+            this.id = id;
+            this.nick = nick;
+        }
+
+        /**
+         * 순번 프레임을 버퍼에 넣고 세션의 지금 연결로 보냄 (재연결로 대체된 연결에 보낸 것도 새 연결로).
+         * 연결이 없으면 버퍼에만 두고 재개 때 보냄. shared가 있으면 그 인코딩을 씀
+         */
+        boolean send(Frame f, SharedFrame shared) {
+            synchronized (this) {
+                out.push(f);
+                return conn == null || conn.enqueueFrame(f, shared);
+            }
+        }
+    }
+
+    // JOIN/PART는 재연결 때 클라이언트가 다시 보내므로 순번에 넣지 않음
+    static boolean isSequenced(FrameType type) {
+        return SEQUENCED.contains(type);
+    }
+
+    // REGISTER 옵션에서 "SEQ1=id"의 id (없으면 null)
+    static String sessionId(Set<String> options) {
+        for (String o : options) {
+            if (o.startsWith(OFFER + "=") && o.length() > OFFER.length() + 1) return o.substring(OFFER.length() + 1);
+        }
+        return null;
+    }
+
+    /**
+     * 연결을 세션에 붙이고 지금까지 처리한 수를 ACK로 알려준 뒤, 클라이언트가 ACK하지 않은 프레임을 다시 보냄.
+     * nick이 라우팅되기 전에 불러야 이후 순번 프레임이 모두 이 뒤에 번호를 받음. nick이 다르면 새 세션으로 취급함.
+     */
+    void attach(Connection conn, String id, String nick) {
+        State previous = conn.session();
+        // 같은 연결이 다른 세션이나 nick으로 재등록
+        if (previous != null && !(previous.id.equals(id) && previous.nick.equals(nick))) detach(conn);
+        boolean[] resumed = new boolean[1];
+        State s = sessions.compute(id, (k, old) -> {
+            resumed[0] = old != null && old.nick.equals(nick);
+            return resumed[0] ? old : new State(id, nick);
+        });
+        synchronized (s) {
+            if (s.expiry != null) {
+                s.expiry.cancel();
+                s.expiry = null;
+            }
+            s.conn = conn;
+            s.acked = s.received;
+            detached.computeIfPresent(nick, (k, v) -> v == s ? v : null);
+            conn.session(s);
+            String body = resumed[0] ? s.received + "|" + s.out.acked() + "|R" : s.received + "|0";
+            conn.enqueueFrame(Frame.of(FrameType.ACK, "", "", body), null);
+            for (Frame f : s.out.pending()) conn.enqueueFrame(f, null);
+        }
+    }
+
+    /**
+     * 클라이언트의 ACK|n: 받은 것은 버퍼에서 뺌
+     */
+    void acked(Connection conn, String body) {
+        State s = conn.session();
+        if (s == null) return;
+        long count;
+        try {
+            count = Long.parseLong(body.trim());
+        } catch (NumberFormatException e) {
+            return;
+        }
+        synchronized (s) {
+            if (s.conn == conn) s.out.ack(count);
+        }
+    }
+
+    /**
+     * 순번 프레임 하나를 처리하기 전에 호출. false면 재연결로 대체된 이전 연결에서 늦게 읽힌 프레임 (처리하지 말 것)
+     */
+    boolean received(Connection conn) {
+        State s = conn.session();
+        if (s == null) return true;
+        boolean now;
+        synchronized (s) {
+            if (s.conn != conn) return false;
+            s.received++;
+            now = s.received - s.acked >= ACK_EVERY;
+            if (!now && s.ackTimer == null) {
+                s.ackTimer = Heartbeat.WHEEL.schedule(() -> flush(s), ACK_DELAY_MILLIS);
+            }
+        }
+        if (now) flush(s);
+        return true;
+    }
+
+    private void flush(State s) {
+        Connection conn;
+        long received;
+        synchronized (s) {
+            if (s.ackTimer != null) {
+                s.ackTimer.cancel();
+                s.ackTimer = null;
+            }
+            conn = s.conn;
+            if (conn == null || s.received == s.acked) return;
+            received = s.received;
+            s.acked = received;
+        }
+        conn.sendNoWait(ack(received));
+    }
+
+    // 연결 종료: TTL 동안 재연결을 기다림
+    void detach(Connection conn) {
+        State s = conn.session();
+        if (s == null) return;
+        synchronized (s) {
+            if (s.conn != conn) return;
+            s.conn = null;
+            if (s.ackTimer != null) {
+                s.ackTimer.cancel();
+                s.ackTimer = null;
+            }
+            s.expiry = Heartbeat.WHEEL.schedule(() -> expire(s), TTL_MILLIS);
+            detached.put(s.nick, s);
+        }
+    }
+
+    /**
+     * nick이 끊겨 재개를 기다리는 중이면 1:1 순번 프레임을 세션 버퍼에 넣음 (재연결하면 ACK 뒤에 다시 보냄).
+     * 이미 재개됐으면 새 연결로 바로 감. 세션이 없으면 버림
+     */
+    void park(Frame f) {
+        State s = detached.get(f.to());
+        if (s != null && isSequenced(f.type())) s.send(f, null);
+    }
+
+    private void expire(State s) {
+        synchronized (s) {
+            if (s.conn != null) return;
+        }
+        detached.remove(s.nick, s);
+        sessions.remove(s.id, s);
+    }
+
+    int size() {
+        return sessions.size();
+    }
+
+    private static Frame ack(long count) {
+        return Frame.of(FrameType.ACK, "", "", Long.toString(count));
+    }
+}
@@ -0,0 +1,39 @@
+package me.duckmain.ghostcat.network;
+
+import java.nio.ByteBuffer;
+
+/**
+ * 여러 수신자에게 가는 프레임 (브로드캐스트, PEERS).
+ * 와이어 형식별로 한 번만 인코딩하고, 수신자에게는 읽기 전용 뷰(duplicate)만 나눠줌.
+ */
+final class SharedFrame {
+    private final Frame frame;
+    private volatile ByteBuffer text;
+    private volatile ByteBuffer binary;
+
+    SharedFrame(Frame frame) {
+        this.frame = frame;
+    }
+
+    Frame frame() {
+        return frame;
+    }
+
+    /**
+     * @return 수신자 전용 position/limit을 가진 읽기 전용 뷰 (내용은 공유)
+     */
+    ByteBuffer view(boolean binaryMode) {
+        ByteBuffer shared = binaryMode ? binary : text;
+        if (shared == null) shared = encode(binaryMode);
+        return shared.duplicate();
+    }
+
+    private synchronized ByteBuffer encode(boolean binaryMode) {
+        if (binaryMode) {
+            if (binary == null) binary = FrameCodec.encodeBinary(frame).asReadOnlyBuffer();
+            return binary;
+        }
+        if (text == null) text = FrameCodec.encodeText(frame).asReadOnlyBuffer();
+        return text;
+    }
+}
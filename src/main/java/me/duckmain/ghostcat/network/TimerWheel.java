@@ -0,0 +1,102 @@
+package me.duckmain.ghostcat.network;
+
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * 해시 타이머 휠. 스레드 하나가 tick마다 버킷 하나를 보고 만료된 작업을 실행함.
+ * 등록/취소가 O(1)이고 연결 수만큼 ScheduledFuture를 만들지 않으므로 수만 개의 idle 타이머에 씀.
+ * 정밀도는 tick 단위이고, 작업은 휠 스레드에서 돌므로 짧아야 함 (큐에 넣기, 닫기 요청 정도).
+ */
+final class TimerWheel {
+    private final long tickNanos;
+    private final int mask;
+    private final ArrayDeque<Timeout>[] buckets; // 휠 스레드 전용
+    private final ConcurrentLinkedQueue<Timeout> pending = new ConcurrentLinkedQueue<>();
+    private final long startNanos = System.nanoTime();
+
+    static final class Timeout {
+        private final Runnable task;
+        private final long deadlineNanos; // startNanos 기준
+        private volatile boolean cancelled;
+
+        private Timeout(Runnable task, long deadlineNanos) {
+            this.task = task;
+            this.deadlineNanos = deadlineNanos;
+        }
+
+        // 실행 전이면 실행하지 않음 (버킷에서는 다음에 지나갈 때 빠짐)
+        void cancel() {
+            cancelled = true;
+        }
+    }
+
+    /**
+     * @param wheelSize 버킷 수 (2의 거듭제곱으로 올림). tick × wheelSize보다 긴 지연은 여러 바퀴 뒤에 실행됨
+     */
+    TimerWheel(String name, long tickMillis, int wheelSize) {
+        this.tickNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(1, tickMillis));
+        int size = Integer.highestOneBit(Math.max(2, wheelSize - 1)) << 1;
+        this.mask = size - 1;
+        this.buckets = newBuckets(size);
+        Thread worker = new Thread(this::run, name);
+        worker.setDaemon(true);
+        worker.start();
+    }
+
+    // 제네릭 배열은 직접 만들 수 없으므로 와일드카드 배열을 만들어 캐스팅 (원소는 모두 여기서 채움)
+    @SuppressWarnings("unchecked")
+    private static ArrayDeque<Timeout>[] newBuckets(int size) {
+        ArrayDeque<Timeout>[] buckets = (ArrayDeque<Timeout>[]) new ArrayDeque<?>[size];
+        for (int i = 0; i < size; i++) buckets[i] = new ArrayDeque<>();
+        return buckets;
+    }
+
+    Timeout schedule(Runnable task, long delayMillis) {
+        Timeout t = new Timeout(task, System.nanoTime() - startNanos + TimeUnit.MILLISECONDS.toNanos(Math.max(0, delayMillis)));
+        pending.add(t);
+        return t;
+    }
+
+    private void run() {
+        long tick = 0;
+        while (true) {
+            long tickEnd = (tick + 1) * tickNanos;
+            long sleep;
+            while ((sleep = tickEnd - (System.nanoTime() - startNanos)) > 0) LockSupport.parkNanos(sleep);
+            transferPending(tick);
+            expire(buckets[(int) (tick & mask)], tickEnd);
+            tick++;
+        }
+    }
+
+    // 새로 등록된 타이머를 마감 tick의 버킷에 넣음 (이미 지난 것은 이번 tick에)
+    private void transferPending(long currentTick) {
+        Timeout t;
+        while ((t = pending.poll()) != null) {
+            if (t.cancelled) continue;
+            long due = Math.max(t.deadlineNanos / tickNanos, currentTick);
+            buckets[(int) (due & mask)].add(t);
+        }
+    }
+
+    private static void expire(ArrayDeque<Timeout> bucket, long tickEnd) {
+        for (Iterator<Timeout> it = bucket.iterator(); it.hasNext(); ) {
+            Timeout t = it.next();
+            if (t.cancelled) {
+                it.remove();
+            } else if (t.deadlineNanos < tickEnd) {
+                it.remove();
+                try {
+                    t.task.run();
+                } catch (Throwable e) {
+                    System.err.println("Timer task failed: " + e);
+                }
+            }
+            // 아니면 다음 바퀴
+        }
+    }
+}
@@ -4,9 +4,13 @@ import javax.net.ssl.*;
 import java.io.*;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
 import java.security.*;
 import java.security.cert.Certificate;
 import java.security.cert.X509Certificate;
+import java.security.spec.ECGenParameterSpec;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
 
 
 // Utility to create a self-signed certificate keystore for TLS (POC).
@@ -15,32 +19,166 @@ public class SSLUtil {
     private static final char[] STORE_PASS = "changeit".toCharArray();
     private static final String ALIAS = "ghostcat";
 
+    // 서버 인증서 키 종류 (-Dghostcat.tls.keyAlgorithm=EC|Ed25519|RSA, 기본 EC = P-256).
+    // ECDSA/EdDSA는 키 생성이 거의 즉시 끝나고 핸드셰이크 서명 비용도 RSA-2048보다 훨씬 적음
+    private static final String KEY_ALGORITHM = System.getProperty("ghostcat.tls.keyAlgorithm", "EC").toUpperCase();
 
-    public static void ensureServerKeystore() throws Exception {
-        if (Files.exists(KEYSTORE_PATH)) return;
-        KeyPairGenerator kpg = KeyPairGenerator.getInstance("RSA");
-        kpg.initialize(2048);
-        KeyPair kp = kpg.generateKeyPair();
+    // 세션 캐시 (-Dghostcat.tls.sessionCacheSize, 기본 20480 / -Dghostcat.tls.sessionTimeoutSeconds, 기본 24시간)
+    private static final int SESSION_CACHE_SIZE = Integer.getInteger("ghostcat.tls.sessionCacheSize", 20_480);
+    private static final int SESSION_TIMEOUT_SECONDS = Integer.getInteger("ghostcat.tls.sessionTimeoutSeconds", 86_400);
+
+    // 컨텍스트는 프로세스당 하나씩만 만들어 재사용함. 새로 만들면 세션 캐시가 비어서 재접속마다 전체 핸드셰이크가 됨
+    private static volatile CompletableFuture<SSLContext> serverContext;
+    private static volatile SSLContext clientContext;
+
+    static {
+        // TLS 1.3 세션 티켓 (JDK 기본값도 true지만 명시). 사용자가 -D로 지정했으면 그대로 둠
+        if (System.getProperty("jdk.tls.server.enableSessionTicketExtension") == null) {
+            System.setProperty("jdk.tls.server.enableSessionTicketExtension", "true");
+        }
+        if (System.getProperty("jdk.tls.client.enableSessionTicketExtension") == null) {
+            System.setProperty("jdk.tls.client.enableSessionTicketExtension", "true");
+        }
+    }
+
+
+    /**
+     * 선택한 키 종류의 항목이 키스토어에 없으면 만들어 넣음. 예전에 만든 RSA 항목("ghostcat")은 그대로 둠
+     * (-Dghostcat.tls.keyAlgorithm=RSA 로 되돌릴 수 있게).
+     */
+    public static synchronized void ensureServerKeystore() throws Exception {
+        KeyStore ks = loadKeystore();
+        String alias = aliasFor(KEY_ALGORITHM);
+        if (ks.containsAlias(alias)) return;
+        KeyPair kp = generateKeyPair(KEY_ALGORITHM);
         X509Certificate cert = SelfSignedCertGenerator.generate(kp, "CN=GhostCat", 3650);
+        ks.setKeyEntry(alias, kp.getPrivate(), STORE_PASS, new Certificate[]{cert});
+        // 다른 프로세스가 쓰다 만 파일을 읽지 않도록 임시 파일에 쓰고 교체
+        Path tmp = KEYSTORE_PATH.resolveSibling(KEYSTORE_PATH.getFileName() + ".tmp");
+        try (OutputStream os = Files.newOutputStream(tmp)) { ks.store(os, STORE_PASS); }
+        Files.move(tmp, KEYSTORE_PATH, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private static KeyStore loadKeystore() throws Exception {
         KeyStore ks = KeyStore.getInstance("JKS");
-        ks.load(null, null);
-        ks.setKeyEntry(ALIAS, kp.getPrivate(), STORE_PASS, new Certificate[]{cert});
-        try (OutputStream os = Files.newOutputStream(KEYSTORE_PATH)) { ks.store(os, STORE_PASS); }
+        if (Files.exists(KEYSTORE_PATH)) {
+            try (InputStream is = Files.newInputStream(KEYSTORE_PATH)) { ks.load(is, STORE_PASS); }
+        } else {
+            ks.load(null, null);
+        }
+        return ks;
+    }
+
+    private static String aliasFor(String algorithm) {
+        return switch (algorithm) {
+            case "RSA" -> ALIAS; // 기존 키스토어와 같은 alias
+            case "ED25519" -> ALIAS + "-ed25519";
+            default -> ALIAS + "-ec";
+        };
+    }
+
+    private static KeyPair generateKeyPair(String algorithm) throws GeneralSecurityException {
+        KeyPairGenerator kpg;
+        switch (algorithm) {
+            case "RSA" -> {
+                kpg = KeyPairGenerator.getInstance("RSA");
+                kpg.initialize(2048);
+            }
+            case "ED25519" -> kpg = KeyPairGenerator.getInstance("Ed25519");
+            default -> {
+                kpg = KeyPairGenerator.getInstance("EC");
+                kpg.initialize(new ECGenParameterSpec("secp256r1"));
+            }
+        }
+        return kpg.generateKeyPair();
     }
 
+    /**
+     * 키 생성과 키스토어 로딩을 백그라운드에서 시작함 (여러 번 불러도 한 번만).
+     * 앱 시작 때 불러 두면 서버를 열 때 기다리지 않음.
+     */
+    public static CompletableFuture<SSLContext> prepareServerContext() {
+        CompletableFuture<SSLContext> f = serverContext;
+        if (f != null) return f;
+        synchronized (SSLUtil.class) {
+            if (serverContext == null) {
+                CompletableFuture<SSLContext> created = new CompletableFuture<>();
+                serverContext = created;
+                Thread t = new Thread(() -> {
+                    try {
+                        created.complete(tuneSessions(loadServerContext(), true));
+                    } catch (Throwable e) {
+                        created.completeExceptionally(e);
+                    }
+                }, "GhostCat-Keystore");
+                t.setDaemon(true);
+                t.start();
+            }
+            return serverContext;
+        }
+    }
 
+    /**
+     * 캐시된 서버 컨텍스트. 백그라운드 준비가 아직이면 끝날 때까지 기다림.
+     */
     public static SSLContext serverSSLContext() throws Exception {
+        CompletableFuture<SSLContext> f = prepareServerContext();
+        try {
+            return f.get();
+        } catch (ExecutionException e) {
+            // 실패는 캐시하지 않음 (다음 호출에서 다시 시도)
+            synchronized (SSLUtil.class) {
+                if (serverContext == f) serverContext = null;
+            }
+            throw e.getCause() instanceof Exception cause ? cause : e;
+        }
+    }
+
+    private static SSLContext loadServerContext() throws Exception {
         ensureServerKeystore();
+        // 선택한 키만 KeyManager에 넣어서 EC 인증서가 있으면 항상 그것으로 핸드셰이크함
+        String alias = aliasFor(KEY_ALGORITHM);
+        KeyStore.PasswordProtection protection = new KeyStore.PasswordProtection(STORE_PASS);
         KeyStore ks = KeyStore.getInstance("JKS");
-        try (InputStream is = Files.newInputStream(KEYSTORE_PATH)) { ks.load(is, STORE_PASS); }
-        KeyManagerFactory kmf = KeyManagerFactory.getInstance(KeyManagerFactory.getDefaultAlgorithm());
+        ks.load(null, null);
+        ks.setEntry(alias, loadKeystore().getEntry(alias, protection), protection);
+        KeyManagerFactory kmf = KeyManagerFactory.getInstance("PKIX");
         kmf.init(ks, STORE_PASS);
         SSLContext ctx = SSLContext.getInstance("TLS");
         ctx.init(kmf.getKeyManagers(), null, new SecureRandom());
         return ctx;
     }
 
+    /**
+     * 캐시된 클라이언트 컨텍스트의 팩토리. 같은 host:port로 다시 연결하면 세션을 재개함
+     * (소켓을 만들 때 host/port를 알려줘야 캐시를 찾을 수 있음).
+     */
     public static SSLSocketFactory trustAllFactory() throws Exception {
+        SSLContext ctx = clientContext;
+        if (ctx != null) return ctx.getSocketFactory();
+        synchronized (SSLUtil.class) {
+            if (clientContext == null) clientContext = tuneSessions(newTrustAllContext(), false);
+            return clientContext.getSocketFactory();
+        }
+    }
+
+    private static SSLContext tuneSessions(SSLContext ctx, boolean server) {
+        SSLSessionContext sessions = server ? ctx.getServerSessionContext() : ctx.getClientSessionContext();
+        sessions.setSessionCacheSize(SESSION_CACHE_SIZE);
+        sessions.setSessionTimeout(SESSION_TIMEOUT_SECONDS);
+        return ctx;
+    }
+
+    /**
+     * 재개된 세션인지: 재개하면 세션 생성 시각이 원래 핸드셰이크 시각으로 유지됨.
+     * @param handshakeStartMillis 이 핸드셰이크를 시작한 시각 (System.currentTimeMillis)
+     */
+    public static boolean isResumed(SSLSession session, long handshakeStartMillis) {
+        return session != null && session.getCreationTime() < handshakeStartMillis;
+    }
+
+    // 캐시 없이 매번 새로 만드는 컨텍스트 (전체 핸드셰이크 비교용)
+    public static SSLContext newTrustAllContext() throws Exception {
         TrustManager[] tms = new TrustManager[]{ new X509TrustManager() {
             public void checkClientTrusted(X509Certificate[] xcs, String string) {}
             public void checkServerTrusted(X509Certificate[] xcs, String string) {}
@@ -48,7 +186,7 @@ public class SSLUtil {
         }};
         SSLContext ctx = SSLContext.getInstance("TLS");
         ctx.init(null, tms, new SecureRandom());
-        return ctx.getSocketFactory();
+        return ctx;
     }
 
     // For POC convenience: trust all certificates (client-side). In production DO NOT use.
@@ -50,8 +50,8 @@ public class SelfSignedCertGenerator {
                 keyPair.getPublic()
         );
 
-        // 서명자(ContentSigner) 생성
-        ContentSigner signer = new JcaContentSignerBuilder("SHA256withRSA")
+        // 서명자(ContentSigner) 생성: 키 종류에 맞는 서명 알고리즘
+        ContentSigner signer = new JcaContentSignerBuilder(signatureAlgorithm(keyPair.getPublic()))
                 .setProvider("BC")
                 .build(keyPair.getPrivate());
 
@@ -62,6 +62,15 @@ public class SelfSignedCertGenerator {
                 .getCertificate(holder);
     }
 
+    // EC -> ECDSA, Ed25519 -> EdDSA, 그 외 RSA
+    static String signatureAlgorithm(PublicKey key) {
+        return switch (key.getAlgorithm()) {
+            case "EC" -> "SHA256withECDSA";
+            case "Ed25519", "EdDSA" -> "Ed25519";
+            default -> "SHA256withRSA";
+        };
+    }
+
     /**
      * 테스트용 메인
      */
@@ -0,0 +1,22 @@
+package me.duckmain.ghostcat.transfer;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+
+/**
+ * 청크 암복호화를 돌리는 공용 fork-join 풀 (송신/수신 모든 전송이 공유).
+ * 한 전송이 한 번에 올리는 청크 수는 window 안이라서 메모리는 청크 몇 개 분량으로 묶임.
+ * -Dghostcat.transfer.parallelism (기본 코어 수)
+ */
+final class ChunkCrypto {
+    static final int PARALLELISM = Math.max(1, Integer.getInteger("ghostcat.transfer.parallelism",
+            Runtime.getRuntime().availableProcessors()));
+
+    static final ForkJoinPool POOL = new ForkJoinPool(PARALLELISM, pool -> {
+        ForkJoinWorkerThread t = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(pool);
+        t.setName("Transfer-Crypto-" + t.getPoolIndex());
+        return t;
+    }, null, false);
+
+    private ChunkCrypto() {}
+}
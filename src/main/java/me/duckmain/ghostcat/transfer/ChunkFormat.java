@@ -0,0 +1,85 @@
+package me.duckmain.ghostcat.transfer;
+
+import me.duckmain.ghostcat.crypto.CryptoUtils;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * 청크 파일 전송 와이어 형식 (FSTART/FCHUNK/FEND 본문).
+ * <pre>
+ * FSTART: id|ephPubB64|ivB64|ctB64    ct = AES-GCM("size|chunkSize|ackEvery|fileName")
+ * FCHUNK: [id 8][offset 8][iv 12][ct+tag]   AAD = [id 8][offset 8]
+ * FEND:   id|size
+ * FACK:   id|offset[|R]               수신 측이 연속으로 받은 바이트 수 (-1: 수신 거부/실패, R: FSTART에 대한 답)
+ * </pre>
+ * 키는 메시지와 같은 방식(ephemeral X25519 x 상대 static, HKDF)으로 전송마다 하나.
+ * AAD에 id/offset을 넣어서 청크를 다른 전송이나 다른 위치로 옮겨 붙일 수 없게 함.
+ * offset이 청크 순번 역할을 함 (수신 측은 받은 위치와 정확히 이어지는 청크만 씀).
+ * <p>
+ * 수신 측은 FSTART마다 현재 offset으로 FACK(R)을 보냄. 재연결 후 송신 측이 같은 FSTART를 다시 보내면
+ * 그 FACK 위치부터 이어서 보냄. FACK의 offset이 size와 같으면 파일이 완성되었다는 뜻.
+ * <p>
+ * CAPS에 chunks가 없는 상대는 FSTART를 모르므로 청크로 보내지 않음 (기존 IMG/VID 1:1 메시지로 보냄).
+ * <p>
+ * 스트림 형식 (CAPS chunks=2를 보낸 상대에게만):
+ * <pre>
+ * FSTART: id|ephPubB64|ivB64|ctB64|2[|g]   g: 재시작 세대 (없으면 0)
+ * FCHUNK: [id 8][offset 8][ct+tag]          nonce = [prefix 7][청크 번호 4][마지막 1], AAD = [id 8][offset 8]
+ * </pre>
+ * HKDF로 키 32바이트와 nonce prefix 7바이트를 같이 뽑고 (앞 32바이트는 기존 키와 같음), 청크 번호는 offset / chunkSize.
+ * 마지막 청크만 flag 1로 암호화하므로 중간에서 끊거나 마지막 청크를 앞 청크로 바꿔치면 인증이 실패함.
+ * 마지막이 아닌 청크는 정확히 chunkSize여야 함.
+ * <p>
+ * nonce가 위치로 정해지므로 같은 청크를 같은 키로 다시 암호화하면 안 됨 (그 사이 파일이 바뀌면 nonce 재사용).
+ * 송신 측은 FSTART를 다시 보낼 때마다 세대 g를 올리고, 이후 청크는 g의 키와 prefix로 암호화함 ({@link #generationKeys}).
+ * 한 세대 안에서는 위치를 되돌리지 않음 (FSTART 하나에 대한 첫 FACK(R)에서만 시작 위치를 정함).
+ */
+final class ChunkFormat {
+    static final int HEADER_BYTES = 8 + 8 + 12;
+    static final int IV_BYTES = 12;
+
+    static final String LEGACY_VERSION = "1";
+    static final String STREAM_VERSION = "2";
+    static final int STREAM_HEADER_BYTES = 8 + 8;
+    static final int NONCE_PREFIX_BYTES = 7;
+    private static final byte[] RESTART_LABEL = "ghostcat-chunks-restart".getBytes(StandardCharsets.US_ASCII);
+
+    private ChunkFormat() {}
+
+    static byte[] streamNonce(byte[] prefix, long index, boolean last) {
+        if (index < 0 || index > 0xFFFF_FFFFL) throw new IllegalArgumentException("chunk index out of range: " + index);
+        return ByteBuffer.allocate(IV_BYTES).put(prefix, 0, NONCE_PREFIX_BYTES).putInt((int) index).put((byte) (last ? 1 : 0)).array();
+    }
+
+    static byte[] aad(long id, long offset) {
+        return ByteBuffer.allocate(16).putLong(id).putLong(offset).array();
+    }
+
+    /**
+     * 세대 g의 [키 32][nonce prefix 7]. 0이면 FSTART의 키 재료 그대로, 아니면 그것을 g로 다시 HKDF
+     */
+    static byte[] generationKeys(byte[] okm, int generation) throws Exception {
+        if (generation == 0) return okm;
+        byte[] salt = ByteBuffer.allocate(RESTART_LABEL.length + 4).put(RESTART_LABEL).putInt(generation).array();
+        return CryptoUtils.hkdf(okm, salt, 32 + NONCE_PREFIX_BYTES);
+    }
+
+    static final String RESUME_MARK = "R";
+
+    static String ack(long id, long offset) {
+        return idText(id) + "|" + offset;
+    }
+
+    static String resumeAck(long id, long offset) {
+        return ack(id, offset) + "|" + RESUME_MARK;
+    }
+
+    static String idText(long id) {
+        return Long.toUnsignedString(id, 16);
+    }
+
+    static long parseId(String text) {
+        return Long.parseUnsignedLong(text, 16);
+    }
+}
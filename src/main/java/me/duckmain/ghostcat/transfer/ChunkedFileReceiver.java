@@ -0,0 +1,349 @@
+package me.duckmain.ghostcat.transfer;
+
+import me.duckmain.ghostcat.crypto.CryptoUtils;
+
+import javax.crypto.SecretKey;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.BiConsumer;
+
+/**
+ * FSTART/FCHUNK/FEND를 받아 임시 파일에 바로 씀.
+ * 청크는 {@link ChunkCrypto#POOL}에서 병렬로 (받은 바이트 배열 안에서 그대로) 복호화하고, 파일에는 받은 순서대로 씀.
+ * 한 전송에서 동시에 복호화 중인 청크는 송신 측 window 이하라서 메모리는 청크 몇 개 분량.
+ * 받은 위치를 FACK으로 알려주고, 연결이 끊겨도 쓰던 파일을 유지해서 같은 전송이 다시 시작되면 이어서 씀.
+ * 기존 형식과 스트림 형식({@link ChunkFormat}) 둘 다 받음.
+ * 재개를 기다리는 전송도 -Dghostcat.transfer.stallMillis (보내는 쪽 실패 판정과 같은 값) 동안 아무것도 안 오면 정리하고,
+ * 상대 하나가 동시에 보낼 수 있는 전송 수는 -Dghostcat.transfer.maxIncoming (기본 8)으로 제한함.
+ */
+public final class ChunkedFileReceiver {
+    // 완료된 전송을 기억하는 개수 (완료 FACK이 끊김으로 유실된 뒤 재시작 요청에 답하기 위함)
+    private static final int COMPLETED_MEMORY = 64;
+    private static final long IDLE_MILLIS = Long.getLong("ghostcat.transfer.stallMillis", 60_000L);
+    private static final int MAX_PER_PEER = Math.max(1, Integer.getInteger("ghostcat.transfer.maxIncoming", 8));
+
+    private static final ScheduledExecutorService EXPIRY = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "Transfer-Expiry");
+        t.setDaemon(true);
+        return t;
+    });
+
+    public interface Listener {
+        void completed(String from, String fileName, Path path);
+
+        void failed(String from, String fileName, String reason);
+    }
+
+    private final Listener listener;
+    private final BiConsumer<String, String> ack; // (to, FACK 본문)
+    private final Map<String, Incoming> transfers = new ConcurrentHashMap<>();
+    private final Map<String, Long> completed = Collections.synchronizedMap(new LinkedHashMap<>() {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Long> eldest) {
+            return size() > COMPLETED_MEMORY;
+        }
+    });
+    private final AtomicBoolean sweeping = new AtomicBoolean(); // 만료 검사가 예약돼 있음
+
+    public ChunkedFileReceiver(Listener listener, BiConsumer<String, String> ack) {
+        this.listener = listener;
+        this.ack = ack;
+    }
+
+    private static final class Incoming {
+        final String from;
+        final long id;
+        final String fileName;
+        final long size;
+        final int chunkSize;
+        final int ackEvery;
+        final boolean stream;
+        final byte[] okm;  // 세대 0의 [키][nonce prefix]
+        final Path path;
+        final FileChannel channel;
+        // 아래는 this로 보호
+        int generation;  // 마지막 FSTART의 세대 (스트림 형식). 청크는 넘길 때의 키로 복호화함
+        SecretKey key;
+        byte[] prefix;
+        long queued;     // 복호화에 넘긴 청크까지의 위치 (다음 청크의 offset)
+        long received;   // 앞에서부터 빈틈없이 쓴 바이트 수
+        int unacked;     // 마지막 FACK 이후 받은 청크 수
+        long lastActivity = System.currentTimeMillis(); // 마지막 FSTART/청크 (만료 판정용)
+        boolean done;    // 완료/실패로 정리됨
+        CompletableFuture<Void> tail = CompletableFuture.completedFuture(null); // 마지막으로 넘긴 청크의 쓰기
+
+        Incoming(String from, long id, String fileName, long size, int chunkSize, int ackEvery, boolean stream,
+                 byte[] okm, Path path, FileChannel channel) {
+            this.from = from;
+            this.id = id;
+            this.fileName = fileName;
+            this.size = size;
+            this.chunkSize = chunkSize;
+            this.ackEvery = ackEvery;
+            this.stream = stream;
+            this.okm = okm;
+            this.path = path;
+            this.channel = channel;
+        }
+
+        // 호출하는 쪽에서 this 락
+        void useGeneration(int g) throws Exception {
+            byte[] keys = stream ? ChunkFormat.generationKeys(okm, g) : okm;
+            generation = g;
+            key = CryptoUtils.aesKey(Arrays.copyOf(keys, 32));
+            prefix = Arrays.copyOfRange(keys, 32, keys.length);
+        }
+    }
+
+    public void onStart(String from, String body) throws Exception {
+        String[] p = body.split("\\|", 6);
+        if (p.length < 4) throw new IllegalArgumentException("invalid FSTART");
+        long id = ChunkFormat.parseId(p[0]);
+        boolean stream = p.length >= 5 && ChunkFormat.STREAM_VERSION.equals(p[4]);
+        int generation = stream && p.length == 6 ? Integer.parseInt(p[5]) : 0;
+        if (generation < 0) throw new IllegalArgumentException("invalid FSTART generation");
+        String k = key(from, id);
+
+        Long done = completed.get(k);
+        if (done != null) {
+            ack.accept(from, ChunkFormat.resumeAck(id, done));
+            return;
+        }
+        Incoming in = transfers.get(k);
+        if (in == null) {
+            // 한 상대의 FSTART는 순서대로 처리되므로 세고 넣는 사이에 끼어들 것이 없음
+            if (incomingFrom(from) >= MAX_PER_PEER) {
+                ack.accept(from, ChunkFormat.ack(id, -1));
+                return;
+            }
+            byte[] shared = CryptoUtils.sharedStaticEphemeral(Base64.getDecoder().decode(p[1]));
+            byte[] okm = CryptoUtils.hkdf(shared, null, 32 + ChunkFormat.NONCE_PREFIX_BYTES);
+            byte[] key = Arrays.copyOf(okm, 32);
+            String meta = CryptoUtils.decryptAESGCM(Base64.getDecoder().decode(p[3]), key, Base64.getDecoder().decode(p[2]));
+
+            String[] m = meta.split("\\|", 4);
+            long size = Long.parseLong(m[0]);
+            int chunkSize = Integer.parseInt(m[1]);
+            int ackEvery = Math.max(1, Integer.parseInt(m[2]));
+            String fileName = sanitizeFilename(m[3]);
+            Path dir = Files.createTempDirectory("chatfile_");
+            Path out = dir.resolve(fileName);
+            FileChannel ch = FileChannel.open(out, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+            in = new Incoming(from, id, fileName, size, chunkSize, ackEvery, stream, okm, out, ch);
+            in.useGeneration(generation);
+            transfers.put(k, in);
+            scheduleSweep();
+        } else {
+            // 재시작한 송신 측은 이후 청크를 새 세대 키로 보냄 (이전 세대 청크는 이 FSTART보다 먼저 도착함)
+            synchronized (in) {
+                if (generation > in.generation) in.useGeneration(generation);
+            }
+        }
+        // 새 전송이면 0, 재연결 후 다시 온 FSTART면 (복호화 중인 청크를 다 쓴 뒤) 지금까지 쓴 위치부터 이어받음
+        Incoming cur = in;
+        cur.tail.whenComplete((v, e) -> {
+            synchronized (cur) {
+                if (cur.done) return;
+                cur.lastActivity = System.currentTimeMillis();
+                if (cur.received == cur.size) {
+                    finish(from, k, cur, true);
+                } else {
+                    cur.unacked = 0;
+                    cur.queued = cur.received;
+                    ack.accept(from, ChunkFormat.resumeAck(id, cur.received));
+                }
+            }
+        });
+    }
+
+    public void onChunk(String from, byte[] body) throws Exception {
+        ByteBuffer buf = ByteBuffer.wrap(body);
+        long id = buf.getLong();
+        long offset = buf.getLong();
+        String k = key(from, id);
+        Incoming in = transfers.get(k);
+        if (in == null) return; // 시작을 못 받았거나 이미 실패한 전송
+        int header = in.stream ? ChunkFormat.STREAM_HEADER_BYTES : ChunkFormat.HEADER_BYTES;
+        int len = body.length - header - CryptoUtils.GCM_TAG_BYTES;
+        synchronized (in) {
+            if (in.done || offset != in.queued) return; // 끊기기 전에 보낸 청크 등 이어지지 않는 청크는 버림 (FACK 위치부터 다시 옴)
+            boolean last = offset + len == in.size;
+            if (len < 0 || offset + len > in.size || (in.stream && !last && len != in.chunkSize)) {
+                abort(from, k, in, "chunk out of range at " + offset);
+                return;
+            }
+            in.queued = offset + len;
+            in.lastActivity = System.currentTimeMillis();
+            SecretKey key = in.key;
+            byte[] prefix = in.prefix;
+            CompletableFuture<ByteBuffer> plain = CompletableFuture.supplyAsync(
+                    () -> open(in, key, prefix, body, header, offset, last), ChunkCrypto.POOL);
+            in.tail = in.tail.thenCombine(plain, (v, data) -> {
+                write(from, in, offset, data);
+                return (Void) null;
+            }).whenComplete((v, e) -> {
+                if (e != null) {
+                    synchronized (in) {
+                        abort(from, k, in, (e instanceof CompletionException && e.getCause() != null ? e.getCause() : e).getMessage());
+                    }
+                }
+            });
+        }
+    }
+
+    public void onEnd(String from, String body) {
+        String[] p = body.split("\\|", 2);
+        long id = ChunkFormat.parseId(p[0]);
+        String k = key(from, id);
+        Incoming in = transfers.get(k);
+        if (in == null) return;
+        CompletableFuture<Void> tail;
+        synchronized (in) {
+            tail = in.tail;
+        }
+        tail.whenComplete((v, e) -> {
+            synchronized (in) {
+                if (in.done) return;
+                if (in.received != in.size) {
+                    abort(from, k, in, "incomplete (" + in.received + "/" + in.size + " bytes)");
+                    return;
+                }
+                finish(from, k, in, false);
+            }
+        });
+    }
+
+    public void closeAll() {
+        for (Map.Entry<String, Incoming> e : transfers.entrySet()) {
+            Incoming in = e.getValue();
+            synchronized (in) {
+                in.done = true;
+            }
+            try { in.channel.close(); } catch (IOException ignored) {}
+        }
+        transfers.clear();
+    }
+
+    private int incomingFrom(String from) {
+        int n = 0;
+        for (Incoming in : transfers.values()) {
+            if (in.from.equals(from)) n++;
+        }
+        return n;
+    }
+
+    private void scheduleSweep() {
+        if (sweeping.compareAndSet(false, true)) {
+            EXPIRY.schedule(this::sweep, Math.max(1000L, IDLE_MILLIS / 4), TimeUnit.MILLISECONDS);
+        }
+    }
+
+    // 오래 조용한 전송의 파일과 채널을 정리. 전송이 남아 있는 동안만 다시 예약함
+    private void sweep() {
+        long now = System.currentTimeMillis();
+        for (Map.Entry<String, Incoming> e : transfers.entrySet()) {
+            Incoming in = e.getValue();
+            synchronized (in) {
+                if (!in.done && now - in.lastActivity >= IDLE_MILLIS) {
+                    // 상대는 이미 없을 가능성이 높으므로 FACK은 보내지 않음 (이 스레드에서 소켓에 쓰지 않기 위해서도)
+                    discard(e.getKey(), in);
+                    listener.failed(in.from, in.fileName, "no data for " + IDLE_MILLIS / 1000 + "s");
+                }
+            }
+        }
+        sweeping.set(false);
+        if (!transfers.isEmpty()) scheduleSweep();
+    }
+
+    // 풀 스레드: 본문 배열 안에서 그대로 복호화하고 평문 구간을 돌려줌
+    private static ByteBuffer open(Incoming in, SecretKey key, byte[] prefix, byte[] body, int header, long offset, boolean last) {
+        ByteBuffer sealed = ByteBuffer.wrap(body, header, body.length - header).slice();
+        byte[] iv = in.stream
+                ? ChunkFormat.streamNonce(prefix, offset / in.chunkSize, last)
+                : Arrays.copyOfRange(body, ChunkFormat.HEADER_BYTES - ChunkFormat.IV_BYTES, ChunkFormat.HEADER_BYTES);
+        try {
+            CryptoUtils.decryptAESGCM(sealed, key, iv, ChunkFormat.aad(in.id, offset));
+        } catch (Exception e) {
+            throw new CompletionException(new IOException("chunk authentication failed at " + offset));
+        }
+        return sealed;
+    }
+
+    // 이전 청크의 쓰기가 끝난 뒤에 호출됨 (순서대로)
+    private void write(String from, Incoming in, long offset, ByteBuffer data) {
+        int n = data.remaining();
+        try {
+            while (data.hasRemaining()) in.channel.write(data, offset + (n - data.remaining()));
+        } catch (IOException e) {
+            throw new CompletionException(e);
+        }
+        synchronized (in) {
+            if (in.done) return;
+            in.received += n;
+            // size와 같은 FACK은 완료 신호라서 FEND를 받은 뒤에만 보냄
+            if (++in.unacked >= in.ackEvery && in.received < in.size) {
+                in.unacked = 0;
+                ack.accept(from, ChunkFormat.ack(in.id, in.received));
+            }
+        }
+    }
+
+    // 아래는 모두 in 락 안에서 호출
+    private void finish(String from, String k, Incoming in, boolean resumed) {
+        in.done = true;
+        transfers.remove(k);
+        try {
+            in.channel.close();
+        } catch (IOException e) {
+            listener.failed(from, in.fileName, e.getMessage());
+            return;
+        }
+        completed.put(k, in.size);
+        ack.accept(from, resumed ? ChunkFormat.resumeAck(in.id, in.size) : ChunkFormat.ack(in.id, in.size));
+        listener.completed(from, in.fileName, in.path);
+    }
+
+    private void abort(String from, String k, Incoming in, String reason) {
+        if (in.done) return;
+        discard(k, in);
+        ack.accept(from, ChunkFormat.ack(in.id, -1));
+        listener.failed(from, in.fileName, reason);
+    }
+
+    // 쓰던 파일과 임시 디렉터리까지 지움
+    private void discard(String k, Incoming in) {
+        in.done = true;
+        transfers.remove(k);
+        try { in.channel.close(); } catch (IOException ignored) {}
+        try {
+            Files.deleteIfExists(in.path);
+            Files.deleteIfExists(in.path.getParent());
+        } catch (IOException ignored) {}
+    }
+
+    private static String key(String from, long id) {
+        return from + ":" + id;
+    }
+
+    // 안전한 파일명으로 정리 (간단한 정리)
+    private static String sanitizeFilename(String name) {
+        String clean = name.replaceAll("[\\\\/:*?\"<>|]", "_");
+        return clean.isBlank() || clean.equals(".") || clean.equals("..") ? "file" : clean;
+    }
+}
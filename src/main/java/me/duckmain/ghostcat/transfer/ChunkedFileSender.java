@@ -0,0 +1,326 @@
+package me.duckmain.ghostcat.transfer;
+
+import me.duckmain.ghostcat.crypto.CryptoUtils;
+import me.duckmain.ghostcat.network.ChatClient;
+
+import javax.crypto.SecretKey;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.KeyPair;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinTask;
+
+/**
+ * 파일을 고정 크기 청크로 나눠 청크마다 암호화해서 보냄.
+ * 파일은 보낼 구간만 메모리 매핑해서 읽고, 청크 여러 개를 {@link ChunkCrypto#POOL}에서 나눠 암호화한 뒤 순서대로 보냄.
+ * 한 번에 암호화하는 청크는 코어 수와 window 여유 중 작은 쪽이라서 파일 크기와 관계없이 메모리 사용량이 일정함.
+ * <p>
+ * 수신 측 FACK 없이 보낼 수 있는 청크 수는 window로 제한함 (릴레이 큐를 넘치게 하지 않으면서
+ * 지연이 큰 링크에서도 파이프를 채울 수 있도록). 연결이 끊기면 window가 차서 멈추고,
+ * {@link #resumeAll()} 후 수신 측이 알려준 위치부터 이어서 보냄.
+ * <p>
+ * CAPS로 chunks를 알린 상대에게만 청크로 보냄 ({@link #supports}). chunks=2를 알린 상대에게는 스트림 형식 (카운터 nonce + 마지막 청크 표시, {@link ChunkFormat})으로 보냄.
+ * 스트림 형식은 재시작할 때마다 새 세대 키로 암호화함 (같은 위치를 다시 보내도 nonce가 겹치지 않게).
+ */
+public final class ChunkedFileSender {
+    public static final String CAPS_KEY = "chunks";
+
+    public static final int DEFAULT_CHUNK_SIZE = 64 * 1024;
+    // FACK 없이 보낼 수 있는 청크 수 (기본 16 x 64KiB = 1MiB in flight)
+    public static final int DEFAULT_WINDOW = Math.max(1, Integer.getInteger("ghostcat.transfer.window", 16));
+    // 이 시간 동안 FACK이 하나도 없으면 실패로 처리 (재연결 대기 포함)
+    private static final long STALL_MILLIS = Long.getLong("ghostcat.transfer.stallMillis", 60_000L);
+    private static final SecureRandom RNG = new SecureRandom();
+
+    private final int chunkSize;
+    private final int window;
+    private final Map<String, Outgoing> transfers = new ConcurrentHashMap<>();
+    private final Set<String> chunkPeers = ConcurrentHashMap.newKeySet(); // FSTART/FCHUNK를 아는 상대
+    private final Set<String> streamPeers = ConcurrentHashMap.newKeySet(); // 스트림 형식을 아는 상대
+
+    public ChunkedFileSender() {
+        this(DEFAULT_CHUNK_SIZE, DEFAULT_WINDOW);
+    }
+
+    public ChunkedFileSender(int chunkSize, int window) {
+        if (chunkSize <= 0 || window <= 0) throw new IllegalArgumentException("chunkSize/window must be positive");
+        this.chunkSize = chunkSize;
+        this.window = window;
+    }
+
+    // CAPS에 넣을 필드 (ChunkedFileReceiver는 두 형식을 다 받음)
+    public static String capsField() {
+        return CAPS_KEY + "=" + ChunkFormat.LEGACY_VERSION + "," + ChunkFormat.STREAM_VERSION;
+    }
+
+    public void onPeerCaps(String peer, String body) {
+        List<String> versions = List.of();
+        for (String field : body.split(";")) {
+            int eq = field.indexOf('=');
+            if (eq > 0 && field.substring(0, eq).trim().equals(CAPS_KEY)) {
+                versions = Arrays.asList(field.substring(eq + 1).trim().split(","));
+            }
+        }
+        // chunks=2만 보내는 클라이언트도 두 형식을 다 받음
+        if (versions.contains(ChunkFormat.LEGACY_VERSION) || versions.contains(ChunkFormat.STREAM_VERSION)) chunkPeers.add(peer);
+        else chunkPeers.remove(peer);
+        if (versions.contains(ChunkFormat.STREAM_VERSION)) streamPeers.add(peer);
+        else streamPeers.remove(peer);
+    }
+
+    /**
+     * 상대가 CAPS로 청크 전송을 알렸으면 true. 아니면 (CAPS를 아직 못 받은 경우 포함) 기존 1:1 메시지로 보내야 함
+     */
+    public boolean supports(String peer) {
+        return chunkPeers.contains(peer);
+    }
+
+    // 상대가 나갔거나 키를 새로 보냄 (CAPS를 다시 받을 때까지 청크로 보내지 않음)
+    public void forget(String peer) {
+        chunkPeers.remove(peer);
+        streamPeers.remove(peer);
+    }
+
+    /**
+     * 호출 스레드에서 수신 측이 완료를 확인할 때까지 보냄 (UI 스레드에서 부르지 말 것)
+     *
+     * @return 보낸 파일 크기
+     */
+    public long send(ChatClient client, String to, Path file, byte[] peerStatic) throws Exception {
+        long id = RNG.nextLong();
+        boolean stream = streamPeers.contains(to);
+        KeyPair eph = CryptoUtils.generateEphemeral();
+        // 앞 32바이트는 기존 형식의 키와 같음, 스트림 형식은 뒤 7바이트를 nonce prefix로 씀
+        byte[] okm = CryptoUtils.hkdf(CryptoUtils.sharedEphemeralStatic(eph.getPrivate(), peerStatic), null,
+                32 + ChunkFormat.NONCE_PREFIX_BYTES);
+        byte[] key = Arrays.copyOf(okm, 32);
+
+        try (FileChannel ch = FileChannel.open(file, StandardOpenOption.READ)) {
+            long size = ch.size();
+            if (stream && (size - 1) / chunkSize > 0xFFFF_FFFFL) throw new IOException("file too large for " + chunkSize + "-byte chunks");
+            // 청크 window의 1/4마다 FACK을 받으면 window가 비기 전에 다음 FACK이 도착함
+            String meta = size + "|" + chunkSize + "|" + Math.max(1, window / 4) + "|" + file.getFileName();
+            byte[] iv = CryptoUtils.randomIV();
+            byte[] ct = CryptoUtils.encryptAESGCM(meta, key, iv);
+            String start = ChunkFormat.idText(id) + "|" +
+                    Base64.getEncoder().encodeToString(eph.getPublic().getEncoded()) + "|" +
+                    Base64.getEncoder().encodeToString(iv) + "|" +
+                    Base64.getEncoder().encodeToString(ct) +
+                    (stream ? "|" + ChunkFormat.STREAM_VERSION : "");
+
+            Outgoing out = new Outgoing(client, to, id, stream, okm, start, ch, size);
+            String k = key(to, id);
+            transfers.put(k, out);
+            try {
+                out.run();
+                return size;
+            } finally {
+                transfers.remove(k);
+            }
+        }
+    }
+
+    // 수신 측에서 온 FACK (from = 수신 측 닉네임)
+    public void onAck(String from, String body) {
+        String[] p = body.split("\\|", 3);
+        if (p.length < 2) return;
+        Outgoing out = transfers.get(key(from, ChunkFormat.parseId(p[0])));
+        if (out != null) out.acked(Long.parseLong(p[1]), p.length == 3 && ChunkFormat.RESUME_MARK.equals(p[2]));
+    }
+
+    // 재연결 직후 호출: 진행 중인 전송마다 FSTART를 다시 보내 이어받을 위치를 물어봄
+    public void resumeAll() {
+        for (Outgoing out : transfers.values()) out.restart();
+    }
+
+    public void cancelAll() {
+        for (Outgoing out : transfers.values()) out.fail("cancelled");
+    }
+
+    private final class Outgoing {
+        final ChatClient client;
+        final String to;
+        final long id;
+        final boolean stream;
+        final byte[] okm;      // 세대 0의 [키][nonce prefix]
+        final String start;
+        final FileChannel channel;
+        final long size;
+        // FSTART와 청크가 나가는 순서를 세대와 맞춤 (이전 세대 청크가 새 FSTART 뒤에 나가지 않게). acked()는 잡지 않음
+        final Object wire = new Object();
+
+        // 아래는 this로 보호
+        boolean awaitingStart; // FSTART를 보내고 시작 위치 FACK을 기다리는 중
+        int epoch;             // 재시작과 시작 위치를 받을 때마다 증가 (보내던 batch를 멈추고 끊기기 전 청크가 next를 되돌리지 않게)
+        int generation = -1;   // FSTART를 보낸 횟수 - 1. 스트림 형식의 키 세대
+        SecretKey key;
+        byte[] prefix;
+        long acked;
+        long next;
+        boolean endSent;
+        String failure;
+        long lastProgress;
+
+        Outgoing(ChatClient client, String to, long id, boolean stream, byte[] okm,
+                 String start, FileChannel channel, long size) {
+            this.client = client;
+            this.to = to;
+            this.id = id;
+            this.stream = stream;
+            this.okm = okm;
+            this.start = start;
+            this.channel = channel;
+            this.size = size;
+        }
+
+        void run() throws Exception {
+            restart();
+            while (true) {
+                long offset;
+                int sentEpoch;
+                long room;
+                SecretKey sealKey;
+                byte[] sealPrefix;
+                synchronized (this) {
+                    while (true) {
+                        if (failure != null) throw new IOException(failure);
+                        if (!awaitingStart) {
+                            if (acked >= size) return;
+                            if (next < size && next - acked < (long) window * chunkSize) break;
+                            if (next >= size && !endSent) break;
+                        }
+                        long remaining = lastProgress + STALL_MILLIS - System.currentTimeMillis();
+                        if (remaining <= 0) throw new IOException("no acknowledgement from " + to);
+                        wait(remaining);
+                    }
+                    offset = next;
+                    sentEpoch = epoch;
+                    room = (long) window * chunkSize - (next - acked);
+                    sealKey = key;
+                    sealPrefix = prefix;
+                    if (offset >= size) endSent = true;
+                }
+
+                if (offset >= size) {
+                    synchronized (wire) {
+                        if (current(sentEpoch)) client.sendFileEnd(to, ChunkFormat.idText(id) + "|" + size);
+                    }
+                    continue;
+                }
+                sendBatch(offset, sentEpoch, room, sealKey, sealPrefix);
+            }
+        }
+
+        // window 여유 안에서 청크 몇 개를 병렬로 암호화하고 순서대로 보냄
+        private void sendBatch(long offset, int sentEpoch, long room, SecretKey key, byte[] prefix) throws Exception {
+            long chunks = Math.min(ChunkCrypto.PARALLELISM, (room + chunkSize - 1) / chunkSize);
+            long end = Math.min(size, offset + chunks * chunkSize);
+            MappedByteBuffer region = channel.map(FileChannel.MapMode.READ_ONLY, offset, end - offset);
+            List<ForkJoinTask<byte[]>> sealed = new ArrayList<>();
+            for (long pos = offset; pos < end; pos += chunkSize) {
+                int n = (int) Math.min(chunkSize, end - pos);
+                ByteBuffer plain = region.slice((int) (pos - offset), n);
+                long chunkOffset = pos;
+                sealed.add(ChunkCrypto.POOL.submit(() -> seal(plain, chunkOffset, key, prefix)));
+            }
+            long pos = offset;
+            for (ForkJoinTask<byte[]> task : sealed) {
+                byte[] body = task.join();
+                synchronized (wire) {
+                    if (!current(sentEpoch)) break; // 재시작됨: 남은 청크는 버림 (새 세대 키로 다시 암호화)
+                    client.sendFileChunk(to, body);
+                }
+                pos = Math.min(size, pos + chunkSize);
+                synchronized (this) {
+                    if (epoch == sentEpoch) next = pos;
+                }
+            }
+        }
+
+        private synchronized boolean current(int sentEpoch) {
+            return epoch == sentEpoch && failure == null;
+        }
+
+        private byte[] seal(ByteBuffer plain, long offset, SecretKey key, byte[] prefix) throws Exception {
+            int n = plain.remaining();
+            byte[] aad = ChunkFormat.aad(id, offset);
+            if (!stream) {
+                byte[] iv = CryptoUtils.randomIV();
+                ByteBuffer body = ByteBuffer.allocate(ChunkFormat.HEADER_BYTES + n + CryptoUtils.GCM_TAG_BYTES);
+                body.putLong(id).putLong(offset).put(iv);
+                CryptoUtils.encryptAESGCM(plain, body, key, iv, aad);
+                return body.array();
+            }
+            byte[] nonce = ChunkFormat.streamNonce(prefix, offset / chunkSize, offset + n == size);
+            ByteBuffer body = ByteBuffer.allocate(ChunkFormat.STREAM_HEADER_BYTES + n + CryptoUtils.GCM_TAG_BYTES);
+            body.putLong(id).putLong(offset);
+            CryptoUtils.encryptAESGCM(plain, body, key, nonce, aad);
+            return body.array();
+        }
+
+        // FSTART를 (다시) 보냄. 스트림 형식은 세대를 올려 이후 청크를 새 키와 prefix로 암호화함
+        void restart() {
+            synchronized (wire) {
+                int g;
+                synchronized (this) {
+                    if (failure != null) return;
+                    awaitingStart = true;
+                    epoch++;
+                    g = ++generation;
+                    lastProgress = System.currentTimeMillis();
+                }
+                byte[] keys;
+                try {
+                    keys = stream ? ChunkFormat.generationKeys(okm, g) : okm;
+                } catch (Exception e) {
+                    fail("key derivation failed: " + e.getMessage());
+                    return;
+                }
+                synchronized (this) {
+                    key = CryptoUtils.aesKey(Arrays.copyOf(keys, 32));
+                    prefix = Arrays.copyOfRange(keys, 32, keys.length);
+                }
+                client.sendFileStart(to, stream && g > 0 ? start + "|" + g : start);
+            }
+        }
+
+        synchronized void acked(long offset, boolean resume) {
+            if (offset < 0) {
+                failure = "rejected by " + to;
+            } else if (resume && awaitingStart) {
+                // FSTART에 대한 답: 수신 측이 가진 위치부터 다시 보냄.
+                // 세대마다 첫 답만 씀 (같은 세대에서 위치를 되돌리면 같은 nonce로 다시 암호화하게 됨). 나머지는 진행 FACK으로
+                awaitingStart = false;
+                epoch++;
+                acked = offset;
+                next = offset;
+                endSent = false;
+            } else {
+                acked = Math.max(acked, offset);
+            }
+            lastProgress = System.currentTimeMillis();
+            notifyAll();
+        }
+
+        synchronized void fail(String reason) {
+            if (failure == null) failure = reason;
+            notifyAll();
+        }
+    }
+
+    private static String key(String to, long id) {
+        return to + ":" + id;
+    }
+
+}
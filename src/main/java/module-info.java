@@ -11,9 +11,13 @@ module me.duckmain.ghostcat {
     requires org.bouncycastle.pkix;
     requires eu.hansolo.tilesfx;
     requires java.desktop;
+    requires java.management;
+    requires jdk.management;
+    requires jdk.httpserver;
 
     opens me.duckmain.ghostcat to javafx.fxml;
     opens me.duckmain.ghostcat.controller to javafx.fxml;
     exports me.duckmain.ghostcat;
     exports me.duckmain.ghostcat.controller;
+    exports me.duckmain.ghostcat.metrics to java.management;
 }
\ No newline at end of file
@@ -0,0 +1,154 @@
+package me.duckmain.ghostcat.network;
+
+import me.duckmain.ghostcat.metrics.ServerMetrics;
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * 연결/재등록/해제를 여러 스레드에서 뒤섞어도 유령 nick이 남지 않는지 확인.
+ * 적은 nick을 돌려 쓰므로 같은 nick의 교체와 이전 세션의 늦은 종료가 자주 겹침.
+ */
+class ConnectionRegistryTest {
+    private static final int THREADS = 16;
+    private static final int CYCLES = 2000;
+    private static final int NICKS = 20;
+
+    private static final OutboundQueue.Config QUEUE = new OutboundQueue.Config(64, OutboundQueue.OverflowPolicy.DROP_OLDEST, 0);
+
+    /**
+     * 실제 소켓 없는 연결. 보낸 프레임은 텍스트 줄로 모으거나 (keep) 버림
+     */
+    private static final class TestConnection extends Connection {
+        private final boolean keep;
+        private final Queue<String> lines = new ConcurrentLinkedQueue<>();
+        private final AtomicBoolean closed = new AtomicBoolean();
+        private final AtomicReference<Runnable> onClose = new AtomicReference<>();
+
+        TestConnection(ServerMetrics metrics, boolean keep) {
+            super(QUEUE, metrics);
+            this.keep = keep;
+        }
+
+        @Override
+        void onEnqueued() {
+            ByteBuffer b;
+            while ((b = outbound.poll()) != null) {
+                if (keep) lines.add(StandardCharsets.UTF_8.decode(b).toString().trim());
+            }
+        }
+
+        @Override
+        String describe() {
+            return "test";
+        }
+
+        // 실제 서버처럼 소켓을 닫으면 리더 쪽이 relay.remove를 부름
+        @Override
+        void closeSafe() {
+            Runnable r = onClose.get();
+            if (closed.compareAndSet(false, true) && r != null) r.run();
+        }
+    }
+
+    private static String nick(int i) {
+        return "user" + i;
+    }
+
+    @Test
+    void registryEndsEmptyAfterConcurrentChurn() throws Exception {
+        ConnectionRegistry registry = new ConnectionRegistry();
+        ServerMetrics metrics = new ServerMetrics();
+        runThreads(() -> {
+            ThreadLocalRandom rnd = ThreadLocalRandom.current();
+            for (int i = 0; i < CYCLES; i++) {
+                Connection conn = new TestConnection(metrics, false);
+                Connection prev = registry.register(nick(rnd.nextInt(NICKS)), conn);
+                if (prev != null) registry.unregister(prev); // 교체된 세션의 종료
+                if (rnd.nextBoolean()) {
+                    prev = registry.register(nick(rnd.nextInt(NICKS)), conn);
+                    if (prev != null) registry.unregister(prev);
+                }
+                registry.unregister(conn);
+            }
+        });
+        assertTrue(registry.isEmpty(), "registry not empty: " + registry.size());
+        assertEquals(0, registry.members().length);
+    }
+
+    @Test
+    void snapshotHasNoGhostsAfterRelayChurn() throws Exception {
+        ServerMetrics metrics = new ServerMetrics();
+        Relay relay = new Relay(() -> {}, metrics);
+        // 교체된 연결의 종료는 다른 스레드에서 (블로킹 서버의 리더 스레드처럼)
+        ExecutorService closer = Executors.newFixedThreadPool(4);
+        runThreads(() -> {
+            ThreadLocalRandom rnd = ThreadLocalRandom.current();
+            for (int i = 0; i < CYCLES; i++) {
+                TestConnection conn = new TestConnection(metrics, false);
+                conn.onClose.set(() -> closer.execute(() -> relay.remove(conn)));
+                relay.handle(conn, register(nick(rnd.nextInt(NICKS))));
+                if (rnd.nextBoolean()) relay.handle(conn, register(nick(rnd.nextInt(NICKS))));
+                relay.remove(conn);
+            }
+        });
+        closer.shutdown();
+        assertTrue(closer.awaitTermination(30, TimeUnit.SECONDS), "closer did not finish");
+        assertTrue(relay.localNicks().isEmpty(), "ghost nicks: " + relay.localNicks());
+
+        // 새로 들어온 PRES2 클라이언트의 스냅샷에는 자기만 있어야 함
+        TestConnection fresh = new TestConnection(metrics, true);
+        relay.handle(fresh, register("fresh"));
+        String snapshot = fresh.lines.stream().filter(l -> l.startsWith("SNAPSHOT|")).findFirst().orElse(null);
+        assertTrue(snapshot != null, "no snapshot in " + fresh.lines);
+        assertEquals("fresh", snapshot.substring(snapshot.lastIndexOf('|') + 1));
+        relay.remove(fresh);
+        assertTrue(relay.localNicks().isEmpty(), "fresh left behind");
+        assertNull(relay.keyOf("fresh"), "key left behind");
+    }
+
+    private static Frame register(String nick) {
+        return Frame.of(FrameType.REGISTER, nick, "", "PUB" + "|" + Presence.OFFER);
+    }
+
+    private static void runThreads(ThrowingRunnable body) throws Exception {
+        CountDownLatch start = new CountDownLatch(1);
+        List<Thread> threads = new ArrayList<>();
+        Queue<Throwable> errors = new ConcurrentLinkedQueue<>();
+        for (int t = 0; t < THREADS; t++) {
+            Thread th = new Thread(() -> {
+                try {
+                    start.await();
+                    body.run();
+                } catch (Throwable e) {
+                    errors.add(e);
+                }
+            }, "churn-" + t);
+            threads.add(th);
+            th.start();
+        }
+        start.countDown();
+        for (Thread th : threads) th.join(TimeUnit.MINUTES.toMillis(2));
+        assertTrue(errors.isEmpty(), "churn failed: " + errors);
+    }
+
+    private interface ThrowingRunnable {
+        void run() throws Exception;
+    }
+}
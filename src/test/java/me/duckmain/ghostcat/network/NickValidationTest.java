@@ -0,0 +1,112 @@
+package me.duckmain.ghostcat.network;
+
+import me.duckmain.ghostcat.metrics.ServerMetrics;
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * "alice:pub" 같은 nick이 디렉터리 항목에서 alice의 키로 읽히지 않는지, 한글 nick은 그대로 쓰이는지 확인.
+ */
+class NickValidationTest {
+    private static final OutboundQueue.Config QUEUE = new OutboundQueue.Config(64, OutboundQueue.OverflowPolicy.DROP_OLDEST, 0);
+    private static final String KEY = "QUFBQQ==";
+
+    private static final class TestConnection extends Connection {
+        private final Queue<String> lines = new ConcurrentLinkedQueue<>();
+
+        TestConnection(ServerMetrics metrics) {
+            super(QUEUE, metrics);
+        }
+
+        @Override
+        void onEnqueued() {
+            ByteBuffer b;
+            while ((b = outbound.poll()) != null) lines.add(StandardCharsets.UTF_8.decode(b).toString().trim());
+        }
+
+        @Override
+        String describe() {
+            return "test";
+        }
+
+        @Override
+        void closeSafe() {}
+    }
+
+    @Test
+    void delimitersAreRejectedAndUnicodeIsAccepted() {
+        for (String bad : List.of("alice:" + KEY, "a,b", "a|b", "#room", "*", "a b", "a\tb", "a\u0001", "a\u200bb", "", "가".repeat(33))) {
+            assertFalse(PresenceTracker.isValidNick(bad), "accepted " + bad);
+        }
+        for (String ok : List.of("철수", "alice", "bob_2", "영희.kim", "가".repeat(32))) {
+            assertTrue(PresenceTracker.isValidNick(ok), "rejected " + ok);
+        }
+    }
+
+    @Test
+    void relayRegistersOnlyValidNicks() {
+        ServerMetrics metrics = new ServerMetrics();
+        Relay relay = new Relay(() -> {}, metrics);
+
+        TestConnection forged = new TestConnection(metrics);
+        relay.handle(forged, register("alice:" + KEY));
+        assertTrue(relay.localNicks().isEmpty(), "forged nick registered: " + relay.localNicks());
+        assertTrue(forged.lines.stream().anyMatch(l -> l.startsWith("ERROR")), "no reason sent: " + forged.lines);
+
+        TestConnection korean = new TestConnection(metrics);
+        relay.handle(korean, register("철수"));
+        assertEquals(List.of("철수"), relay.localNicks());
+        relay.remove(korean);
+    }
+
+    @Test
+    void trackerDropsEntriesWithForgedNicks() {
+        Map<String, String> keyed = new HashMap<>();
+        List<String> peers = new ArrayList<>();
+        PresenceTracker tracker = new PresenceTracker(() -> {}, new PresenceTracker.Listener() {
+            @Override
+            public void reset(Collection<String> now) {
+                peers.clear();
+                peers.addAll(now);
+            }
+
+            @Override
+            public void joined(String nick) {
+                peers.add(nick);
+            }
+
+            @Override
+            public void left(String nick) {
+                peers.remove(nick);
+            }
+
+            @Override
+            public void keyed(String nick, String pubB64) {
+                keyed.put(nick, pubB64);
+            }
+        });
+
+        tracker.onSnapshot("1|철수:" + KEY + ",alice:EVIL:" + KEY);
+        tracker.onDelta("2|+alice:EVIL:" + KEY);
+        assertEquals(List.of(), tracker.onKeys("alice:EVIL:" + KEY));
+        assertEquals(List.of("철수"), peers);
+        assertEquals(Map.of("철수", KEY), keyed);
+    }
+
+    private static Frame register(String nick) {
+        return Frame.of(FrameType.REGISTER, nick, "", KEY + "|" + Presence.OFFER);
+    }
+}